@@ -27,4 +27,11 @@
 
 public abstract class AbstractEdfAlgorithm {
 	abstract public ImageWare[] process(ImageWare imageStack);
+
+	/**
+	 * Streaming version of process(ImageWare): the slices are read one at a
+	 * time from the stream and analysed concurrently, only the running
+	 * best values, merged result and height map are kept in memory.
+	 */
+	abstract public ImageWare[] process(SliceStream stream);
 }
@@ -138,6 +138,93 @@ public ImageWare[] process(ImageWare imageStack){
 		return new ImageWare[]{res, heightMap};
 	}
 
+	/**
+	 * Streaming version: the merged coefficients are picked from each slice
+	 * as soon as it is analysed. With the consistency checks, the slices are
+	 * analysed a second time to pick the coefficients of the corrected map,
+	 * instead of keeping all the coefficients.
+	 */
+	public ImageWare[] process(SliceStream stream){
+
+		final int nx = stream.getSizeX();
+		final int ny = stream.getSizeY();
+		final int nz = stream.getSizeZ();
+		final boolean check = this.sbConsistencyCheck || this.majConsistencyCheck;
+
+		ImageWare res = Builder.create(nx,ny,1,ImageWare.FLOAT);
+		ImageWare resRe = Builder.create(nx,ny,1,ImageWare.FLOAT);
+		ImageWare resIm = Builder.create(nx,ny,1,ImageWare.FLOAT);
+		ImageWare heightMap = Builder.create(nx,ny,1,ImageWare.SHORT);
+		final float[] coeffRe = resRe.getSliceFloat(0);
+		final float[] coeffIm = resIm.getSliceFloat(0);
+		final short[] map = heightMap.getSliceShort(0);
+		final double[] best = new double[nx*ny];
+
+		stream.process(new SliceStream.SliceTask() {
+			public Object analyse(ImageWare slice, int k) {
+				return analysis(slice, nx, ny);
+			}
+			public void merge(Object analysis, int k) {
+				double[] re = ((ImageAccess[])analysis)[0].getPixels();
+				double[] im = ((ImageAccess[])analysis)[1].getPixels();
+				double newval;
+				for (int p=0; p<re.length; p++) {
+					newval = modulus2(re[p], im[p]);
+					if (SliceStream.isBetter(newval, k, best[p], map[p])) {
+						best[p] = newval;
+						map[p] = (short)k;
+						coeffRe[p] = (float)re[p];
+						coeffIm[p] = (float)im[p];
+					}
+				}
+			}
+		}, 15, check ? 60 : 80);
+
+		if(this.sbConsistencyCheck){
+			this.subBandConsistencyCheck(heightMap,resRe, resIm);
+		}
+
+		if(this.majConsistencyCheck){
+			majorityConsistencyCheck(heightMap,majWindowSize,nz);
+		}
+
+		if(check){
+			stream.process(new SliceStream.SliceTask() {
+				public Object analyse(ImageWare slice, int k) {
+					return analysis(slice, nx, ny);
+				}
+				public void merge(Object analysis, int k) {
+					double[] re = ((ImageAccess[])analysis)[0].getPixels();
+					double[] im = ((ImageAccess[])analysis)[1].getPixels();
+					for (int p=0; p<re.length; p++) {
+						if (map[p] == k) {
+							coeffRe[p] = (float)re[p];
+							coeffIm[p] = (float)im[p];
+						}
+					}
+				}
+			}, 60, 80);
+		}
+
+		double[][] iabufRe = new double[nx][ny];
+		double[][] iabufIm = new double[nx][ny];
+		resRe.getXY(0,0,0,iabufRe);
+		resIm.getXY(0,0,0,iabufIm);
+
+		ImageAccess[] merged = ComplexWavelet.synthesis(new ImageAccess(iabufRe), new ImageAccess(iabufIm), nScales, length);
+		res.putXY(0,0,0,merged[0].getArrayPixels());
+		return new ImageWare[]{res, heightMap};
+	}
+
+	/**
+	 *
+	 */
+	private ImageAccess[] analysis(ImageWare slice, int nx, int ny){
+		double[][] buf = new double[nx][ny];
+		slice.getXY(0,0,0,buf);
+		return ComplexWavelet.analysis(new ImageAccess(buf), nScales, length);
+	}
+
 	/**
 	 *
 	 */
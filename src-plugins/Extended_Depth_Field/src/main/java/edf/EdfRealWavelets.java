@@ -141,6 +141,87 @@ public ImageWare[] process(ImageWare imageStack) {
 
 	}
 
+	/**
+	 * Streaming version: the merged coefficients are picked from each slice
+	 * as soon as it is analysed. With the consistency checks, the slices are
+	 * analysed a second time to pick the coefficients of the corrected map,
+	 * instead of keeping all the coefficients.
+	 */
+	public ImageWare[] process(SliceStream stream) {
+
+		final int nx = stream.getSizeX();
+		final int ny = stream.getSizeY();
+		final int nz = stream.getSizeZ();
+		final boolean check = this.sbConsistencyCheck || this.majConsistencyCheck;
+
+		ImageWare res = Builder.create(nx,ny,1,ImageWare.FLOAT);
+		ImageWare heightMap = Builder.create(nx,ny,1,ImageWare.SHORT);
+		final float[] coeff = res.getSliceFloat(0);
+		final short[] map = heightMap.getSliceShort(0);
+		final double[] best = new double[nx*ny];
+
+		stream.process(new SliceStream.SliceTask() {
+			public Object analyse(ImageWare slice, int k) {
+				return analysis(slice, nx, ny);
+			}
+			public void merge(Object analysis, int k) {
+				double[] c = ((ImageAccess)analysis).getPixels();
+				double newval;
+				for (int p=0; p<c.length; p++) {
+					newval = abs(c[p]);
+					if (SliceStream.isBetter(newval, k, best[p], map[p])) {
+						best[p] = newval;
+						map[p] = (short)k;
+						coeff[p] = (float)c[p];
+					}
+				}
+			}
+		}, 15, check ? 60 : 80);
+
+		if(this.sbConsistencyCheck) {
+			this.subBandConsistencyCheck(heightMap,res);
+		}
+
+		if(this.majConsistencyCheck) {
+			majorityConsistencyCheck(heightMap,majWindowSize,nz);
+		}
+
+		if(check) {
+			stream.process(new SliceStream.SliceTask() {
+				public Object analyse(ImageWare slice, int k) {
+					return analysis(slice, nx, ny);
+				}
+				public void merge(Object analysis, int k) {
+					double[] c = ((ImageAccess)analysis).getPixels();
+					for (int p=0; p<c.length; p++) {
+						if (map[p] == k)
+							coeff[p] = (float)c[p];
+					}
+				}
+			}, 60, 80);
+		}
+
+		if(doDenoising){
+			Tools.waveletDenoising(res, denoisingRate);
+		}
+
+		double[][] iabuf = new double[nx][ny];
+		res.getXY(0,0,0,iabuf);
+		ImageAccess merged = WaveSpline.synthesis(new ImageAccess(iabuf),order,nScales);
+		res.putXY(0,0,0,merged.getArrayPixels());
+
+		return new ImageWare[]{res, heightMap};
+	}
+
+	/**
+	 *
+	 */
+	private ImageAccess analysis(ImageWare slice, int nx, int ny) {
+		double[][] buf = new double[nx][ny];
+		slice.getXY(0,0,0,buf);
+		return WaveSpline.analysis(new ImageAccess(buf),order,nScales);
+	}
+
 	/**
 	 *
 	 */
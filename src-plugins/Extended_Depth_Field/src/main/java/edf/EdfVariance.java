@@ -71,4 +71,44 @@ public ImageWare[] process(ImageWare imageStack) {
 		return new ImageWare[] {res, topology};
 	}
 
+	/**
+	 * Streaming version: the pixels of a slice are kept where its
+	 * sharpness is the highest so far.
+	 */
+	public ImageWare[] process(SliceStream stream) {
+
+		int nx = stream.getSizeX();
+		int ny = stream.getSizeY();
+
+		ImageWare res = Builder.create(nx,ny,1,ImageWare.FLOAT);
+		ImageWare topology = Builder.create(nx,ny,1,ImageWare.FLOAT);
+		topology.add(1);
+		final float[] pixels = res.getSliceFloat(0);
+		final float[] topo = topology.getSliceFloat(0);
+		final float[] temp = new float[nx*ny];
+
+		stream.process(new SliceStream.SliceTask() {
+			public Object analyse(ImageWare slice, int k) {
+				return new ImageWare[] {slice, Variance.compute(slice, windowSize)};
+			}
+			public void merge(Object analysis, int k) {
+				float[] slice = ((ImageWare[])analysis)[0].getSliceFloat(0);
+				float[] sharpness = ((ImageWare[])analysis)[1].getSliceFloat(0);
+				for (int p=0; p<slice.length; p++) {
+					if (SliceStream.isBetter(sharpness[p], k, temp[p], (int)topo[p]-1)) {
+						temp[p] = sharpness[p];
+						topo[p] = k+1;
+						pixels[p] = slice[p];
+					}
+					else if (k == 0 && temp[p] == 0) {
+						// Not sharper anywhere so far, keeps the first slice.
+						pixels[p] = slice[p];
+					}
+				}
+			}
+		}, 15, 80);
+
+		return new ImageWare[] {res, topology};
+	}
+
 }
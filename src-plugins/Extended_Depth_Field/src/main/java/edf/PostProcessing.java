@@ -73,20 +73,78 @@ public static ColorProcessor reassignmentColor(ImageWare topology, ImageStack st
 
 		int nx = topology.getSizeX();
 		int ny = topology.getSizeY();
+		int nz = stack.getSize();
 
 		ColorProcessor cp = new ColorProcessor(nx, ny);
 
-		int color = 0;
-		int index;
+		// Each slice is read once, and only if some pixel comes from it.
+		int[] index = new int[nx*ny];
+		boolean[] used = new boolean[nz+1];
+		for (int y=0; y<ny; y++){
+			for (int x=0; x<nx; x++){
+				index[x+y*nx] = (int)topology.getPixel(x, y, 0);
+				used[index[x+y*nx]] = true;
+			}
+		}
 
-		for (int x=0; x<nx; x++){
-			for (int y=0; y<ny; y++){
-				index = (int)topology.getPixel(x, y, 0);
-				color = ((ColorProcessor)stack.getProcessor(index)).getPixel(x, y);
-				cp.putPixel(x, y, color);
+		int[] pixels = (int[])cp.getPixels();
+		for (int k=1; k<=nz; k++){
+			if (!used[k])
+				continue;
+			int[] color = (int[])((ColorProcessor)stack.getProcessor(k)).getPixels();
+			for (int p=0; p<pixels.length; p++){
+				if (index[p] == k)
+					pixels[p] = color[p];
 			}
 		}
 		return cp;
 	}
 
+	/**
+	 * Streaming version of reassignment, reads the slices one at a time.
+	 */
+	public static ImageWare reassignment(ImageWare res, SliceStream stream){
+
+		int nx = stream.getSizeX();
+		int ny = stream.getSizeY();
+
+		ImageWare topology = Builder.create(nx,ny,1,ImageWare.FLOAT);
+
+		final float[] pixels = new float[nx*ny];
+		final float[] finalPos = topology.getSliceFloat(0);
+		final double[] best = new double[nx*ny];
+		final double[] target = new double[nx*ny];
+		for (int j = 0; j < ny; j++){
+			for (int i = 0; i < nx; i++){
+				target[i+j*nx] = res.getPixel(i,j,0);
+			}
+		}
+		java.util.Arrays.fill(best, Double.MAX_VALUE);
+
+		stream.process(new SliceStream.SliceTask() {
+			public Object analyse(ImageWare slice, int k) {
+				return slice;
+			}
+			public void merge(Object analysis, int k) {
+				float[] slice = ((ImageWare)analysis).getSliceFloat(0);
+				double diff;
+				for (int p=0; p<slice.length; p++){
+					diff = Math.abs(slice[p] - target[p]);
+					if (diff < best[p] || (diff == best[p] && k+1 < finalPos[p])){
+						best[p] = diff;
+						pixels[p] = slice[p];
+						finalPos[p] = k+1;
+					}
+				}
+			}
+		}, 80, 95);
+
+		for (int j = 0; j < ny; j++){
+			for (int i = 0; i < nx; i++){
+				res.putPixel(i,j,0,pixels[i+j*nx]);
+			}
+		}
+		return topology;
+	}
+
 }
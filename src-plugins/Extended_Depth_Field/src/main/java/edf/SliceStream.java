@@ -0,0 +1,254 @@
+//==============================================================================
+//
+// Project: EDF - Extended Depth of Focus
+//
+// Organization: Biomedical Imaging Group (BIG)
+// Ecole Polytechnique Federale de Lausanne (EPFL), Lausanne, Switzerland
+//
+// Information: http://bigwww.epfl.ch/demo/edf/
+//
+// Reference: B. Forster, D. Van De Ville, J. Berent, D. Sage, M. Unser
+// Complex Wavelets for Extended Depth-of-Field: A New Method for the Fusion
+// of Multichannel Microscopy Images, Microscopy Research and Techniques,
+// 65(1-2), pp. 33-42, September 2004.
+//
+// Conditions of use: You'll be free to use this software for research purposes,
+// but you should not redistribute it without our consent. In addition, we
+// expect you to include a citation or acknowledgment whenever you present or
+// publish results that are based on it.
+//
+//==============================================================================
+
+package edf;
+
+import ij.ImageStack;
+import ij.process.ImageProcessor;
+import imageware.Builder;
+import imageware.ImageWare;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reads the slices of a z-stack one at a time, for the streaming mode of
+ * the EDF algorithms. The whole stack is never converted, wrapped or
+ * extended at once: each slice is converted to gray levels and extended to
+ * the size needed by the wavelets when it is read, so that a virtual stack
+ * stays on disk.
+ *
+ * The slices are handed to a {@link SliceTask} by a few threads: each thread
+ * reads and analyses one slice at a time, then merges the result in the
+ * running state of the task. At most one slice per thread is in memory, and
+ * there are never more threads than the free memory has room for.
+ */
+public class SliceStream {
+
+	public static final int GRAY = -1;
+	public static final int COLOR_FIXED_WEIGHTS = 0;
+	public static final int COLOR_PRINCIPAL_COMPONENTS = 1;
+	public static final int COLOR_MEAN = 2;
+
+	/**
+	 * The per-slice part of an algorithm.
+	 */
+	public interface SliceTask {
+
+		/**
+		 * Analyses the slice k. Called concurrently by the threads of the
+		 * stream, for the slices in any order.
+		 */
+		public Object analyse(ImageWare slice, int k);
+
+		/**
+		 * Merges the analysis of the slice k in the running state. The calls
+		 * never overlap, but they do not come in the order of the slices.
+		 */
+		public void merge(Object analysis, int k);
+	}
+
+	private ImageStack stack;
+	private int colorConversion = GRAY;
+	private int nx;
+	private int ny;
+	private int mx;
+	private int my;
+	private int nThreads = 1;
+
+	/**
+	 * Constructor.
+	 */
+	public SliceStream(ImageStack stack) {
+		this.stack = stack;
+		this.nx = stack.getWidth();
+		this.ny = stack.getHeight();
+		this.mx = nx;
+		this.my = ny;
+	}
+
+	/**
+	 * Converts the color slices to gray levels when they are read, with one
+	 * of the methods of Color2BW.
+	 */
+	public void setColorConversion(int method) {
+		if (method < GRAY || method > COLOR_MEAN)
+			throw new RuntimeException("Unknown color conversion.");
+		colorConversion = method;
+	}
+
+	/**
+	 * Extends the slices to [mx, my] when they are read, see Tools.extend.
+	 */
+	public void setExtendedSize(int mx, int my) {
+		this.mx = mx;
+		this.my = my;
+	}
+
+	/**
+	 * Sets the number of threads analysing the slices.
+	 */
+	public void setNumThreads(int nThreads) {
+		this.nThreads = Math.max(1, nThreads);
+	}
+
+	public int getSizeX() {
+		return mx;
+	}
+
+	public int getSizeY() {
+		return my;
+	}
+
+	public int getSizeZ() {
+		return stack.getSize();
+	}
+
+	/**
+	 * Returns a new stream on the same stack, with the same color conversion
+	 * and threads, but without extension.
+	 */
+	public SliceStream unextended() {
+		SliceStream stream = new SliceStream(stack);
+		stream.colorConversion = colorConversion;
+		stream.nThreads = nThreads;
+		return stream;
+	}
+
+	/**
+	 * Reads the slice k (starting at 0) as a float image.
+	 */
+	public ImageWare getSlice(int k) {
+		ImageProcessor ip = stack.getProcessor(k+1);
+		switch (colorConversion) {
+		case GRAY:
+			break;
+		case COLOR_FIXED_WEIGHTS:
+			ip = Color2BW.C2BFixedWeights(ip, true);
+			break;
+		case COLOR_PRINCIPAL_COMPONENTS:
+			ip = Color2BW.C2BPrincipalComponents(ip);
+			break;
+		case COLOR_MEAN:
+			ip = Color2BW.C2BMean(ip);
+			break;
+		}
+		ImageStack one = new ImageStack(nx, ny);
+		one.addSlice(null, ip);
+		ImageWare slice = Builder.create(one, ImageWare.FLOAT);
+		if (mx != nx || my != ny)
+			slice = Tools.extend(slice, mx, my);
+		return slice;
+	}
+
+	/**
+	 * Runs the task on all the slices. The progress bar of the log goes from
+	 * progressStart to progressEnd.
+	 */
+	public void process(final SliceTask task, final int progressStart, final int progressEnd) {
+
+		final int nz = stack.getSize();
+		final AtomicInteger next = new AtomicInteger(0);
+		final int[] done = new int[1];
+		final Throwable[] failure = new Throwable[1];
+		final LogSingleton log = LogSingleton.getInstance();
+
+		Runnable worker = new Runnable() {
+			public void run() {
+				try {
+					for (int k = next.getAndIncrement(); k < nz; k = next.getAndIncrement()) {
+						Object analysis = task.analyse(getSlice(k), k);
+						synchronized (task) {
+							if (failure[0] != null)
+								return;
+							task.merge(analysis, k);
+							done[0]++;
+							log.setProgessLength(progressStart + done[0]*(progressEnd-progressStart)/nz);
+						}
+					}
+				}
+				catch (Throwable t) {
+					synchronized (task) {
+						if (failure[0] == null)
+							failure[0] = t;
+					}
+					next.set(nz);
+				}
+			}
+		};
+
+		int n = Math.min(nThreads, nz);
+		int fitting = getThreadsFittingInMemory();
+		if (n > fitting) {
+			log.append("Only " + fitting + " thread(s), as there is not enough memory for more.");
+			n = fitting;
+		}
+		if (n <= 1) {
+			worker.run();
+		}
+		else {
+			Thread[] threads = new Thread[n];
+			for (int t = 0; t < n; t++) {
+				threads[t] = new Thread(worker, "EDF slice " + t);
+				threads[t].start();
+			}
+			try {
+				for (int t = 0; t < n; t++)
+					threads[t].join();
+			}
+			catch (InterruptedException e) {
+				next.set(nz);
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupted.");
+			}
+		}
+
+		if (failure[0] instanceof RuntimeException)
+			throw (RuntimeException)failure[0];
+		if (failure[0] instanceof Error)
+			throw (Error)failure[0];
+		if (failure[0] != null)
+			throw new RuntimeException(failure[0]);
+	}
+
+	/**
+	 * Returns how many slices can be analysed at the same time in the memory
+	 * that is still free, at least 1. While a slice is analysed, a thread
+	 * holds the slice as read, the extended float slice and up to two double
+	 * planes of wavelet coefficients (real and imaginary parts).
+	 */
+	public int getThreadsFittingInMemory() {
+		long perThread = (long)mx * my * (2*8 + 4) + (long)nx * ny * 4;
+		Runtime runtime = Runtime.getRuntime();
+		long free = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+		return (int)Math.max(1, Math.min(Integer.MAX_VALUE, free / perThread));
+	}
+
+	/**
+	 * True if the slice k with the value newval should replace the slice
+	 * best with the value oldval, so that the result is the same as when the
+	 * slices are merged in order with a strict comparison: the first slice
+	 * reaching the maximum wins, and a pixel keeps its initial values when
+	 * all the slices give 0.
+	 */
+	public static boolean isBetter(double newval, int k, double oldval, int best) {
+		return oldval < newval || (oldval == newval && newval > 0 && k < best);
+	}
+}
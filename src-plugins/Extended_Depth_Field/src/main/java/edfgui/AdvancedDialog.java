@@ -1770,6 +1770,8 @@ private void setPreferences(){
 			properties.setProperty("showtopo", ""+parameters.showTopology);
 			properties.setProperty("show3d", ""+parameters.show3dView);
 			properties.setProperty("reassignment", ""+parameters.reassignment);
+			properties.setProperty("streaming", ""+parameters.streaming);
+			properties.setProperty("threads", ""+parameters.nThreads);
 
 			properties.setProperty("nscales", ""+parameters.nScales);
 			properties.setProperty("varwindow", ""+parameters.varWindowSize);
@@ -1838,6 +1840,10 @@ private void getPreferences(){
 			parameters.show3dView = Boolean.valueOf(s).booleanValue();
 			s = properties.getProperty("reassignment", ""+parameters.reassignment);
 			parameters.reassignment = Boolean.valueOf(s).booleanValue();
+			s = properties.getProperty("streaming", ""+parameters.streaming);
+			parameters.streaming = Boolean.valueOf(s).booleanValue();
+			s = properties.getProperty("threads", ""+parameters.nThreads);
+			parameters.nThreads = Integer.parseInt(s);
 
 			s = properties.getProperty("nscales", ""+parameters.nScales);
 			parameters.nScales = Integer.parseInt(s);
@@ -38,6 +38,7 @@
 import edf.LogSingleton;
 import edf.MorphologicalOperators;
 import edf.PostProcessing;
+import edf.SliceStream;
 import edf.Tools;
 
 public class ExtendedDepthOfField {
@@ -70,9 +71,103 @@ public void process() {
 		log.append("Start processing....");
 		log.setProgessLength(0);
 
-		boolean isExtended = false;
 		boolean waveletMethod = (parameters.edfMethod == REAL_WAVELETS || parameters.edfMethod == COMPLEX_WAVELETS);
 
+		// A virtual stack is never loaded in memory.
+		ImageWare[] ima;
+		if (parameters.streaming || imp.getStack().isVirtual())
+			ima = fuseSlices(waveletMethod);
+		else
+			ima = fuseStack(waveletMethod);
+
+		if(parameters.doDenoising && !waveletMethod) {
+			log.start("Denoising (Gaussian smoothing)...");
+			ima[0].smoothGaussian(parameters.sigmaDenoising);
+			System.gc();
+			log.acknowledge();
+			log.setProgessLength(95);
+		}
+
+		ImagePlus impComposite = null;
+		ImagePlus impHeightMap = null;
+
+		if(parameters.color && parameters.outputColorMap==Parameters.COLOR_RGB) {
+			ColorProcessor cp;
+			if ( (waveletMethod && parameters.reassignment) || !waveletMethod){
+				cp = PostProcessing.reassignmentColor(ima[1],imp.getStack());
+				impComposite = new ImagePlus("Output",cp);
+			}else {
+				impComposite = new ImagePlus("Output", ima[0].buildImageStack());
+			}
+		}
+		else {
+			impComposite = new ImagePlus("Output", ima[0].buildImageStack());
+		}
+
+		// Topology post-processing.
+		if ( (waveletMethod && parameters.reassignment) || (!waveletMethod)) {
+
+			if (parameters.showTopology) {
+
+				if(parameters.doMedian) {
+					log.start("Median filter...");
+
+					ima[1] = MorphologicalOperators.doMedian(ima[1], parameters.medianWindowSize);
+					log.acknowledge();
+
+				}
+
+				if(parameters.doMorphoClose) {
+					log.start("Morphological close...");
+
+					ima[1] = MorphologicalOperators.doClose(ima[1]);
+
+					log.acknowledge();
+				}
+
+				if(parameters.doMorphoOpen) {
+					log.start("Morphological open ...");
+
+					ima[1] = MorphologicalOperators.doOpen(ima[1]);
+
+					log.acknowledge();
+				}
+
+				if (parameters.doGaussian) {
+					log.start("Post-processing on the map: Gaussian filter of sigma: " + parameters.sigma);
+					ima[1].smoothGaussian(parameters.sigma);
+					log.acknowledge();
+				}
+
+				impHeightMap = new ImagePlus("Height-Map", ima[1].buildImageStack());
+				impHeightMap.show();
+				impHeightMap.updateAndDraw();
+
+				if(parameters.show3dView){
+					SurfaceMap3D viewer = new SurfaceMap3D(impHeightMap, impComposite);
+					Thread thread = new Thread(viewer);
+					thread.start();
+				}
+			}
+		}
+
+		impComposite.show();
+		impComposite.updateAndDraw();
+
+		log.start("Finished.");
+		log.setProgessLength(100);
+		log.append("");
+	}
+
+	/**
+	 * Sharpness estimation and fusion on the whole stack in memory.
+	 */
+	private ImageWare[] fuseStack(boolean waveletMethod) {
+
+		LogSingleton log = LogSingleton.getInstance();
+
+		boolean isExtended = false;
+
 		ImageStack stackConverted;
 		ImagePlus impConverted;
 		ImagePlus impBW = imp;
@@ -178,82 +273,81 @@ public void process() {
 			log.setProgessLength(95);
 		}
 
-		if(parameters.doDenoising && !waveletMethod) {
-			log.start("Denoising (Gaussian smoothing)...");
-			ima[0].smoothGaussian(parameters.sigmaDenoising);
-			System.gc();
-			log.acknowledge();
-			log.setProgessLength(95);
-		}
-
-		ImagePlus impComposite = null;
-		ImagePlus impHeightMap = null;
-
-		if(parameters.color && parameters.outputColorMap==Parameters.COLOR_RGB) {
-			ColorProcessor cp;
-			if ( (waveletMethod && parameters.reassignment) || !waveletMethod){
-				cp = PostProcessing.reassignmentColor(ima[1],imp.getStack());
-				impComposite = new ImagePlus("Output",cp);
-			}else {
-				impComposite = new ImagePlus("Output", ima[0].buildImageStack());
-			}
-		}
-		else {
-			impComposite = new ImagePlus("Output", ima[0].buildImageStack());
-		}
-
-		// Topology post-processing.
-		if ( (waveletMethod && parameters.reassignment) || (!waveletMethod)) {
-
-			if (parameters.showTopology) {
-
-				if(parameters.doMedian) {
-					log.start("Median filter...");
-
-					ima[1] = MorphologicalOperators.doMedian(ima[1], parameters.medianWindowSize);
-					log.acknowledge();
+		return ima;
+	}
 
-				}
+	/**
+	 * Sharpness estimation and fusion reading the slices one at a time,
+	 * analysed by parameters.nThreads threads. Only the running result is in
+	 * memory, so it works on stacks that do not fit in memory.
+	 */
+	private ImageWare[] fuseSlices(boolean waveletMethod) {
 
-				if(parameters.doMorphoClose) {
-					log.start("Morphological close...");
+		LogSingleton log = LogSingleton.getInstance();
 
-					ima[1] = MorphologicalOperators.doClose(ima[1]);
+		SliceStream stream = new SliceStream(imp.getStack());
+		stream.setNumThreads(parameters.nThreads);
+		if (parameters.color)
+			stream.setColorConversion(parameters.colorConversionMethod);
 
-					log.acknowledge();
-				}
+		int nx = stream.getSizeX();
+		int ny = stream.getSizeY();
+		boolean isExtended = false;
 
-				if(parameters.doMorphoOpen) {
-					log.start("Morphological open ...");
+		if (waveletMethod) {
+			if(!Tools.isPowerOf2(nx) || !Tools.isPowerOf2(ny)) {
+				int[] scaleAndSizes = Tools.computeScaleAndPowerTwoSize(nx,ny);
+				log.append("Extend images to "+ scaleAndSizes[1]+ "x" + scaleAndSizes[2] + " pixels...");
+				stream.setExtendedSize(scaleAndSizes[1], scaleAndSizes[2]);
+				isExtended = true;
+			}
+		}
 
-					ima[1] = MorphologicalOperators.doOpen(ima[1]);
+		log.start("Sharpen estimation...");
 
-					log.acknowledge();
-				}
+		AbstractEdfAlgorithm edf;
+		ImageWare[] ima;
 
-				if (parameters.doGaussian) {
-					log.start("Post-processing on the map: Gaussian filter of sigma: " + parameters.sigma);
-					ima[1].smoothGaussian(parameters.sigma);
-					log.acknowledge();
-				}
+		switch(parameters.edfMethod) {
+		case REAL_WAVELETS :
+			if( parameters.doDenoising )
+				edf = new EdfRealWavelets((int)parameters.splineOrder, parameters.nScales,
+						parameters.subBandCC,parameters.majCC, parameters.rateDenoising);
+			else
+				edf = new EdfRealWavelets((int)parameters.splineOrder, parameters.nScales,
+						parameters.subBandCC,parameters.majCC);
+			break;
+		case COMPLEX_WAVELETS :
+			edf = new EdfComplexWavelets(parameters.daubechielength, parameters.nScales,
+					parameters.subBandCC,parameters.majCC);
+			break;
+		case VARIANCE :
+			edf = new EdfVariance(parameters.varWindowSize);
+			break;
+		case SOBEL :
+			edf = new EdfSobel();
+			break;
+		default:
+			throw new RuntimeException("Invalid Option.");
+		}
+		ima = edf.process(stream);
 
-				impHeightMap = new ImagePlus("Height-Map", ima[1].buildImageStack());
-				impHeightMap.show();
-				impHeightMap.updateAndDraw();
+		log.acknowledge();
+		log.setProgessLength(80);
 
-				if(parameters.show3dView){
-					SurfaceMap3D viewer = new SurfaceMap3D(impHeightMap, impComposite);
-					Thread thread = new Thread(viewer);
-					thread.start();
-				}
-			}
+		// Crop to original images.
+		if (isExtended) {
+			ima[0] = Tools.crop(ima[0],nx,ny);
+			ima[1] = Tools.crop(ima[1],nx,ny);
 		}
 
-		impComposite.show();
-		impComposite.updateAndDraw();
+		if(parameters.reassignment) {
+			log.start("Reassignment to original pixel values...");
+			ima[1] = PostProcessing.reassignment(ima[0],stream.unextended());
+			log.acknowledge();
+			log.setProgessLength(95);
+		}
 
-		log.start("Finished.");
-		log.setProgessLength(100);
-		log.append("");
+		return ima;
 	}
 }
@@ -69,6 +69,13 @@ public class Parameters {
 	public boolean show3dView;
 	public boolean log;
 
+	// Read the slices one at a time instead of the whole stack, always done
+	// for a virtual stack.
+	public boolean streaming;
+	// Threads analysing the slices when streaming; fewer are used if the
+	// free memory cannot hold a slice for each of them.
+	public int nThreads;
+
 
 	public int maxScales = 1;
 
@@ -111,6 +118,8 @@ public void reset(){
 		showTopology = false;
 		show3dView = false;
 		log = false;
+		streaming = false;
+		nThreads = Runtime.getRuntime().availableProcessors();
 	}
 
 	/**
@@ -51,6 +51,11 @@ public int getHeight()
 		{ return height; }
 		public void filterAll(ImageStack stack, int center, float sigmat, float sigmas)
 		throws FlowJException
+		{
+			filterAll(new SliceWindow(stack), center, sigmat, sigmas);
+		}
+		public void filterAll(SliceWindow stack, int center, float sigmat, float sigmas)
+		throws FlowJException
 		{
 			width = stack.getWidth();
 			height = stack.getHeight();
@@ -76,6 +81,7 @@ public void filterAll(ImageStack stack, int center, float sigmat, float sigmas)
 					  throw e;
 			}
 
+			stack.setSize(v.discreteSupport(Gt));
 			initFilters(sigmat, sigmas);
 			float [] pixels=null;
 			if (debug)
@@ -446,19 +452,24 @@ private void computeNormal(float [][][] phi, int n)
 		  Compute all full velocities from 5*5 neighbourhoods of
 		  normal velocities.
 	  ************************************************************/
-	  public void computeFull(FlowJFlow flow, float conditionLimit, float residualThreshold)
+	  public void computeFull(final FlowJFlow flow, final float conditionLimit, final float residualThreshold)
 	  {
-			int no_wronginverse = 0; int no_notcomp = 0;
-			int no_count = 0;
-			int no_ill_conditioned = 0; int no_large_residuals = 0;
-			int total=0; int full=0;
+			// The totals of the rows: locations, full flows and the failures.
+			final int [] counts = new int[7];
 			this.conditionLimit = conditionLimit;
 			this.residualThreshold = residualThreshold;
 			IJ.write("Fleet: full velocities cond nr < "+IJ.d2s(conditionLimit,2)
 				  +"; residual < "+residualThreshold);
 			System.gc();
-			for (int y = 0; y < height; y++)
+			// The rows are independent, and are computed in parallel.
+			new RowLoop()
 			{
+			  public void row(int y)
+			  {
+				  int no_wronginverse = 0; int no_notcomp = 0;
+				  int no_count = 0;
+				  int no_ill_conditioned = 0; int no_large_residuals = 0;
+				  int total=0; int full=0;
 				  IJ.showProgress((float) y/(float) height);
 				  for (int x = 0; x < width; x++)
 				  {
@@ -529,7 +540,17 @@ public void computeFull(FlowJFlow flow, float conditionLimit, float residualThre
 						else
 							  no_count++;
 				 } // for x
-			  } // for y
+				  synchronized (counts)
+				  {
+					  counts[0] += total; counts[1] += full;
+					  counts[2] += no_wronginverse; counts[3] += no_notcomp; counts[4] += no_count;
+					  counts[5] += no_ill_conditioned; counts[6] += no_large_residuals;
+				  }
+			  }
+			}.run(height);
+			  int total = counts[0]; int full = counts[1];
+			  int no_wronginverse = counts[2]; int no_notcomp = counts[3]; int no_count = counts[4];
+			  int no_ill_conditioned = counts[5]; int no_large_residuals = counts[6];
 			  density = (float) full/(float) total;
 			  IJ.write("Fleet failed computations:\n"
 					+"on residual: "+no_large_residuals
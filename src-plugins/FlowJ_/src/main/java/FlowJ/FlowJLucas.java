@@ -135,6 +135,16 @@ public static int lastFrame(ImageStack is, float sigmat, int gradientType)
           */
 	  public void filterAll(ImageStack is, int center, float sigmat, float sigmas, int gradientType)
 	  throws FlowJException
+	  {
+                  filterAll(new SliceWindow(is), center, sigmat, sigmas, gradientType);
+          }
+          /**
+          * Do filtering on the slices of a SliceWindow.
+          * The window is made large enough to hold the support of the kernels, so that
+          * the slices can be reused when the next frame is filtered.
+          */
+	  public void filterAll(SliceWindow is, int center, float sigmat, float sigmas, int gradientType)
+	  throws FlowJException
 	  {
                   VolumeFloat   v = null;
                   // Create the kernel for gradient computation.
@@ -182,6 +192,7 @@ public void filterAll(ImageStack is, int center, float sigmat, float sigmas, int
                         throw new FlowJException("Please select the frame  > "
                                           + support/2 + " and < " + (is.getSize()+1-support/2));
                   }
+                  is.setSize(support);
 
                   // Now compute the derivatives.
                   dx = new VolumeFloat(is.getWidth(), is.getHeight(), 1);
@@ -276,20 +287,20 @@ else if (gradientKernel instanceof Kernel3D)
          * @param tau the eigenvalue threshold
          * @param regularizationMethod is one of REG_GAUSSIAN, REG_GAUSSIAN_1D, 0 defines how the local neighborhood is filtered.
         */
-        public void computeFull(FlowJFlow flow, boolean includeNormals, float sigmaw, float tau, int regularizationMethod)
+        public void computeFull(final FlowJFlow flow, final boolean includeNormals, float sigmaw, final float tau, int regularizationMethod)
         {
                   this.includeNormals = includeNormals;
                   this.tau = tau;
                   // Precompute the products of the derivatives.
-                  VolumeFloat xt = new VolumeFloat(dx);
+                  final VolumeFloat xt = new VolumeFloat(dx);
                   xt.mul(dt);
-                  VolumeFloat yt = new VolumeFloat(dy);
+                  final VolumeFloat yt = new VolumeFloat(dy);
                   yt.mul(dt);
-                  VolumeFloat xx = new VolumeFloat(dx);
+                  final VolumeFloat xx = new VolumeFloat(dx);
                   xx.mul(dx);
-                  VolumeFloat yy = new VolumeFloat(dy);
+                  final VolumeFloat yy = new VolumeFloat(dy);
                   yy.mul(dy);
-                  VolumeFloat xy = new VolumeFloat(dx);
+                  final VolumeFloat xy = new VolumeFloat(dx);
                   xy.mul(dy);
                   dx = dy = dt = null;
 
@@ -328,10 +339,15 @@ public void computeFull(FlowJFlow flow, boolean includeNormals, float sigmaw, fl
                                                         break;
                   }
 
-                  int total=0; int full=0; int normals = 0;
+                  // The totals of the rows: locations, full flows and normal flows.
+                  final int [] counts = new int[3];
                   flow.v.setEdge(xx.getEdge());
-                  for (int y = 0; y < xx.getHeight(); y++)
+                  // The rows are independent, and are computed in parallel.
+                  new RowLoop()
                   {
+                          public void row(int y)
+                          {
+                                  int total=0; int full=0; int normals = 0;
                                   IJ.showProgress((float) y/(float) xx.getHeight());
                                   for (int x = 0; x < xx.getWidth(); x++)
                                   {
@@ -382,8 +398,10 @@ else if (includeNormals && j.eigenvalues[0] > tau && Math.abs(BIJmatrix.determin
                                                            total++;
                                                 } // if
                                   }  // for x
-                  } // for y
-                  density = (float) full/(float) total;
+                                  synchronized (counts) { counts[0] += total; counts[1] += full; counts[2] += normals; }
+                          }
+                  }.run(xx.getHeight());
+                  density = (float) counts[1]/(float) counts[0];
         } // computeFull
         public String toString()
         // Use a format that is compatible with file names.
@@ -47,6 +47,11 @@ public String toString()
 				+" N"+N+" n"+n+" i"+i+" w"+w+" ("+IJ.d2s(density*100,2)+"%)"; }
 	  public void filterAll(ImageStack stack, int center, float sigmas)
 	  throws FlowJException
+	  {
+			  filterAll(new SliceWindow(stack), center, sigmas);
+	  }
+	  public void filterAll(SliceWindow stack, int center, float sigmas)
+	  throws FlowJException
 	  {
 			  width = stack.getWidth();
 			  height = stack.getHeight();
@@ -66,6 +71,7 @@ public void filterAll(ImageStack stack, int center, float sigmas)
 					  + depth / 2 + " and below " + depth / 2);
 						  throw e;
 				  }
+			  stack.setSize(depth);
 			  Gaussian sGaussian = new Gaussian(sigmas);
 			  /* Compute L(v) as a difference of Gaussians: L(v) = v-((v*Gaussian)*Gaussian). */
 			  v.load(stack, center - depth / 2);
@@ -82,9 +88,10 @@ public int getWidth()
 		{ return width; }
 		public int getHeight()
 		{ return height; }
-		public void compute1(FlowJFlow flow, float tau1)
+		public void compute1(final FlowJFlow flow, final float tau1)
 		{
-			  int total = 0; int full = 0;
+			  // The totals of the rows: locations and full flows.
+			  final int [] counts = new int[2];
 
 			  Scc = new float[height][width][2][2];
 			  Ucc = new float[height][width][2];
@@ -93,8 +100,12 @@ public void compute1(FlowJFlow flow, float tau1)
 			  // Step 1 Singh. (see Barron)
 			  IJ.write("Singh: step 1 tau = "+tau1);
 			  flow.v.setEdge(edge);
-			  for (int y = 0; y < height; y++)
+			  // The rows are independent, and are computed in parallel.
+			  new RowLoop()
 			  {
+				public void row(int y)
+				{
+					  int total = 0; int full = 0;
 					  IJ.showProgress((float) y/(float) height);
 					  for (int x = 0; x < width; x++)
 					  {
@@ -169,8 +180,10 @@ public void compute1(FlowJFlow flow, float tau1)
 								  total++;
 						  }
 				  }
-			  }
-			  density = (float) full/(float) total;
+					  synchronized (counts) { counts[0] += total; counts[1] += full; }
+				}
+			  }.run(height);
+			  density = (float) counts[1]/(float) counts[0];
 		} // compute1
 		public void compute2(FlowJFlow flow, float tau2)
 		/*
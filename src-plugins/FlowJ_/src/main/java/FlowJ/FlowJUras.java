@@ -45,7 +45,12 @@ public String toString()
 			  tau+" region"+region+" ("+IJ.d2s(density*100,2)+"%) (support="+support+")"; }
 	  public void filterAll(ImageStack is, int center, float sigmat, float sigmas)
 	  throws FlowJException
-	  // Initialize the image volume. Check constraints.
+	  {
+			filterAll(new SliceWindow(is), center, sigmat, sigmas);
+	  }
+	  public void filterAll(SliceWindow is, int center, float sigmat, float sigmas)
+	  throws FlowJException
+	  // Initialize the image volume from the slices in is. Check constraints.
 	  {
 			width = is.getWidth();
 			height = is.getHeight();
@@ -71,6 +76,7 @@ public void filterAll(ImageStack is, int center, float sigmat, float sigmas)
 						  + support/2 + " and < " + (is.getSize()+1-support/2));
 							throw e;
 			}
+			is.setSize(support);
 			// Filter temporally
 			if (sigmat > 0)
 				  v.convolvet(is, center, tGaussian);
@@ -112,7 +118,7 @@ public void gradients()
 			  dxy.convolvex(dy, cd4p);
 			  dxx.setEdge(v.discreteSupport(cd4p)/2+4);
 		 }
-		  public void computeFull(FlowJFlow flow, int region, float tau)
+		  public void computeFull(final FlowJFlow flow, int region, float tau)
 		  /*
 			  Uras:
 			  Compute flow according to the Uras algorithm.
@@ -121,9 +127,14 @@ public void computeFull(FlowJFlow flow, int region, float tau)
 			  this.tau = tau;
 			  this.region = region;
 			  flow.v.setEdge(edge);
-			  int total = 0; int fulls = 0;
-			  for (int y = 0; y < height; y++)
+			  // The totals of the rows: locations and full flows.
+			  final int [] counts = new int[2];
+			  // The rows are independent, and are computed in parallel.
+			  new RowLoop()
 			  {
+				public void row(int y)
+				{
+					int total = 0; int fulls = 0;
 					IJ.showProgress((float) y/(float)height);
 					for (int x = 0; x < width; x++)
 					{
@@ -154,7 +165,9 @@ public void computeFull(FlowJFlow flow, int region, float tau)
 								total++;
 						  }
 					} // for x
-			  } // for y
+					synchronized (counts) { counts[0] += total; counts[1] += fulls; }
+				}
+			  }.run(height);
 			  if (region > 0)
 			  {
 					  // Regularize the flow field over region.
@@ -164,7 +177,7 @@ public void computeFull(FlowJFlow flow, int region, float tau)
 					  discriminant(flow, cond, gauss, discr);
 					  regularize(flow, cond, gauss, discr);
 			  }
-			  density = (float) fulls/(float) total;
+			  density = (float) counts[1]/(float) counts[0];
 		} // compute
 		private void regularize(FlowJFlow flow, float [][] cond, float [][] gauss, float [][] discr)
 		/*
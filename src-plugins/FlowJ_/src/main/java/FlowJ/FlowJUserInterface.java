@@ -446,6 +446,8 @@ public void doCompute(boolean all)
                         // Just start at frame 0 to the end; exception will be thrown anyway.
                         int first = FlowJLucas.firstFrame(stack, getFloatField(sigmatField), gradientChoice.getSelectedIndex());
                         int last = FlowJLucas.lastFrame(stack, getFloatField(sigmatField), gradientChoice.getSelectedIndex());
+                        // Consecutive frames share most of their slices: keep those in a window.
+                        SliceWindow window = new SliceWindow(stack);
                         for (int frame = 1; frame <= stack.getSize(); frame++)
                         {
                                 if (frame >= first && frame <= last)
@@ -453,7 +455,7 @@ public void doCompute(boolean all)
                                         try
                                         {
                                                 IJ.showStatus("Computing 2D optical flow ("+(frame)+")...");
-                                                computeSingleFrame(frame);
+                                                computeSingleFrame(frame, window);
                                                 flows.addElement(flow);
                                         }
                                         // Disregard FlowJExceptions
@@ -481,6 +483,17 @@ public void doCompute(boolean all)
          */
         public void computeSingleFrame(int frame)
         throws FlowJException
+	{
+		  computeSingleFrame(frame, new SliceWindow(imp.getStack()));
+	}
+	/**
+         * Compute the flow from the slices of the current stack in a SliceWindow.
+         * @param frame the frame for which to compute the flow.
+         * @param window a SliceWindow on the current stack.
+         * @exception FlowJException if there were problems (including frame out of bounds).
+         */
+        public void computeSingleFrame(int frame, SliceWindow window)
+        throws FlowJException
 	{
 		  ImageStack stack = imp.getStack();
 		  sigmat = getFloatField(sigmatField);
@@ -491,7 +504,7 @@ public void computeSingleFrame(int frame)
 		  {
 			  case FLEET:
 					  FlowJFleet fleet = new FlowJFleet();
-					  fleet.filterAll(stack, frame, sigmat, sigmas);
+					  fleet.filterAll(window, frame, sigmat, sigmas);
                                           // compute the normals.
 					  fleet.normals(getFloatField(maxampField), getFloatField(taufField));
 					  flow = new FlowJFlow(fleet.getWidth(), fleet.getHeight());
@@ -503,7 +516,7 @@ public void computeSingleFrame(int frame)
 					  break;
 			  case LK:
 					  FlowJLucas lk = new FlowJLucas();
-					  lk.filterAll(stack, frame, sigmat, sigmas,
+					  lk.filterAll(window, frame, sigmat, sigmas,
 							gradientChoice.getSelectedIndex());
 					  flow = new FlowJFlow(stack.getWidth(), stack.getHeight());
 					  IJ.showStatus("computing flows (LK)...");
@@ -515,7 +528,7 @@ public void computeSingleFrame(int frame)
 			  case URAS:
 					  // Uras.
 					  FlowJUras uras = new FlowJUras();
-					  uras.filterAll(stack, frame, sigmat, sigmas);
+					  uras.filterAll(window, frame, sigmat, sigmas);
 					  uras.gradients();
 					  flow = new FlowJFlow(uras.getWidth(), uras.getHeight());
 					  uras.computeFull(flow, region, tau);
@@ -524,7 +537,7 @@ public void computeSingleFrame(int frame)
 					  break;
 			  case SINGH:
 					  FlowJSingh singh = new FlowJSingh();
-					  singh.filterAll(stack, frame, 1);
+					  singh.filterAll(window, frame, 1);
 					  flow = new FlowJFlow(singh.getWidth(), singh.getHeight());
 					  singh.compute1(flow, getFloatField(taus1Field));
 					  //ColorProcessor ip = new ColorProcessor(flow.getWidth(), flow.getHeight(), pixels);
@@ -21,7 +21,7 @@
  * EXPRESS, IMPLIED OR OTHERWISE, INCLUDING WITHOUT LIMITATION, ANY
  * WARRANTY OF MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE.
  */
-public abstract class VJClassifier
+public abstract class VJClassifier implements Cloneable
 {
 	/**
 	 * Classifier can return a RGB VJAlphaColor.
@@ -84,6 +84,15 @@ public void                 setSecondaryClassifier(VJClassifier classifier)
 	* If cutouts can be processed, overload this method.
 	*/
 	public VJAlphaColor          	alphacolor(VJValue value) { return null; }
+	/**
+	* Make a copy of this classifier that can classify another view at the same time.
+	* Overload if the classifier has tables that depend on the view.
+	*/
+	public VJClassifier		duplicate()
+	{
+		try { return (VJClassifier) clone(); }
+		catch (CloneNotSupportedException e) { return null; }
+	}
 	/**
 	 * For debugging: print value, index and gradient.
 	*/
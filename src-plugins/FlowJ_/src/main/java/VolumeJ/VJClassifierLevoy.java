@@ -168,6 +168,16 @@ public VJAlphaColor alphacolor(VJValue v)
 			return new VJAlphaColor(1, lut[index*3+0]&0xff, lut[index*3+1]&0xff,
 				lut[index*3+2]&0xff);
 	}
+	/**
+	 * Make a copy of this classifier with its own opacity table, which depends on the
+	 * oversampling of the view.
+	 */
+	public VJClassifier duplicate()
+	{
+		VJClassifierLevoy classifier = (VJClassifierLevoy) super.duplicate();
+		classifier.opacityTable = (float []) opacityTable.clone();
+		return classifier;
+	}
 	/**
 	 * Compute the opacities for a range of voxel values and gradient values.
 	 * nrMagnitudeBits defines the resolution for the gradientmagnitude,
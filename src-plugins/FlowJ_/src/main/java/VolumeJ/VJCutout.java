@@ -26,7 +26,7 @@
  * EXPRESS, IMPLIED OR OTHERWISE, INCLUDING WITHOUT LIMITATION, ANY
  * WARRANTY OF MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE.
  */
-public class VJCutout
+public class VJCutout implements Cloneable
 {
         private VJMatrix 	        m, mi;
         private Volume 			v;
@@ -62,6 +62,20 @@ public VJCutout(Volume v, int xcutout, int ycutout, int zcutout,
                 }
                 VJUserInterface.write("Cutout center at "+xcutout+", "+ycutout+", "+zcutout);
         }
+        /**
+         * Make a copy of this cutout for another view, using the shader and classifier of that view.
+         */
+        public VJCutout duplicate(VJShader shader, VJClassifier classifier)
+        {
+                try
+                {
+                        VJCutout cutout = (VJCutout) clone();
+                        cutout.shader = shader;
+                        cutout.classifier = classifier;
+                        return cutout;
+                }
+                catch (CloneNotSupportedException e) { return null; }
+        }
         public void setup(VJMatrix m, VJMatrix mi)
         {
                 this.m = m;
@@ -26,7 +26,7 @@
  * EXPRESS, IMPLIED OR OTHERWISE, INCLUDING WITHOUT LIMITATION, ANY
  * WARRANTY OF MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE.
  */
-public class VJLight
+public class VJLight implements Cloneable
 {
         private float          x, y, z;          // position.
         public float           tx, ty, tz;          // transformed, normalized position.
@@ -85,6 +85,15 @@ private void setNormalized(float tx, float ty, float tz)
                         this.tz = tz;
                 }
         }
+        /**
+         * Make a copy of this light, which can be objectified independently.
+         * @return a VJLight at the same position and with the same reflections.
+         */
+        public VJLight duplicate()
+        {
+                try { return (VJLight) clone(); }
+                catch (CloneNotSupportedException e) { return null; }
+        }
         public float getSpecular() { return specular; }
         public float getDiffuse() { return diffuse; }
         public float getx() { return tx; }
@@ -1,5 +1,6 @@
 package VolumeJ;
 import java.awt.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import volume.*;
 
 /**
@@ -41,6 +42,11 @@ public VJRender(VJInterpolator interpolator, VJShader shader, VJClassifier class
         {
                 super(interpolator, shader, classifier);
         }
+        protected VJRenderer newInstance(VJInterpolator interpolator, VJShader shader, VJClassifier classifier)
+        throws Exception
+        {
+                return new VJRender(interpolator, shader, classifier);
+        }
         /**
          *  Objectspace rendering method.
          *  Renders v as an image. The type of image depends on the capabilities of the classifier
@@ -63,103 +69,120 @@ public synchronized void run()
                 newViewportBuffer();
                 // Get the third column vector of the inverse matrix.
                 // This contains the deltas for the ray stepper.
-                float [] osstep = mi.getStepperColumn();
+                final float [] osstep = mi.getStepperColumn();
                 // prepare a cutout
                 if (cutout instanceof VJCutout)
                         cutout.setup(m, mi);
                 long start = System.currentTimeMillis();
-                VJValue value = null;
-                if (outputType == COLORINT && v instanceof VolumeRGB)
-                        value = new VJValueHSB();
-                else
-                        value = new VJValue();
-                for (int j = 0; j < height && running; j++) // step in j direction (y on image).
+                // The threads take the lines of the view one by one.
+                final AtomicInteger nextLine = new AtomicInteger(0);
+                runParallel(new Runnable()
                 {
-                        VJUserInterface.status("Render "+message+"("+(100*j)/height+"%)...");
-                        VJUserInterface.progress((float)j/(float) height);
-                        for (int i = 0; i < width; i++) // step in i direction (x on image).
+                        public void run()
                         {
-                                // Viewspace location vector.
-                                float [] vsv = VJMatrix.newVector(i+ioffset, j+joffset, koffset); // start of ray.
-                                // Get the start of the ray in objectspace.
-                                VJVoxelLoc vl = new VJVoxelLoc(vsv, mi);
-                                //if (i==0 && j==0) VJUserInterface.write("Viewspace start "+vsv[0]+","+vsv[1]+","+vsv[2]+","+" objectspace start "+vl);
-                                // Optimization.
-                                boolean involume = false;
-                                // Initialize the intermediate composite.
-                                VJAlphaColor pixel;
-                                if (classifier.does() == VJClassifier.RGB)
-                                        pixel = new VJAlphaColor(0, 0, 0, 0);
+                                VJValue value = null;
+                                if (outputType == COLORINT && v instanceof VolumeRGB)
+                                        value = new VJValueHSB();
                                 else
-                                        pixel = new VJAlphaColor(0, 0);
-                                // Step through the ray.
-                                for (int k = 0; k < depth; k++)
+                                        value = new VJValue();
+                                for (int j = nextLine.getAndIncrement(); j < height && running; j = nextLine.getAndIncrement()) // step in j direction (y on image).
                                 {
-                                        if (onTrace(i, j))
-                                                trace(""+i+","+j+" k: "+k+"("+pixel+")"+" inspect: "+vl.ix+","+vl.iy+","+vl.iz);
-                                        // check if ray within volume and opacity < 1.
-                                        if (pixel.notOpaque() && interpolator.isValid(vl, v))
-                                        {
-                                                 // Interpolate a voxel value.
-                                                interpolator.value(value, v, vl);
-                                                // If value is RGB vector get RGB info.
-                                                if (value instanceof VJValueHSB)
-                                                        interpolator.valueHS((VJValueHSB) value, (VolumeRGB) v, classifier.getThreshold(), vl);
-                                                // Remember the depth.
-                                                value.k = k;
-                                                if (onTrace(i, j)) trace(" value "+value);
-                                                // Check whether this voxel can be skipped (if indexing on
-                                                // and the classifier does not find the index interesting).
-                                                if (interpolator.isValidGradient(vl, v) && (! classifier.doesIndex() || classifier.visible(value)))
-                                                {
-                                                        // Phong: interpolate the gradient.
-                                                        VJGradient g = interpolator.gradient(v, vl);
-                                                        // Classify voxel and gradient.
-                                                        VJAlphaColor color = classifier.alphacolor(value, g);
-                                                        if (onTrace(i, j))
-                                                                trace(classifier.trace(value, g)
-                                                                        +" pixel: "+pixel.toString()+" color: "+color.toString());
-                                                        if (color.visible())
-                                                        {
-                                                                // Normalize the gradient.
-                                                                g.normalize();
-                                                                // Shade.
-                                                                VJShade shade = shader.shade(g);
-                                                                // Compose the alphacolor into pixel
-                                                                blendCompose(pixel, value, g, color, shade);
-                                                                // Early ray termination
-                                                                if (pixel.almostOpaque()) pixel.setOpaque();
-                                                                // Check for cutouts.
-                                                                if (cutout instanceof VJCutout)
-                                                                        cutout.cutout(pixel, i+ioffset, j+joffset, k+koffset);
-                                                                if (onTrace(i, j))
-                                                                        trace(" "+shade.toString()+" pixel: "+pixel.toString()+"\n");
-                                                        }
-                                                        involume = true;
-                                                }
-                                        }	// within volume data
-                                        else if (involume)
+                                        VJUserInterface.status("Render "+message+"("+(100*j)/height+"%)...");
+                                        VJUserInterface.progress((float)j/(float) height);
+                                        renderLine(j, osstep, value);
+                                }
+                        }
+                });
+                VJUserInterface.progress(1f);
+                pixelms = (float) (System.currentTimeMillis() - start) / (float) (width * height);
+                running = false;
+        }
+        /**
+         * Render the rays of line j of the view.
+         * @param j the line in the viewport.
+         * @param osstep the step along the rays in objectspace.
+         * @param value a VJValue to interpolate into, used by this line only.
+         */
+        protected void renderLine(int j, float [] osstep, VJValue value)
+        {
+                for (int i = 0; i < width; i++) // step in i direction (x on image).
+                {
+                        // Viewspace location vector.
+                        float [] vsv = VJMatrix.newVector(i+ioffset, j+joffset, koffset); // start of ray.
+                        // Get the start of the ray in objectspace.
+                        VJVoxelLoc vl = new VJVoxelLoc(vsv, mi);
+                        //if (i==0 && j==0) VJUserInterface.write("Viewspace start "+vsv[0]+","+vsv[1]+","+vsv[2]+","+" objectspace start "+vl);
+                        // Optimization.
+                        boolean involume = false;
+                        // Initialize the intermediate composite.
+                        VJAlphaColor pixel;
+                        if (classifier.does() == VJClassifier.RGB)
+                                pixel = new VJAlphaColor(0, 0, 0, 0);
+                        else
+                                pixel = new VJAlphaColor(0, 0);
+                        // Step through the ray.
+                        for (int k = 0; k < depth; k++)
+                        {
+                                if (onTrace(i, j))
+                                        trace(""+i+","+j+" k: "+k+"("+pixel+")"+" inspect: "+vl.ix+","+vl.iy+","+vl.iz);
+                                // check if ray within volume and opacity < 1.
+                                if (pixel.notOpaque() && interpolator.isValid(vl, v))
+                                {
+                                         // Interpolate a voxel value.
+                                        interpolator.value(value, v, vl);
+                                        // If value is RGB vector get RGB info.
+                                        if (value instanceof VJValueHSB)
+                                                interpolator.valueHS((VJValueHSB) value, (VolumeRGB) v, classifier.getThreshold(), vl);
+                                        // Remember the depth.
+                                        value.k = k;
+                                        if (onTrace(i, j)) trace(" value "+value);
+                                        // Check whether this voxel can be skipped (if indexing on
+                                        // and the classifier does not find the index interesting).
+                                        if (interpolator.isValidGradient(vl, v) && (! classifier.doesIndex() || classifier.visible(value)))
                                         {
+                                                // Phong: interpolate the gradient.
+                                                VJGradient g = interpolator.gradient(v, vl);
+                                                // Classify voxel and gradient.
+                                                VJAlphaColor color = classifier.alphacolor(value, g);
                                                 if (onTrace(i, j))
+                                                        trace(classifier.trace(value, g)
+                                                                +" pixel: "+pixel.toString()+" color: "+color.toString());
+                                                if (color.visible())
                                                 {
-                                                        trace("break?");
-                                                        traceWrite();
+                                                        // Normalize the gradient.
+                                                        g.normalize();
+                                                        // Shade.
+                                                        VJShade shade = shader.shade(g);
+                                                        // Compose the alphacolor into pixel
+                                                        blendCompose(pixel, value, g, color, shade);
+                                                        // Early ray termination
+                                                        if (pixel.almostOpaque()) pixel.setOpaque();
+                                                        // Check for cutouts.
+                                                        if (cutout instanceof VJCutout)
+                                                                cutout.cutout(pixel, i+ioffset, j+joffset, k+koffset);
+                                                        if (onTrace(i, j))
+                                                                trace(" "+shade.toString()+" pixel: "+pixel.toString()+"\n");
                                                 }
-                                                break;	// simple optimization
+                                                involume = true;
                                         }
+                                }	// within volume data
+                                else if (involume)
+                                {
                                         if (onTrace(i, j))
+                                        {
+                                                trace("break?");
                                                 traceWrite();
-                                        // proceed along k-ray in objectspace.
-                                        vl.move(osstep);
-                                }	// k step
-                                // Set the pixel in the viewport buffer.
-                                setPixel(pixel, i, j);
-                        }	// i step
-                        yield();
-                }	// j step
-                VJUserInterface.progress(1f);
-                pixelms = (float) (System.currentTimeMillis() - start) / (float) (width * height);
-                running = false;
+                                        }
+                                        break;	// simple optimization
+                                }
+                                if (onTrace(i, j))
+                                        traceWrite();
+                                // proceed along k-ray in objectspace.
+                                vl.move(osstep);
+                        }	// k step
+                        // Set the pixel in the viewport buffer.
+                        setPixel(pixel, i, j);
+                }	// i step
         }
         /**
          * Compose the classified voxel color into pixel.
@@ -163,9 +163,18 @@ public synchronized void run() {}
 	 * @return an ImageProcessor containing the view.
          */
         protected ImageProcessor renderToImageProcessor()
+        {
+                return toImageProcessor(renderer, renderToPixelArray());
+        }
+        /**
+         * Make an image processor out of the pixels rendered by a renderer.
+         * @param renderer the VJRenderer that rendered pixels.
+         * @param pixels the pixels of the rendering.
+	 * @return an ImageProcessor containing the view, null if pixels are of an unknown type.
+         */
+        protected static ImageProcessor toImageProcessor(VJRenderer renderer, Object pixels)
         {
                 ImageProcessor ip = null;
-                Object pixels = renderToPixelArray();
                 if (pixels instanceof byte [])
                         ip = new ByteProcessor(renderer.getViewportWidth(), renderer.getViewportHeight(),
                                 (byte []) pixels, null);
@@ -13,6 +13,9 @@
  * and backed-up in the ImageJ directory under the name "VolumeJ_Cine.tif".
  * If the total cine renderings would be larger than 32 Mb, each rendering is
  * separately saved in the ImageJ directory under the name "VolumeJ_Cine_XXXX.tif".
+ * If the renderer can be duplicated, as many views as there are processors are
+ * rendered at the same time, each by its own copy of the renderer.
+ * The views are added to the stack in order.
  *
  * Copyright (c) 2001-2002, Michael Abramoff. All rights reserved.
  * @author: Michael Abramoff
@@ -40,6 +43,14 @@ public class VJRenderViewCine extends VJRenderView
 	protected double                stepx, stepy, stepz;
 	/** Whether the cine rendering will be written to disk only or also displayed. **/
 	protected boolean               toDisk;
+	/** The renderers and threads of the views being rendered. */
+	private VJRenderer []           views;
+	private Thread []               threads;
+	/** The stack of the views and its window, if not written to disk. */
+	private ImagePlus               imp;
+	private ImageStack              rs;
+	/** Total rendering time per pixel of the views so far. */
+	private float                   ms;
 
 	/**
 	 * Instantiates a new rendering shell: a wrapper for a VJRenderer to allow
@@ -80,52 +91,45 @@ public synchronized void run()
 		if (toDisk)
 			IJ.showMessage("VolumeJ",
 				"Renderings will not be shown but only written to the ImageJ directory as separate VolumeJ_Cine1xxxx.tif image files.");
-		ImagePlus imp = null;
-		ImageStack rs = null;
-		float ms = 0;
+		imp = null;
+		rs = null;
+		ms = 0;
+		// Number of views rendered at the same time.
+		int cpus = Runtime.getRuntime().availableProcessors();
+		int frames = Math.max(1, Math.min(n, cpus));
+		views = new VJRenderer[n];
+		threads = new Thread[n];
+		int started = 0, finished = 0;
 		// Create the views in a stack rs.
 		for (int j = 0; j < n && running; j++)
 		{
-			// Render the view.
-			renderer.setDescription(""+j+"/"+n);
-			renderer.setSequenceNumber(j);
-			ImageProcessor ip = renderToImageProcessor();
-			ms += renderer.getTimePerPixel();
-			// Process the rendered image.
-			if (ip instanceof ImageProcessor)
+			// Take a copy of the renderer for this view, so that renderer can go to the next view.
+			VJRenderer view = frames > 1 ? renderer.duplicate() : renderer;
+			if (view == null)
 			{
-				if (! toDisk)
-				{
-					// Update the stack and show in window.
-					if (j == 0)
-					{
-						rs = new ImageStack(ip.getWidth(), ip.getHeight());
-						rs.addSlice(""+j, ip);
-						imp =  new ImagePlus(message, rs);
-						imp.show();
-					}
-					else
-					{
-						// Add the view as the last slice.
-						//VJUserInterface.write("adding rendering as last slice.");
-						rs.addSlice(""+j, ip);
-						imp.setStack(null, rs);
-						// Show the last slice
-						imp.setSlice(j+1);
-					}
-				}
-				else
-				{
-					// Save the rendering to disk as separate images,
-					// do not make stack, do not show.
-					imp = new ImagePlus(message, ip);
-					FileSaver fs = new FileSaver(imp);
-					fs.saveAsTiff("VolumeJ_Cine_"+(10000+j)+".tif");
-				}
+				// This renderer cannot render several views at the same time.
+				frames = 1;
+				view = renderer;
 			}
+			view.setDescription(""+j+"/"+n);
+			view.setSequenceNumber(j);
+			view.setNumThreads(Math.max(1, cpus / frames));
+			// Render the view.
+			views[j] = view;
+			threads[j] = new Thread(view);
+			threads[j].setPriority(Thread.NORM_PRIORITY-1);
+			threads[j].start();
+			started++;
+			// Wait for the oldest views, so that no more than frames are rendered at the same time.
+			while (finished <= j - frames + 1)
+				finishView(finished++);
 			// Go to the next rendering.
 			nextView(j);
 		}
+		while (finished < started)
+			finishView(finished++);
+		views = null;
+		threads = null;
 		float averagems = ms / n;
 		VJUserInterface.write(""+averagems+" ms/pixel.");
 
@@ -133,6 +137,67 @@ public synchronized void run()
 		System.gc();
 		IJ.showStatus("memory use "+memoryInUse());
 	}
+	/**
+	 * Wait for view j to be rendered and add it to the stack, or write it to disk.
+	 * @param j the number of the view.
+	 */
+	private void finishView(int j)
+	{
+		ImageProcessor ip = null;
+		try
+		{
+			// wait for renderer to finish.
+			threads[j].join();
+			ip = toImageProcessor(views[j], views[j].getPixels());
+		}
+		catch (Exception e) { VJUserInterface.write("problems!" + e); }
+		ms += views[j].getTimePerPixel();
+		views[j] = null;
+		threads[j] = null;
+		// Process the rendered image.
+		if (ip instanceof ImageProcessor)
+		{
+			if (! toDisk)
+			{
+				// Update the stack and show in window.
+				if (j == 0)
+				{
+					rs = new ImageStack(ip.getWidth(), ip.getHeight());
+					rs.addSlice(""+j, ip);
+					imp =  new ImagePlus(message, rs);
+					imp.show();
+				}
+				else
+				{
+					// Add the view as the last slice.
+					//VJUserInterface.write("adding rendering as last slice.");
+					rs.addSlice(""+j, ip);
+					imp.setStack(null, rs);
+					// Show the last slice
+					imp.setSlice(j+1);
+				}
+			}
+			else
+			{
+				// Save the rendering to disk as separate images,
+				// do not make stack, do not show.
+				imp = new ImagePlus(message, ip);
+				FileSaver fs = new FileSaver(imp);
+				fs.saveAsTiff("VolumeJ_Cine_"+(10000+j)+".tif");
+			}
+		}
+	}
+	/**
+	 * Stops the shell and the renderers of the views being rendered.
+	 */
+	public void kill()
+	{
+		super.kill();
+		VJRenderer [] views = this.views;
+		if (views != null)
+			for (int j = 0; j < views.length; j++)
+				if (views[j] instanceof VJRenderer) views[j].kill();
+	}
 	/**
 	* Prepare for the next rendering in a cine rendering.
 	* In this case, rotate the transformation matrix (i.e. the volume) by
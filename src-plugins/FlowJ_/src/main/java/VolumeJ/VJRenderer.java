@@ -88,6 +88,8 @@ public abstract class VJRenderer extends Thread
         protected int		        tracei, tracej;
         protected String	        traceString;
         protected String	        description;
+        /** Number of threads casting the rays of a view. */
+        protected int                   nThreads = Runtime.getRuntime().availableProcessors();
 
         /**
          * Create a new default renderer with specified interpolator, shader and classifier.
@@ -108,6 +110,80 @@ public VJRenderer(VJInterpolator interpolator, VJShader shader, VJClassifier cla
                 this.message = "";
                 this.outputType = GRAYBYTE;
         }
+        /**
+         * Create a new renderer of the same class as this one, with the specified methods.
+         * Overload in subclasses that can render several views at the same time.
+         * @return a new VJRenderer, or null if this renderer cannot be duplicated.
+         */
+        protected VJRenderer newInstance(VJInterpolator interpolator, VJShader shader, VJClassifier classifier)
+        throws Exception
+        {
+                return null;
+        }
+        /**
+         * Make an independent copy of this renderer for the current view.
+         * The copy shares the volume and the interpolator, which are only read while rendering,
+         * but has its own transformation matrices, shader, classifier and pixel buffer,
+         * so that this renderer can be set up for the next view while the copy is rendering.
+         * @return a VJRenderer, or null if this renderer cannot be duplicated.
+         */
+        public VJRenderer duplicate()
+        {
+                VJRenderer r = null;
+                try { r = newInstance(interpolator, shader.duplicate(), classifier.duplicate()); }
+                catch (Exception e) { VJUserInterface.write("cannot duplicate renderer " + e); }
+                if (r == null)
+                        return null;
+                r.doPerspective = doPerspective;
+                r.doDepthCueing = doDepthCueing;
+                r.outputType = outputType;
+                r.sequenceNumber = sequenceNumber;
+                if (cutout instanceof VJCutout)
+                        r.cutout = cutout.duplicate(r.shader, r.classifier);
+                r.v = v;
+                r.width = width;
+                r.height = height;
+                r.message = message;
+                r.description = description;
+                r.doPixeltracing = doPixeltracing;
+                r.tracei = tracei;
+                r.tracej = tracej;
+                r.traceString = "";
+                r.nThreads = nThreads;
+                r.setTransformation(new VJMatrix(m), new VJMatrix(mLight));
+                return r;
+        }
+        /**
+         * Set the number of threads casting the rays of a view.
+         * @param nThreads the number of threads, at least 1.
+         */
+        public void setNumThreads(int nThreads) { this.nThreads = Math.max(1, nThreads); }
+        /**
+         * Run worker in nThreads threads at the same time and wait until all are finished.
+         * The workers divide the rays of the view among themselves.
+         * @param worker a Runnable that renders rays until there are none left.
+         */
+        protected void runParallel(Runnable worker)
+        {
+                if (nThreads <= 1)
+                {
+                        worker.run();
+                        return;
+                }
+                Thread [] threads = new Thread[nThreads];
+                for (int t = 0; t < nThreads; t++)
+                {
+                        threads[t] = new Thread(worker, "VolumeJ rays "+t);
+                        threads[t].setPriority(Thread.currentThread().getPriority());
+                        threads[t].start();
+                }
+                try
+                {
+                        for (int t = 0; t < nThreads; t++)
+                                threads[t].join();
+                }
+                catch (InterruptedException e) { running = false; Thread.currentThread().interrupt(); }
+        }
         /**
          * Get a default viewport automatically.
          * @return int[2] the width and height of the viewport.
@@ -20,7 +20,7 @@
  * EXPRESS, IMPLIED OR OTHERWISE, INCLUDING WITHOUT LIMITATION, ANY
  * WARRANTY OF MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE.
  */
-public class VJShader
+public class VJShader implements Cloneable
 {
         /** A light (position in viewspace coordinates). */
         protected VJLight       light;
@@ -50,6 +50,22 @@ public VJShade shade(VJGradient g)
         {
                 return null;
         }
+        /**
+         * Make a copy of this shader with its own light, so that it can shade
+         * another view at the same time.
+         * @return a VJShader of the same class.
+         */
+        public VJShader duplicate()
+        {
+                try
+                {
+                        VJShader shader = (VJShader) clone();
+                        if (light instanceof VJLight)
+                                shader.light = light.duplicate();
+                        return shader;
+                }
+                catch (CloneNotSupportedException e) { return null; }
+        }
         public VJShade getBackground() { return new VJShade(0); }
         public String toString() { return "Empty shader"; }
 }
@@ -1,5 +1,6 @@
 package VolumeJ;
 import java.awt.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import volume.*;
 
 /**
@@ -42,7 +43,8 @@ public class VJViewspaceRender extends VJRenderer
 
         // Java cannot stand too many variables on the stack.
         protected static float []    vsv;
-        protected static float []    vsvstep;
+        /** The step along the rays, shared by the threads. */
+        protected float []           vsvstep;
         protected static float []    osv;
 
         /**
@@ -59,6 +61,11 @@ public VJViewspaceRender(VJInterpolator interpolator, VJShader shader, VJClassif
                 // default is grayscale rendering (depends on classifier).
                 pixelSize = 2;
         }
+        protected VJRenderer newInstance(VJInterpolator interpolator, VJShader shader, VJClassifier classifier)
+        throws Exception
+        {
+                return new VJViewspaceRender(interpolator, shader, classifier);
+        }
         /**
          * Viewspace rendering.
          * Render v into a pixel array. The type of pixel array depends on the value of
@@ -80,8 +87,45 @@ public synchronized void run()
                 viewspace = new VJVoxelLoc[height*width];
                 // Create a new VJAlphaColor buffer for the viewport.
                 viewspacePixel = new VJAlphaColor[height * width];
+                /*
+                        Now get the third column vector of the inverse matrix.
+                        This contains the deltas for the ray stepper.
+                */
+                vsvstep = mi.getStepperColumn();
+
+                // prepare a cutout
+                if (cutout instanceof VJCutout)
+                        cutout.setup(m, mi);
+
+                // The threads take the lines of the view one by one, and step the rays of a line through the volume.
+                final AtomicInteger nextLine = new AtomicInteger(0);
+                runParallel(new Runnable()
+                {
+                        public void run()
+                        {
+                                VJValue value = new VJValue();
+                                for (int j = nextLine.getAndIncrement(); j < height && running; j = nextLine.getAndIncrement())
+                                {
+                                        VJUserInterface.status("Render "+message+"("+(100*j)/height+"%)...");
+                                        VJUserInterface.progress((float)j/(float)height);
+                                        renderLine(j, value);
+                                }
+                        }
+                });
+                // Convert the viewport VJAlphaColor buffer to pixels, the pixel buffer.
+                makePixels();
+                running = false;
+        }
+        /**
+         * Render the rays of line j of the view.
+         * @param j the line in the viewport.
+         * @param value a VJValue to interpolate into, used by this line only.
+         */
+        protected void renderLine(int j, VJValue value)
+        {
+                int first = j * width;
+                int last = first + width;
                 // Initialize the viewspace matrix.
-                for (int j = 0; j < height; j++)
                 for (int i = 0; i < width; i++)
                 {
                         // Determine what the classifier returns in terms of color and alpha.
@@ -105,25 +149,13 @@ public synchronized void run()
                 }
                 float [] dummy = new float[4];
                 // Advance all rays to start of k-space.
-                advanceAllRays(dummy);
-                /*
-                        Now get the third column vector of the inverse matrix.
-                        This contains the deltas for the ray stepper.
-                */
-                vsvstep = mi.getStepperColumn();
-
-                // prepare a cutout
-                if (cutout instanceof VJCutout)
-                        cutout.setup(m, mi);
-                VJValue value = new VJValue();
+                advanceRays(first, last, dummy);
 
                 // Run through the rays.
                 for (int k = 0; k < depth && running; k++) // step through volume along ray.
                 {
-                        VJUserInterface.status("Render "+message+"("+(100*k)/depth+"%)...");
-                        VJUserInterface.progress((float)k/(float)depth);
                         // Traverse viewspace in viewspace order for these rays.
-                        for (int index = 0; index < height * width; index++)
+                        for (int index = first; index < last; index++)
                         {
                                 //if (doPixeltracing && i == tracei && j == tracej)
                                 //		  traceString = ""+i+","+j+","+k;
@@ -165,12 +197,8 @@ Check whether this voxel can be skipped (if indexing on
                                 }	// if within image.
                         } // for index
                         // What do you think it does?
-                        advanceAllRays(vsvstep);
-                        yield();
+                        advanceRays(first, last, vsvstep);
                 } // for k
-                // Convert the viewport VJAlphaColor buffer to pixels, the pixel buffer.
-                makePixels();
-                running = false;
         }
         /**
          * Compose the classified voxel color into pixel.
@@ -220,12 +248,12 @@ private Object makePixels()
                 return (Object) pixels;
         }
         /**
-         * Advance all rays of the viewspace. vectorstep contains the amount in x,y,z.
+         * Advance the rays first to last-1 of the viewspace. vectorstep contains the amount in x,y,z.
          * I wouldnt overload this method.
         */
-        private void advanceAllRays(float [] vsvstep)
+        private void advanceRays(int first, int last, float [] vsvstep)
         {
-                for (int index = 0; index < height * width; index ++)
+                for (int index = first; index < last; index ++)
                 {
                         // advance along k in direction of ray.
                         viewspace[index].move(vsvstep);
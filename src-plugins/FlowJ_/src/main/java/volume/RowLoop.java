@@ -0,0 +1,69 @@
+package volume;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A loop over the rows of an image, run on all processors.
+ * Subclasses implement row(y), which is called once for every row,
+ * concurrently for different rows and in no particular order.
+ * row(y) may only write the results for row y, so that the results
+ * are the same as those of a loop over the rows in one thread.
+ */
+public abstract class RowLoop
+{
+        /**
+         * Process row y.
+         * @param y the row.
+         */
+        public abstract void row(int y);
+        /**
+         * Call row(y) for all y from 0 to rows-1 and wait until all rows are done.
+         * @param rows the number of rows.
+         */
+        public void run(final int rows)
+        {
+                final AtomicInteger next = new AtomicInteger(0);
+                final RuntimeException [] failure = new RuntimeException[1];
+                Runnable worker = new Runnable()
+                {
+                        public void run()
+                        {
+                                try
+                                {
+                                        for (int y = next.getAndIncrement(); y < rows; y = next.getAndIncrement())
+                                                row(y);
+                                }
+                                catch (RuntimeException e)
+                                {
+                                        synchronized (failure) { if (failure[0] == null) failure[0] = e; }
+                                        next.set(rows);
+                                }
+                        }
+                };
+                int n = Math.min(rows, Runtime.getRuntime().availableProcessors());
+                if (n <= 1)
+                {
+                        worker.run();
+                }
+                else
+                {
+                        Thread [] threads = new Thread[n];
+                        for (int t = 0; t < n; t++)
+                        {
+                                threads[t] = new Thread(worker, "Rows " + t);
+                                threads[t].start();
+                        }
+                        try
+                        {
+                                for (int t = 0; t < n; t++)
+                                        threads[t].join();
+                        }
+                        catch (InterruptedException e)
+                        {
+                                next.set(rows);
+                                Thread.currentThread().interrupt();
+                        }
+                }
+                if (failure[0] != null)
+                        throw failure[0];
+        }
+}
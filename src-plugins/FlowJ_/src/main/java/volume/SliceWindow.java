@@ -0,0 +1,87 @@
+package volume;
+import ij.*;
+
+/**
+ * A sliding window over the slices of an ImageStack, converted to float.
+ * When the flow of consecutive frames is computed, each frame needs the slices
+ * in the temporal support around it, most of which were already loaded for the previous frame.
+ * The window keeps up to size slices, so that the slices of a long time-lapse
+ * (or of a virtual stack) are read and converted once, and no more than size are in memory.
+ * When the window is full, the slice farthest from the one asked for is dropped.
+ * With size 0, nothing is kept and every slice is loaded again.
+ * The slices returned by get() are shared and must not be modified.
+ */
+public class SliceWindow
+{
+        /** The stack. */
+        protected ImageStack    s;
+        /** The number of slices kept. */
+        protected int           size;
+        /** The slice numbers (from 1) of the slices kept, 0 for an empty place. */
+        protected int []        index;
+        protected float [][][]  slices;
+
+        /**
+         * A window that does not keep any slices.
+         * @param s the ImageStack.
+         */
+        public SliceWindow(ImageStack s)
+        {
+                this(s, 0);
+        }
+        /**
+         * @param s the ImageStack.
+         * @param size the number of slices to keep.
+         */
+        public SliceWindow(ImageStack s, int size)
+        {
+                this.s = s;
+                index = new int[0];
+                slices = new float[0][][];
+                setSize(size);
+        }
+        /**
+         * Keep at least size slices.
+         * The window does not shrink, so that every user of the window can ask for the size it needs.
+         * @param size the number of slices to keep.
+         */
+        public synchronized void setSize(int size)
+        {
+                if (size <= this.size)
+                        return;
+                int [] newIndex = new int[size];
+                float [][][] newSlices = new float[size][][];
+                System.arraycopy(index, 0, newIndex, 0, this.size);
+                System.arraycopy(slices, 0, newSlices, 0, this.size);
+                index = newIndex;
+                slices = newSlices;
+                this.size = size;
+        }
+        public ImageStack getStack() { return s; }
+        public int getWidth() { return s.getWidth(); }
+        public int getHeight() { return s.getHeight(); }
+        public int getSize() { return s.getSize(); }
+        /**
+         * Get slice io of the stack as floats.
+         * @param io the slice number, from 1.
+         * @return a float[height][width], which must not be modified.
+         */
+        public synchronized float [][] get(int io)
+        {
+                for (int i = 0; i < size; i++)
+                        if (index[i] == io)
+                                return slices[i];
+                float [][] slice = new float[s.getHeight()][s.getWidth()];
+                VolumeFloat.loadSlice(slice, s, io);
+                if (size == 0 || io < 1 || io > s.getSize())
+                        return slice;
+                // Take an empty place, or the place of the slice farthest from io.
+                int far = 0;
+                for (int i = 1; i < size && index[far] != 0; i++)
+                        if (index[i] == 0 || Math.abs(index[i] - io) > Math.abs(index[far] - io))
+                                far = i;
+                index[far] = io;
+                slices[far] = slice;
+                return slice;
+        }
+}
@@ -155,11 +155,21 @@ else if (ip instanceof FloatProcessor)
          * @param kernel the kernel to use for 1D convolution.
         */
         public void convolvet(ImageStack s, int center, Kernel1D kernel)
+        {
+                convolvet(new SliceWindow(s), center, kernel);
+        }
+        /**
+         * Load a volume from the slices in a SliceWindow and do 1D z convolution on the fly.
+         * @param s the SliceWindow to use.
+         * @param center the index of the central slice in s.
+         * @param kernel the kernel to use for 1D convolution.
+        */
+        public void convolvet(SliceWindow s, int center, Kernel1D kernel)
         {
 	        // depth slices centered around center.
 	        for (int t = -depth/2; t <= depth/2; t++)
 	        {
-		        float[][] t1 = new float[height][width];
+		        float[][] t1;
 		        if (kernel instanceof Kernel)
 		        {
 			        /*
@@ -172,7 +182,7 @@ public void convolvet(ImageStack s, int center, Kernel1D kernel)
                                                 v[t+depth/2][y][x] = 0;
 			        for (int k = -kernel.halfwidth; k <= kernel.halfwidth; k++)
 			        {
-			                loadSlice(t1, s, center + t + k + 1);
+			                t1 = s.get(center + t + k + 1);
                                         for (int y = 0; y < height; y++)
                                                 for (int x = 0; x < width; x++)
                                                         v[t+depth/2][y][x] += t1[y][x] * kernel.k[k + kernel.halfwidth];
@@ -181,7 +191,7 @@ public void convolvet(ImageStack s, int center, Kernel1D kernel)
 		        else
 		        {
 			        // No temporal filtering: load into v.
-			        loadSlice(t1, s, center + t);
+			        t1 = s.get(center + t);
                                 for (int y = 0; y < height; y++)
                                         for (int x = 0; x < width; x++)
                                                 v[t+depth/2][y][x] = t1[y][x];
@@ -190,11 +200,15 @@ public void convolvet(ImageStack s, int center, Kernel1D kernel)
         }
     public void load(ImageStack s, int start)
     /* Fill the volume from stack s with depth slices from slice start. */
+    {
+	  load(new SliceWindow(s), start);
+    }
+    public void load(SliceWindow s, int start)
+    /* Fill the volume from the window s with depth slices from slice start. */
     {
 	  for (int t = start; t < Math.min(start + depth, depth); t++)
 	  {
-		float[][] t1 = new float[height][width];
-		loadSlice(t1, s, t+1);
+		float[][] t1 = s.get(t+1);
                 for (int y = 0; y < height; y++)
                 for (int x = 0; x < width; x++)
                         v[t-start][y][x] = t1[y][x];
@@ -202,68 +216,91 @@ public void load(ImageStack s, int start)
     }
     public void loadInverse(ImageStack s, int center)
     /* Inversely load a volume from the stack centered around center with the first one last. */
+    {
+	  loadInverse(new SliceWindow(s), center);
+    }
+    public void loadInverse(SliceWindow s, int center)
+    /* Inversely load a volume from the window s centered around center with the first one last. */
     {
 	  for (int t = -depth/2; t <= depth/2; t++)
 	  {
-		float[][] t1 = new float[height][width];
-		loadSlice(t1, s, center + depth/2 - t);
+		float[][] t1 = s.get(center + depth/2 - t);
 			    for (int y = 0; y < height; y++)
 				      for (int x = 0; x < width; x++)
 							v[t+depth/2][y][x] = t1[y][x];
 	  }
     }
-        /** 2D xy convolution separated over x and y. */
-        public void convolvexy(Kernel1D kernel)
+        /** 2D xy convolution separated over x and y. The rows are convolved in parallel. */
+        public void convolvexy(final Kernel1D kernel)
         {
 	        if (kernel.halfwidth > edge) edge = kernel.halfwidth;
 	        for (int t = 0; t < depth; t++)
 	        {
-		        float t1[][] = new float[height][width];
+		        final float t1[][] = new float[height][width];
+		        final float vt[][] = v[t];
 		        // Convolve in x direction.
-                        for (int y = 0; y < height; y++)
-                        for (int x = 0; x < width; x++)
-                        {
-			        t1[y][x] = 0;
-			        if (valid(x, y))
-                                {
-                                        // Around x, convolve over -kernel.halfwidth ..  x .. +kernel.halfwidth.
-                                        for (int k = -kernel.halfwidth; k <= kernel.halfwidth; k++)
-                                                t1 [y][x] += v[t][y][x + k] * kernel.k[k + kernel.halfwidth];
-			        }
-                        }
+		        new RowLoop()
+		        {
+		                public void row(int y)
+		                {
+                                        for (int x = 0; x < width; x++)
+                                        {
+			                        t1[y][x] = 0;
+			                        if (valid(x, y))
+                                                {
+                                                        // Around x, convolve over -kernel.halfwidth ..  x .. +kernel.halfwidth.
+                                                        for (int k = -kernel.halfwidth; k <= kernel.halfwidth; k++)
+                                                                t1 [y][x] += vt[y][x + k] * kernel.k[k + kernel.halfwidth];
+			                        }
+                                        }
+		                }
+		        }.run(height);
 		        // Convolve in y direction into v.
-		        for (int y = 0; y < height; y++)
-                        for (int x = 0; x < width; x++)
-                        {
-                                v[t][y][x] = 0;
-				if (valid(x, y))
-				{
-                                        // Around y, convolve over -kernel.halfwidth ..  y .. +kernel.halfwidth.
-                                        for (int k = -kernel.halfwidth; k <= kernel.halfwidth; k++)
-						v[t][y][x] += t1[y + k][x] * kernel.k[k + kernel.halfwidth];
-				}
-                        }
+		        new RowLoop()
+		        {
+		                public void row(int y)
+		                {
+                                        for (int x = 0; x < width; x++)
+                                        {
+                                                vt[y][x] = 0;
+				                if (valid(x, y))
+				                {
+                                                        // Around y, convolve over -kernel.halfwidth ..  y .. +kernel.halfwidth.
+                                                        for (int k = -kernel.halfwidth; k <= kernel.halfwidth; k++)
+						                vt[y][x] += t1[y + k][x] * kernel.k[k + kernel.halfwidth];
+				                }
+                                        }
+		                }
+		        }.run(height);
 	        } // for t
         }
-        public void convolvexy(Kernel2D kernel)
-        // 2D xy convolution.
+        public void convolvexy(final Kernel2D kernel)
+        // 2D xy convolution. The rows are convolved in parallel.
         {
                 if (kernel.halfwidth > edge) edge = kernel.halfwidth;
-				// Create a copy.
-				VolumeFloat t = new VolumeFloat(v);
-				for (int z = 0; z < depth; z++)
-				for (int y = 0; y < height; y++)
-				for (int x = 0; x < width; x++)
-				{
-						v[z][y][x] = 0;
-						if (valid(x, y))
-						{
-								for (int m = -kernel.halfwidth; m <= kernel.halfwidth; m++)
-								for (int l = -kernel.halfwidth; l <= kernel.halfwidth; l++)
-										v[z][y][x] += t.v[z][y+m][x+l]*kernel.k[m+kernel.halfwidth][l+kernel.halfwidth];
-						}
-				}
-		}
+                // Create a copy.
+                final VolumeFloat t = new VolumeFloat(v);
+                for (int zz = 0; zz < depth; zz++)
+                {
+                        final int z = zz;
+                        new RowLoop()
+                        {
+                                public void row(int y)
+                                {
+                                        for (int x = 0; x < width; x++)
+                                        {
+                                                v[z][y][x] = 0;
+                                                if (valid(x, y))
+                                                {
+                                                        for (int m = -kernel.halfwidth; m <= kernel.halfwidth; m++)
+                                                        for (int l = -kernel.halfwidth; l <= kernel.halfwidth; l++)
+                                                                v[z][y][x] += t.v[z][y+m][x+l]*kernel.k[m+kernel.halfwidth][l+kernel.halfwidth];
+                                                }
+                                        }
+                                }
+                        }.run(height);
+                }
+        }
         public void convolvexyz(Kernel3D kernel)
         // 3D xyz convolution.
         {
@@ -725,7 +762,7 @@ public float uy(int j, int i, Kernel2D kernel)
 	    }
 	    return pixels;
 		}
-		private void loadSlice(float [][] i, ImageStack s, int io)
+		static void loadSlice(float [][] i, ImageStack s, int io)
 		// Load a slice from stack s into image i. Convert different image types.
 		{
 	    if (io < 1 || io > s.getSize())
@@ -743,7 +780,7 @@ else if (ip instanceof ShortProcessor)
 			else if (ip instanceof FloatProcessor)
 						loadPixels(i, (FloatProcessor) ip, s.getWidth(), s.getHeight());
 		}
-		private void loadPixels(float [][] i, ColorProcessor cp, int width, int height)
+		private static void loadPixels(float [][] i, ColorProcessor cp, int width, int height)
 		{
 				int [] ii = (int []) cp.getPixels();
 				// RGB 32 bit image image deserves separate treatment. Take brightness from RGB value.
@@ -760,7 +797,7 @@ private void loadPixels(float [][] i, ColorProcessor cp, int width, int height)
 						  }
 				}
 		}
-		private void loadPixels(float [][] i, ByteProcessor bp, int width, int height)
+		private static void loadPixels(float [][] i, ByteProcessor bp, int width, int height)
 		{
 					byte [] b = (byte []) bp.getPixels();
 				  for (int y = 0; y < height; y++)
@@ -770,7 +807,7 @@ private void loadPixels(float [][] i, ByteProcessor bp, int width, int height)
 							  i[y][x] = (float) (b[offset + x] & 0xff);
 				  }
 		}
-		private void loadPixels(float [][] i, ShortProcessor sp, int width, int height)
+		private static void loadPixels(float [][] i, ShortProcessor sp, int width, int height)
 		{
 					short [] u = (short []) sp.getPixels();
 				  for (int y = 0; y < height; y++)
@@ -780,7 +817,7 @@ private void loadPixels(float [][] i, ShortProcessor sp, int width, int height)
 			      i[y][x] = (float) u[offset + x];
 				  }
 		}
-		private void loadPixels(float [][] i, FloatProcessor fp, int width, int height)
+		private static void loadPixels(float [][] i, FloatProcessor fp, int width, int height)
 		{
 					float [] f = (float []) fp.getPixels();
 				  for (int y = 0; y < height; y++)
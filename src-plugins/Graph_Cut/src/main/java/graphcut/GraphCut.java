@@ -28,7 +28,6 @@
  */
 package graphcut;
 
-import java.util.LinkedList;
 import java.util.List;
 
 /**
@@ -65,7 +64,7 @@ public class GraphCut {
 	private int[] activeQueueLast;
 
 	// list of orphans
-	private LinkedList<Integer> orphans;
+	private IntDeque orphans;
 
 	// counter for iterations of main loop
 	private int time;
@@ -86,7 +85,7 @@ public GraphCut(int numNodes, int numEdges) {
 		maxflowIteration = 0;
 		activeQueueFirst = new int[2];
 		activeQueueLast  = new int[2];
-		orphans          = new LinkedList<Integer>();
+		orphans          = new IntDeque();
 	}
 
 	/**
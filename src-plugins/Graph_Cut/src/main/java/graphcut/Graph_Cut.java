@@ -144,6 +144,10 @@
 	// use an eight connected neighborhood?
 	private boolean eightConnect = true;
 
+	// compute the max flow block-parallel for images with at least that many
+	// pixels
+	private static final int PARALLEL_MIN_NODES = 1 << 20;
+
 	// the GUI window
 	private GraphCutWindow win;
 
@@ -785,39 +789,6 @@ public void processSingleChannelImage(ImagePlus imp, ImagePlus edge, float dataW
 		LocalizableByDimCursor<T> edgeCursor = null;
 		int[] imagePosition                  = new int[dimensions.length];
 
-		// create a new graph cut instance
-		// TODO: reuse an old one
-		IJ.log("Creating graph structure of " + numNodes + " nodes and " + numEdges + " edges...");
-		long start = System.currentTimeMillis();
-		GraphCut graphCut = new GraphCut(numNodes, numEdges);
-		long end   = System.currentTimeMillis();
-		IJ.log("...done. (" + (end - start) + "ms)");
-
-		// set terminal weights, i.e., segmentation probabilities
-		IJ.log("Setting terminal weights with data prior " + dataWeight + "...");
-		start = System.currentTimeMillis();
-		while (cursor.hasNext()) {
-
-			cursor.fwd();
-			cursor.getPosition(imagePosition);
-
-			int nodeNum = listPosition(imagePosition, dimensions);
-			
-			T type = cursor.getType();
-			float value = type.getRealFloat();
-
-			float probData  = (value/maxValue);
-			float probPrior = dataWeight;
-			float fweight = -(float)Math.log(probData) - (float)Math.log(probPrior);
-			float bweight = -(float)Math.log(1.0 - probData) - (float)Math.log(1.0 - probPrior);
-
-			graphCut.setTerminalWeights(nodeNum, fweight, bweight);
-		}
-		end = System.currentTimeMillis();
-		IJ.log("...done. (" + (end - start) + "ms)");
-
-		// set edge weights
-
 		// create neighbor offsets
 		int[][] neighborPositions;
 
@@ -873,6 +844,41 @@ public void processSingleChannelImage(ImagePlus imp, ImagePlus edge, float dataW
 			}
 		}
 
+		// create a new graph cut instance, the edges are implied by the
+		// neighbor offsets
+		// TODO: reuse an old one
+		IJ.log("Creating graph structure of " + numNodes + " nodes and " + numEdges + " edges...");
+		long start = System.currentTimeMillis();
+		GridGraphCut graphCut = new GridGraphCut(dimensions, neighborPositions);
+		if (numNodes >= PARALLEL_MIN_NODES)
+			graphCut.setNumThreads(Runtime.getRuntime().availableProcessors());
+		long end   = System.currentTimeMillis();
+		IJ.log("...done. (" + (end - start) + "ms)");
+
+		// set terminal weights, i.e., segmentation probabilities
+		IJ.log("Setting terminal weights with data prior " + dataWeight + "...");
+		start = System.currentTimeMillis();
+		while (cursor.hasNext()) {
+
+			cursor.fwd();
+			cursor.getPosition(imagePosition);
+
+			int nodeNum = listPosition(imagePosition, dimensions);
+			
+			T type = cursor.getType();
+			float value = type.getRealFloat();
+
+			float probData  = (value/maxValue);
+			float probPrior = dataWeight;
+			float fweight = -(float)Math.log(probData) - (float)Math.log(probPrior);
+			float bweight = -(float)Math.log(1.0 - probData) - (float)Math.log(1.0 - probPrior);
+
+			graphCut.setTerminalWeights(nodeNum, fweight, bweight);
+		}
+		end = System.currentTimeMillis();
+		IJ.log("...done. (" + (end - start) + "ms)");
+
+		// set edge weights
 		IJ.log("Setting edge weights to " + pottsWeight + "...");
 		if (edge != null) {
 			IJ.log("   (under consideration of edge image with weight " + edgeWeight + ")");
@@ -911,8 +917,6 @@ public void processSingleChannelImage(ImagePlus imp, ImagePlus edge, float dataW
 						continue A;
 				}
 
-				int neighborNum = listPosition(neighborPosition, dimensions);
-
 				float weight = pottsWeight;
 
 				if (edge != null) {
@@ -944,7 +948,7 @@ public void processSingleChannelImage(ImagePlus imp, ImagePlus edge, float dataW
 				//
 				// since weight_00 = weight_11 = 0 and weight_01 = weight_10 =
 				// weight, the following does it:
-				graphCut.setEdgeWeight(nodeNum, neighborNum, weight);
+				graphCut.setNeighborWeight(nodeNum, i, weight);
 				e++;
 			}
 
@@ -956,7 +960,7 @@ public void processSingleChannelImage(ImagePlus imp, ImagePlus edge, float dataW
 		// calculate max flow
 		IJ.log("Calculating max flow...");
 		start = System.currentTimeMillis();
-		float maxFlow = graphCut.computeMaximumFlow(false, null);
+		float maxFlow = graphCut.computeMaximumFlow();
 		end = System.currentTimeMillis();
 		IJ.log("...done. Max flow is " + maxFlow + ". (" + (end - start) + "ms)");
 
@@ -0,0 +1,841 @@
+package graphcut;
+
+import ij.util.ThreadUtil;
+
+/**
+ * Graph cut for images, specialised to graphs whose nodes are the pixels of
+ * a regular grid and whose edges connect every pixel to the same set of
+ * neighbor offsets.
+ *
+ * This computes the same max-flow/min-cut as {@link GraphCut} (the
+ * Boykov-Kolmogorov algorithm), but the edges are not stored: the head of
+ * an edge is given by the node index and the direction of the edge, and its
+ * sister is the edge in the opposite direction at the head. Only the
+ * residual capacities are kept, in one flat array per direction, and the
+ * parent of a node is stored as the direction towards it.
+ *
+ * For large grids, the flow can be computed block-parallel (see
+ * {@link #setNumThreads(int)}): the grid is cut into slabs along its last
+ * dimension, the maximum flow inside of every slab is pushed by one thread
+ * per slab, and the remaining flow through the whole grid is found
+ * afterwards. The result does not depend on the number of threads, since
+ * the foreground is the set of nodes that can still be reached from the
+ * source after the maximum flow was pushed, whichever way that was done.
+ */
+public class GridGraphCut {
+
+	// special parent assignment
+	private final static byte NONE     = -1;
+	private final static byte TERMINAL = -2;
+	private final static byte ORPHAN   = -3;
+
+	// no node
+	private final static int NO_NODE = -1;
+
+	// the size of the grid
+	private int[] dimensions;
+	private int   numNodes;
+
+	// offsets between node indices of successive coordinates, per dimension
+	private int[] strides;
+
+	// the neighbor offsets per direction, the first half as given to the
+	// constructor, the second half the negated ones
+	private int[][] offsets;
+
+	// node index offset per direction
+	private int[] deltas;
+
+	// the opposite direction per direction
+	private int[] opposite;
+
+	// one bit per node, set for nodes that have a neighbor outside the grid
+	private long[] border;
+
+	// the residual capacity of the edge from a node in a direction
+	private float[][] residualEdgeCapacities;
+
+	// the residual capacity of a node to the sink (<0) or from the source
+	// (>0)
+	private float[] residualNodeCapacities;
+
+	// direction to the parent (in the tree structure), or NONE, TERMINAL or
+	// ORPHAN
+	private byte[] parents;
+
+	// next active node
+	private int[] nextNodes;
+
+	// timestamp indicating when distance was computed
+	private int[] timestamps;
+
+	// distance to the terminal
+	private int[] distances;
+
+	// indicates whether this node belongs to the sink or the source tree
+	private boolean[] inSink;
+
+	// the total flow in the whole graph
+	private float totalFlow;
+
+	// number of threads for the block-parallel flow computation
+	private int numThreads = 1;
+
+	/**
+	 * Initialises the graph cut for a grid and allocates the memory needed.
+	 *
+	 * The nodes are numbered with the first dimension running fastest, i.e.,
+	 * node (x, y, z) has the number x + width*(y + height*z).
+	 *
+	 * @param dimensions The size of the grid.
+	 * @param neighbors  The offsets to the neighbors of a node. Every pair of
+	 *                   neighboring nodes must be given only once, i.e., if
+	 *                   (-1, 0) is a neighbor offset, (1, 0) must not be one.
+	 */
+	public GridGraphCut(int[] dimensions, int[][] neighbors) {
+
+		int numDimensions = dimensions.length;
+
+		if (2*neighbors.length > Byte.MAX_VALUE)
+			throw new IllegalArgumentException("Too many neighbors: " + neighbors.length);
+
+		this.dimensions = dimensions.clone();
+
+		strides  = new int[numDimensions];
+		numNodes = 1;
+		for (int d = 0; d < numDimensions; d++) {
+			strides[d] = numNodes;
+			numNodes  *= dimensions[d];
+		}
+
+		int numDirections = 2*neighbors.length;
+		offsets  = new int[numDirections][numDimensions];
+		deltas   = new int[numDirections];
+		opposite = new int[numDirections];
+
+		// how far the neighbors reach in every dimension
+		int[] reach = new int[numDimensions];
+
+		for (int i = 0; i < neighbors.length; i++) {
+
+			if (neighbors[i].length != numDimensions)
+				throw new IllegalArgumentException("Neighbor offset " + i + " does not have " + numDimensions + " dimensions");
+
+			boolean zero = true;
+			for (int d = 0; d < numDimensions; d++) {
+				offsets[i][d]                    =  neighbors[i][d];
+				offsets[i + neighbors.length][d] = -neighbors[i][d];
+				deltas[i] += neighbors[i][d]*strides[d];
+				reach[d]   = Math.max(reach[d], Math.abs(neighbors[i][d]));
+				if (neighbors[i][d] != 0)
+					zero = false;
+			}
+			if (zero)
+				throw new IllegalArgumentException("Neighbor offset " + i + " is zero");
+
+			deltas[i + neighbors.length]   = -deltas[i];
+			opposite[i]                    = i + neighbors.length;
+			opposite[i + neighbors.length] = i;
+		}
+
+		// find the nodes at the border of the grid
+		border = new long[(numNodes + 63)/64];
+		int[] position = new int[numDimensions];
+		for (int node = 0; node < numNodes; node++) {
+
+			for (int d = 0; d < numDimensions; d++)
+				if (position[d] < reach[d] || position[d] >= dimensions[d] - reach[d]) {
+					border[node >> 6] |= 1L << node;
+					break;
+				}
+
+			for (int d = 0; d < numDimensions; d++) {
+				position[d]++;
+				if (position[d] < dimensions[d])
+					break;
+				position[d] = 0;
+			}
+		}
+
+		residualEdgeCapacities = new float[numDirections][numNodes];
+		residualNodeCapacities = new float[numNodes];
+		parents                = new byte[numNodes];
+		nextNodes              = new int[numNodes];
+		timestamps             = new int[numNodes];
+		distances              = new int[numNodes];
+		inSink                 = new boolean[numNodes];
+
+		totalFlow = 0;
+	}
+
+	/**
+	 * Set the number of threads to use for the computation of the maximum
+	 * flow. With more than one thread, the flow is computed block-parallel.
+	 *
+	 * @param numThreads The number of threads.
+	 */
+	public void setNumThreads(int numThreads) {
+		this.numThreads = Math.max(1, numThreads);
+	}
+
+	/**
+	 * Set the affinity for one node to belong to the foreground (i.e., source)
+	 * or background (i.e., sink).
+	 *
+	 * @param node   The number of the node.
+	 * @param source The affinity of this node to the foreground (i.e., source)
+	 * @param sink   The affinity of this node to the background (i.e., sink)
+	 */
+	public void setTerminalWeights(int node, float source, float sink) {
+
+		float delta = residualNodeCapacities[node];
+
+		if (delta > 0)
+			source += delta;
+		else
+			sink   -= delta;
+
+		totalFlow += (source < sink) ? source : sink;
+
+		residualNodeCapacities[node] = source - sink;
+	}
+
+	/**
+	 * Set the edge weight of the undirected edge between a node and one of
+	 * its neighbors.
+	 *
+	 * @param node     The node.
+	 * @param neighbor The index of the neighbor offset, as given to the
+	 *                 constructor.
+	 * @param weight   The weight (i.e., the cost) of the connecting edge.
+	 */
+	public void setNeighborWeight(int node, int neighbor, float weight) {
+
+		setNeighborWeights(node, neighbor, weight, weight);
+	}
+
+	/**
+	 * Set the edge weights of the pair of directed edges between a node and
+	 * one of its neighbors.
+	 *
+	 * @param node         The node.
+	 * @param neighbor     The index of the neighbor offset, as given to the
+	 *                     constructor.
+	 * @param weightTo     The weight of the edge from the node to the
+	 *                     neighbor.
+	 * @param weightFrom   The weight of the edge from the neighbor to the
+	 *                     node.
+	 */
+	public void setNeighborWeights(int node, int neighbor, float weightTo, float weightFrom) {
+
+		if (!isInside(node, neighbor))
+			throw new IllegalArgumentException("Neighbor " + neighbor + " of node " + node + " is outside of the grid");
+
+		residualEdgeCapacities[neighbor][node] = weightTo;
+		residualEdgeCapacities[opposite[neighbor]][node + deltas[neighbor]] = weightFrom;
+	}
+
+	/**
+	 * Performs the actual max-flow/min-cut computation.
+	 *
+	 * @return The maximum flow.
+	 */
+	public float computeMaximumFlow() {
+
+		int layers    = dimensions[dimensions.length - 1];
+		int layerSize = numNodes/layers;
+		int numBlocks = Math.min(numThreads, layers/2);
+
+		if (numBlocks > 1) {
+
+			// push the flow inside of the blocks
+			final Solver[] solvers = new Solver[numBlocks];
+			Thread[]       threads = ThreadUtil.createThreadArray(numBlocks);
+			for (int b = 0; b < numBlocks; b++) {
+
+				final Solver solver = new Solver(layerSize*(layers*b/numBlocks), layerSize*(layers*(b + 1)/numBlocks));
+				solvers[b] = solver;
+				threads[b] = new Thread() {
+					public void run() {
+						solver.computeMaximumFlow();
+					}
+				};
+			}
+			ThreadUtil.startAndJoin(threads);
+
+			for (Solver solver : solvers)
+				totalFlow += solver.flow;
+		}
+
+		// push the remaining flow through the whole grid
+		Solver solver = new Solver(0, numNodes);
+		solver.computeMaximumFlow();
+		totalFlow += solver.flow;
+
+		return totalFlow;
+	}
+
+	/**
+	 * Get the segmentation, i.e., the terminal node that is connected to the
+	 * specified node. If there are several min-cut solutions, free nodes are
+	 * assigned to the background.
+	 *
+	 * @param node the node to check
+	 * @return Either <tt>Terminal.FOREGROUND</tt> or
+	 *         <tt>Terminal.BACKGROUND</tt>
+	 */
+	public Terminal getTerminal(int node) {
+
+		if (parents[node] != NONE)
+			return inSink[node] ? Terminal.BACKGROUND : Terminal.FOREGROUND;
+		else
+			return Terminal.BACKGROUND;
+	}
+
+	/**
+	 * Gets the number of nodes in this graph.
+	 *
+	 * @return The number of nodes
+	 */
+	public int getNumNodes() {
+		return numNodes;
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	/**
+	 * Checks whether the neighbor of a node in the given direction is inside
+	 * of the grid.
+	 */
+	private boolean isInside(int node, int direction) {
+
+		if ((border[node >> 6] & (1L << node)) == 0)
+			return true;
+
+		for (int d = 0; d < dimensions.length; d++) {
+			int position = (node/strides[d]) % dimensions[d] + offsets[direction][d];
+			if (position < 0 || position >= dimensions[d])
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * The Boykov-Kolmogorov algorithm on the nodes of an index range, which
+	 * is a range of layers of the grid. Edges leaving the range are ignored.
+	 * Solvers of disjoint ranges can run at the same time.
+	 */
+	private class Solver {
+
+		// the range of nodes
+		private final int firstNode;
+		private final int endNode;
+
+		// Lists of active nodes: activeQueueFirst points to first
+		// elements of the lists, activeQueueLast to the last ones.
+		// In between, nodes are connected via reference to next node
+		// in each node.
+		private final int[] activeQueueFirst = new int[2];
+		private final int[] activeQueueLast  = new int[2];
+
+		// list of orphans
+		private final IntDeque orphans = new IntDeque();
+
+		// counter for iterations of main loop
+		private int time;
+
+		// the flow pushed by this solver
+		private float flow;
+
+		Solver(int firstNode, int endNode) {
+			this.firstNode = firstNode;
+			this.endNode   = endNode;
+		}
+
+		/**
+		 * Returns the neighbor of a node in the given direction, or NO_NODE
+		 * if it is outside of the grid or of the range of this solver.
+		 */
+		private final int getNeighbor(int node, int direction) {
+
+			int neighbor = node + deltas[direction];
+			if (neighbor < firstNode || neighbor >= endNode || !isInside(node, direction))
+				return NO_NODE;
+			return neighbor;
+		}
+
+		void computeMaximumFlow() {
+
+			maxflowInit();
+
+			final int numDirections = deltas.length;
+
+			int currentNode = NO_NODE;
+
+			// main loop
+			while (true) {
+
+				int activeNode = currentNode;
+
+				if (activeNode != NO_NODE) {
+					// remove active flag
+					nextNodes[activeNode] = NO_NODE;
+					if (parents[activeNode] == NONE)
+						activeNode = NO_NODE;
+				}
+				if (activeNode == NO_NODE) {
+					activeNode = getNextActiveNode();
+					if (activeNode == NO_NODE)
+						// no more active nodes - we're done here
+						break;
+				}
+
+				// the edge of the path found, from the source tree to the
+				// sink tree
+				int middleNode      = NO_NODE;
+				int middleDirection = 0;
+
+				// groth
+				if (!inSink[activeNode]) {
+					// grow source tree
+					for (int direction = 0; direction < numDirections; direction++) {
+						if (residualEdgeCapacities[direction][activeNode] != 0) {
+
+							int headNode = getNeighbor(activeNode, direction);
+							if (headNode == NO_NODE)
+								continue;
+
+							if (parents[headNode] == NONE) {
+								// free node found, add to source tree
+								inSink[headNode]     = false;
+								parents[headNode]    = (byte)opposite[direction];
+								timestamps[headNode] = timestamps[activeNode];
+								distances[headNode]  = distances[activeNode] + 1;
+								setNodeActive(headNode);
+
+							} else if (inSink[headNode]) {
+								// node is not free and belongs to other tree - path
+								// via edge found
+								middleNode      = activeNode;
+								middleDirection = direction;
+								break;
+
+							} else if (timestamps[headNode] <= timestamps[activeNode] &&
+							           distances[headNode]  >  distances[activeNode]) {
+								// node is not free and belongs to our tree - try to
+								// shorten its distance to the source
+								parents[headNode]    = (byte)opposite[direction];
+								timestamps[headNode] = timestamps[activeNode];
+								distances[headNode]  = distances[activeNode] + 1;
+							}
+						}
+					}
+				} else {
+					// activeNode is in sink, grow sink tree
+					for (int direction = 0; direction < numDirections; direction++) {
+
+						int headNode = getNeighbor(activeNode, direction);
+						if (headNode == NO_NODE)
+							continue;
+
+						if (residualEdgeCapacities[opposite[direction]][headNode] != 0) {
+
+							if (parents[headNode] == NONE) {
+								// free node found, add to sink tree
+								inSink[headNode]     = true;
+								parents[headNode]    = (byte)opposite[direction];
+								timestamps[headNode] = timestamps[activeNode];
+								distances[headNode]  = distances[activeNode] + 1;
+								setNodeActive(headNode);
+
+							} else if (!inSink[headNode]) {
+								// node is not free and belongs to other tree - path
+								// via edge's sister found
+								middleNode      = headNode;
+								middleDirection = opposite[direction];
+								break;
+
+							} else if (timestamps[headNode] <= timestamps[activeNode] &&
+							           distances[headNode]  >  distances[activeNode]) {
+								// node is not free and belongs to our tree - try to
+								// shorten its distance to the sink
+								parents[headNode]    = (byte)opposite[direction];
+								timestamps[headNode] = timestamps[activeNode];
+								distances[headNode]  = distances[activeNode] + 1;
+							}
+						}
+					}
+				}
+
+				time++;
+
+				if (middleNode != NO_NODE) {
+					// we found a path via edge
+
+					// set active flag
+					nextNodes[activeNode] = activeNode;
+					currentNode = activeNode;
+
+					// augmentation
+					augment(middleNode, middleDirection);
+
+					// adoption
+					while (!orphans.isEmpty()) {
+						int orphan = orphans.poll();
+						if (inSink[orphan])
+							processSinkOrphan(orphan);
+						else
+							processSourceOrphan(orphan);
+					}
+				} else {
+					// no path found
+					currentNode = NO_NODE;
+				}
+			}
+		}
+
+		/**
+		 * Initialise the algorithm.
+		 */
+		private void maxflowInit() {
+
+			activeQueueFirst[0] = NO_NODE;
+			activeQueueLast[0]  = NO_NODE;
+			activeQueueFirst[1] = NO_NODE;
+			activeQueueLast[1]  = NO_NODE;
+
+			orphans.clear();
+
+			time = 0;
+
+			for (int node = firstNode; node < endNode; node++) {
+
+				nextNodes[node]  = NO_NODE;
+				timestamps[node] = time;
+
+				if (residualNodeCapacities[node] > 0) {
+					// node is connected to source
+					inSink[node]  = false;
+					parents[node] = TERMINAL;
+					setNodeActive(node);
+					distances[node] = 1;
+				} else if (residualNodeCapacities[node] < 0) {
+					// node is connected to sink
+					inSink[node]  = true;
+					parents[node] = TERMINAL;
+					setNodeActive(node);
+					distances[node] = 1;
+				} else {
+					parents[node] = NONE;
+				}
+			}
+		}
+
+		/**
+		 * Marks a node as being active and adds it to second queue of active
+		 * nodes.
+		 */
+		private void setNodeActive(int node) {
+
+			if (nextNodes[node] == NO_NODE) {
+				if (activeQueueLast[1] != NO_NODE)
+					nextNodes[activeQueueLast[1]] = node;
+				else
+					activeQueueFirst[1] = node;
+
+				activeQueueLast[1] = node;
+				nextNodes[node]    = node;
+			}
+		}
+
+		/**
+		 * Gets the next active node, that is, the first node of the first
+		 * queue of active nodes. If this queue is empty, the second queue is
+		 * used. Returns NO_NODE, if no active node is left.
+		 */
+		private int getNextActiveNode() {
+
+			int node;
+
+			while (true) {
+
+				node = activeQueueFirst[0];
+
+				if (node == NO_NODE) {
+					// queue 0 was empty, try other one
+					node = activeQueueFirst[1];
+
+					// swap queues
+					activeQueueFirst[0] = activeQueueFirst[1];
+					activeQueueLast[0]  = activeQueueLast[1];
+					activeQueueFirst[1] = NO_NODE;
+					activeQueueLast[1]  = NO_NODE;
+
+					// if other queue was emtpy as well, return NO_NODE
+					if (node == NO_NODE)
+						return NO_NODE;
+				}
+
+				// remove current node from active list
+				if (nextNodes[node] == node) {
+					// this was the last one
+					activeQueueFirst[0] = NO_NODE;
+					activeQueueLast[0]  = NO_NODE;
+				} else
+					activeQueueFirst[0] = nextNodes[node];
+
+				// not in any list anymore
+				nextNodes[node] = NO_NODE;
+
+				// return only if it has a parent and is therefore active
+				if (parents[node] != NONE)
+					return node;
+			}
+		}
+
+		/**
+		 * Mark a node as orphan and add it to the front of the queue.
+		 */
+		private void addOrphanAtFront(int node) {
+
+			parents[node] = ORPHAN;
+
+			orphans.addFirst(node);
+		}
+
+		/**
+		 * Mark a node as orphan and add it to the back of the queue.
+		 */
+		private void addOrphanAtBack(int node) {
+
+			parents[node] = ORPHAN;
+
+			orphans.addLast(node);
+		}
+
+		/**
+		 * Perform the augmentation step of the graph cut algorithm along the
+		 * path through the edge from middleNode in the given direction.
+		 */
+		private void augment(int middleNode, int middleDirection) {
+
+			int node;
+			int next;
+			int direction;
+
+			float bottleneck;
+
+			// 1. find bottleneck capacity
+
+			// 1a - the source tree
+			bottleneck = residualEdgeCapacities[middleDirection][middleNode];
+			for (node = middleNode; (direction = parents[node]) != TERMINAL; node = next) {
+
+				next = node + deltas[direction];
+				if (bottleneck > residualEdgeCapacities[opposite[direction]][next])
+					bottleneck = residualEdgeCapacities[opposite[direction]][next];
+			}
+
+			if (bottleneck > residualNodeCapacities[node])
+				bottleneck = residualNodeCapacities[node];
+
+			// 1b - the sink tree
+			for (node = middleNode + deltas[middleDirection]; (direction = parents[node]) != TERMINAL; node = next) {
+
+				next = node + deltas[direction];
+				if (bottleneck > residualEdgeCapacities[direction][node])
+					bottleneck = residualEdgeCapacities[direction][node];
+			}
+			if (bottleneck > -residualNodeCapacities[node])
+				bottleneck = -residualNodeCapacities[node];
+
+			// 2. augmenting
+
+			// 2a - the source tree
+			residualEdgeCapacities[opposite[middleDirection]][middleNode + deltas[middleDirection]] += bottleneck;
+			residualEdgeCapacities[middleDirection][middleNode] -= bottleneck;
+			for (node = middleNode; (direction = parents[node]) != TERMINAL; node = next) {
+
+				next = node + deltas[direction];
+				residualEdgeCapacities[direction][node] += bottleneck;
+				residualEdgeCapacities[opposite[direction]][next] -= bottleneck;
+				if (residualEdgeCapacities[opposite[direction]][next] == 0)
+					addOrphanAtFront(node);
+			}
+			residualNodeCapacities[node] -= bottleneck;
+			if (residualNodeCapacities[node] == 0)
+				addOrphanAtFront(node);
+
+			// 2b - the sink tree
+			for (node = middleNode + deltas[middleDirection]; (direction = parents[node]) != TERMINAL; node = next) {
+
+				next = node + deltas[direction];
+				residualEdgeCapacities[opposite[direction]][next] += bottleneck;
+				residualEdgeCapacities[direction][node] -= bottleneck;
+				if (residualEdgeCapacities[direction][node] == 0)
+					addOrphanAtFront(node);
+			}
+			residualNodeCapacities[node] += bottleneck;
+			if (residualNodeCapacities[node] == 0)
+				addOrphanAtFront(node);
+
+			flow += bottleneck;
+		}
+
+		/**
+		 * Finds the distance of a node of the tree to its terminal, or
+		 * Integer.MAX_VALUE if it originates from an orphan.
+		 */
+		private int getOrigin(int node) {
+
+			int distance = 0;
+			while (true) {
+
+				if (timestamps[node] == time)
+					return distance + distances[node];
+
+				int parent = parents[node];
+				distance++;
+				if (parent == TERMINAL) {
+					timestamps[node] = time;
+					distances[node]  = 1;
+					return distance;
+				}
+				if (parent == ORPHAN)
+					return Integer.MAX_VALUE;
+
+				// otherwise, proceed to the next node
+				node += deltas[parent];
+			}
+		}
+
+		/**
+		 * Sets the distances along the path from a node to its terminal, up
+		 * to the first node whose distance is already known.
+		 */
+		private void setMarks(int node, int distance) {
+
+			for (; timestamps[node] != time; node += deltas[parents[node]]) {
+
+				timestamps[node] = time;
+				distances[node]  = distance;
+				distance--;
+			}
+		}
+
+		/**
+		 * Adopt an orphan.
+		 */
+		private void processSourceOrphan(int orphan) {
+
+			final int numDirections = deltas.length;
+
+			int bestDirection = NONE;
+			int minDistance   = Integer.MAX_VALUE;
+
+			for (int direction = 0; direction < numDirections; direction++) {
+
+				int node = getNeighbor(orphan, direction);
+				if (node == NO_NODE || residualEdgeCapacities[opposite[direction]][node] == 0)
+					continue;
+
+				if (!inSink[node] && parents[node] != NONE) {
+
+					// check the origin of node
+					int distance = getOrigin(node);
+					if (distance < Integer.MAX_VALUE) { // node originates from the source
+
+						if (distance < minDistance) {
+							bestDirection = direction;
+							minDistance   = distance;
+						}
+						setMarks(node, distance);
+					}
+				}
+			}
+
+			parents[orphan] = (byte)bestDirection;
+			if (bestDirection != NONE) {
+				timestamps[orphan] = time;
+				distances[orphan]  = minDistance + 1;
+			} else {
+				// no parent found, process neighbors
+				for (int direction = 0; direction < numDirections; direction++) {
+
+					int node = getNeighbor(orphan, direction);
+					if (node == NO_NODE)
+						continue;
+
+					int parent = parents[node];
+					if (!inSink[node] && parent != NONE) {
+
+						if (residualEdgeCapacities[opposite[direction]][node] != 0)
+							setNodeActive(node);
+						if (parent != TERMINAL && parent != ORPHAN && node + deltas[parent] == orphan)
+							addOrphanAtBack(node);
+					}
+				}
+			}
+		}
+
+		/**
+		 * Adopt an orphan.
+		 */
+		private void processSinkOrphan(int orphan) {
+
+			final int numDirections = deltas.length;
+
+			int bestDirection = NONE;
+			int minDistance   = Integer.MAX_VALUE;
+
+			for (int direction = 0; direction < numDirections; direction++) {
+
+				if (residualEdgeCapacities[direction][orphan] == 0)
+					continue;
+
+				int node = getNeighbor(orphan, direction);
+				if (node == NO_NODE)
+					continue;
+
+				if (inSink[node] && parents[node] != NONE) {
+
+					// check the origin of node
+					int distance = getOrigin(node);
+					if (distance < Integer.MAX_VALUE) { // node originates from the sink
+
+						if (distance < minDistance) {
+							bestDirection = direction;
+							minDistance   = distance;
+						}
+						setMarks(node, distance);
+					}
+				}
+			}
+
+			parents[orphan] = (byte)bestDirection;
+			if (bestDirection != NONE) {
+				timestamps[orphan] = time;
+				distances[orphan]  = minDistance + 1;
+			} else {
+				// no parent found, process neighbors
+				for (int direction = 0; direction < numDirections; direction++) {
+
+					int node = getNeighbor(orphan, direction);
+					if (node == NO_NODE)
+						continue;
+
+					int parent = parents[node];
+					if (inSink[node] && parent != NONE) {
+
+						if (residualEdgeCapacities[direction][orphan] != 0)
+							setNodeActive(node);
+						if (parent != TERMINAL && parent != ORPHAN && node + deltas[parent] == orphan)
+							addOrphanAtBack(node);
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,77 @@
+package graphcut;
+
+/**
+ * A double ended queue of ints, used for the orphans of the graph cut
+ * algorithms. Backed by a ring buffer that grows as needed, so that no
+ * Integer objects are created.
+ */
+class IntDeque {
+
+	// the elements, the length is always a power of two
+	private int[] elements;
+
+	// index of the first element
+	private int first;
+
+	// number of elements
+	private int size;
+
+	public IntDeque() {
+		elements = new int[256];
+		first    = 0;
+		size     = 0;
+	}
+
+	public final void addFirst(int value) {
+
+		if (size == elements.length)
+			grow();
+
+		first = (first - 1) & (elements.length - 1);
+		elements[first] = value;
+		size++;
+	}
+
+	public final void addLast(int value) {
+
+		if (size == elements.length)
+			grow();
+
+		elements[(first + size) & (elements.length - 1)] = value;
+		size++;
+	}
+
+	/**
+	 * Removes and returns the first element. The queue must not be empty.
+	 */
+	public final int poll() {
+
+		int value = elements[first];
+		first = (first + 1) & (elements.length - 1);
+		size--;
+		return value;
+	}
+
+	public final int size() {
+		return size;
+	}
+
+	public final boolean isEmpty() {
+		return size == 0;
+	}
+
+	public final void clear() {
+		first = 0;
+		size  = 0;
+	}
+
+	private void grow() {
+
+		int[] grown = new int[2*elements.length];
+		int   head  = elements.length - first;
+		System.arraycopy(elements, first, grown, 0, head);
+		System.arraycopy(elements, 0, grown, head, first);
+		elements = grown;
+		first    = 0;
+	}
+}
@@ -0,0 +1,116 @@
+package graphcut;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Compares {@link GridGraphCut} with the general {@link GraphCut} on random
+ * grids: both must find the same maximum flow and the same segmentation,
+ * with any number of threads.
+ *
+ * The weights are small integers, so that the flow is exact whichever
+ * order it is pushed in.
+ */
+public class GridGraphCutTest {
+
+	private final static int[][] NEIGHBORS_4 = {
+		{-1, 0}, {0, -1}
+	};
+
+	private final static int[][] NEIGHBORS_8 = {
+		{-1, 0}, {0, -1}, {-1, -1}, {1, -1}
+	};
+
+	private final static int[][] NEIGHBORS_6 = {
+		{-1, 0, 0}, {0, -1, 0}, {0, 0, -1}
+	};
+
+	private final static int[][] NEIGHBORS_26 = {
+		{-1, 0, 0}, {0, -1, 0}, {-1, -1, 0}, {1, -1, 0},
+		{-1, -1, -1}, {0, -1, -1}, {1, -1, -1},
+		{-1,  0, -1}, {0,  0, -1}, {1,  0, -1},
+		{-1,  1, -1}, {0,  1, -1}, {1,  1, -1}
+	};
+
+	@Test
+	public void test2D() {
+		for (long seed = 0; seed < 10; seed++)
+			for (int numThreads = 1; numThreads <= 4; numThreads++) {
+				compare(new int[] {31, 17}, NEIGHBORS_4, seed, numThreads);
+				compare(new int[] {23, 29}, NEIGHBORS_8, seed, numThreads);
+			}
+	}
+
+	@Test
+	public void test3D() {
+		for (long seed = 0; seed < 5; seed++)
+			for (int numThreads = 1; numThreads <= 3; numThreads++) {
+				compare(new int[] {9, 7, 12}, NEIGHBORS_6, seed, numThreads);
+				compare(new int[] {6, 8, 10}, NEIGHBORS_26, seed, numThreads);
+			}
+	}
+
+	@Test
+	public void testThinGrids() {
+		for (long seed = 0; seed < 10; seed++) {
+			compare(new int[] {1, 40}, NEIGHBORS_4, seed, 4);
+			compare(new int[] {40, 1}, NEIGHBORS_8, seed, 4);
+			compare(new int[] {1, 1, 30}, NEIGHBORS_26, seed, 3);
+		}
+	}
+
+	private void compare(int[] dimensions, int[][] neighbors, long seed, int numThreads) {
+
+		Random random = new Random(seed);
+
+		GridGraphCut grid = new GridGraphCut(dimensions, neighbors);
+		grid.setNumThreads(numThreads);
+		int numNodes = grid.getNumNodes();
+		GraphCut graph = new GraphCut(numNodes, numNodes*neighbors.length);
+
+		// a source half and a sink half, with noise
+		int layers = dimensions[dimensions.length - 1];
+		for (int node = 0; node < numNodes; node++) {
+			int layer = node/(numNodes/layers);
+			float source = random.nextInt(10) + (2*layer < layers ? 3 : 0);
+			float sink   = random.nextInt(10) + (2*layer < layers ? 0 : 3);
+			grid.setTerminalWeights(node, source, sink);
+			graph.setTerminalWeights(node, source, sink);
+		}
+
+		int[] position = new int[dimensions.length];
+		for (int node = 0; node < numNodes; node++) {
+			for (int n = 0; n < neighbors.length; n++) {
+				int neighbor = 0, stride = 1;
+				boolean inside = true;
+				for (int d = 0; d < dimensions.length; d++) {
+					int p = position[d] + neighbors[n][d];
+					if (p < 0 || p >= dimensions[d])
+						inside = false;
+					neighbor += p*stride;
+					stride   *= dimensions[d];
+				}
+				if (!inside)
+					continue;
+				float weightTo   = random.nextInt(6);
+				float weightFrom = random.nextInt(6);
+				grid.setNeighborWeights(node, n, weightTo, weightFrom);
+				graph.setEdgeWeight(node, neighbor, weightTo, weightFrom);
+			}
+			for (int d = 0; d < dimensions.length; d++) {
+				position[d]++;
+				if (position[d] < dimensions[d])
+					break;
+				position[d] = 0;
+			}
+		}
+
+		String message = "seed " + seed + ", " + numThreads + " thread(s)";
+		assertEquals(message, graph.computeMaximumFlow(false, null), grid.computeMaximumFlow(), 0);
+		for (int node = 0; node < numNodes; node++)
+			assertEquals(message + ", node " + node, graph.getTerminal(node), grid.getTerminal(node));
+	}
+}
@@ -59,6 +59,7 @@ public class GrayMorphology_ implements PlugInFilter, Constants {
     private static final int[] offset=OFFSET0;
     public StructureElement se, minus_se, plus_se, down_se, up_se;
     MorphoProcessor mp;
+    MorphoEngine me;
     ImageWindow win;
     private static float radius=(float)Prefs. getDouble(R,1);
     private static int options=Prefs.getInt(SETYPE,0);
@@ -97,7 +98,7 @@ public int setup(String arg, ImagePlus imp) {
                 return DONE;
             }
             else {
-                return DOES_8G+DOES_STACKS;
+                return DOES_8G+DOES_16+DOES_32+DOES_STACKS;
             }
         }
     }
@@ -214,6 +215,7 @@ public void run(ImageProcessor ip) {
         }
         if (se!=null) {
              mp=new MorphoProcessor(se);
+             me=new MorphoEngine(se);
              if ((showoptions) && (!seshown)){
                 minus_se =mp.getSE(-1); 
                 plus_se=mp.getSE(1);
@@ -232,7 +234,7 @@ public void run(ImageProcessor ip) {
 	        	doOptions(ip, mp, morphoptions);
 	         } // end if
 	         else if (!isLineRoi) {
-            	ImageProcessor ipmask = getMask((ByteProcessor)ip,r);
+            	ImageProcessor ipmask = (ip instanceof ByteProcessor) ? getMask((ByteProcessor)ip,r) : ip.crop();
             	doOptions(ipmask, mp, morphoptions);
             	ip.insert(ipmask,r.x,r.y);
 	         } // end if
@@ -243,6 +245,11 @@ else if (!isLineRoi) {
     }
 
     private void doOptions(ImageProcessor ip, MorphoProcessor mp, int morphoptions){
+        // the fast operators, and all operators on 16 and 32-bit images,
+        // use the van Herk/Gil-Werman engine; it gives the same results
+        // as the plain operators on 8-bit images
+        if (!(ip instanceof ByteProcessor) && morphoptions<FERODE)
+            morphoptions+=FERODE;
         switch (morphoptions) {
         
         case ERODE: {
@@ -261,39 +268,19 @@ private void doOptions(ImageProcessor ip, MorphoProcessor mp, int morphoptions){
         }
         
         case FERODE: {
-        	if ((se.getType()==HLINE) || (se.getType()==VLINE)) {
-        		mp.LineErode(ip);}
-        	else {
-        		mp.fastErode(ip);
-        	}
+            me.erode(ip);
             break;
         }
         case FDILATE:{
-        	if ((se.getType()==HLINE) || (se.getType()==VLINE)) {
-            	mp.LineDilate(ip);}
-        	else {
-        		mp.fastDilate(ip);
-            	}
+            me.dilate(ip);
             break;
         }
         case FOPEN:{
-        	if ((se.getType()==HLINE) || (se.getType()==VLINE)) {
-        		mp.LineErode(ip);
-        		mp.LineDilate(ip);
-            }
-        	else {
-        		mp.fopen(ip);
-        	}
+            me.open(ip);
             break;
         }
         case FCLOSE:{
-        	if ((se.getType()==HLINE) || (se.getType()==VLINE)) {
-            	mp.LineDilate(ip);
-            	mp.LineErode(ip);
-            	}
-        	else {
-        		mp.fclose(ip);
-        	}
+            me.close(ip);
             break;
         }
  
@@ -0,0 +1,459 @@
+/*
+ * MorphoEngine.java
+ *
+ *      This library is free software; you can redistribute it and/or
+ *      modify it under the terms of the GNU Lesser General Public
+ *      License as published by the Free Software Foundation; either
+ *      version 2.1 of the License, or (at your option) any later version.
+ *
+ *      This library is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *       Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public
+ *      License along with this library; if not, write to the Free Software
+ *      Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package mmorpho;
+
+import ij.*;
+import ij.process.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Flat gray level morphology on 8, 16 and 32-bit images and stacks.
+ *
+ * The structure element is decomposed into horizontal lines (chords), e.g.
+ * one per row for disks, diamonds and octagons. The minimum (maximum) along
+ * every line is computed with the van Herk/Gil-Werman algorithm, which
+ * takes 3 comparisons per pixel whatever the length of the line, and the
+ * results of the lines are combined. Rectangles, including horizontal and
+ * vertical lines, are done as a horizontal and a vertical van Herk/Gil-Werman
+ * pass. The rows (or columns) of the image are processed in parallel.
+ *
+ * The results are the same as those of {@link MorphoProcessor#erode} and
+ * {@link MorphoProcessor#dilate} for 8-bit images: the nonzero entries of
+ * the mask are the offsets of the structure element, and pixels outside of
+ * the image are taken as the maximum (erosion) or minimum (dilation) of the
+ * image type.
+ */
+public class MorphoEngine implements Constants {
+
+    // the chords: {dy, dx, index of the length in lengths}
+    private int[][] chords;
+    private int[] lengths;
+    private int minDy, maxDy, padLeft, padRight;
+
+    // all chords have the same dx and length and cover the rows minDy..maxDy
+    private boolean rectangle;
+
+    private int numThreads=Runtime.getRuntime().availableProcessors();
+
+    // columns per task of the vertical pass
+    private static final int BAND=64;
+
+    /** Creates a new engine for the StructureElement se */
+    public MorphoEngine(StructureElement se) {
+        this(se.getVect());
+    }
+
+    /** Creates a new engine for the offsets of a StructureElement
+     * @param pg the offsets {dy, dx, ...} as returned by StructureElement.getVect()
+     */
+    public MorphoEngine(int[][] pg) {
+        TreeMap<Integer, TreeSet<Integer>> rows=new TreeMap<Integer, TreeSet<Integer>>();
+        for (int g=0; g<pg.length; g++) {
+            TreeSet<Integer> row=rows.get(pg[g][0]);
+            if (row==null) {
+                row=new TreeSet<Integer>();
+                rows.put(pg[g][0], row);
+            }
+            row.add(pg[g][1]);
+        }
+
+        // split the rows into runs of consecutive offsets
+        ArrayList<int[]> runs=new ArrayList<int[]>();
+        for (Map.Entry<Integer, TreeSet<Integer>> row: rows.entrySet()) {
+            int start=0, end=0;
+            boolean open=false;
+            for (int dx: row.getValue()) {
+                if (open && dx==end+1) {
+                    end=dx;
+                    continue;
+                }
+                if (open)
+                    runs.add(new int[] {row.getKey(), start, end-start+1});
+                start=end=dx;
+                open=true;
+            }
+            runs.add(new int[] {row.getKey(), start, end-start+1});
+        }
+
+        TreeSet<Integer> distinct=new TreeSet<Integer>();
+        for (int[] run: runs)
+            distinct.add(run[2]);
+        lengths=new int[distinct.size()];
+        int l=0;
+        for (int length: distinct)
+            lengths[l++]=length;
+
+        chords=new int[runs.size()][];
+        minDy=Integer.MAX_VALUE;
+        maxDy=Integer.MIN_VALUE;
+        padLeft=padRight=0;
+        for (int c=0; c<chords.length; c++) {
+            int[] run=runs.get(c);
+            chords[c]=new int[] {run[0], run[1], Arrays.binarySearch(lengths, run[2])};
+            minDy=Math.min(minDy, run[0]);
+            maxDy=Math.max(maxDy, run[0]);
+            padLeft=Math.max(padLeft, -run[1]);
+            padRight=Math.max(padRight, run[1]+run[2]-1);
+        }
+
+        rectangle=chords.length>0 && lengths.length==1 && chords.length==maxDy-minDy+1;
+        for (int c=1; rectangle && c<chords.length; c++)
+            rectangle=chords[c][1]==chords[0][1];
+    }
+
+    /** Sets the number of threads, by default the number of processors */
+    public void setNumThreads(int numThreads) {
+        this.numThreads=Math.max(1, numThreads);
+    }
+
+    /** Performs gray level erosion */
+    public void erode(ImageProcessor ip) {
+        float[] pixels=getPixels(ip, false);
+        float[] result=new float[pixels.length];
+        erode(pixels, result, ip.getWidth(), ip.getHeight(), padding(ip, false));
+        setPixels(ip, result, false);
+    }
+
+    /** Performs gray level dilation */
+    public void dilate(ImageProcessor ip) {
+        float[] pixels=getPixels(ip, true);
+        float[] result=new float[pixels.length];
+        erode(pixels, result, ip.getWidth(), ip.getHeight(), padding(ip, true));
+        setPixels(ip, result, true);
+    }
+
+    /** Performs gray level erosion followed by gray level dilation */
+    public void open(ImageProcessor ip) {
+        erode(ip);
+        dilate(ip);
+    }
+
+    /** Performs gray level dilation followed by gray level erosion */
+    public void close(ImageProcessor ip) {
+        dilate(ip);
+        erode(ip);
+    }
+
+    /** Performs gray level erosion on all slices of a stack */
+    public void erode(ImageStack stack) {
+        for (int s=1; s<=stack.getSize(); s++)
+            erode(stack.getProcessor(s));
+    }
+
+    /** Performs gray level dilation on all slices of a stack */
+    public void dilate(ImageStack stack) {
+        for (int s=1; s<=stack.getSize(); s++)
+            dilate(stack.getProcessor(s));
+    }
+
+    /** Performs gray level opening on all slices of a stack */
+    public void open(ImageStack stack) {
+        for (int s=1; s<=stack.getSize(); s++)
+            open(stack.getProcessor(s));
+    }
+
+    /** Performs gray level closing on all slices of a stack */
+    public void close(ImageStack stack) {
+        for (int s=1; s<=stack.getSize(); s++)
+            close(stack.getProcessor(s));
+    }
+
+    /*
+     * Dilation is done as the erosion of the negated image, so the pixels
+     * are negated when they are read and written for a dilation.
+     */
+
+    private static float[] getPixels(ImageProcessor ip, boolean negate) {
+        float sign=negate ? -1 : 1;
+        Object pixels=ip.getPixels();
+        float[] result;
+        if (pixels instanceof byte[]) {
+            byte[] p=(byte[])pixels;
+            result=new float[p.length];
+            for (int i=0; i<p.length; i++)
+                result[i]=sign*(p[i]&0xFF);
+        }
+        else if (pixels instanceof short[]) {
+            short[] p=(short[])pixels;
+            result=new float[p.length];
+            for (int i=0; i<p.length; i++)
+                result[i]=sign*(p[i]&0xFFFF);
+        }
+        else if (pixels instanceof float[]) {
+            float[] p=(float[])pixels;
+            result=new float[p.length];
+            for (int i=0; i<p.length; i++)
+                result[i]=sign*p[i];
+        }
+        else
+            throw new IllegalArgumentException("8, 16 or 32-bit grayscale image required");
+        return result;
+    }
+
+    private static void setPixels(ImageProcessor ip, float[] values, boolean negate) {
+        float sign=negate ? -1 : 1;
+        Object pixels=ip.getPixels();
+        if (pixels instanceof byte[]) {
+            byte[] p=(byte[])pixels;
+            for (int i=0; i<p.length; i++)
+                p[i]=(byte)((int)(sign*values[i])&0xFF);
+        }
+        else if (pixels instanceof short[]) {
+            short[] p=(short[])pixels;
+            for (int i=0; i<p.length; i++)
+                p[i]=(short)((int)(sign*values[i])&0xFFFF);
+        }
+        else {
+            float[] p=(float[])pixels;
+            for (int i=0; i<p.length; i++)
+                p[i]=sign*values[i];
+        }
+    }
+
+    /* the value of the pixels outside of the image */
+    private static float padding(ImageProcessor ip, boolean negate) {
+        if (negate)
+            return ip instanceof FloatProcessor ? Float.POSITIVE_INFINITY : 0;
+        if (ip instanceof ByteProcessor)
+            return 255;
+        if (ip instanceof ShortProcessor)
+            return 65535;
+        return Float.POSITIVE_INFINITY;
+    }
+
+    /** Flat erosion of a width x height image, with pad outside of the image */
+    private void erode(final float[] in, final float[] out, final int width, final int height, final float pad) {
+        if (chords.length==0) {
+            Arrays.fill(out, pad);
+            return;
+        }
+        if (rectangle) {
+            final float[] tmp=new float[in.length];
+            parallel(height, new Task() {
+                public void run(int y, Buffers buffers) {
+                    horizontal(in, tmp, y, width, pad, buffers);
+                }
+            });
+            final int bands=(width+BAND-1)/BAND;
+            parallel(bands, new Task() {
+                public void run(int band, Buffers buffers) {
+                    vertical(tmp, out, band*BAND, Math.min(width, (band+1)*BAND), width, height, pad, buffers);
+                }
+            });
+        }
+        else {
+            // a task per group of rows, so that the rows above and below
+            // are computed only once per group
+            final int rowsPerTask=Math.max(4*(maxDy-minDy+1), 32);
+            final int tasks=(height+rowsPerTask-1)/rowsPerTask;
+            parallel(tasks, new Task() {
+                public void run(int task, Buffers buffers) {
+                    chords(in, out, task*rowsPerTask, Math.min(height, (task+1)*rowsPerTask), width, height, pad, buffers);
+                }
+            });
+        }
+    }
+
+    /* the minimum along the horizontal line of a rectangle, for one row */
+    private void horizontal(float[] in, float[] out, int y, int width, float pad, Buffers buffers) {
+        int n=padLeft+width+padRight;
+        float[] row=buffers.row(n);
+        fillRow(in, y, width, pad, row);
+        float[] line=buffers.line(n);
+        slidingMin(row, n, lengths[0], buffers.g(n), buffers.h(n), line);
+        int offset=padLeft+chords[0][1];
+        System.arraycopy(line, offset, out, y*width, width);
+    }
+
+    /* the minimum along the vertical line of a rectangle, for the columns x0..x1-1 */
+    private void vertical(float[] in, float[] out, int x0, int x1, int width, int height, float pad, Buffers buffers) {
+        int bw=x1-x0;
+        int length=maxDy-minDy+1;
+        int padTop=Math.max(0, -minDy), padBottom=Math.max(0, maxDy);
+        int n=padTop+height+padBottom;
+        float[] g=buffers.g(n*bw);
+        float[] h=buffers.h(n*bw);
+
+        for (int i=0; i<n; i++) {
+            int y=i-padTop;
+            int o=i*bw;
+            boolean inside=y>=0 && y<height;
+            if (i%length==0) {
+                for (int x=0; x<bw; x++)
+                    g[o+x]=inside ? in[y*width+x0+x] : pad;
+            }
+            else {
+                for (int x=0; x<bw; x++)
+                    g[o+x]=Math.min(g[o-bw+x], inside ? in[y*width+x0+x] : pad);
+            }
+        }
+        for (int i=n-1; i>=0; i--) {
+            int y=i-padTop;
+            int o=i*bw;
+            boolean inside=y>=0 && y<height;
+            if (i%length==length-1 || i==n-1) {
+                for (int x=0; x<bw; x++)
+                    h[o+x]=inside ? in[y*width+x0+x] : pad;
+            }
+            else {
+                for (int x=0; x<bw; x++)
+                    h[o+x]=Math.min(h[o+bw+x], inside ? in[y*width+x0+x] : pad);
+            }
+        }
+        for (int y=0; y<height; y++) {
+            int s=(padTop+y+minDy)*bw;
+            int e=s+(length-1)*bw;
+            int o=y*width+x0;
+            for (int x=0; x<bw; x++)
+                out[o+x]=Math.min(h[s+x], g[e+x]);
+        }
+    }
+
+    /* the minimum over all chords, for the rows y0..y1-1 */
+    private void chords(float[] in, float[] out, int y0, int y1, int width, int height, float pad, Buffers buffers) {
+        int n=padLeft+width+padRight;
+        int ringSize=maxDy-minDy+1;
+        // the line minima of the last rows, per length
+        float[][][] ring=buffers.ring(ringSize, lengths.length, n);
+        int[] ringRows=buffers.ringRows(ringSize);
+        Arrays.fill(ringRows, Integer.MIN_VALUE);
+        float[] row=buffers.row(n);
+        float[] g=buffers.g(n);
+        float[] h=buffers.h(n);
+
+        for (int y=y0; y<y1; y++) {
+            int o=y*width;
+            Arrays.fill(out, o, o+width, pad);
+            for (int c=0; c<chords.length; c++) {
+                int yy=y+chords[c][0];
+                if (yy<0 || yy>=height)
+                    continue;
+                int slot=((yy%ringSize)+ringSize)%ringSize;
+                if (ringRows[slot]!=yy) {
+                    fillRow(in, yy, width, pad, row);
+                    for (int l=0; l<lengths.length; l++)
+                        slidingMin(row, n, lengths[l], g, h, ring[slot][l]);
+                    ringRows[slot]=yy;
+                }
+                float[] line=ring[slot][chords[c][2]];
+                int offset=padLeft+chords[c][1];
+                for (int x=0; x<width; x++)
+                    if (line[offset+x]<out[o+x])
+                        out[o+x]=line[offset+x];
+            }
+        }
+    }
+
+    private void fillRow(float[] in, int y, int width, float pad, float[] row) {
+        Arrays.fill(row, 0, padLeft, pad);
+        System.arraycopy(in, y*width, row, padLeft, width);
+        Arrays.fill(row, padLeft+width, padLeft+width+padRight, pad);
+    }
+
+    /**
+     * van Herk/Gil-Werman: result[i] is the minimum of row[i..i+length-1],
+     * for i=0..n-length. The row is cut into blocks of the given length; g
+     * holds the minimum from the start of the block, h the one to its end.
+     */
+    static void slidingMin(float[] row, int n, int length, float[] g, float[] h, float[] result) {
+        if (length==1) {
+            System.arraycopy(row, 0, result, 0, n);
+            return;
+        }
+        for (int i=0; i<n; i++)
+            g[i]=(i%length==0) ? row[i] : Math.min(g[i-1], row[i]);
+        for (int i=n-1; i>=0; i--)
+            h[i]=(i%length==length-1 || i==n-1) ? row[i] : Math.min(h[i+1], row[i]);
+        for (int i=0; i+length-1<n; i++)
+            result[i]=Math.min(h[i], g[i+length-1]);
+    }
+
+    /* per-thread work buffers */
+    private static class Buffers {
+        private float[] row, line, g, h;
+        private float[][][] ring;
+        private int[] ringRows;
+
+        float[] row(int n) {
+            if (row==null || row.length<n) row=new float[n];
+            return row;
+        }
+
+        float[] line(int n) {
+            if (line==null || line.length<n) line=new float[n];
+            return line;
+        }
+
+        float[] g(int n) {
+            if (g==null || g.length<n) g=new float[n];
+            return g;
+        }
+
+        float[] h(int n) {
+            if (h==null || h.length<n) h=new float[n];
+            return h;
+        }
+
+        float[][][] ring(int size, int lengths, int n) {
+            if (ring==null || ring.length!=size || ring[0].length!=lengths || ring[0][0].length<n)
+                ring=new float[size][lengths][n];
+            return ring;
+        }
+
+        int[] ringRows(int size) {
+            if (ringRows==null || ringRows.length!=size) ringRows=new int[size];
+            return ringRows;
+        }
+    }
+
+    private interface Task {
+        void run(int index, Buffers buffers);
+    }
+
+    /* runs the tasks 0..count-1 on numThreads threads */
+    private void parallel(final int count, final Task task) {
+        final AtomicInteger next=new AtomicInteger(0);
+        int n=Math.min(numThreads, count);
+        if (n<=1) {
+            Buffers buffers=new Buffers();
+            for (int i=0; i<count; i++)
+                task.run(i, buffers);
+            return;
+        }
+        Thread[] threads=new Thread[n];
+        for (int t=0; t<n; t++) {
+            threads[t]=new Thread() {
+                public void run() {
+                    Buffers buffers=new Buffers();
+                    for (int i=next.getAndIncrement(); i<count; i=next.getAndIncrement())
+                        task.run(i, buffers);
+                }
+            };
+            threads[t].start();
+        }
+        try {
+            for (int t=0; t<n; t++)
+                threads[t].join();
+        }
+        catch (InterruptedException e) {
+            IJ.log("Interrupted: "+e);
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/* Compare MorphoEngine with MorphoProcessor (8-bit) and with a brute force
+   search of the structure element (16 and 32-bit). */
+
+package mmorpho;
+
+import ij.process.ByteProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class TestMorphoEngine implements Constants {
+
+	final static int[] types = { CIRCLE, DIAMOND, SQARE, HLINE, VLINE, HPOINTS, VPOINTS };
+	final static float[] radii = { 1, 2.5f, 4 };
+
+	ImageProcessor randomImage( ImageProcessor ip, long seed ) {
+		Random random = new Random( seed );
+		for( int y = 0; y < ip.getHeight(); ++y )
+			for( int x = 0; x < ip.getWidth(); ++x )
+				if( ip instanceof FloatProcessor )
+					ip.putPixelValue( x, y, random.nextGaussian() * 1000 );
+				else
+					ip.putPixel( x, y, random.nextInt( ip instanceof ByteProcessor ? 256 : 65536 ) );
+		return ip;
+	}
+
+	/* min (erosion) or max (dilation) over the offsets of the structure element */
+	float[] bruteForce( ImageProcessor ip, int[][] pg, boolean dilate, float pad ) {
+		int w = ip.getWidth(), h = ip.getHeight();
+		float[] result = new float[ w * h ];
+		for( int y = 0; y < h; ++y )
+			for( int x = 0; x < w; ++x ) {
+				float value = pad;
+				for( int g = 0; g < pg.length; ++g ) {
+					int yy = y + pg[ g ][ 0 ], xx = x + pg[ g ][ 1 ];
+					float v = xx < 0 || yy < 0 || xx >= w || yy >= h ? pad : ip.getPixelValue( xx, yy );
+					value = dilate ? Math.max( value, v ) : Math.min( value, v );
+				}
+				result[ y * w + x ] = value;
+			}
+		return result;
+	}
+
+	void assertSame( String message, ImageProcessor expected, ImageProcessor actual ) {
+		for( int y = 0; y < expected.getHeight(); ++y )
+			for( int x = 0; x < expected.getWidth(); ++x )
+				assertEquals( message + " at " + x + ", " + y,
+					expected.getPixelValue( x, y ), actual.getPixelValue( x, y ), 0 );
+	}
+
+	@Test
+	public void test8Bit() {
+		for( int type : types )
+			for( float radius : radii ) {
+				StructureElement se = new StructureElement( type, 1, radius, OFFSET0 );
+				String message = "type " + type + ", radius " + radius;
+				for( int numThreads = 1; numThreads <= 3; numThreads += 2 ) {
+					ImageProcessor image = randomImage( new ByteProcessor( 37, 29 ), type * 10 + (int)radius );
+					MorphoEngine engine = new MorphoEngine( se );
+					engine.setNumThreads( numThreads );
+
+					ImageProcessor expected = image.duplicate(), actual = image.duplicate();
+					new MorphoProcessor( se ).erode( expected );
+					engine.erode( actual );
+					assertSame( "erode " + message, expected, actual );
+
+					expected = image.duplicate();
+					actual = image.duplicate();
+					new MorphoProcessor( se ).dilate( expected );
+					engine.dilate( actual );
+					assertSame( "dilate " + message, expected, actual );
+				}
+			}
+	}
+
+	@Test
+	public void testFastErode() {
+		for( int type : new int[] { CIRCLE, DIAMOND } )
+			for( float radius : radii ) {
+				StructureElement se = new StructureElement( type, 1, radius, OFFSET0 );
+				ImageProcessor image = randomImage( new ByteProcessor( 40, 31 ), 7 );
+				ImageProcessor expected = image.duplicate(), actual = image.duplicate();
+				new MorphoProcessor( se ).fastErode( expected );
+				new MorphoEngine( se ).erode( actual );
+				assertSame( "fast erode type " + type + ", radius " + radius, expected, actual );
+
+				expected = image.duplicate();
+				actual = image.duplicate();
+				new MorphoProcessor( se ).fastDilate( expected );
+				new MorphoEngine( se ).dilate( actual );
+				assertSame( "fast dilate type " + type + ", radius " + radius, expected, actual );
+			}
+	}
+
+	void testBruteForce( ImageProcessor image, float max, float min ) {
+		for( int type : types )
+			for( float radius : radii ) {
+				StructureElement se = new StructureElement( type, 1, radius, OFFSET0 );
+				String message = "type " + type + ", radius " + radius;
+				MorphoEngine engine = new MorphoEngine( se );
+				engine.setNumThreads( 2 );
+
+				ImageProcessor actual = image.duplicate();
+				engine.erode( actual );
+				ImageProcessor expected = new FloatProcessor( image.getWidth(), image.getHeight(),
+					bruteForce( image, se.getVect(), false, max ), null );
+				assertSame( "erode " + message, expected, actual );
+
+				actual = image.duplicate();
+				engine.dilate( actual );
+				expected = new FloatProcessor( image.getWidth(), image.getHeight(),
+					bruteForce( image, se.getVect(), true, min ), null );
+				assertSame( "dilate " + message, expected, actual );
+			}
+	}
+
+	@Test
+	public void test16Bit() {
+		testBruteForce( randomImage( new ShortProcessor( 33, 26 ), 5 ), 65535, 0 );
+	}
+
+	@Test
+	public void test32Bit() {
+		testBruteForce( randomImage( new FloatProcessor( 33, 26 ), 6 ),
+			Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY );
+	}
+
+	@Test
+	public void testFreeForm() {
+		// a ring with a hole and an off-center point
+		StructureElement se = new StructureElement(
+			" 0 255 255 255 0\n 255 0 0 0 255\n 255 0 255 0 255\n 255 0 0 0 255\n 0 255 255 0 255\n" );
+		ImageProcessor image = randomImage( new ByteProcessor( 21, 19 ), 11 );
+		ImageProcessor expected = image.duplicate(), actual = image.duplicate();
+		new MorphoProcessor( se ).erode( expected );
+		new MorphoEngine( se ).erode( actual );
+		assertSame( "free form", expected, actual );
+	}
+}
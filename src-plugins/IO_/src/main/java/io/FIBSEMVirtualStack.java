@@ -0,0 +1,238 @@
+package io;
+
+import ij.IJ;
+import ij.ImageListener;
+import ij.ImagePlus;
+import ij.VirtualStack;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+
+import io.FIBSEM_Reader.FIBSEMData;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A virtual stack backed by a list of FIB-SEM .dat files. Only the headers
+ * are parsed up front; the planes are decoded when they are requested, and
+ * the files following the requested one (in the direction of browsing) are
+ * decoded ahead of time on a thread pool.
+ *
+ * Slices are ordered channel-first, i.e. slice n holds channel
+ * (n-1) % numChannels of file (n-1) / numChannels.
+ */
+public class FIBSEMVirtualStack extends VirtualStack
+{
+	final File[] files;
+	final FIBSEMData[] headers;
+	final int numChannels;
+	final boolean openAsFloat;
+	final int readAhead;
+
+	final ExecutorService executor;
+	final LinkedHashMap< Integer, Future< ImageProcessor[] > > cache;
+
+	int lastFile = -1;
+	int direction = 1;
+
+	/**
+	 * @param files - the .dat files, one per plane
+	 * @param headers - their headers, all of the same dimensions and channel count
+	 * @param openAsFloat - return voltages as float instead of unsigned short
+	 * @param numThreads - the number of threads decoding ahead
+	 */
+	public FIBSEMVirtualStack( final File[] files, final FIBSEMData[] headers, final boolean openAsFloat, final int numThreads )
+	{
+		super( (int)headers[ 0 ].xRes, (int)headers[ 0 ].yRes, null, files[ 0 ].getParent() );
+
+		this.files = files;
+		this.headers = headers;
+		this.numChannels = headers[ 0 ].numChannels;
+		this.openAsFloat = openAsFloat;
+		this.readAhead = Math.max( 1, numThreads );
+
+		executor = Executors.newFixedThreadPool( readAhead, new ThreadFactory()
+		{
+			@Override
+			public Thread newThread( final Runnable r )
+			{
+				final Thread thread = new Thread( r, "FIB-SEM decoder" );
+				thread.setDaemon( true );
+				return thread;
+			}
+		} );
+
+		// keep what is being decoded ahead plus a few recently seen planes
+		final int capacity = 3 * readAhead + 2;
+		cache = new LinkedHashMap< Integer, Future< ImageProcessor[] > >( capacity, 0.75f, true )
+		{
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry( final Map.Entry< Integer, Future< ImageProcessor[] > > eldest )
+			{
+				return size() > capacity;
+			}
+		};
+	}
+
+	@Override
+	public ImageProcessor getProcessor( final int n )
+	{
+		if ( n < 1 || n > getSize() )
+			throw new IllegalArgumentException( "Argument out of range: " + n );
+
+		final int fileIndex = ( n - 1 ) / numChannels;
+		final int channel = ( n - 1 ) % numChannels;
+
+		final Future< ImageProcessor[] > future;
+
+		synchronized ( cache )
+		{
+			if ( lastFile >= 0 && fileIndex != lastFile )
+				direction = fileIndex > lastFile ? 1 : -1;
+			lastFile = fileIndex;
+
+			future = request( fileIndex );
+
+			for ( int i = 1; i <= readAhead; ++i )
+			{
+				final int ahead = fileIndex + i * direction;
+				if ( ahead >= 0 && ahead < files.length )
+					request( ahead );
+			}
+		}
+
+		try
+		{
+			return future.get()[ channel ].duplicate();
+		}
+		catch ( InterruptedException e )
+		{
+			IJ.log( "Interrupted while reading '" + files[ fileIndex ].getAbsolutePath() + "'" );
+		}
+		catch ( ExecutionException e )
+		{
+			IJ.log( "Error reading '" + files[ fileIndex ].getAbsolutePath() + "': " + e.getCause() );
+			synchronized ( cache )
+			{
+				cache.remove( fileIndex );
+			}
+		}
+
+		// return an empty plane rather than failing the display
+		if ( openAsFloat )
+			return new FloatProcessor( getWidth(), getHeight() );
+		return new ShortProcessor( getWidth(), getHeight() );
+	}
+
+	/**
+	 * Returns the pending or finished decoding of a file, submitting it if necessary.
+	 * Must be called while holding the lock on the cache.
+	 */
+	protected Future< ImageProcessor[] > request( final int fileIndex )
+	{
+		Future< ImageProcessor[] > future = cache.get( fileIndex );
+		if ( future == null )
+		{
+			future = executor.submit( new Callable< ImageProcessor[] >()
+			{
+				@Override
+				public ImageProcessor[] call() throws IOException
+				{
+					return FIBSEM_Reader.decodeChannels( headers[ fileIndex ], files[ fileIndex ], openAsFloat );
+				}
+			} );
+			cache.put( fileIndex, future );
+		}
+		return future;
+	}
+
+	@Override
+	public Object getPixels( final int n )
+	{
+		return getProcessor( n ).getPixels();
+	}
+
+	/** Does nothing, the files are read-only. */
+	@Override
+	public void setPixels( final Object pixels, final int n ) {}
+
+	@Override
+	public int getSize() { return files.length * numChannels; }
+
+	@Override
+	public String getSliceLabel( final int n )
+	{
+		final int fileIndex = ( n - 1 ) / numChannels;
+		if ( numChannels == 1 )
+			return files[ fileIndex ].getName();
+		return files[ fileIndex ].getName() + " channel " + ( ( n - 1 ) % numChannels );
+	}
+
+	@Override
+	public String getFileName( final int n )
+	{
+		return files[ ( n - 1 ) / numChannels ].getName();
+	}
+
+	/** Deleting slices is not supported, the stack always mirrors the files. */
+	@Override
+	public void deleteSlice( final int n ) {}
+
+	/**
+	 * @return the header of the file holding slice n
+	 */
+	public FIBSEMData getHeader( final int n )
+	{
+		return headers[ ( n - 1 ) / numChannels ];
+	}
+
+	/**
+	 * Disposes of this stack once the given image, or another image showing
+	 * this stack, is closed.
+	 *
+	 * @param imp - the image showing this stack
+	 */
+	public void disposeWith( final ImagePlus imp )
+	{
+		ImagePlus.addImageListener( new ImageListener()
+		{
+			@Override
+			public void imageOpened( final ImagePlus image ) {}
+
+			@Override
+			public void imageUpdated( final ImagePlus image ) {}
+
+			@Override
+			public void imageClosed( final ImagePlus image )
+			{
+				if ( image != imp && ( image.getStackSize() < 2 || image.getStack() != FIBSEMVirtualStack.this ) )
+					return;
+				ImagePlus.removeImageListener( this );
+				dispose();
+			}
+		} );
+	}
+
+	/**
+	 * Stops decoding ahead and releases the cached planes.
+	 */
+	public void dispose()
+	{
+		executor.shutdownNow();
+		synchronized ( cache )
+		{
+			cache.clear();
+		}
+	}
+}
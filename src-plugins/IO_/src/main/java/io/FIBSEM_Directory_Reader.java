@@ -0,0 +1,273 @@
+package io;
+
+import ij.CompositeImage;
+import ij.IJ;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.Prefs;
+import ij.gui.GenericDialog;
+import ij.io.DirectoryChooser;
+import ij.measure.Calibration;
+import ij.plugin.PlugIn;
+import ij.process.ImageProcessor;
+
+import io.FIBSEM_Reader.FIBSEMData;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Opens a directory of FIB-SEM .dat files as one stack, either as a
+ * {@link FIBSEMVirtualStack} (only the headers are read up front) or
+ * decoding all files concurrently into memory.
+ */
+public class FIBSEM_Directory_Reader implements PlugIn
+{
+	public static boolean virtual = true;
+
+	@Override
+	public void run( final String arg )
+	{
+		String directory = arg;
+
+		if ( directory == null || directory.equals( "" ) || !new File( directory ).isDirectory() )
+		{
+			final DirectoryChooser dc = new DirectoryChooser( "Open FIB-SEM directory" );
+			directory = dc.getDirectory();
+			if ( directory == null )
+				return;
+		}
+
+		final GenericDialog gd = new GenericDialog( "Open FIB-SEM directory" );
+		gd.addCheckbox( "Use virtual stack", virtual );
+		gd.addCheckbox( "Open as float (volts)", FIBSEM_Reader.openAsFloat );
+		gd.addNumericField( "Threads", Prefs.getThreads(), 0 );
+		gd.showDialog();
+		if ( gd.wasCanceled() )
+			return;
+
+		virtual = gd.getNextBoolean();
+		FIBSEM_Reader.openAsFloat = gd.getNextBoolean();
+		final int numThreads = Math.max( 1, (int)gd.getNextNumber() );
+
+		try
+		{
+			final long start = System.currentTimeMillis();
+			final ImagePlus imp = open( new File( directory ), virtual, FIBSEM_Reader.openAsFloat, numThreads );
+			if ( imp == null )
+				return;
+			IJ.log( "Opened " + imp.getStackSize() + " FIB-SEM planes in " + ( System.currentTimeMillis() - start ) + " ms" );
+			imp.show();
+		}
+		catch ( IOException e )
+		{
+			IJ.log( "Error opening the FIB-SEM directory '" + directory + "': " + e );
+		}
+	}
+
+	/**
+	 * Opens all FIB-SEM .dat files of a directory, sorted by name. Files which are no FIB-SEM files,
+	 * or whose dimensions or channel count differ from the first one, are skipped.
+	 *
+	 * @param directory - the directory
+	 * @param virtual - whether to decode planes lazily
+	 * @param openAsFloat - whether to open as voltages instead of unsigned short
+	 * @param numThreads - the number of threads used to parse and decode
+	 * @return the image, or null if the directory contains no FIB-SEM files
+	 * @throws IOException
+	 */
+	public static ImagePlus open( final File directory, final boolean virtual, final boolean openAsFloat, final int numThreads ) throws IOException
+	{
+		final File[] candidates = directory.listFiles( new FilenameFilter()
+		{
+			@Override
+			public boolean accept( final File dir, final String name )
+			{
+				return name.toLowerCase().endsWith( ".dat" );
+			}
+		} );
+
+		if ( candidates == null || candidates.length == 0 )
+		{
+			IJ.log( "No .dat files in '" + directory.getAbsolutePath() + "'" );
+			return null;
+		}
+
+		Arrays.sort( candidates );
+
+		final ExecutorService executor = Executors.newFixedThreadPool( numThreads );
+
+		try
+		{
+			final FIBSEMData[] allHeaders = parseHeaders( candidates, executor );
+
+			final List< File > files = new ArrayList< File >();
+			final List< FIBSEMData > headers = new ArrayList< FIBSEMData >();
+			FIBSEMData first = null;
+
+			for ( int i = 0; i < candidates.length; ++i )
+			{
+				final FIBSEMData header = allHeaders[ i ];
+				if ( header == null )
+				{
+					IJ.log( "Skipping '" + candidates[ i ].getName() + "', it is not a FIB-SEM raw file." );
+					continue;
+				}
+				if ( first == null )
+					first = header;
+				else if ( header.xRes != first.xRes || header.yRes != first.yRes || header.numChannels != first.numChannels )
+				{
+					IJ.log( "Skipping '" + candidates[ i ].getName() + "', its dimensions differ from '" + files.get( 0 ).getName() + "'" );
+					continue;
+				}
+				files.add( candidates[ i ] );
+				headers.add( header );
+			}
+
+			if ( first == null )
+				return null;
+
+			final File[] fileArray = files.toArray( new File[ files.size() ] );
+			final FIBSEMData[] headerArray = headers.toArray( new FIBSEMData[ headers.size() ] );
+
+			final ImageStack stack;
+			if ( virtual )
+				stack = new FIBSEMVirtualStack( fileArray, headerArray, openAsFloat, numThreads );
+			else
+				stack = decodeAll( fileArray, headerArray, openAsFloat, executor );
+
+			ImagePlus imp = new ImagePlus( directory.getName(), stack );
+			if ( first.numChannels > 1 )
+			{
+				imp.setDimensions( first.numChannels, fileArray.length, 1 );
+				imp = new CompositeImage( imp, CompositeImage.GRAYSCALE );
+			}
+			if ( virtual )
+				( (FIBSEMVirtualStack)stack ).disposeWith( imp );
+
+			// the display range of the first plane is a good guess for the rest
+			final ImageProcessor ip = stack.getProcessor( 1 );
+			ip.resetMinAndMax();
+			imp.setDisplayRange( ip.getMin(), ip.getMax() );
+
+			final Calibration cal = imp.getCalibration();
+			cal.setXUnit( "nm" );
+			cal.setYUnit( "nm" );
+			cal.pixelWidth = first.pixelSize;
+			cal.pixelHeight = first.pixelSize;
+
+			return imp;
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Parses the headers of all files concurrently, reading only the first 1024 bytes of every file.
+	 *
+	 * @return the headers, null for files whose magic number does not match
+	 */
+	public static FIBSEMData[] parseHeaders( final File[] files, final ExecutorService executor ) throws IOException
+	{
+		final FIBSEM_Reader reader = new FIBSEM_Reader();
+		final List< Future< FIBSEMData > > futures = new ArrayList< Future< FIBSEMData > >();
+
+		for ( final File f : files )
+			futures.add( executor.submit( new Callable< FIBSEMData >()
+			{
+				@Override
+				public FIBSEMData call() throws IOException
+				{
+					if ( f.length() < 1024 )
+						return null;
+
+					final byte[] bytes = new byte[ 1024 ];
+					final DataInputStream in = new DataInputStream( new FileInputStream( f ) );
+					try
+					{
+						in.readFully( bytes );
+					}
+					finally
+					{
+						in.close();
+					}
+					return reader.parseHeader( new ByteArrayInputStream( bytes ) );
+				}
+			} ) );
+
+		final FIBSEMData[] headers = new FIBSEMData[ files.length ];
+		for ( int i = 0; i < files.length; ++i )
+		{
+			IJ.showProgress( i, files.length );
+			headers[ i ] = get( futures.get( i ), files[ i ] );
+		}
+		IJ.showProgress( 1.0 );
+
+		return headers;
+	}
+
+	/**
+	 * Decodes all files concurrently into an in-memory stack.
+	 */
+	public static ImageStack decodeAll( final File[] files, final FIBSEMData[] headers, final boolean openAsFloat, final ExecutorService executor ) throws IOException
+	{
+		final List< Future< ImageProcessor[] > > futures = new ArrayList< Future< ImageProcessor[] > >();
+
+		for ( int i = 0; i < files.length; ++i )
+		{
+			final int index = i;
+			futures.add( executor.submit( new Callable< ImageProcessor[] >()
+			{
+				@Override
+				public ImageProcessor[] call() throws IOException
+				{
+					return FIBSEM_Reader.decodeChannels( headers[ index ], files[ index ], openAsFloat );
+				}
+			} ) );
+		}
+
+		final ImageStack stack = new ImageStack( (int)headers[ 0 ].xRes, (int)headers[ 0 ].yRes );
+		for ( int i = 0; i < files.length; ++i )
+		{
+			IJ.showProgress( i, files.length );
+			final ImageProcessor[] ips = get( futures.get( i ), files[ i ] );
+			for ( int c = 0; c < ips.length; ++c )
+				stack.addSlice( ips.length == 1 ? files[ i ].getName() : files[ i ].getName() + " channel " + c, ips[ c ] );
+		}
+		IJ.showProgress( 1.0 );
+
+		return stack;
+	}
+
+	private static < T > T get( final Future< T > future, final File f ) throws IOException
+	{
+		try
+		{
+			return future.get();
+		}
+		catch ( InterruptedException e )
+		{
+			throw new IOException( "Interrupted while reading '" + f.getAbsolutePath() + "'" );
+		}
+		catch ( ExecutionException e )
+		{
+			if ( e.getCause() instanceof IOException )
+				throw (IOException)e.getCause();
+			throw new IOException( "Error reading '" + f.getAbsolutePath() + "': " + e.getCause() );
+		}
+	}
+}
@@ -17,6 +17,7 @@
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 
 /**
  * Opens the proprietary FIB-SEM format used at Janelia Farm
@@ -333,6 +334,70 @@ final ImageStack readChannels( final FIBSEMData header, final FileInputStream fi
 		return stack;
 	}
 
+	/**
+	 * Reads the raw data of a FIB-SEM file (starting at position 1024) and converts all channels,
+	 * using the same scaling as {@link #readFIBSEM}. Values out of the 16-bit range are clamped silently.
+	 *
+	 * @param header - the header parsed from the same file
+	 * @param f - the file
+	 * @param openAsFloat - whether to return voltages as float instead of unsigned short
+	 * @return one {@link ImageProcessor} per channel
+	 * @throws IOException
+	 */
+	public static ImageProcessor[] decodeChannels( final FIBSEMData header, final File f, final boolean openAsFloat ) throws IOException
+	{
+		final int width = (int)header.xRes;
+		final int height = (int)header.yRes;
+		final int numChannels = header.numChannels;
+		final byte[] slice = new byte[ width * height * numChannels * 2 ];
+
+		final DataInputStream in = new DataInputStream( new FileInputStream( f ) );
+		try
+		{
+			// skipBytes() may skip less, which would shift all the planes
+			in.readFully( new byte[ 1024 ] );
+			in.readFully( slice );
+		}
+		finally
+		{
+			in.close();
+		}
+
+		final float minVolts = -10;
+		final float rangeVolts = 20;
+
+		final ImageProcessor[] ips = new ImageProcessor[ numChannels ];
+
+		for ( int c = 0; c < numChannels; ++c )
+		{
+			if ( openAsFloat )
+			{
+				final float[] pixels = new float[ width * height ];
+				for ( int i = 0, j = 2 * c; i < pixels.length; ++i, j += 2 * numChannels )
+				{
+					int v = ( slice[ j ] ) << 8;
+					v += ( slice[ j + 1 ] );
+					pixels[ i ] = header.offset[ 0 ] + v * header.gain[ 0 ];
+				}
+				ips[ c ] = new FloatProcessor( width, height, pixels, null );
+			}
+			else
+			{
+				final short[] pixels = new short[ width * height ];
+				for ( int i = 0, j = 2 * c; i < pixels.length; ++i, j += 2 * numChannels )
+				{
+					int v = ( slice[ j ] ) << 8;
+					v += ( slice[ j + 1 ] );
+					v = Math.round( ((header.offset[ 0 ] + v * header.gain[ 0 ])-minVolts)/rangeVolts*65535.0f );
+					pixels[ i ] = (short)Math.min( 65535, Math.max( 0, v ) );
+				}
+				ips[ c ] = new ShortProcessor( width, height, pixels, null );
+			}
+		}
+
+		return ips;
+	}
+
 	/**
 	 * Parses the header and sets the {@link FileInputStream} to right location where the raw image data starts
 	 *
@@ -341,9 +406,21 @@ final ImageStack readChannels( final FIBSEMData header, final FileInputStream fi
 	 * @throws IOException
 	 */
 	public FIBSEMData parseHeader( final FileInputStream file ) throws IOException
+	{
+		return parseHeader( (InputStream)file );
+	}
+
+	/**
+	 * Parses the header from an arbitrary stream, e.g. the first 1024 bytes of a file read into memory
+	 *
+	 * @param in - the stream, positioned at the start of the file
+	 * @return the {@link FIBSEMData} that contains all meta-data or null if the magic number (file id) does not match
+	 * @throws IOException
+	 */
+	public FIBSEMData parseHeader( final InputStream in ) throws IOException
 	{
 		// read the header
-		final DataInputStream s = new DataInputStream( file );
+		final DataInputStream s = new DataInputStream( in );
 		final FIBSEMData data = new FIBSEMData();
 
 		//
@@ -22,6 +22,7 @@
 
 import ij.IJ;
 import ij.ImagePlus;
+import ij.Prefs;
 import ij.io.FileInfo;
 import ij.io.FileOpener;
 import ij.io.OpenDialog;
@@ -112,9 +113,28 @@ public ImagePlus load(String directory, String fileName) {
 		
 		IJ.showStatus("Loading Nrrd File: " + directory + fileName);
 		
-		ImagePlus imp; FlexibleFileOpener gzfo;
+		ImagePlus imp=null; FlexibleFileOpener gzfo;
 		
-		if(fi.encoding.equals("gzip") && detachedHeader) {
+		if(fi.encoding.equals("gzip")) {
+			// Multi-member gzip data (as written by Nrrd_Writer) can be
+			// inflated in parallel; anything else falls through to the
+			// sequential openers below
+			long dataOffset=fi.longOffset>0?fi.longOffset:fi.offset;
+			// a byte skip in a detached header applies to the inflated data
+			if(!detachedHeader || dataOffset==0) {
+				try {
+					imp=ParallelGZIPReader.open(fi,detachedHeader?0:dataOffset,Prefs.getThreads());
+				} catch (IOException e) {
+					IJ.log("Nrrd_Reader: parallel gzip decoding failed ("+e.getMessage()+"), reading sequentially");
+					imp=null;
+				}
+			}
+			if (IJ.debugMode && imp!=null) IJ.log("Read gzip members in parallel");
+		}
+		
+		if(imp!=null) {
+			// already read
+		} else if(fi.encoding.equals("gzip") && detachedHeader) {
 			// call my nice gzip opener plugin which has had the 
 			// createInputStream method overloaded.
 			gzfo = new FlexibleFileOpener(fi,FlexibleFileOpener.GZIP);
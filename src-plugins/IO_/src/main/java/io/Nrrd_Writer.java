@@ -39,7 +39,6 @@
 
 import java.io.*;
 import java.util.Date;
-import java.util.zip.GZIPOutputStream;
 
                           
 public class Nrrd_Writer implements PlugIn {
@@ -150,12 +149,21 @@ void writeImage(FileInfo fi, Calibration cal) throws IOException {
 		// Then the image data
 		ImageWriter writer = new ImageWriter(fi);
 		if(nrrdEncoding.equals("gzip")) {
-			GZIPOutputStream zStream = new GZIPOutputStream(new BufferedOutputStream( out ));
-			writer.write(zStream);
-			zStream.close();
+			// Compress blocks concurrently; the multi-member output is still
+			// plain gzip, and lets Nrrd_Reader inflate in parallel, too
+			ParallelGZIPOutputStream zStream = new ParallelGZIPOutputStream(new BufferedOutputStream( out ));
+			try {
+				writer.write(zStream);
+			} finally {
+				// also stops the compression threads
+				zStream.close();
+			}
 		} else {
-			writer.write(out);
-			out.close();
+			try {
+				writer.write(out);
+			} finally {
+				out.close();
+			}
 		}
 		IJ.showStatus("Saved "+ fi.fileName);
 	}
@@ -0,0 +1,223 @@
+package io;
+
+// ParallelGZIPOutputStream
+// ------------------------
+// Compresses its input in fixed-size blocks on several threads and
+// writes each block as a separate gzip member.  Concatenated members
+// are a valid gzip stream (RFC 1952, section 2.2), so the output can be
+// read by gunzip, teem and any other gzip-aware NRRD reader.
+//
+// Every member carries an 'FJ' extra subfield holding the total size
+// of the member in bytes; ParallelGZIPReader uses it to find the member
+// boundaries without inflating, and to decompress members concurrently.
+// Used by Nrrd_Writer
+
+import ij.Prefs;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+class ParallelGZIPOutputStream extends FilterOutputStream {
+
+	// 4MB: large enough to keep the compression ratio close to that of a
+	// single stream, small enough to give every core some work
+	public static final int DEFAULT_BLOCK_SIZE = 1 << 22;
+
+	// extra subfield identifying the member size ('F','J' for Fiji)
+	static final int SUBFIELD_ID1 = 'F';
+	static final int SUBFIELD_ID2 = 'J';
+	static final int SUBFIELD_LENGTH = 4;
+	// fixed header + XLEN + subfield id, length and payload
+	static final int HEADER_SIZE = 10 + 2 + 4 + SUBFIELD_LENGTH;
+	// CRC32 + ISIZE
+	static final int TRAILER_SIZE = 8;
+
+	private final ExecutorService executor;
+	private final LinkedList<Future<byte[]>> pending = new LinkedList<Future<byte[]>>();
+	private final int blockSize;
+	private final int maxPending;
+	private final int level;
+
+	private byte[] buffer;
+	private int count;
+	private boolean wroteMember;
+	private boolean finished;
+
+	public ParallelGZIPOutputStream(OutputStream out) {
+		this(out, DEFAULT_BLOCK_SIZE, Prefs.getThreads());
+	}
+
+	public ParallelGZIPOutputStream(OutputStream out, int blockSize, int threads) {
+		this(out, blockSize, threads, Deflater.DEFAULT_COMPRESSION);
+	}
+
+	/**
+	 * @param blockSize the number of uncompressed bytes per gzip member;
+	 * should be a multiple of 8 so that members never split a pixel
+	 * @param threads the number of compression threads
+	 * @param level the deflate compression level
+	 */
+	public ParallelGZIPOutputStream(OutputStream out, int blockSize, int threads, int level) {
+		super(out);
+		if (blockSize <= 0) throw new IllegalArgumentException("Invalid block size: " + blockSize);
+		if (threads < 1) threads = 1;
+		this.blockSize = blockSize;
+		this.level = level;
+		// bound the memory used by blocks waiting to be written
+		maxPending = 2 * threads;
+		// daemon threads, so that a stream which is never closed does not
+		// keep a headless Fiji from exiting
+		executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "ParallelGZIPOutputStream");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		buffer = new byte[blockSize];
+	}
+
+	public void write(int b) throws IOException {
+		if (finished) throw new IOException("Stream already finished");
+		buffer[count++] = (byte)b;
+		if (count == blockSize) submitBlock();
+	}
+
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (finished) throw new IOException("Stream already finished");
+		while (len > 0) {
+			int n = Math.min(len, blockSize - count);
+			System.arraycopy(b, off, buffer, count, n);
+			count += n;
+			off += n;
+			len -= n;
+			if (count == blockSize) submitBlock();
+		}
+	}
+
+	/**
+	 * Writes out all members which have been compressed so far. The
+	 * partially filled current block is kept, so that flushing does
+	 * not change the member layout of the output.
+	 */
+	public void flush() throws IOException {
+		while (!pending.isEmpty() && pending.getFirst().isDone())
+			writeFirstPending();
+		out.flush();
+	}
+
+	/**
+	 * Compresses the remaining data and writes all pending members
+	 * without closing the underlying stream.
+	 */
+	public void finish() throws IOException {
+		if (finished) return;
+		try {
+			// an empty input still needs one (empty) member
+			if (count > 0 || !wroteMember) submitBlock();
+			while (!pending.isEmpty()) writeFirstPending();
+			out.flush();
+		} finally {
+			finished = true;
+			buffer = null;
+			executor.shutdownNow();
+		}
+	}
+
+	public void close() throws IOException {
+		try {
+			finish();
+		} finally {
+			out.close();
+		}
+	}
+
+	private void submitBlock() throws IOException {
+		final byte[] block = buffer;
+		final int length = count;
+		pending.add(executor.submit(new Callable<byte[]>() {
+			public byte[] call() {
+				return compressMember(block, length, level);
+			}
+		}));
+		wroteMember = true;
+		buffer = new byte[blockSize];
+		count = 0;
+		while (pending.size() >= maxPending) writeFirstPending();
+	}
+
+	private void writeFirstPending() throws IOException {
+		Future<byte[]> future = pending.removeFirst();
+		try {
+			out.write(future.get());
+		} catch (InterruptedException e) {
+			throw new IOException("Interrupted while compressing: " + e);
+		} catch (ExecutionException e) {
+			throw new IOException("Could not compress block: " + e.getCause());
+		}
+	}
+
+	/**
+	 * Compresses one block into a complete gzip member, including
+	 * header, extra subfield and trailer.
+	 */
+	static byte[] compressMember(byte[] data, int length, int level) {
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream(length / 2 + 64);
+		Deflater deflater = new Deflater(level, true);
+		try {
+			deflater.setInput(data, 0, length);
+			deflater.finish();
+			byte[] chunk = new byte[65536];
+			while (!deflater.finished()) {
+				int n = deflater.deflate(chunk);
+				compressed.write(chunk, 0, n);
+			}
+		} finally {
+			deflater.end();
+		}
+
+		CRC32 crc = new CRC32();
+		crc.update(data, 0, length);
+
+		int memberSize = HEADER_SIZE + compressed.size() + TRAILER_SIZE;
+		byte[] member = new byte[memberSize];
+		member[0] = (byte)0x1f; // ID1
+		member[1] = (byte)0x8b; // ID2
+		member[2] = 8;          // CM = deflate
+		member[3] = 4;          // FLG = FEXTRA
+		// MTIME (4 bytes) = 0, XFL = 0
+		member[9] = (byte)255;  // OS = unknown
+		putShort(member, 10, 4 + SUBFIELD_LENGTH);
+		member[12] = (byte)SUBFIELD_ID1;
+		member[13] = (byte)SUBFIELD_ID2;
+		putShort(member, 14, SUBFIELD_LENGTH);
+		putInt(member, 16, memberSize);
+		System.arraycopy(compressed.toByteArray(), 0, member, HEADER_SIZE, compressed.size());
+		putInt(member, memberSize - 8, (int)crc.getValue());
+		putInt(member, memberSize - 4, length);
+		return member;
+	}
+
+	private static void putShort(byte[] b, int offset, int value) {
+		b[offset] = (byte)value;
+		b[offset + 1] = (byte)(value >> 8);
+	}
+
+	private static void putInt(byte[] b, int offset, int value) {
+		b[offset] = (byte)value;
+		b[offset + 1] = (byte)(value >> 8);
+		b[offset + 2] = (byte)(value >> 16);
+		b[offset + 3] = (byte)(value >> 24);
+	}
+}
@@ -0,0 +1,323 @@
+package io;
+
+// ParallelGZIPReader
+// ------------------
+// Reads raw image data stored as a series of gzip members whose sizes
+// are recorded in an extra header subfield, as written by
+// ParallelGZIPOutputStream ('FJ' subfield) or by BGZF writers such as
+// samtools/htslib ('BC' subfield).
+//
+// The member boundaries are found by hopping from header to header, so
+// no data needs to be inflated to locate them.  The members are then
+// inflated concurrently, each straight into the pixel arrays of the
+// stack.  Streams without such subfields (e.g. a single member written
+// by GZIPOutputStream or gzip) are not handled here; open() returns
+// null and the caller should fall back to FlexibleFileOpener.
+// Used by Nrrd_Reader
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.io.FileInfo;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+class ParallelGZIPReader {
+
+	private static final int FEXTRA = 4;
+
+	static class Member {
+		long offset;
+		int size;
+		int dataOffset;
+		long uncompressedOffset;
+		int uncompressedSize;
+	}
+
+	/**
+	 * Locates the gzip members of a file, starting at the given offset.
+	 *
+	 * @return the members, or null if the file does not record the member
+	 * sizes in the header of every member
+	 */
+	static List<Member> findMembers(RandomAccessFile file, long start) throws IOException {
+		List<Member> members = new ArrayList<Member>();
+		long length = file.length();
+		long pos = start, uncompressed = 0;
+		byte[] header = new byte[12];
+		while (pos < length) {
+			if (length - pos < header.length + 8) return null;
+			file.seek(pos);
+			file.readFully(header);
+			if ((header[0] & 0xff) != 0x1f || (header[1] & 0xff) != 0x8b || header[2] != 8)
+				return null;
+			// only FEXTRA may be set, otherwise the data offset varies
+			if (header[3] != FEXTRA) return null;
+			int xlen = getShort(header, 10);
+			byte[] extra = new byte[xlen];
+			file.readFully(extra);
+			long size = getMemberSize(extra);
+			// the member must hold its header, some deflate data and the trailer
+			if (size <= 12 + xlen + 8 || size > Integer.MAX_VALUE || pos + size > length) return null;
+
+			file.seek(pos + size - 4);
+			byte[] trailer = new byte[4];
+			file.readFully(trailer);
+
+			Member member = new Member();
+			member.offset = pos;
+			member.size = (int)size;
+			member.dataOffset = 12 + xlen;
+			member.uncompressedOffset = uncompressed;
+			member.uncompressedSize = getInt(trailer, 0);
+			if (member.uncompressedSize < 0) return null;
+			members.add(member);
+
+			uncompressed += member.uncompressedSize;
+			pos += size;
+		}
+		return members.isEmpty() ? null : members;
+	}
+
+	private static long getMemberSize(byte[] extra) {
+		for (int i = 0; i + 4 <= extra.length; ) {
+			int id1 = extra[i] & 0xff, id2 = extra[i + 1] & 0xff;
+			int length = getShort(extra, i + 2);
+			if (i + 4 + length > extra.length) break;
+			if (id1 == ParallelGZIPOutputStream.SUBFIELD_ID1
+					&& id2 == ParallelGZIPOutputStream.SUBFIELD_ID2
+					&& length == ParallelGZIPOutputStream.SUBFIELD_LENGTH)
+				return getInt(extra, i + 4) & 0xffffffffl;
+			// BGZF stores the block size minus one
+			if (id1 == 'B' && id2 == 'C' && length == 2)
+				return getShort(extra, i + 4) + 1;
+			i += 4 + length;
+		}
+		return -1;
+	}
+
+	/**
+	 * Opens the image described by <code>fi</code>, whose compressed
+	 * data start at byte <code>start</code> of the file.
+	 *
+	 * @return the image, or null if the data cannot be read in parallel
+	 */
+	static ImagePlus open(FileInfo fi, long start, int threads) throws IOException {
+		File file = new File(fi.directory, fi.fileName);
+		int bytesPerPixel;
+		switch (fi.fileType) {
+		case FileInfo.GRAY8:
+		case FileInfo.COLOR8:
+			bytesPerPixel = 1;
+			break;
+		case FileInfo.GRAY16_SIGNED:
+		case FileInfo.GRAY16_UNSIGNED:
+			bytesPerPixel = 2;
+			break;
+		case FileInfo.GRAY32_INT:
+		case FileInfo.GRAY32_UNSIGNED:
+		case FileInfo.GRAY32_FLOAT:
+			bytesPerPixel = 4;
+			break;
+		default:
+			return null;
+		}
+
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		final List<Member> members;
+		try {
+			members = findMembers(raf, start);
+		} finally {
+			raf.close();
+		}
+		if (members == null) return null;
+
+		int sliceSize = fi.width * fi.height;
+		long pixelCount = (long)sliceSize * fi.nImages;
+		Member last = members.get(members.size() - 1);
+		if (last.uncompressedOffset + last.uncompressedSize < pixelCount * bytesPerPixel)
+			throw new IOException("Compressed data too short: " + file);
+		// members must not split pixels
+		for (Member member : members)
+			if (member.uncompressedOffset % bytesPerPixel != 0)
+				return null;
+
+		Object[] pixels = new Object[fi.nImages];
+		for (int i = 0; i < pixels.length; i++)
+			pixels[i] = bytesPerPixel == 1 ? new byte[sliceSize] :
+				bytesPerPixel == 2 ? (Object)new short[sliceSize] :
+				(Object)new float[sliceSize];
+
+		inflateAll(file, members, fi, bytesPerPixel, pixels, threads);
+
+		ImageStack stack = new ImageStack(fi.width, fi.height);
+		for (int i = 0; i < pixels.length; i++)
+			stack.addSlice(null, pixels[i]);
+		ImagePlus imp = new ImagePlus(fi.fileName, stack);
+		if (fi.fileType == FileInfo.GRAY16_SIGNED)
+			imp.getCalibration().setSigned16BitCalibration();
+		imp.setFileInfo(fi);
+		return imp;
+	}
+
+	private static void inflateAll(final File file, final List<Member> members,
+			final FileInfo fi, final int bytesPerPixel, final Object[] pixels,
+			int threads) throws IOException {
+		final FileInputStream in = new FileInputStream(file);
+		final FileChannel channel = in.getChannel();
+		final AtomicInteger next = new AtomicInteger();
+		final IOException[] error = new IOException[1];
+
+		Thread[] workers = new Thread[Math.max(1, Math.min(threads, members.size()))];
+		for (int t = 0; t < workers.length; t++) {
+			workers[t] = new Thread("Inflate " + fi.fileName + " #" + t) {
+				public void run() {
+					Inflater inflater = new Inflater(true);
+					CRC32 crc = new CRC32();
+					byte[] compressed = new byte[0], data = new byte[0];
+					try {
+						for (int i = next.getAndIncrement(); i < members.size(); i = next.getAndIncrement()) {
+							synchronized (error) {
+								if (error[0] != null) return;
+							}
+							Member member = members.get(i);
+							if (compressed.length < member.size)
+								compressed = new byte[member.size];
+							if (data.length < member.uncompressedSize)
+								data = new byte[member.uncompressedSize];
+							readFully(channel, member.offset, compressed, member.size);
+
+							inflater.reset();
+							inflater.setInput(compressed, member.dataOffset,
+								member.size - member.dataOffset - 8);
+							int n = 0;
+							while (n < member.uncompressedSize && !inflater.finished()) {
+								int count = inflater.inflate(data, n, member.uncompressedSize - n);
+								if (count == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+									break;
+								n += count;
+							}
+							crc.reset();
+							crc.update(data, 0, n);
+							if (n != member.uncompressedSize || (int)crc.getValue() != getInt(compressed, member.size - 8))
+								throw new IOException("Corrupt gzip member at offset " + member.offset);
+
+							convert(data, n, member.uncompressedOffset / bytesPerPixel, fi, bytesPerPixel, pixels);
+						}
+					} catch (DataFormatException e) {
+						setError(error, new IOException("Corrupt gzip data: " + e.getMessage()));
+					} catch (IOException e) {
+						setError(error, e);
+					} catch (RuntimeException e) {
+						// e.g. a malformed member that is not caught by the checks
+						IOException exception = new IOException("Could not inflate " + file + ": " + e);
+						exception.initCause(e);
+						setError(error, exception);
+					} finally {
+						inflater.end();
+					}
+				}
+			};
+			workers[t].start();
+		}
+
+		try {
+			for (int t = 0; t < workers.length; t++)
+				workers[t].join();
+		} catch (InterruptedException e) {
+			for (int t = 0; t < workers.length; t++)
+				workers[t].interrupt();
+			throw new IOException("Interrupted while inflating " + file);
+		} finally {
+			in.close();
+		}
+		if (error[0] != null) throw error[0];
+	}
+
+	private static void setError(IOException[] error, IOException e) {
+		synchronized (error) {
+			if (error[0] == null) error[0] = e;
+		}
+	}
+
+	private static void readFully(FileChannel channel, long position, byte[] buffer, int length) throws IOException {
+		ByteBuffer wrapped = ByteBuffer.wrap(buffer, 0, length);
+		while (wrapped.hasRemaining()) {
+			if (channel.read(wrapped, position + wrapped.position()) < 0)
+				throw new IOException("Unexpected end of file");
+		}
+	}
+
+	/**
+	 * Converts <code>length</code> bytes of raw data into pixel values,
+	 * the first byte belonging to the pixel with the given index in the
+	 * whole stack.
+	 */
+	static void convert(byte[] data, int length, long firstPixel, FileInfo fi,
+			int bytesPerPixel, Object[] pixels) {
+		int sliceSize = fi.width * fi.height;
+		long total = (long)sliceSize * pixels.length;
+		long end = Math.min(total, firstPixel + length / bytesPerPixel);
+		boolean little = fi.intelByteOrder;
+		int j = 0;
+		for (long p = firstPixel; p < end; ) {
+			int slice = (int)(p / sliceSize);
+			int from = (int)(p % sliceSize);
+			int to = (int)Math.min(sliceSize, from + end - p);
+			switch (fi.fileType) {
+			case FileInfo.GRAY8:
+			case FileInfo.COLOR8:
+				System.arraycopy(data, j, pixels[slice], from, to - from);
+				j += to - from;
+				break;
+			case FileInfo.GRAY16_UNSIGNED:
+			case FileInfo.GRAY16_SIGNED: {
+				short[] s = (short[])pixels[slice];
+				int offset = fi.fileType == FileInfo.GRAY16_SIGNED ? 32768 : 0;
+				for (int i = from; i < to; i++, j += 2) {
+					int value = little ?
+						(data[j] & 0xff) | (data[j + 1] << 8) :
+						(data[j] << 8) | (data[j + 1] & 0xff);
+					s[i] = (short)(value + offset);
+				}
+				break;
+			}
+			default: {
+				float[] f = (float[])pixels[slice];
+				for (int i = from; i < to; i++, j += 4) {
+					int value = little ? getInt(data, j) :
+						((data[j] & 0xff) << 24) | ((data[j + 1] & 0xff) << 16) |
+						((data[j + 2] & 0xff) << 8) | (data[j + 3] & 0xff);
+					if (fi.fileType == FileInfo.GRAY32_FLOAT)
+						f[i] = Float.intBitsToFloat(value);
+					else if (fi.fileType == FileInfo.GRAY32_UNSIGNED)
+						f[i] = (float)(value & 0xffffffffl);
+					else
+						f[i] = (float)value;
+				}
+				break;
+			}
+			}
+			p += to - from;
+		}
+	}
+
+	private static int getShort(byte[] b, int offset) {
+		return (b[offset] & 0xff) | ((b[offset + 1] & 0xff) << 8);
+	}
+
+	private static int getInt(byte[] b, int offset) {
+		return (b[offset] & 0xff) | ((b[offset + 1] & 0xff) << 8) |
+			((b[offset + 2] & 0xff) << 16) | ((b[offset + 3] & 0xff) << 24);
+	}
+}
@@ -0,0 +1,284 @@
+package fiji.expressionparser;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import mpicbg.imglib.cursor.Cursor;
+import mpicbg.imglib.cursor.LocalizableByDimCursor;
+import mpicbg.imglib.cursor.LocalizableCursor;
+import mpicbg.imglib.image.Image;
+import mpicbg.imglib.image.ImageFactory;
+import mpicbg.imglib.multithreading.Chunk;
+import mpicbg.imglib.multithreading.SimpleMultiThreading;
+import mpicbg.imglib.type.numeric.RealType;
+import mpicbg.imglib.type.numeric.real.FloatType;
+
+import org.nfunk.jep.ParseException;
+
+import fiji.expressionparser.function.SingleOperandPixelBasedAbstractFunction;
+import fiji.expressionparser.function.TwoOperandsPixelBasedAbstractFunction;
+
+/**
+ * A pixel-wise sub-expression, compiled into a tree of per-pixel operations.
+ * <p>
+ * Instead of letting each operator create a full {@link FloatType} image for its
+ * intermediate result, the whole sub-expression is evaluated pixel per pixel in
+ * a single pass over the input images, writing only the final result. The pass
+ * is split in chunks processed on several threads.
+ * <p>
+ * The per-pixel operations call the <code>evaluate</code> methods of the
+ * {@link SingleOperandPixelBasedAbstractFunction}s and
+ * {@link TwoOperandsPixelBasedAbstractFunction}s of the expression, so results
+ * are the same as when evaluating operator by operator; input pixels are read as
+ * float, like intermediate results always were.
+ *
+ * @see ImgLibParser#evaluate(org.nfunk.jep.Node)
+ */
+public class FusedPixelExpression {
+
+	/**
+	 * A node of a compiled expression. Nodes hold scratch variables, so a tree
+	 * must only be used by one thread at a time; use {@link #copy(float[])} to
+	 * get a tree per thread.
+	 */
+	public static abstract class Op {
+		/** Evaluate this node for the current pixel. */
+		public abstract float eval() throws ParseException;
+		/** Copy this node, making input nodes read from the given value array. */
+		public abstract Op copy(float[] inputValues);
+	}
+
+	/** A number, identical for all pixels. */
+	public static final class Constant extends Op {
+		private final float value;
+		public Constant(final float value) {
+			this.value = value;
+		}
+		@Override
+		public float eval() {
+			return value;
+		}
+		@Override
+		public Op copy(float[] inputValues) {
+			return this;
+		}
+		@Override
+		public String toString() {
+			return String.format("%.1f", value);
+		}
+	}
+
+	/** The current pixel value of one of the input images. */
+	public static final class Input extends Op {
+		private final int index;
+		private final String name;
+		private final float[] values;
+		public Input(final int index, final String name) {
+			this(index, name, null);
+		}
+		private Input(final int index, final String name, final float[] values) {
+			this.index = index;
+			this.name = name;
+			this.values = values;
+		}
+		@Override
+		public float eval() {
+			return values[index];
+		}
+		@Override
+		public Op copy(float[] inputValues) {
+			return new Input(index, name, inputValues);
+		}
+		@Override
+		public String toString() {
+			return name;
+		}
+	}
+
+	/** A pixel-based function of one operand. */
+	public static final class Unary extends Op {
+		private final SingleOperandPixelBasedAbstractFunction<?> function;
+		private final Op operand;
+		private final FloatType alpha = new FloatType();
+		public Unary(final SingleOperandPixelBasedAbstractFunction<?> function, final Op operand) {
+			this.function = function;
+			this.operand = operand;
+		}
+		@Override
+		public float eval() throws ParseException {
+			alpha.set(operand.eval());
+			return function.evaluate(alpha);
+		}
+		@Override
+		public Op copy(float[] inputValues) {
+			return new Unary(function, operand.copy(inputValues));
+		}
+		@Override
+		public String toString() {
+			return String.format("%s(%s)", function.getFunctionString(), operand);
+		}
+	}
+
+	/** A pixel-based function of two operands. */
+	public static final class Binary extends Op {
+		private final TwoOperandsPixelBasedAbstractFunction<?> function;
+		private final Op operand1, operand2;
+		private final FloatType t1 = new FloatType(), t2 = new FloatType();
+		public Binary(final TwoOperandsPixelBasedAbstractFunction<?> function, final Op operand1, final Op operand2) {
+			this.function = function;
+			this.operand1 = operand1;
+			this.operand2 = operand2;
+		}
+		@Override
+		public float eval() throws ParseException {
+			t1.set(operand1.eval());
+			t2.set(operand2.eval());
+			return function.evaluate(t1, t2);
+		}
+		@Override
+		public Op copy(float[] inputValues) {
+			return new Binary(function, operand1.copy(inputValues), operand2.copy(inputValues));
+		}
+		@Override
+		public String toString() {
+			return String.format("(%s %s %s)", operand1, function.getFunctionString(), operand2);
+		}
+	}
+
+	/*
+	 * FIELDS
+	 */
+
+	private final Op root;
+	@SuppressWarnings("rawtypes")
+	private final List<Image> inputs;
+
+	/**
+	 * @param root  the compiled expression, whose {@link Input} nodes index the input list
+	 * @param inputs  the distinct images read by the expression
+	 */
+	@SuppressWarnings("rawtypes")
+	public FusedPixelExpression(final Op root, final List<Image> inputs) {
+		this.root = root;
+		this.inputs = inputs;
+	}
+
+	/*
+	 * METHODS
+	 */
+
+	/**
+	 * Evaluate the expression. If it reads no image, the result is a singleton {@link FloatType},
+	 * otherwise a new {@link FloatType} image of the dimensions of the input images.
+	 * @param numThreads  the number of threads to use
+	 */
+	public Object evaluate(final int numThreads) throws ParseException {
+		if (inputs.isEmpty())
+			return new FloatType(root.copy(new float[0]).eval());
+		return evaluateImages(Math.max(1, numThreads));
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private Image<FloatType> evaluateImages(final int numThreads) throws ParseException {
+		final Image first = inputs.get(0);
+		for (Image img : inputs) {
+			if (!Arrays.equals(first.getDimensions(), img.getDimensions()))
+				throw new ParseException("In expression '" + root + "': Images " + first.getName()
+						+ " and " + img.getName() + " do not have the same dimensions.");
+		}
+
+		final Image<FloatType> result = new ImageFactory<FloatType>(new FloatType(), first.getContainerFactory())
+			.createImage(first.getDimensions(), root.toString());
+
+		// Check if all Containers are compatibles
+		boolean compatible = true;
+		for (Image img : inputs)
+			compatible &= img.getContainer().compareStorageContainerCompatibility(result.getContainer());
+		final boolean compatible_containers = compatible;
+
+		final Vector<Chunk> chunks = SimpleMultiThreading.divideIntoChunks(result.getNumPixels(), numThreads);
+		final Thread[] threads = SimpleMultiThreading.newThreads(chunks.size());
+		final AtomicInteger ai = new AtomicInteger(0);
+		final ParseException[] error = new ParseException[1];
+
+		for (int ithread = 0; ithread < threads.length; ++ithread) {
+			threads[ithread] = new Thread(new Runnable() {
+				public void run() {
+					final Chunk chunk = chunks.get(ai.getAndIncrement());
+					final float[] values = new float[inputs.size()];
+					final Op op = root.copy(values);
+					try {
+						if (compatible_containers)
+							processChunk(chunk, result, op, values);
+						else
+							processChunkLocalizable(chunk, result, op, values);
+					} catch (ParseException e) {
+						synchronized (error) {
+							error[0] = e;
+						}
+					}
+				}
+			});
+		}
+		SimpleMultiThreading.startAndJoin(threads);
+
+		if (error[0] != null)
+			throw error[0];
+		return result;
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private void processChunk(final Chunk chunk, final Image<FloatType> result, final Op op, final float[] values) throws ParseException {
+		final Cursor<FloatType> rc = result.createCursor();
+		final Cursor[] ics = new Cursor[inputs.size()];
+		for (int i = 0; i < ics.length; i++) {
+			ics[i] = inputs.get(i).createCursor();
+			ics[i].fwd(chunk.getStartPosition());
+		}
+		rc.fwd(chunk.getStartPosition());
+		try {
+			for (long j = 0; j < chunk.getLoopSize(); j++) {
+				rc.fwd();
+				for (int i = 0; i < ics.length; i++) {
+					ics[i].fwd();
+					values[i] = ((RealType) ics[i].getType()).getRealFloat();
+				}
+				rc.getType().set(op.eval());
+			}
+		} finally {
+			rc.close();
+			for (Cursor c : ics)
+				c.close();
+		}
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private void processChunkLocalizable(final Chunk chunk, final Image<FloatType> result, final Op op, final float[] values) throws ParseException {
+		final LocalizableCursor<FloatType> rc = result.createLocalizableCursor();
+		final LocalizableByDimCursor[] ics = new LocalizableByDimCursor[inputs.size()];
+		for (int i = 0; i < ics.length; i++)
+			ics[i] = inputs.get(i).createLocalizableByDimCursor();
+		rc.fwd(chunk.getStartPosition());
+		try {
+			for (long j = 0; j < chunk.getLoopSize(); j++) {
+				rc.fwd();
+				for (int i = 0; i < ics.length; i++) {
+					ics[i].setPosition(rc);
+					values[i] = ((RealType) ics[i].getType()).getRealFloat();
+				}
+				rc.getType().set(op.eval());
+			}
+		} finally {
+			rc.close();
+			for (LocalizableByDimCursor c : ics)
+				c.close();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return root.toString();
+	}
+}
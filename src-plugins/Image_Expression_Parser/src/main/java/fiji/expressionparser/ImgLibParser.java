@@ -1,10 +1,18 @@
 package fiji.expressionparser;
 
 import java.util.ArrayList;
+import java.util.List;
+import java.util.Stack;
 
+import mpicbg.imglib.image.Image;
 import mpicbg.imglib.type.numeric.RealType;
 
+import org.nfunk.jep.ASTFunNode;
 import org.nfunk.jep.JEP;
+import org.nfunk.jep.Node;
+import org.nfunk.jep.ParseException;
+import org.nfunk.jep.function.CallbackEvaluationI;
+import org.nfunk.jep.function.PostfixMathCommandI;
 import org.nfunk.jep.type.NumberFactory;
 
 import fiji.expressionparser.function.ImgLibAbs;
@@ -27,9 +35,16 @@
 import fiji.expressionparser.function.ImgLibSine;
 import fiji.expressionparser.function.ImgLibSquareRoot;
 import fiji.expressionparser.function.ImgLibTangent;
+import fiji.expressionparser.function.SingleOperandPixelBasedAbstractFunction;
+import fiji.expressionparser.function.TwoOperandsPixelBasedAbstractFunction;
 
 public class ImgLibParser <T extends RealType<T>> extends JEP {
 
+	/** If true, pixel-wise sub-expressions are evaluated in a single pass, see {@link #evaluate(Node)}. */
+	private boolean fusePixelOperations = true;
+	/** The number of threads used to evaluate fused sub-expressions. */
+	private int numThreads = Runtime.getRuntime().availableProcessors();
+
 	/**
 	 * Creates a default ImgLib expression parser, with ImgLib operator set
 	 * {@link ImgLibOperatorSet} and {@link ImgLibNumberFactory} as number
@@ -103,6 +118,119 @@ public void addStandardFunctions() {
 		
 	}
 	
+	/**
+	 * Evaluate the expression tree rooted at the given node.
+	 * <p>
+	 * Maximal sub-trees made only of pixel-wise functions (see {@link SingleOperandPixelBasedAbstractFunction}
+	 * and {@link TwoOperandsPixelBasedAbstractFunction}), variables and numbers are compiled into a
+	 * {@link FusedPixelExpression}, evaluated in one multi-threaded pass without intermediate images.
+	 * Other functions, such as {@link ImgLibGaussConv}, are evaluated as before, on the results of
+	 * their arguments; their results become inputs of the enclosing fused sub-expression.
+	 */
+	@Override
+	public Object evaluate(Node node) throws ParseException {
+		if (!fusePixelOperations)
+			return super.evaluate(node);
+		return evaluateNode(node);
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private Object evaluateNode(Node node) throws ParseException {
+		if (isPixelBased(node)) {
+			List<Image> inputs = new ArrayList<Image>();
+			FusedPixelExpression.Op root = compile(node, inputs);
+			return new FusedPixelExpression(root, inputs).evaluate(numThreads);
+		}
+
+		if (node instanceof ASTFunNode) {
+			PostfixMathCommandI pfmc = ((ASTFunNode)node).getPFMC();
+			if (pfmc instanceof ImgLibFunction && !(pfmc instanceof CallbackEvaluationI)) {
+				// Evaluate arguments ourselves, so that they can be fused
+				Stack stack = new Stack();
+				int n = node.jjtGetNumChildren();
+				for (int i = 0; i < n; i++) {
+					stack.push(evaluateNode(node.jjtGetChild(i)));
+				}
+				// same as JEP's EvaluatorVisitor
+				if (pfmc.getNumberOfParameters() == -1)
+					pfmc.setCurNumberOfParameters(n);
+				pfmc.run(stack);
+				return stack.pop();
+			}
+		}
+
+		// variables, constants and other functions
+		return super.evaluate(node);
+	}
+
+	@SuppressWarnings("rawtypes")
+	private FusedPixelExpression.Op compile(Node node, List<Image> inputs) throws ParseException {
+		if (isPixelBased(node)) {
+			PostfixMathCommandI pfmc = ((ASTFunNode)node).getPFMC();
+			if (pfmc instanceof SingleOperandPixelBasedAbstractFunction) {
+				return new FusedPixelExpression.Unary((SingleOperandPixelBasedAbstractFunction<?>) pfmc,
+						compile(node.jjtGetChild(0), inputs));
+			}
+			return new FusedPixelExpression.Binary((TwoOperandsPixelBasedAbstractFunction<?>) pfmc,
+					compile(node.jjtGetChild(0), inputs),
+					compile(node.jjtGetChild(1), inputs));
+		}
+
+		// A leaf of the fused expression
+		Object value = evaluateNode(node);
+		if (value instanceof Image) {
+			Image img = (Image) value;
+			int index = -1;
+			for (int i = 0; i < inputs.size(); i++) {
+				if (inputs.get(i) == img) index = i;
+			}
+			if (index < 0) {
+				inputs.add(img);
+				index = inputs.size() - 1;
+			}
+			return new FusedPixelExpression.Input(index, img.getName());
+		}
+		if (value instanceof RealType) {
+			return new FusedPixelExpression.Constant(((RealType) value).getRealFloat());
+		}
+		if (value instanceof Number) {
+			return new FusedPixelExpression.Constant(((Number) value).floatValue());
+		}
+		throw new ParseException("Bad type of operand: "
+				+ (value == null ? "null" : value.getClass().getSimpleName()));
+	}
+
+	private static boolean isPixelBased(Node node) {
+		if (!(node instanceof ASTFunNode)) return false;
+		PostfixMathCommandI pfmc = ((ASTFunNode)node).getPFMC();
+		int n = node.jjtGetNumChildren();
+		return (pfmc instanceof SingleOperandPixelBasedAbstractFunction && n == 1)
+			|| (pfmc instanceof TwoOperandsPixelBasedAbstractFunction && n == 2);
+	}
+
+	/**
+	 * Set whether pixel-wise sub-expressions are fused and evaluated in parallel
+	 * (the default), or evaluated operator by operator.
+	 */
+	public void setFusePixelOperations(boolean fuse) {
+		this.fusePixelOperations = fuse;
+	}
+
+	public boolean getFusePixelOperations() {
+		return fusePixelOperations;
+	}
+
+	/**
+	 * Set the number of threads used to evaluate fused pixel-wise sub-expressions.
+	 */
+	public void setNumThreads(int numThreads) {
+		this.numThreads = Math.max(1, numThreads);
+	}
+
+	public int getNumThreads() {
+		return numThreads;
+	}
+
 	/**
 	 * Add ImgLib algorithms to the parser, such as gaussian convolution.
 	 */
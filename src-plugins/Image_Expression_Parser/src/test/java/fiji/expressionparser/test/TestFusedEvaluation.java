@@ -0,0 +1,102 @@
+package fiji.expressionparser.test;
+
+import static fiji.expressionparser.test.TestUtilities.buildErrorImage;
+import static fiji.expressionparser.test.TestUtilities.checkErrorImage;
+import static fiji.expressionparser.test.TestUtilities.echoImage;
+import static fiji.expressionparser.test.TestUtilities.image_A;
+import static fiji.expressionparser.test.TestUtilities.image_B;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import mpicbg.imglib.image.Image;
+import mpicbg.imglib.type.numeric.integer.UnsignedShortType;
+import mpicbg.imglib.type.numeric.real.FloatType;
+
+import org.junit.Test;
+import org.nfunk.jep.Node;
+import org.nfunk.jep.ParseException;
+
+import fiji.expressionparser.ImgLibParser;
+
+/**
+ * Checks that fused, multi-threaded evaluation of pixel-wise sub-expressions
+ * gives the same results as evaluating operator by operator.
+ */
+public class TestFusedEvaluation {
+
+	private Map<String, Image<UnsignedShortType>> source_map;
+	{
+		source_map = new HashMap<String, Image<UnsignedShortType>>();
+		source_map.put("A", image_A);
+		source_map.put("B", image_B);
+	}
+
+	@Test
+	public void nestedOperators() throws ParseException {
+		compare("sqrt(A*A + B*B) / (A+1)");
+	}
+
+	@Test
+	public void singletonExpansion() throws ParseException {
+		compare("-(2*A - 3) + 10 % (B+1)");
+	}
+
+	@Test
+	public void comparisonsAndLogicals() throws ParseException {
+		compare("(A > 10) && !(B <= 200) || A == 0");
+	}
+
+	@Test
+	public void mixedWithAlgorithm() throws ParseException {
+		compare("gauss(A*2 + 1, 1) - B / 2");
+	}
+
+	@Test
+	public void threadCounts() throws ParseException {
+		for (int numThreads = 1; numThreads <= 5; numThreads++) {
+			compare("atan2(A, B + 1) ^ 2", numThreads);
+		}
+	}
+
+	@Test
+	public void numbersOnly() throws ParseException {
+		ImgLibParser<FloatType> parser = new ImgLibParser<FloatType>();
+		parser.addStandardFunctions();
+		Node root_node = parser.parse("sqrt(3*3 + 4*4)");
+		FloatType result = (FloatType) parser.evaluate(root_node);
+		assertEquals(5f, result.get(), 1e-6f);
+	}
+
+	private void compare(String expression) throws ParseException {
+		compare(expression, Runtime.getRuntime().availableProcessors());
+	}
+
+	@SuppressWarnings("unchecked")
+	private void compare(String expression, int numThreads) throws ParseException {
+		ImgLibParser<UnsignedShortType> parser = new ImgLibParser<UnsignedShortType>();
+		parser.addStandardFunctions();
+		parser.addImgLibAlgorithms();
+		for (String key : source_map.keySet()) {
+			parser.addVariable(key, source_map.get(key));
+		}
+		Node root_node = parser.parse(expression);
+
+		parser.setFusePixelOperations(false);
+		Image<FloatType> expected = (Image<FloatType>) parser.evaluate(root_node);
+
+		parser.setFusePixelOperations(true);
+		parser.setNumThreads(numThreads);
+		Image<FloatType> fused = (Image<FloatType>) parser.evaluate(root_node);
+
+		Image<FloatType> error = buildErrorImage(expected, fused);
+		boolean passed = checkErrorImage(error);
+		if (!passed) {
+			System.out.println("Fused evaluation differs on "+expression+" with error image:");
+			echoImage(error, System.out);
+		}
+		assertTrue(passed);
+	}
+}
@@ -985,6 +985,7 @@ public void mousePressed(MouseEvent arg0) {
 	public void mouseReleased(MouseEvent arg0) {
 		//Object source = arg0.getSource();
 		drag = false;	
+		jRenderer3D.setSurfacePlotDraft(false);
 		setSurfacePlotType(plotType);
 		setSurfaceColorType(colorType);
 		jRenderer3D.setSurfacePlotLight(light);
@@ -997,6 +998,8 @@ public void mouseDragged(MouseEvent arg0) {
 			if (drag == true) {
 				if (draftDrawing)
 					jRenderer3D.setSurfacePlotMode(JRenderer3D.SURFACEPLOT_DOTSNOLIGHT);
+				else
+					jRenderer3D.setSurfacePlotDraft(true);
 				
 				int xAct = arg0.getX();
 				int yAct = arg0.getY();
@@ -1099,6 +1099,19 @@ public void setSurfacePlotMode(int surfacePlot_plotMode) {
 	}
 	
 	
+	/**
+	 * Sets the draft mode of the surface plot.
+	 * In draft mode, surface grids larger than 256 points per side are drawn decimated,
+	 * which is meant for a fast response while the plot is rotated interactively.
+	 * 
+	 * @param draft true while the user interacts with the plot, false for full resolution
+	 */
+	public void setSurfacePlotDraft(boolean draft) {
+		if (surfacePlot != null)
+			surfacePlot.setSurfacePlotDraft(draft);
+	}
+	
+	
 	/**
 	 * Sets the mode for drawing volumes.
 	 * <p>
@@ -2,15 +2,19 @@
 
 import ij.IJ;
 import ij.ImagePlus;
+import ij.Prefs;
 import ij.gui.Roi;
 import ij.measure.Calibration;
 import ij.plugin.filter.GaussianBlur;
 import ij.process.FloatProcessor;
 import ij.process.ImageProcessor;
+import ij.util.ThreadUtil;
 
 import java.awt.Image;
 import java.awt.Rectangle;
 import java.awt.image.PixelGrabber;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
 
 class SurfacePlot {
 	
@@ -58,19 +62,66 @@ class SurfacePlot {
 	private byte[] maskPixels;
 	
 	
+	/**
+	 * Height of the screen bands that are rasterised in parallel
+	 */
+	private static final int BAND_HEIGHT = 32;
+	
+	/**
+	 * While dragging, the grid is decimated to about this number of points per side
+	 */
+	private static final int DRAFT_GRID_SIZE = 256;
+	
+	private boolean draft;
+	
+	// the grid rows and columns drawn, all of them unless in draft mode
+	private int[] rows;
+	private int[] cols;
+	
+	// screen coordinates of the grid points
+	private double[] screenX;
+	private double[] screenY;
+	private double[] screenZ;
+	
+	// the primitives of band b are binItems[binStart[b]] .. binItems[binStart[b+1]-1]
+	private int numBands;
+	private int[] binStart;
+	private int[] binItems;
+	
+	
 	protected void draw() {
-		if (surfacePlotMode == JRenderer3D.SURFACEPLOT_FILLED)
-			surfacePlotFilled();
-		else if (surfacePlotMode == JRenderer3D.SURFACEPLOT_ISOLINES)
-			surfacePlotIsoLines();
-		else if (surfacePlotMode == JRenderer3D.SURFACEPLOT_MESH)
-			surfacePlotMesh();
-		else if (surfacePlotMode == JRenderer3D.SURFACEPLOT_LINES)
-			surfacePlotLines();
-		else if (surfacePlotMode == JRenderer3D.SURFACEPLOT_DOTS)
-			surfacePlotDots();
-		else if (surfacePlotMode == JRenderer3D.SURFACEPLOT_DOTSNOLIGHT)
+		if (surfacePlotMode == JRenderer3D.SURFACEPLOT_DOTSNOLIGHT) {
+			// draws 2x2 pixels across bands, but is only used while dragging
 			surfacePlotDotsNoLight();
+			return;
+		}
+		if (surfacePlotMode != JRenderer3D.SURFACEPLOT_FILLED && 
+				surfacePlotMode != JRenderer3D.SURFACEPLOT_ISOLINES &&
+				surfacePlotMode != JRenderer3D.SURFACEPLOT_MESH &&
+				surfacePlotMode != JRenderer3D.SURFACEPLOT_LINES &&
+				surfacePlotMode != JRenderer3D.SURFACEPLOT_DOTS)
+			return;
+		if (plotList == null || gridWidth < 1 || gridHeight < 1)
+			return;
+		
+		int step = 1;
+		if (draft)
+			step = Math.max(1, (Math.max(gridWidth, gridHeight) + DRAFT_GRID_SIZE/2) / DRAFT_GRID_SIZE);
+		rows = gridLines(gridHeight, step);
+		cols = gridLines(gridWidth, step);
+		
+		projectPoints();
+		if (Runtime.getRuntime().availableProcessors() > 1) {
+			binPrimitives();
+			rasterizeBands();
+		}
+		else {
+			int count = numPrimitives();
+			int[] points = new int[4];
+			for (int k = 0; k < count; k++)
+				if (getPrimitive(k, points))
+					drawPrimitive(points, 0, bufferHeight);
+		}
 	}
 	
 	protected void setSurfacePlotImage(ImagePlus imp){
@@ -463,303 +514,433 @@ else if (lutNr == JRenderer3D.LUT_GRADIENT2) {
 		return c0;
 	}
 
-	private void surfacePlotFilled(){	
-		for (int row = 0; row < gridHeight - 1; row++) {
-			for (int col = 0; col < gridWidth - 1; col++) {
-				int i = row * gridWidth + col;
+	/**************************************************************************************
+	 *  
+	 *  Parallel rasterisation
+	 *  
+	 *  The screen is cut into bands of BAND_HEIGHT rows. The grid points are projected
+	 *  once, each primitive (quad, line or dot) is binned to the bands its points 
+	 *  cover, and the bands are rasterised in parallel, each only writing its own rows 
+	 *  of the buffers. Within a band the primitives are drawn in the same order as 
+	 *  before, so the image is the same as when drawn by one thread.
+	 *  
+	 **************************************************************************************/
 	
-				SurfacePlotData p0 = plotList[i];
+	/**
+	 * The grid lines 0, step, 2*step, ... and the last one, n-1.
+	 */
+	private static int[] gridLines(int n, int step) {
+		int count = (n - 1) / step + 1;
+		boolean addLast = (n - 1) % step != 0;
+		int[] lines = new int[addLast ? count + 1 : count];
+		for (int k = 0; k < count; k++)
+			lines[k] = k * step;
+		if (addLast)
+			lines[count] = n - 1;
+		return lines;
+	}
 	
-				if (p0.isVisible) {
-					SurfacePlotData p1 = plotList[i + 1];
-					SurfacePlotData p2 = plotList[i + gridWidth];
-					SurfacePlotData p3 = plotList[i + gridWidth + 1];
+	/**
+	 * Projects the points of the grid lines drawn to the screen.
+	 */
+	private void projectPoints() {
+		int n = gridWidth * gridHeight;
+		if (screenX == null || screenX.length != n) {
+			screenX = new double[n];
+			screenY = new double[n];
+			screenZ = new double[n];
+		}
+		final AtomicInteger ai = new AtomicInteger(0);
+		Thread[] threads = ThreadUtil.createThreadArray(Math.max(1, Math.min(rows.length, Prefs.getThreads())));
+		for (int ithread = 0; ithread < threads.length; ithread++) {
+			threads[ithread] = new Thread() {
+				public void run() {
+					double[] XYZ = new double[3];
+					for (int r = ai.getAndIncrement(); r < rows.length; r = ai.getAndIncrement()) {
+						int offset = rows[r] * gridWidth;
+						for (int c = 0; c < cols.length; c++) {
+							int i = offset + cols[c];
+							tr.transform(plotList[i], XYZ);
+							screenX[i] = XYZ[0];
+							screenY[i] = XYZ[1];
+							screenZ[i] = XYZ[2];
+						}
+					}
+				}
+			};
+		}
+		ThreadUtil.startAndJoin(threads);
+	}
 	
-					if (p1.isVisible && p2.isVisible && p3.isVisible) {
-//						System.out.println("-----------");
-						
-						tr.transform(p0);
-						double x0 = tr.X, y0 = tr.Y, z0 = tr.Z;
-						tr.x = p0.dx;
-						tr.y = p0.dy;
-						double light0 = tr.getScalarProduct();
-						
-						tr.transform(p1);
-						double x1 = tr.X, y1 = tr.Y, z1 = tr.Z;
-						tr.x = p1.dx;
-						tr.y = p1.dy;
-						double light1 = tr.getScalarProduct();
-						
-						tr.transform(p2);
-						double x2 = tr.X, y2 = tr.Y, z2 = tr.Z;
-						tr.x = p2.dx;
-						tr.y = p2.dy;
-						double light2 = tr.getScalarProduct();
-						
-						tr.transform(p3);
-						double x3 = tr.X, y3 = tr.Y, z3 = tr.Z;
-						tr.x = p3.dx;
-						tr.y = p3.dy;
-						double light3 = tr.getScalarProduct();
-						
-//						System.out.println("x0: " + x0);
-//						System.out.println("x1: " + x1);
-//						System.out.println("x2: " + x2);
-//						System.out.println("x3: " + x3);
-//						
-//						System.out.println("y0: " + y0);
-//						System.out.println("y1: " + y1);
-//						System.out.println("y2: " + y2);
-//						System.out.println("y3: " + y3);
-						
-						if(!(   x0 >= bufferWidth && x0 < 0 &&  y0 >= bufferHeight && y0 < 0 &&
-								x1 >= bufferWidth && x1 < 0 &&  y1 >= bufferHeight && y1 < 0 &&
-								x2 >= bufferWidth && x2 < 0 &&  y2 >= bufferHeight && y2 < 0 &&
-								x3 >= bufferWidth && x3 < 0 &&  y3 >= bufferHeight && y3 < 0 ) ) {
-							
-							int c0 = getColor(p0);
-							int c1 = getColor(p1);
-							int c2 = getColor(p2);
-							int c3 = getColor(p3);
-							
-							int r0 = ((c0 >> 16) & 0xff);
-							int g0 = ((c0 >>  8) & 0xff);
-							int b0 = ((c0      ) & 0xff);
-							int r1 = ((c1 >> 16) & 0xff);
-							int g1 = ((c1 >>  8) & 0xff);
-							int b1 = ((c1      ) & 0xff);
-							int r2 = ((c2 >> 16) & 0xff);
-							int g2 = ((c2 >>  8) & 0xff);
-							int b2 = ((c2      ) & 0xff);
-							int r3 = ((c3 >> 16) & 0xff);
-							int g3 = ((c3 >>  8) & 0xff);
-							int b3 = ((c3      ) & 0xff);
-							
-							double n13 = Math.abs(y1-y3) + Math.abs(x1-x3); 
-							double n02 = Math.abs(y0-y2) + Math.abs(x0-x2); 
-//							double n13 = Math.sqrt((y1-y3)*(y1-y3) + (x1-x3)*(x1-x3)); 
-//							double n02 = Math.sqrt((y0-y2)*(y0-y2) + (x0-x2)*(x0-x2)); 
-							int stepsY = (int) (Math.max(n13, n02) + 1); 
-							
-							double dy = 1./stepsY;
-				
-							double dx02 = (x2-x0)*dy;
-							double dy02 = (y2-y0)*dy;
-							double dx13 = (x3-x1)*dy;
-							double dy13 = (y3-y1)*dy;
-	
-							double x02 = x0;
-							double y02 = y0;
-							double x13 = x1;
-							double y13 = y1;
-							
-							double v = 0;
-							
-							for(int sy=0; sy<stepsY; sy++, v+= dy) {
-	
-								x02 += dx02;
-								y02 += dy02;
-								x13 += dx13;
-								y13 += dy13;
-								
-								//int stepsX = (int) (Math.abs(x02-x13) + Math.abs(y02-y13) + 1);
-								int stepsX = (int) (Math.abs(x02-x13) + Math.abs(y02-y13) + 1);
-								
-								double dx = 1./stepsX;
-	
-								double dx0213 = (x13-x02)*dx;
-								double dy0213 = (y13-y02)*dx;
-	
-								double x0213 = x02;
-								double y0213 = y02;
-								
-								double h = 0;
-								
-								for(int sx=0; sx<stepsX; sx++, h+=dx) {
-									
-									x0213 += dx0213;
-									y0213 += dy0213;
-									
-									if (x0213 >= 0 && x0213 < bufferWidth && y0213 >= 0 && y0213 < bufferHeight) {
-										double d0 = (1 - h) * (1 - v);
-										double d1 = h * (1 - v);
-										double d2 = (1 - h) * v;
-										double d3 = h * v;
-										
-										double z = d0 * z0 + d1 * z1 + d2 * z2 + d3 * z3;
-										
-//										System.out.println("x: " + (int)x0213 + "  y: " + (int)y0213);
-										
-										int pos = (int)y0213 * bufferWidth + (int)x0213;
-										if (z < zbufferPixels[pos]) {
-											zbufferPixels[pos] = z;
-											int r = (int) (r3*d3 + r2*d2 + r1*d1 + r0*d0);
-											int g = (int) (g3*d3 + g2*d2 + g1*d1 + g0*d0);
-											int b = (int) (b3*d3 + b2*d2 + b1*d1 + b0*d0);
-	
-											double light0123 = d3*light3 + d2*light2 + d1*light1 + d0*light0;
-	
-											double l = -light * light0123 *255;
-	
-											r = (int) Math.min(255, Math.max(0, r + l));
-											g = (int) Math.min(255, Math.max(0, g + l));
-											b = (int) Math.min(255, Math.max(0, b + l));
-	
-											bufferPixels[pos] = 0xff000000 | (r << 16) | (g << 8) | b;
-										}
-									}
-								}
-							}
+	/**
+	 * The number of primitives of the current plot mode.
+	 */
+	private int numPrimitives() {
+		if (surfacePlotMode == JRenderer3D.SURFACEPLOT_FILLED || surfacePlotMode == JRenderer3D.SURFACEPLOT_ISOLINES)
+			return (rows.length - 1) * (cols.length - 1);
+		if (surfacePlotMode == JRenderer3D.SURFACEPLOT_LINES)
+			return rows.length * (cols.length - 1);
+		return rows.length * cols.length;
+	}
+	
+	/**
+	 * Gets the grid indices of the points of primitive k, in drawing order.
+	 * Quads have four points, mesh primitives three (the point and its right and 
+	 * lower neighbours, or the point itself at the border), lines two and dots one, 
+	 * the remaining ones repeat the first.
+	 * 
+	 * @return false if the primitive is not drawn because of invisible points
+	 */
+	private boolean getPrimitive(int k, int[] points) {
+		if (surfacePlotMode == JRenderer3D.SURFACEPLOT_FILLED || surfacePlotMode == JRenderer3D.SURFACEPLOT_ISOLINES) {
+			int r = k / (cols.length - 1), c = k % (cols.length - 1);
+			int i0 = rows[r] * gridWidth + cols[c];
+			points[0] = i0;
+			points[1] = rows[r] * gridWidth + cols[c + 1];
+			points[2] = rows[r + 1] * gridWidth + cols[c];
+			points[3] = rows[r + 1] * gridWidth + cols[c + 1];
+			return plotList[points[0]].isVisible && plotList[points[1]].isVisible && 
+				plotList[points[2]].isVisible && plotList[points[3]].isVisible;
+		}
+		if (surfacePlotMode == JRenderer3D.SURFACEPLOT_MESH) {
+			int r = k / cols.length, c = k % cols.length;
+			int i0 = rows[r] * gridWidth + cols[c];
+			points[0] = points[3] = i0;
+			points[1] = (c < cols.length - 1) ? rows[r] * gridWidth + cols[c + 1] : i0;
+			points[2] = (r < rows.length - 1) ? rows[r + 1] * gridWidth + cols[c] : i0;
+			return plotList[i0].isVisible;
+		}
+		if (surfacePlotMode == JRenderer3D.SURFACEPLOT_LINES) {
+			int r = k / (cols.length - 1), c = k % (cols.length - 1);
+			points[0] = points[2] = points[3] = rows[r] * gridWidth + cols[c];
+			points[1] = rows[r] * gridWidth + cols[c + 1];
+			return plotList[points[0]].isVisible && plotList[points[1]].isVisible;
+		}
+		// dots are drawn from the last point to the first
+		k = rows.length * cols.length - 1 - k;
+		points[0] = points[1] = points[2] = points[3] = rows[k / cols.length] * gridWidth + cols[k % cols.length];
+		return plotList[points[0]].isVisible;
+	}
+	
+	/**
+	 * The bands covered by the drawn points of a primitive, 
+	 * as first*numBands + last, or -1 if it is not drawn.
+	 */
+	private int getBands(int k, int[] points) {
+		if (!getPrimitive(k, points))
+			return -1;
+		double minY = screenY[points[0]], maxY = minY;
+		for (int n = 1; n < 4; n++) {
+			// invisible neighbours of mesh points are not drawn
+			if (!plotList[points[n]].isVisible)
+				continue;
+			minY = Math.min(minY, screenY[points[n]]);
+			maxY = Math.max(maxY, screenY[points[n]]);
+		}
+		// a pixel of margin for rounding errors
+		if (!(minY <= maxY) || maxY < -1 || minY > bufferHeight + 1)
+			return -1;
+		int first = (int) Math.max(0, Math.floor(minY) - 1) / BAND_HEIGHT;
+		int last = (int) Math.min(bufferHeight - 1, Math.floor(maxY) + 1) / BAND_HEIGHT;
+		return first * numBands + last;
+	}
+	
+	/**
+	 * Sorts the primitives into the bands they cover, keeping the drawing order.
+	 */
+	private void binPrimitives() {
+		numBands = (bufferHeight + BAND_HEIGHT - 1) / BAND_HEIGHT;
+		if (binStart == null || binStart.length != numBands + 1)
+			binStart = new int[numBands + 1];
+		else
+			Arrays.fill(binStart, 0);
+		
+		int count = numPrimitives();
+		int[] points = new int[4];
+		for (int k = 0; k < count; k++) {
+			int bands = getBands(k, points);
+			if (bands < 0)
+				continue;
+			for (int b = bands / numBands; b <= bands % numBands; b++)
+				binStart[b + 1]++;
+		}
+		for (int b = 0; b < numBands; b++)
+			binStart[b + 1] += binStart[b];
+		
+		if (binItems == null || binItems.length < binStart[numBands])
+			binItems = new int[binStart[numBands]];
+		int[] fill = new int[numBands];
+		System.arraycopy(binStart, 0, fill, 0, numBands);
+		for (int k = 0; k < count; k++) {
+			int bands = getBands(k, points);
+			if (bands < 0)
+				continue;
+			for (int b = bands / numBands; b <= bands % numBands; b++)
+				binItems[fill[b]++] = k;
+		}
+	}
+	
+	/**
+	 * Rasterises the binned primitives, one band per thread at a time.
+	 */
+	private void rasterizeBands() {
+		final AtomicInteger ai = new AtomicInteger(0);
+		Thread[] threads = ThreadUtil.createThreadArray(Math.max(1, Math.min(numBands, Prefs.getThreads())));
+		for (int ithread = 0; ithread < threads.length; ithread++) {
+			threads[ithread] = new Thread() {
+				public void run() {
+					int[] points = new int[4];
+					for (int band = ai.getAndIncrement(); band < numBands; band = ai.getAndIncrement()) {
+						int yMin = band * BAND_HEIGHT;
+						int yMax = Math.min(yMin + BAND_HEIGHT, bufferHeight);
+						for (int n = binStart[band]; n < binStart[band + 1]; n++) {
+							getPrimitive(binItems[n], points);
+							drawPrimitive(points, yMin, yMax);
 						}
 					}
 				}
+			};
+		}
+		ThreadUtil.startAndJoin(threads);
+	}
+	
+	/**
+	 * Draws the rows yMin to yMax-1 of a primitive.
+	 */
+	private void drawPrimitive(int[] points, int yMin, int yMax) {
+		if (surfacePlotMode == JRenderer3D.SURFACEPLOT_FILLED)
+			drawFilled(points, yMin, yMax);
+		else if (surfacePlotMode == JRenderer3D.SURFACEPLOT_ISOLINES)
+			drawIsoLines(points, yMin, yMax);
+		else if (surfacePlotMode == JRenderer3D.SURFACEPLOT_MESH)
+			drawMesh(points, yMin, yMax);
+		else if (surfacePlotMode == JRenderer3D.SURFACEPLOT_LINES)
+			drawLine(points, yMin, yMax);
+		else
+			drawDot(points, yMin, yMax);
+	}
+	
+	private void drawFilled(int[] points, int yMin, int yMax) {	
+		SurfacePlotData p0 = plotList[points[0]];
+		SurfacePlotData p1 = plotList[points[1]];
+		SurfacePlotData p2 = plotList[points[2]];
+		SurfacePlotData p3 = plotList[points[3]];
+		
+		double x0 = screenX[points[0]], y0 = screenY[points[0]], z0 = screenZ[points[0]];
+		double light0 = tr.getScalarProduct(p0.dx, p0.dy);
+		
+		double x1 = screenX[points[1]], y1 = screenY[points[1]], z1 = screenZ[points[1]];
+		double light1 = tr.getScalarProduct(p1.dx, p1.dy);
+		
+		double x2 = screenX[points[2]], y2 = screenY[points[2]], z2 = screenZ[points[2]];
+		double light2 = tr.getScalarProduct(p2.dx, p2.dy);
+		
+		double x3 = screenX[points[3]], y3 = screenY[points[3]], z3 = screenZ[points[3]];
+		double light3 = tr.getScalarProduct(p3.dx, p3.dy);
+		
+		int c0 = getColor(p0);
+		int c1 = getColor(p1);
+		int c2 = getColor(p2);
+		int c3 = getColor(p3);
+		
+		int r0 = ((c0 >> 16) & 0xff);
+		int g0 = ((c0 >>  8) & 0xff);
+		int b0 = ((c0      ) & 0xff);
+		int r1 = ((c1 >> 16) & 0xff);
+		int g1 = ((c1 >>  8) & 0xff);
+		int b1 = ((c1      ) & 0xff);
+		int r2 = ((c2 >> 16) & 0xff);
+		int g2 = ((c2 >>  8) & 0xff);
+		int b2 = ((c2      ) & 0xff);
+		int r3 = ((c3 >> 16) & 0xff);
+		int g3 = ((c3 >>  8) & 0xff);
+		int b3 = ((c3      ) & 0xff);
+		
+		double n13 = Math.abs(y1-y3) + Math.abs(x1-x3); 
+		double n02 = Math.abs(y0-y2) + Math.abs(x0-x2); 
+		int stepsY = (int) (Math.max(n13, n02) + 1); 
+		
+		double dy = 1./stepsY;
+
+		double dx02 = (x2-x0)*dy;
+		double dy02 = (y2-y0)*dy;
+		double dx13 = (x3-x1)*dy;
+		double dy13 = (y3-y1)*dy;
+
+		double x02 = x0;
+		double y02 = y0;
+		double x13 = x1;
+		double y13 = y1;
+		
+		double v = 0;
+		
+		for(int sy=0; sy<stepsY; sy++, v+= dy) {
+
+			x02 += dx02;
+			y02 += dy02;
+			x13 += dx13;
+			y13 += dy13;
+			
+			int stepsX = (int) (Math.abs(x02-x13) + Math.abs(y02-y13) + 1);
+			
+			double dx = 1./stepsX;
+
+			double dx0213 = (x13-x02)*dx;
+			double dy0213 = (y13-y02)*dx;
+
+			double x0213 = x02;
+			double y0213 = y02;
+			
+			double h = 0;
+			
+			for(int sx=0; sx<stepsX; sx++, h+=dx) {
+				
+				x0213 += dx0213;
+				y0213 += dy0213;
+				
+				if (x0213 >= 0 && x0213 < bufferWidth && y0213 >= yMin && y0213 < yMax) {
+					double d0 = (1 - h) * (1 - v);
+					double d1 = h * (1 - v);
+					double d2 = (1 - h) * v;
+					double d3 = h * v;
+					
+					double z = d0 * z0 + d1 * z1 + d2 * z2 + d3 * z3;
+					
+					int pos = (int)y0213 * bufferWidth + (int)x0213;
+					if (z < zbufferPixels[pos]) {
+						zbufferPixels[pos] = z;
+						int r = (int) (r3*d3 + r2*d2 + r1*d1 + r0*d0);
+						int g = (int) (g3*d3 + g2*d2 + g1*d1 + g0*d0);
+						int b = (int) (b3*d3 + b2*d2 + b1*d1 + b0*d0);
+
+						double light0123 = d3*light3 + d2*light2 + d1*light1 + d0*light0;
+
+						double l = -light * light0123 *255;
+
+						r = (int) Math.min(255, Math.max(0, r + l));
+						g = (int) Math.min(255, Math.max(0, g + l));
+						b = (int) Math.min(255, Math.max(0, b + l));
+
+						bufferPixels[pos] = 0xff000000 | (r << 16) | (g << 8) | b;
+					}
+				}
 			}
 		}
 	}
 
-	private void surfacePlotIsoLines(){	
-		for (int row = 0; row < gridHeight - 1; row++) {
-			for (int col = 0; col < gridWidth - 1; col++) {
-				int i = row * gridWidth + col;
+	private void drawIsoLines(int[] points, int yMin, int yMax) {	
+		SurfacePlotData p0 = plotList[points[0]];
+		SurfacePlotData p1 = plotList[points[1]];
+		SurfacePlotData p2 = plotList[points[2]];
+		SurfacePlotData p3 = plotList[points[3]];
+		
+		double x0 = screenX[points[0]], y0 = screenY[points[0]], z0 = screenZ[points[0]];
+		double light0 = tr.getScalarProduct(p0.dx, p0.dy);
+		
+		double x1 = screenX[points[1]], y1 = screenY[points[1]], z1 = screenZ[points[1]];
+		double light1 = tr.getScalarProduct(p1.dx, p1.dy);
+		
+		double x2 = screenX[points[2]], y2 = screenY[points[2]], z2 = screenZ[points[2]];
+		double light2 = tr.getScalarProduct(p2.dx, p2.dy);
+		
+		double x3 = screenX[points[3]], y3 = screenY[points[3]], z3 = screenZ[points[3]];
+		double light3 = tr.getScalarProduct(p3.dx, p3.dy);
+		
+		int c0 = getColor(p0);
+		int c1 = getColor(p1);
+		int c2 = getColor(p2);
+		int c3 = getColor(p3);
+		
+		double lum0 = p0.z;
+		double lum1 = p1.z;
+		double lum2 = p2.z;
+		double lum3 = p3.z;
+		
+		int r0 = ((c0 >> 16) & 0xff);
+		int g0 = ((c0 >>  8) & 0xff);
+		int b0 = ((c0      ) & 0xff);
+		int r1 = ((c1 >> 16) & 0xff);
+		int g1 = ((c1 >>  8) & 0xff);
+		int b1 = ((c1      ) & 0xff);
+		int r2 = ((c2 >> 16) & 0xff);
+		int g2 = ((c2 >>  8) & 0xff);
+		int b2 = ((c2      ) & 0xff);
+		int r3 = ((c3 >> 16) & 0xff);
+		int g3 = ((c3 >>  8) & 0xff);
+		int b3 = ((c3      ) & 0xff);
+		
+		double n13 = Math.abs(x1-x3) + Math.abs(y1-y3);
+		double n02 = Math.abs(x0-x2) + Math.abs(y0-y2);
+		int stepsY = (int) (Math.max(n13, n02) + 1);
+		
+		double dy = 1./stepsY;
+		
+		double dx02 = (x2-x0)*dy;
+		double dy02 = (y2-y0)*dy;
+		double dx13 = (x3-x1)*dy;
+		double dy13 = (y3-y1)*dy;
+
+		double x02 = x0;
+		double y02 = y0;
 
-				SurfacePlotData p0 = plotList[i];
+		double x13 = x1;
+		double y13 = y1;
+		
+		double v = 0;
+		
+		for(int sy=0; sy<stepsY; sy++, v+= dy) {
 
-				if (p0.isVisible) {
-					SurfacePlotData p1 = plotList[i + 1];
-					SurfacePlotData p2 = plotList[i + gridWidth];
-					SurfacePlotData p3 = plotList[i + gridWidth + 1];
+			x02 += dx02;
+			y02 += dy02;
 
-					if ((p1.isVisible) && (p2.isVisible) && (p3.isVisible)) {
-						
-						tr.transform(p0);
-						double x0 = tr.X, y0 = tr.Y, z0 = tr.Z;
-						tr.x = p0.dx;
-						tr.y = p0.dy;
-						double light0 = tr.getScalarProduct();
-						
-						tr.transform(p1);
-						double x1 = tr.X, y1 = tr.Y, z1 = tr.Z;
-						tr.x = p1.dx;
-						tr.y = p1.dy;
-						double light1 = tr.getScalarProduct();
-						
-						tr.transform(p2);
-						double x2 = tr.X, y2 = tr.Y, z2 = tr.Z;
-						tr.x = p2.dx;
-						tr.y = p2.dy;
-						double light2 = tr.getScalarProduct();
-						
-						tr.transform(p3);
-						double x3 = tr.X, y3 = tr.Y, z3 = tr.Z;
-						tr.x = p3.dx;
-						tr.y = p3.dy;
-						double light3 = tr.getScalarProduct();
-						
-						if(!(   x0 >= bufferWidth && x0 < 0 &&  y0 >= bufferHeight && y0 < 0 &&
-								x1 >= bufferWidth && x1 < 0 &&  y1 >= bufferHeight && y1 < 0 &&
-								x2 >= bufferWidth && x2 < 0 &&  y2 >= bufferHeight && y2 < 0 &&
-								x3 >= bufferWidth && x3 < 0 &&  y3 >= bufferHeight && y3 < 0 ) ) {
-							
-							int c0 = getColor(p0);
-							int c1 = getColor(p1);
-							int c2 = getColor(p2);
-							int c3 = getColor(p3);
-							
-							double lum0 = p0.z;
-							double lum1 = p1.z;
-							double lum2 = p2.z;
-							double lum3 = p3.z;
-							
-							int r0 = ((c0 >> 16) & 0xff);
-							int g0 = ((c0 >>  8) & 0xff);
-							int b0 = ((c0      ) & 0xff);
-							int r1 = ((c1 >> 16) & 0xff);
-							int g1 = ((c1 >>  8) & 0xff);
-							int b1 = ((c1      ) & 0xff);
-							int r2 = ((c2 >> 16) & 0xff);
-							int g2 = ((c2 >>  8) & 0xff);
-							int b2 = ((c2      ) & 0xff);
-							int r3 = ((c3 >> 16) & 0xff);
-							int g3 = ((c3 >>  8) & 0xff);
-							int b3 = ((c3      ) & 0xff);
-							
-							double n13 = Math.abs(x1-x3) + Math.abs(y1-y3);
-							double n02 = Math.abs(x0-x2) + Math.abs(y0-y2);
-							int stepsY = (int) (Math.max(n13, n02) + 1);
-							
-							double dy = 1./stepsY;
-							
-							double dx02 = (x2-x0)*dy;
-							double dy02 = (y2-y0)*dy;
-							double dx13 = (x3-x1)*dy;
-							double dy13 = (y3-y1)*dy;
-
-							double x02 = x0;
-							double y02 = y0;
-
-							double x13 = x1;
-							double y13 = y1;
-							
-							double v = 0;
-							
-							for(int sy=0; sy<stepsY; sy++, v+= dy) {
-
-								x02 += dx02;
-								y02 += dy02;
-
-								x13 += dx13;
-								y13 += dy13;
-								
-								int stepsX = (int) (Math.abs(x02-x13) + Math.abs(y02-y13) + 1);
-								
-								double dx = 1./stepsX;
-
-								double dx0213 = (x13-x02)*dx;
-								double dy0213 = (y13-y02)*dx;
-
-								double x0213 = x02;
-								double y0213 = y02;
-								
-								double h = 0;
-								
-								for(int sx=0; sx<stepsX; sx++, h+=dx) {
-									
-									x0213 += dx0213;
-									y0213 += dy0213;
-									
-									double d0 = (1 - h) * (1 - v);
-									double d1 = h * (1 - v);
-									double d2 = (1 - h) * v;
-									double d3 = h * v;
-
-									double z = d0 * z0 + d1 * z1 + d2 * z2 + d3 * z3;
-									
-									if (x0213 >= 0 && x0213 < bufferWidth && y0213 >= 0 && y0213 < bufferHeight) {
-										int pos = (int)y0213 * bufferWidth + (int)x0213;
-										if (z < zbufferPixels[pos]) {
-											double lum = d0 * lum0 + d1 * lum1 + d2 * lum2 + d3 * lum3 + 132;
-
-											if (lum - 12*(int)(lum/12) < 1.5) {
-
-												zbufferPixels[pos] = z;
-												int r = (int) (r3*d3 + r2*d2 + r1*d1 + r0*d0);
-												int g = (int) (g3*d3 + g2*d2 + g1*d1 + g0*d0);
-												int b = (int) (b3*d3 + b2*d2 + b1*d1 + b0*d0);
-
-												double light0123 = d3*light3 + d2*light2 + d1*light1 + d0*light0;
-
-												double l = -light * light0123 *255;
-
-												r = (int) Math.min(255, Math.max(0, r + l));
-												g = (int) Math.min(255, Math.max(0, g + l));
-												b = (int) Math.min(255, Math.max(0, b + l));
-
-												bufferPixels[pos] = 0xff000000 | (r << 16) | (g << 8) | b;
-											}
-										}
-									}
-								}
-							}
+			x13 += dx13;
+			y13 += dy13;
+			
+			int stepsX = (int) (Math.abs(x02-x13) + Math.abs(y02-y13) + 1);
+			
+			double dx = 1./stepsX;
+
+			double dx0213 = (x13-x02)*dx;
+			double dy0213 = (y13-y02)*dx;
+
+			double x0213 = x02;
+			double y0213 = y02;
+			
+			double h = 0;
+			
+			for(int sx=0; sx<stepsX; sx++, h+=dx) {
+				
+				x0213 += dx0213;
+				y0213 += dy0213;
+				
+				double d0 = (1 - h) * (1 - v);
+				double d1 = h * (1 - v);
+				double d2 = (1 - h) * v;
+				double d3 = h * v;
+
+				double z = d0 * z0 + d1 * z1 + d2 * z2 + d3 * z3;
+				
+				if (x0213 >= 0 && x0213 < bufferWidth && y0213 >= yMin && y0213 < yMax) {
+					int pos = (int)y0213 * bufferWidth + (int)x0213;
+					if (z < zbufferPixels[pos]) {
+						double lum = d0 * lum0 + d1 * lum1 + d2 * lum2 + d3 * lum3 + 132;
+
+						if (lum - 12*(int)(lum/12) < 1.5) {
+
+							zbufferPixels[pos] = z;
+							int r = (int) (r3*d3 + r2*d2 + r1*d1 + r0*d0);
+							int g = (int) (g3*d3 + g2*d2 + g1*d1 + g0*d0);
+							int b = (int) (b3*d3 + b2*d2 + b1*d1 + b0*d0);
+
+							double light0123 = d3*light3 + d2*light2 + d1*light1 + d0*light0;
+
+							double l = -light * light0123 *255;
+
+							r = (int) Math.min(255, Math.max(0, r + l));
+							g = (int) Math.min(255, Math.max(0, g + l));
+							b = (int) Math.min(255, Math.max(0, b + l));
+
+							bufferPixels[pos] = 0xff000000 | (r << 16) | (g << 8) | b;
 						}
 					}
 				}
@@ -767,235 +948,192 @@ private void surfacePlotIsoLines(){
 		}
 	}
 
-	private void surfacePlotMesh(){
+	private void drawMesh(int[] points, int yMin, int yMax) {
+		SurfacePlotData p0 = plotList[points[0]];
+		int r0, g0, b0, r1, g1, b1, r2, g2, b2; 
 		
-		for (int row=0; row<gridHeight; row++){ 
-			for (int col=0; col<gridWidth; col++){ 
-				int i = row*gridWidth + col;
+		double x0 = screenX[points[0]], y0 = screenY[points[0]], z0 = screenZ[points[0]];
+		
+		int c0 = getColor(p0);
+		
+		r0 = ((c0 >> 16) & 0xff);
+		g0 = ((c0 >>  8) & 0xff);
+		b0 = ((c0      ) & 0xff);
+		
+		double l = -light * tr.getScalarProduct(p0.dx, p0.dy)  *255;
+		
+		SurfacePlotData p1 = plotList[points[1]];
+		
+		if ( p1.isVisible ) {
+			double x1 = screenX[points[1]],   y1 = screenY[points[1]],   z1 = screenZ[points[1]];
+			double dx10 = x1-x0, dy10 = y1-y0, dz10 = z1-z0;
+			
+			int c1 = getColor(p1);
+			
+			r1 = ((c1 >> 16) & 0xff);
+			g1 = ((c1 >>  8) & 0xff);
+			b1 = ((c1      ) & 0xff);
+			
+
+			int numSteps = (int) (Math.max(Math.abs(dx10),Math.abs(dy10)) + 1);
+			
+			double step = 1. / numSteps;
+			
+			for (int s = 0; s < numSteps; s++) {
+				double f = s * step;
 				
-				SurfacePlotData p0 = plotList[i];
-				int r0, g0, b0, r1, g1, b1, r2, g2, b2; 
+				int x = (int) (x0 + f*dx10);
+				int y = (int) (y0 + f*dy10);
 				
-				if (p0.isVisible) {
-					tr.transform(p0);
-					double x0 = tr.X, y0 = tr.Y, z0 = tr.Z;
-					
-					int c0 = getColor(p0);
-					
-					r0 = ((c0 >> 16) & 0xff);
-					g0 = ((c0 >>  8) & 0xff);
-					b0 = ((c0      ) & 0xff);
-					
-					SurfacePlotData p1 = (col<gridWidth-1) ? plotList[i+1] : plotList[i];
-					
-					if ( p1.isVisible ) {
-						tr.transform(p1);
-						double x1 = tr.X,   y1 = tr.Y,   z1 = tr.Z;
-						double dx10 = x1-x0, dy10 = y1-y0, dz10 = z1-z0;
-						
-						int c1 = getColor(p1);
-						
-						r1 = ((c1 >> 16) & 0xff);
-						g1 = ((c1 >>  8) & 0xff);
-						b1 = ((c1      ) & 0xff);
+				if (x >= 0 && y >= yMin && x < bufferWidth && y < yMax) { 
+					int pos = y*bufferWidth + x;  
+					int z = (int) (z0 + f*dz10);
+					if (z < zbufferPixels[pos]) {
+						zbufferPixels[pos] = z;
 						
+						int r = (int) (f*r1 + (1-f)*r0);
+						int g = (int) (f*g1 + (1-f)*g0);
+						int b = (int) (f*b1 + (1-f)*b0);
 
-						int numSteps = (int) (Math.max(Math.abs(dx10),Math.abs(dy10)) + 1);
-						
-						double step = 1. / numSteps;
-						
-						for (int s = 0; s < numSteps; s++) {
-							double f = s * step;
-							
-							int x = (int) (x0 + f*dx10);
-							int y = (int) (y0 + f*dy10);
-							
-							if (x >= 0 && y >= 0 && x < bufferWidth && y < bufferHeight) { 
-								int pos = y*bufferWidth + x;  
-								int z = (int) (z0 + f*dz10);
-								if (z < zbufferPixels[pos]) {
-									zbufferPixels[pos] = z;
-									
-									int r = (int) (f*r1 + (1-f)*r0);
-									int g = (int) (f*g1 + (1-f)*g0);
-									int b = (int) (f*b1 + (1-f)*b0);
-												
-									tr.x   =  p0.dx; 
-									tr.y   =  p0.dy; 
-
-									double l = -light * tr.getScalarProduct()  *255;
-
-									r = (int) Math.min(255, Math.max(0, r + l));
-									g = (int) Math.min(255, Math.max(0, g + l));
-									b = (int) Math.min(255, Math.max(0, b + l));								
-
-									bufferPixels[pos] = 0xff000000 | (r << 16) | (g << 8) | b; 
-								}
-							}
-						}
+						r = (int) Math.min(255, Math.max(0, r + l));
+						g = (int) Math.min(255, Math.max(0, g + l));
+						b = (int) Math.min(255, Math.max(0, b + l));								
+
+						bufferPixels[pos] = 0xff000000 | (r << 16) | (g << 8) | b; 
 					}
-					
-					SurfacePlotData p2 = (row<gridHeight-1) ? plotList[i+gridWidth] : plotList[i];
-					
-					if ( p2.isVisible ) {
-						tr.transform(p2);
-						double x2 = tr.X,   y2 = tr.Y,   z2 = tr.Z;
-						double dx20 = x2-x0, dy20 = y2-y0, dz20 = z2-z0;
-						
-						int c2 = getColor(p2);
-						
-						r2 = ((c2 >> 16) & 0xff);
-						g2 = ((c2 >>  8) & 0xff);
-						b2 = ((c2      ) & 0xff);
+				}
+			}
+		}
+		
+		SurfacePlotData p2 = plotList[points[2]];
+		
+		if ( p2.isVisible ) {
+			double x2 = screenX[points[2]],   y2 = screenY[points[2]],   z2 = screenZ[points[2]];
+			double dx20 = x2-x0, dy20 = y2-y0, dz20 = z2-z0;
+			
+			int c2 = getColor(p2);
+			
+			r2 = ((c2 >> 16) & 0xff);
+			g2 = ((c2 >>  8) & 0xff);
+			b2 = ((c2      ) & 0xff);
 
+			
+			int numSteps = (int) (Math.max(Math.abs(dx20),Math.abs(dy20)) + 1);
+			
+			double step = 1. / numSteps;
+			
+			for (int s = 0; s < numSteps; s++) {
+				double f = s * step;
+				
+				int x = (int) (x0 + f*dx20);
+				int y = (int) (y0 + f*dy20);
+				
+				if (x >= 0 && y >= yMin && x < bufferWidth && y < yMax) { 
+					int pos = y*bufferWidth + x;  
+					int z = (int) (z0 + f*dz20);
+					if (z < zbufferPixels[pos]) {
+						zbufferPixels[pos] = z;
 						
-						int numSteps = (int) (Math.max(Math.abs(dx20),Math.abs(dy20)) + 1);
-						
-						double step = 1. / numSteps;
+						int r = (int) (f*r2 + (1-f)*r0);
+						int g = (int) (f*g2 + (1-f)*g0);
+						int b = (int) (f*b2 + (1-f)*b0);
+
+						r = (int) Math.min(255, Math.max(0, r + l));
+						g = (int) Math.min(255, Math.max(0, g + l));
+						b = (int) Math.min(255, Math.max(0, b + l));	
 						
-						for (int s = 0; s < numSteps; s++) {
-							double f = s * step;
-							
-							int x = (int) (x0 + f*dx20);
-							int y = (int) (y0 + f*dy20);
-							
-							if (x >= 0 && y >= 0 && x < bufferWidth && y < bufferHeight) { 
-								int pos = y*bufferWidth + x;  
-								int z = (int) (z0 + f*dz20);
-								if (z < zbufferPixels[pos]) {
-									zbufferPixels[pos] = z;
-									
-									int r = (int) (f*r2 + (1-f)*r0);
-									int g = (int) (f*g2 + (1-f)*g0);
-									int b = (int) (f*b2 + (1-f)*b0);
-
-									tr.x   =  p0.dx; 
-									tr.y   =  p0.dy; 
-
-									double l = -light * tr.getScalarProduct()  *255;
-
-									r = (int) Math.min(255, Math.max(0, r + l));
-									g = (int) Math.min(255, Math.max(0, g + l));
-									b = (int) Math.min(255, Math.max(0, b + l));	
-									
-									bufferPixels[pos] = 0xff000000 | (r << 16) | (g << 8) | b; 
-								}
-							}
-						}
+						bufferPixels[pos] = 0xff000000 | (r << 16) | (g << 8) | b; 
 					}
-				}	
+				}
 			}
-		}			
+		}
 	}
 	
 	
-	private void surfacePlotLines(){
-		for (int row=0; row<gridHeight; row++){
-			for (int col=0; col<gridWidth-1; col++){
-				int i = row*gridWidth + col;
-				SurfacePlotData p0 = plotList[i]; 
-				SurfacePlotData p1 = plotList[i+1]; 
-				
-				if (p0.isVisible &&  p1.isVisible) {
-					
-					tr.transform(p0);
-					double x0 = tr.X, y0 = tr.Y, z0 = tr.Z;
-					
-					int c0 = getColor(p0);
-					
-					int r0 = ((c0 >> 16) & 0xff);
-					int g0 = ((c0 >>  8) & 0xff);
-					int b0 = ((c0      ) & 0xff);
-
+	private void drawLine(int[] points, int yMin, int yMax) {
+		SurfacePlotData p0 = plotList[points[0]]; 
+		SurfacePlotData p1 = plotList[points[1]]; 
+		
+		double x0 = screenX[points[0]], y0 = screenY[points[0]], z0 = screenZ[points[0]];
+		
+		int c0 = getColor(p0);
+		
+		int r0 = ((c0 >> 16) & 0xff);
+		int g0 = ((c0 >>  8) & 0xff);
+		int b0 = ((c0      ) & 0xff);
 
-					tr.transform(p1);
-					double x1 = tr.X,   y1 = tr.Y,   z1 = tr.Z;
-					double dx1 = x1-x0, dy1 = y1-y0, dz1 = z1-z0;
 
-					int numSteps = (int) (Math.max(Math.abs(dx1),Math.abs(dy1))+1);
+		double x1 = screenX[points[1]],   y1 = screenY[points[1]],   z1 = screenZ[points[1]];
+		double dx1 = x1-x0, dy1 = y1-y0, dz1 = z1-z0;
 
-					int c1 = getColor(p1);
+		int numSteps = (int) (Math.max(Math.abs(dx1),Math.abs(dy1))+1);
 
-					int r1 = ((c1 >> 16) & 0xff);
-					int g1 = ((c1 >>  8) & 0xff);
-					int b1 = ((c1      ) & 0xff);
+		int c1 = getColor(p1);
 
-					double step = 1. / numSteps;
-					int r, g, b;
-					for (int s = 0; s < numSteps; s++) {
-						double f = s * step;
+		int r1 = ((c1 >> 16) & 0xff);
+		int g1 = ((c1 >>  8) & 0xff);
+		int b1 = ((c1      ) & 0xff);
 
-						int x = (int) (x0 + f*dx1);
-						int y = (int) (y0 + f*dy1);
+		double l = -light * tr.getScalarProduct(p0.dx, p0.dy)  *255;
 
-						if (x >= 0 && y >= 0 && x < bufferWidth && y < bufferHeight) { 
-							int pos = y*bufferWidth + x;  
-							double z = z0 + f*dz1;
-							if (z < zbufferPixels[pos]) {
-								zbufferPixels[pos] = z;
+		double step = 1. / numSteps;
+		int r, g, b;
+		for (int s = 0; s < numSteps; s++) {
+			double f = s * step;
 
-								r = (int) ((1-f)*r0 + f*r1);
-								g = (int) ((1-f)*g0 + f*g1);
-								b = (int) ((1-f)*b0 + f*b1);
+			int x = (int) (x0 + f*dx1);
+			int y = (int) (y0 + f*dy1);
 
-								tr.x   =  p0.dx; 
-								tr.y   =  p0.dy; 
+			if (x >= 0 && y >= yMin && x < bufferWidth && y < yMax) { 
+				int pos = y*bufferWidth + x;  
+				double z = z0 + f*dz1;
+				if (z < zbufferPixels[pos]) {
+					zbufferPixels[pos] = z;
 
-								double l = -light * tr.getScalarProduct()  *255;
+					r = (int) ((1-f)*r0 + f*r1);
+					g = (int) ((1-f)*g0 + f*g1);
+					b = (int) ((1-f)*b0 + f*b1);
 
-								r = (int) Math.min(255, Math.max(0, r + l));
-								g = (int) Math.min(255, Math.max(0, g + l));
-								b = (int) Math.min(255, Math.max(0, b + l));							
+					r = (int) Math.min(255, Math.max(0, r + l));
+					g = (int) Math.min(255, Math.max(0, g + l));
+					b = (int) Math.min(255, Math.max(0, b + l));							
 
-								bufferPixels[pos] = 0xff000000 | (r << 16) | (g << 8) | b; 
-							}
-						}
-					}
+					bufferPixels[pos] = 0xff000000 | (r << 16) | (g << 8) | b; 
 				}
 			}
 		}
 	}
 	
-	private void surfacePlotDots(){
-		
-		for (int i=plotList.length-1; i>=0; i--){
-
-			SurfacePlotData p0 = plotList[i]; 
-			if (p0.isVisible) {
+	private void drawDot(int[] points, int yMin, int yMax) {
+		SurfacePlotData p0 = plotList[points[0]]; 
 
-				tr.transform(p0);
-				int x = (int) tr.X, y = (int) tr.Y;
+		int x = (int) screenX[points[0]], y = (int) screenY[points[0]];
 
-				if (x >= 0 && y >= 0 && x < bufferWidth && y < bufferHeight) { 
-					int pos = y*bufferWidth + x;  
-					int z = (int) tr.Z;
-					if (z < zbufferPixels[pos]) {
-						zbufferPixels[pos] = z;		
-
-						int c0 = getColor(p0);
-						
-						int r0 = ((c0 >> 16) & 0xff);
-						int g0 = ((c0 >>  8) & 0xff);
-						int b0 = ((c0      ) & 0xff);
-						
-						tr.x   =  p0.dx; 
-						tr.y   =  p0.dy; 
+		if (x >= 0 && y >= yMin && x < bufferWidth && y < yMax) { 
+			int pos = y*bufferWidth + x;  
+			int z = (int) screenZ[points[0]];
+			if (z < zbufferPixels[pos]) {
+				zbufferPixels[pos] = z;		
 
-						double l = -light * tr.getScalarProduct()  *255;
+				int c0 = getColor(p0);
+				
+				int r0 = ((c0 >> 16) & 0xff);
+				int g0 = ((c0 >>  8) & 0xff);
+				int b0 = ((c0      ) & 0xff);
+				
+				double l = -light * tr.getScalarProduct(p0.dx, p0.dy)  *255;
 
-						int r = (int) Math.min(255, Math.max(0, r0 + l));
-						int g = (int) Math.min(255, Math.max(0, g0 + l));
-						int b = (int) Math.min(255, Math.max(0, b0 + l));
-						
-						bufferPixels[pos] = 0xff000000 | (r << 16) | (g << 8) | b;
+				int r = (int) Math.min(255, Math.max(0, r0 + l));
+				int g = (int) Math.min(255, Math.max(0, g0 + l));
+				int b = (int) Math.min(255, Math.max(0, b0 + l));
+				
+				bufferPixels[pos] = 0xff000000 | (r << 16) | (g << 8) | b;
 
-					}
-				}	
-			}	
-		}
+			}
+		}	
 	}		
 
-	
+
 	
 	private void surfacePlotDotsNoLight(){
 		
@@ -1049,6 +1187,13 @@ protected void setSurfacePlotMode(int surfacePlotMode) {
 		this.surfacePlotMode = surfacePlotMode;
 	}
 
+	/**
+	 * In draft mode, large grids are drawn decimated, for a fast response while dragging
+	 */
+	protected void setSurfacePlotDraft(boolean draft) {
+		this.draft = draft;
+	}
+
 	protected void setBuffers(int[] bufferPixels, double[] zbufferPixels, int bufferWidth, int bufferHeight) {
 		this.bufferPixels =  bufferPixels;
 		this.zbufferPixels = zbufferPixels;
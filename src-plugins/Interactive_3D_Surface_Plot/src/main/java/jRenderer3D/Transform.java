@@ -20,6 +20,26 @@ protected void transform(SurfacePlotData plotItem) {
 		xyzPos();
 	}
 	
+	/**
+	 * Transforms a plot item like transform(SurfacePlotData), but returns X, Y and Z
+	 * in XYZ instead of changing the state of the transform, so that several 
+	 * threads may transform items at once.
+	 */
+	protected void transform(SurfacePlotData plotItem, double[] XYZ) {
+		double x = plotItem.x;
+		double y = plotItem.y;
+		double z = plotItem.z;
+		double X = a00*x + a01*y + a02*z + a03;
+		double Y = a10*x + a11*y + a12*z + a13;
+		double Z = a20*x + a21*y + a22*z + a23;
+		
+		double sz = scale * maxDistance /(maxDistance + perspective*Z);
+		
+		XYZ[0] = sz*X + xs;
+		XYZ[1] = sz*Y + ys;
+		XYZ[2] = Z;
+	}
+	
 	protected void transform(Text3D textItem) {
 		x = textItem.x;
 		y = textItem.y;
@@ -578,6 +598,10 @@ final double getScalarProduct() {
 		return cosZ*x + sinZ*y;
 		//return -cosZ*y - sinZ*x;
 	}
+	
+	final double getScalarProduct(double x, double y) {
+		return cosZ*x + sinZ*y;
+	}
 		
 	final void invxyzPosf(int[] XYZ) {
 		X = XYZ[0];
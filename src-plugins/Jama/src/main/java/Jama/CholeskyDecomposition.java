@@ -31,6 +31,9 @@ public class CholeskyDecomposition implements java.io.Serializable {
    */
    private boolean isspd;
 
+   /** Number of rows of the blocks of L computed in one thread. */
+   private static final int CHOL_ROWS = 64;
+
 /* ------------------------
    Constructor
  * ------------------------ */
@@ -44,31 +47,62 @@ public CholeskyDecomposition (Matrix Arg) {
 
 
      // Initialize.
-      double[][] A = Arg.getArray();
+      final double[][] A = Arg.getArray();
       n = Arg.getRowDimension();
-      L = new double[n][n];
+      final double[][] L = this.L = new double[n][n];
       isspd = (Arg.getColumnDimension() == n);
-      // Main loop.
-      for (int j = 0; j < n; j++) {
-         double[] Lrowj = L[j];
-         double d = 0.0;
-         for (int k = 0; k < j; k++) {
-            double[] Lrowk = L[k];
-            double s = 0.0;
-            for (int i = 0; i < k; i++) {
-               s += Lrowk[i]*Lrowj[i];
+      // Sums of squares of the rows, so far.
+      final double[] d = new double[n];
+      // Set if the matrix is found not to be symmetric.
+      final boolean[] asymmetric = new boolean[1];
+      // Main loop, over blocks of rows.  The part of all the rows below a
+      // block that is left of the block only depends on the rows above, so
+      // it is computed concurrently once the block is done.
+      for (int j0 = 0; j0 < n; j0 += CHOL_ROWS) {
+         final int j1 = Math.min(n, j0 + CHOL_ROWS);
+         for (int j = j0; j < j1; j++) {
+            double[] Lrowj = L[j];
+            for (int k = j0; k < j; k++) {
+               double[] Lrowk = L[k];
+               double s = 0.0;
+               for (int i = 0; i < k; i++) {
+                  s += Lrowk[i]*Lrowj[i];
+               }
+               Lrowj[k] = s = (A[j][k] - s)/L[k][k];
+               d[j] = d[j] + s*s;
+               isspd = isspd & (A[k][j] == A[j][k]); 
+            }
+            d[j] = A[j][j] - d[j];
+            isspd = isspd & (d[j] > 0.0);
+            L[j][j] = Math.sqrt(Math.max(d[j],0.0));
+            for (int k = j+1; k < n; k++) {
+               L[j][k] = 0.0;
             }
-            Lrowj[k] = s = (A[j][k] - s)/L[k][k];
-            d = d + s*s;
-            isspd = isspd & (A[k][j] == A[j][k]); 
-         }
-         d = A[j][j] - d;
-         isspd = isspd & (d > 0.0);
-         L[j][j] = Math.sqrt(Math.max(d,0.0));
-         for (int k = j+1; k < n; k++) {
-            L[j][k] = 0.0;
          }
+         final int k0 = j0;
+         Parallel.run(j1, n, (long) (j1 - j0) * j1, new Parallel.Loop() {
+            public void run (int from, int to) {
+               boolean symmetric = true;
+               for (int j = from; j < to; j++) {
+                  double[] Lrowj = L[j];
+                  for (int k = k0; k < j1; k++) {
+                     double[] Lrowk = L[k];
+                     double s = 0.0;
+                     for (int i = 0; i < k; i++) {
+                        s += Lrowk[i]*Lrowj[i];
+                     }
+                     Lrowj[k] = s = (A[j][k] - s)/L[k][k];
+                     d[j] = d[j] + s*s;
+                     symmetric = symmetric & (A[k][j] == A[j][k]);
+                  }
+               }
+               if (!symmetric) {
+                  asymmetric[0] = true;
+               }
+            }
+         });
       }
+      isspd = isspd & !asymmetric[0];
    }
 
 /* ------------------------
@@ -169,12 +203,18 @@ public Matrix solve (Matrix B) {
       }
 
       // Copy right hand side.
-      double[][] X = B.getArrayCopy();
+      final double[][] X = B.getArrayCopy();
       int nx = B.getColumnDimension();
+      final double[][] L = this.L;
+      final int n = this.n;
+
+      // The columns of X are solved independently, in blocks of columns.
 
+      Parallel.run(0, nx, (long) n*n, new Parallel.Loop() {
+         public void run (int from, int to) {
 	      // Solve L*Y = B;
 	      for (int k = 0; k < n; k++) {
-	        for (int j = 0; j < nx; j++) {
+	        for (int j = from; j < to; j++) {
 	           for (int i = 0; i < k ; i++) {
 	               X[k][j] -= X[i][j]*L[k][i];
 	           }
@@ -184,14 +224,15 @@ public Matrix solve (Matrix B) {
 	
 	      // Solve L'*X = Y;
 	      for (int k = n-1; k >= 0; k--) {
-	        for (int j = 0; j < nx; j++) {
+	        for (int j = from; j < to; j++) {
 	           for (int i = k+1; i < n ; i++) {
 	               X[k][j] -= X[i][j]*L[i][k];
 	           }
 	           X[k][j] /= L[k][k];
 	        }
 	      }
-      
+         }
+      });
       
       return new Matrix(X,n,nx);
    }
@@ -57,8 +57,9 @@ public LUDecomposition (Matrix A) {
          piv[i] = i;
       }
       pivsign = 1;
+      final double[][] LU = this.LU;
       double[] LUrowi;
-      double[] LUcolj = new double[m];
+      final double[] LUcolj = new double[m];
 
       // Outer loop.
 
@@ -72,12 +73,13 @@ public LUDecomposition (Matrix A) {
 
          // Apply previous transformations.
 
-         for (int i = 0; i < m; i++) {
+         int imax = Math.min(j,m);
+         for (int i = 0; i < imax; i++) {
             LUrowi = LU[i];
 
             // Most of the time is spent in the following dot product.
 
-            int kmax = Math.min(i,j);
+            int kmax = i;
             double s = 0.0;
             for (int k = 0; k < kmax; k++) {
                s += LUrowi[k]*LUcolj[k];
@@ -85,6 +87,24 @@ public LUDecomposition (Matrix A) {
 
             LUrowi[j] = LUcolj[i] -= s;
          }
+
+         // Below the diagonal, the dot products only use the part of the
+         // column above it, which is done, so the rows are independent.
+
+         final int kmax = j;
+         Parallel.run(imax, m, kmax, new Parallel.Loop() {
+            public void run (int from, int to) {
+               for (int i = from; i < to; i++) {
+                  double[] LUrowi = LU[i];
+                  double s = 0.0;
+                  for (int k = 0; k < kmax; k++) {
+                     s += LUrowi[k]*LUcolj[k];
+                  }
+
+                  LUrowi[kmax] = LUcolj[i] -= s;
+               }
+            }
+         });
    
          // Find pivot and exchange if necessary.
 
@@ -285,27 +305,35 @@ public Matrix solve (Matrix B) {
       // Copy right hand side with pivoting
       int nx = B.getColumnDimension();
       Matrix Xmat = B.getMatrix(piv,0,nx-1);
-      double[][] X = Xmat.getArray();
+      final double[][] X = Xmat.getArray();
+      final double[][] LU = this.LU;
+      final int n = this.n;
 
-      // Solve L*Y = B(piv,:)
-      for (int k = 0; k < n; k++) {
-         for (int i = k+1; i < n; i++) {
-            for (int j = 0; j < nx; j++) {
-               X[i][j] -= X[k][j]*LU[i][k];
+      // The columns of X are solved independently, in blocks of columns.
+
+      Parallel.run(0, nx, (long) n*n, new Parallel.Loop() {
+         public void run (int from, int to) {
+            // Solve L*Y = B(piv,:)
+            for (int k = 0; k < n; k++) {
+               for (int i = k+1; i < n; i++) {
+                  for (int j = from; j < to; j++) {
+                     X[i][j] -= X[k][j]*LU[i][k];
+                  }
+               }
             }
-         }
-      }
-      // Solve U*X = Y;
-      for (int k = n-1; k >= 0; k--) {
-         for (int j = 0; j < nx; j++) {
-            X[k][j] /= LU[k][k];
-         }
-         for (int i = 0; i < k; i++) {
-            for (int j = 0; j < nx; j++) {
-               X[i][j] -= X[k][j]*LU[i][k];
+            // Solve U*X = Y;
+            for (int k = n-1; k >= 0; k--) {
+               for (int j = from; j < to; j++) {
+                  X[k][j] /= LU[k][k];
+               }
+               for (int i = 0; i < k; i++) {
+                  for (int j = from; j < to; j++) {
+                     X[i][j] -= X[k][j]*LU[i][k];
+                  }
+               }
             }
          }
-      }
+      });
       return Xmat;
    }
 }
@@ -70,6 +70,11 @@ public class Matrix implements Cloneable, java.io.Serializable {
    */
    private int m, n;
 
+   /** Size of the blocks of a product computed at once: rows, columns,
+   and length of the pieces of the rows and columns multiplied.
+   */
+   private static final int TIMES_ROWS = 64, TIMES_COLUMNS = 64, TIMES_DEPTH = 256;
+
 /* ------------------------
    Constructors
  * ------------------------ */
@@ -743,21 +748,72 @@ public Matrix times (Matrix B) {
          throw new IllegalArgumentException("Matrix inner dimensions must agree.");
       }
       Matrix X = new Matrix(m,B.n);
-      double[][] C = X.getArray();
-      double[] Bcolj = new double[n];
-      for (int j = 0; j < B.n; j++) {
-         for (int k = 0; k < n; k++) {
-            Bcolj[k] = B.A[k][j];
-         }
-         for (int i = 0; i < m; i++) {
-            double[] Arowi = A[i];
-            double s = 0;
-            for (int k = 0; k < n; k++) {
-               s += Arowi[k]*Bcolj[k];
+
+      // The product is computed in blocks of TIMES_ROWS rows and TIMES_COLUMNS
+      // columns, concurrently.  Each block is summed over pieces of
+      // TIMES_DEPTH columns of A, for which the piece of the columns of B is
+      // copied to consecutive memory that stays in cache.  The sums are
+      // carried over from one piece to the next in C, so that every element
+      // is summed in the order of k, as with whole rows and columns.
+
+      final double[][] A = this.A, BA = B.A, C = X.getArray();
+      final int m = this.m, n = this.n, p = B.n;
+      final int columnBlocks = (p + TIMES_COLUMNS - 1) / TIMES_COLUMNS;
+      int rowBlocks = (m + TIMES_ROWS - 1) / TIMES_ROWS;
+      long work = (long) Math.min(m,TIMES_ROWS) * Math.min(p,TIMES_COLUMNS) * n;
+      Parallel.run(0, rowBlocks * columnBlocks, work, new Parallel.Loop() {
+         public void run (int from, int to) {
+            double[][] Bcols = new double[Math.min(p,TIMES_COLUMNS)][Math.min(n,TIMES_DEPTH)];
+            for (int t = from; t < to; t++) {
+               int i0 = (t / columnBlocks) * TIMES_ROWS;
+               int i1 = Math.min(m, i0 + TIMES_ROWS);
+               int j0 = (t % columnBlocks) * TIMES_COLUMNS;
+               int j1 = Math.min(p, j0 + TIMES_COLUMNS);
+               for (int k0 = 0; k0 < n; k0 += TIMES_DEPTH) {
+                  int depth = Math.min(n - k0, TIMES_DEPTH);
+                  for (int k = 0; k < depth; k++) {
+                     double[] Browk = BA[k0 + k];
+                     for (int j = j0; j < j1; j++) {
+                        Bcols[j - j0][k] = Browk[j];
+                     }
+                  }
+                  for (int i = i0; i < i1; i++) {
+                     double[] Arowi = A[i];
+                     double[] Crowi = C[i];
+
+                     // Four columns at a time, to use each element of A four times.
+
+                     int j = j0;
+                     for (; j + 4 <= j1; j += 4) {
+                        double[] Bcol0 = Bcols[j - j0], Bcol1 = Bcols[j - j0 + 1];
+                        double[] Bcol2 = Bcols[j - j0 + 2], Bcol3 = Bcols[j - j0 + 3];
+                        double s0 = Crowi[j], s1 = Crowi[j + 1];
+                        double s2 = Crowi[j + 2], s3 = Crowi[j + 3];
+                        for (int k = 0; k < depth; k++) {
+                           double a = Arowi[k0 + k];
+                           s0 += a*Bcol0[k];
+                           s1 += a*Bcol1[k];
+                           s2 += a*Bcol2[k];
+                           s3 += a*Bcol3[k];
+                        }
+                        Crowi[j] = s0;
+                        Crowi[j + 1] = s1;
+                        Crowi[j + 2] = s2;
+                        Crowi[j + 3] = s3;
+                     }
+                     for (; j < j1; j++) {
+                        double[] Bcolj = Bcols[j - j0];
+                        double s = Crowi[j];
+                        for (int k = 0; k < depth; k++) {
+                           s += Arowi[k0 + k]*Bcolj[k];
+                        }
+                        Crowi[j] = s;
+                     }
+                  }
+               }
             }
-            C[i][j] = s;
          }
-      }
+      });
       return X;
    }
 
@@ -0,0 +1,134 @@
+package Jama;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+   /** Loops run on all processors.
+   <P>
+   The large products, decompositions and solves split their outer loops
+   into chunks, which are run by the calling thread and by a pool of
+   daemon threads.  The decompositions run one such loop per column, so the
+   threads are kept rather than started for every loop.
+   <P>
+   The iterations of a loop must write disjoint results and compute each
+   of them as the serial loop does, so that the results do not depend on
+   the number of processors.
+   */
+
+class Parallel {
+
+/* ------------------------
+   Class variables
+ * ------------------------ */
+
+   /** Loops doing fewer multiply-adds than this run in the calling thread. */
+   static final long MIN_WORK = 1 << 15;
+
+   /** Number of processors. */
+   private static final int THREADS = Runtime.getRuntime().availableProcessors();
+
+   /** Threads helping the calling thread, created when first needed. */
+   private static ExecutorService pool;
+
+/* ------------------------
+   Public Methods
+ * ------------------------ */
+
+   /** The body of a loop. */
+
+   interface Loop {
+      /** Run the iterations from (inclusive) to to (exclusive). */
+      void run (int from, int to);
+   }
+
+   /** Run the iterations of a loop, concurrently if the loop is large enough.
+   Returns when all iterations are done.  An exception thrown by an
+   iteration is thrown again in the calling thread.
+   @param from   first iteration.
+   @param to     last iteration + 1.
+   @param work   number of multiply-adds of one iteration.
+   @param loop   the body.
+   */
+
+   static void run (final int from, final int to, long work, final Loop loop) {
+      final int count = to - from;
+      if (THREADS < 2 || count < 2 || count * work < MIN_WORK) {
+         if (count > 0) {
+            loop.run(from,to);
+         }
+         return;
+      }
+
+      // A few chunks per thread, so that the threads finish together.
+
+      final int chunks = Math.min(count, 4 * THREADS);
+      final AtomicInteger next = new AtomicInteger(0);
+      final CountDownLatch done = new CountDownLatch(chunks);
+      final RuntimeException[] failure = new RuntimeException[1];
+      Runnable worker = new Runnable() {
+         public void run () {
+            for (int c = next.getAndIncrement(); c < chunks; c = next.getAndIncrement()) {
+               try {
+                  if (failure[0] == null) {
+                     loop.run(from + (int) ((long) count * c / chunks),
+                              from + (int) ((long) count * (c + 1) / chunks));
+                  }
+               } catch (RuntimeException e) {
+                  synchronized (failure) {
+                     if (failure[0] == null) {
+                        failure[0] = e;
+                     }
+                  }
+               } finally {
+                  done.countDown();
+               }
+            }
+         }
+      };
+      ExecutorService helpers = getPool();
+      for (int t = 1; t < Math.min(chunks, THREADS); t++) {
+         helpers.execute(worker);
+      }
+
+      // The calling thread takes chunks as well, and only waits for the
+      // chunks that are being run, so that loops nested in an iteration
+      // cannot wait for one another.
+
+      worker.run();
+      boolean interrupted = false;
+      while (done.getCount() > 0) {
+         try {
+            done.await();
+         } catch (InterruptedException e) {
+            interrupted = true;
+         }
+      }
+      if (interrupted) {
+         Thread.currentThread().interrupt();
+      }
+      if (failure[0] != null) {
+         throw failure[0];
+      }
+   }
+
+/* ------------------------
+   Private Methods
+ * ------------------------ */
+
+   private static synchronized ExecutorService getPool () {
+      if (pool == null) {
+         pool = Executors.newFixedThreadPool(THREADS - 1, new ThreadFactory() {
+            private int count;
+            public synchronized Thread newThread (Runnable r) {
+               Thread thread = new Thread(r, "Jama " + (++count));
+               thread.setDaemon(true);
+               return thread;
+            }
+         });
+      }
+      return pool;
+   }
+}
@@ -855,6 +855,70 @@ public static void main (String argv[]) {
          errorCount = try_failure(errorCount,"EigenvalueDecomposition (nonsymmetric)...","incorrect nonsymmetric Eigenvalue decomposition calculation");
       }
 
+/**
+      Large matrices, which are computed in blocks and by several threads:
+         times
+         lu
+         solve
+         inverse
+         chol
+**/
+
+      print("\nTesting large matrices...\n");
+      int[][] shapes = {{300,300,300},{5000,8,8},{40,2000,3},{1,700,129}};
+      for (int t = 0; t < shapes.length; t++) {
+         A = Matrix.random(shapes[t][0],shapes[t][1]);
+         B = Matrix.random(shapes[t][1],shapes[t][2]);
+         String name = "times(Matrix) " + shapes[t][0] + "x" + shapes[t][1] + " by " + shapes[t][1] + "x" + shapes[t][2] + "...";
+         long start = System.currentTimeMillis();
+         C = A.times(B);
+         long time = System.currentTimeMillis() - start;
+         if (equal(C,naiveTimes(A,B))) {
+            try_success(name,time + " ms");
+         } else {
+            errorCount = try_failure(errorCount,name,"result differs from the column-by-column product");
+         }
+      }
+      n = 300;
+      A = Matrix.random(n,n).plus(Matrix.identity(n,n).times(n));
+      long start = System.currentTimeMillis();
+      LU = A.lu();
+      long time = System.currentTimeMillis() - start;
+      try {
+         check(A.getMatrix(LU.getPivot(),0,n-1),LU.getL().times(LU.getU()));
+         try_success("LUDecomposition " + n + "x" + n + "...",time + " ms");
+      } catch ( java.lang.RuntimeException e ) {
+         errorCount = try_failure(errorCount,"LUDecomposition " + n + "x" + n + "...","incorrect LU decomposition calculation");
+      }
+      start = System.currentTimeMillis();
+      X = A.inverse();
+      time = System.currentTimeMillis() - start;
+      try {
+         check(A.times(X),Matrix.identity(n,n));
+         try_success("inverse() " + n + "x" + n + "...",time + " ms");
+      } catch ( java.lang.RuntimeException e ) {
+         errorCount = try_failure(errorCount,"inverse() " + n + "x" + n + "...","incorrect inverse calculation");
+      }
+      A = A.times(A.transpose()).plus(Matrix.identity(n,n));
+      start = System.currentTimeMillis();
+      Chol = A.chol();
+      time = System.currentTimeMillis() - start;
+      L = Chol.getL();
+      try {
+         check(A,L.times(L.transpose()));
+         try_success("CholeskyDecomposition " + n + "x" + n + "...",time + " ms");
+      } catch ( java.lang.RuntimeException e ) {
+         errorCount = try_failure(errorCount,"CholeskyDecomposition " + n + "x" + n + "...","incorrect Cholesky decomposition calculation");
+      }
+      B = Matrix.random(n,50);
+      X = Chol.solve(B);
+      try {
+         check(A.times(X),B);
+         try_success("CholeskyDecomposition solve() " + n + "x" + n + "...","");
+      } catch ( java.lang.RuntimeException e ) {
+         errorCount = try_failure(errorCount,"CholeskyDecomposition solve() " + n + "x" + n + "...","incorrect Choleskydecomposition solve calculation");
+      }
+
       print("\nTestMatrix completed.\n");
       print("Total errors reported: " + Integer.toString(errorCount) + "\n");
       print("Total warnings reported: " + Integer.toString(warningCount) + "\n");
@@ -904,6 +968,38 @@ private static void check(Matrix X, Matrix Y) {
       }
    }
 
+   /** Check that Matrices are exactly equal. **/
+
+   private static boolean equal(Matrix X, Matrix Y) {
+      double[][] x = X.getArray(), y = Y.getArray();
+      for (int i = 0; i < x.length; i++) {
+         for (int j = 0; j < x[i].length; j++) {
+            if (Double.doubleToLongBits(x[i][j]) != Double.doubleToLongBits(y[i][j])) {
+               return false;
+            }
+         }
+      }
+      return true;
+   }
+
+   /** Product computed one column at a time, summing in the same order as times(). **/
+
+   private static Matrix naiveTimes(Matrix A, Matrix B) {
+      double[][] a = A.getArray(), b = B.getArray();
+      int m = A.getRowDimension(), n = A.getColumnDimension(), p = B.getColumnDimension();
+      double[][] c = new double[m][p];
+      for (int j = 0; j < p; j++) {
+         for (int i = 0; i < m; i++) {
+            double s = 0;
+            for (int k = 0; k < n; k++) {
+               s += a[i][k]*b[k][j];
+            }
+            c[i][j] = s;
+         }
+      }
+      return new Matrix(c);
+   }
+
    /** Shorten spelling of print. **/
 
    private static void print (String s) {
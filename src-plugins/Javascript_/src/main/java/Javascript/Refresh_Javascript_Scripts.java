@@ -3,16 +3,21 @@
 
 import ij.IJ;
 
+import common.CompiledScriptCache;
+import common.InterpreterPool;
 import common.RefreshScripts;
 import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Script;
 import org.mozilla.javascript.Scriptable;
-import org.mozilla.javascript.ImporterTopLevel;
+import org.mozilla.javascript.ScriptableObject;
 import java.io.BufferedReader;
-import java.io.FileInputStream;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.io.File;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
 
 public class Refresh_Javascript_Scripts extends RefreshScripts {
 	@Override
@@ -22,17 +27,72 @@ public void run(String arg) {
 		super.run(arg);
 	}
 
+	/** A pooled top-level scope and the names it defined right after the imports. */
+	protected static class PooledScope {
+		final Scriptable scope;
+		final Set<Object> initialIds;
+		final ClassLoader classLoader;
+
+		PooledScope(Scriptable scope, ClassLoader classLoader) {
+			this.scope = scope;
+			this.classLoader = classLoader;
+			initialIds = new HashSet<Object>(Arrays.asList(((ScriptableObject)scope).getAllIds()));
+		}
+	}
+
+	/**
+	 * Top-level scopes with all ImageJ classes imported. Scripts run in
+	 * a fresh scope whose prototype is the pooled one, so their variables
+	 * and functions are gone after the run; a pooled scope which was
+	 * changed nevertheless (e.g. by importClass() or load()) is discarded.
+	 */
+	protected static final InterpreterPool<PooledScope> pool = new InterpreterPool<PooledScope>("Javascript", 2) {
+		protected PooledScope create() {
+			Context cx = Context.enter();
+			try {
+				ClassLoader classLoader = IJ.getClassLoader();
+				return new PooledScope(Javascript_Interpreter.getScopeAndImportAll(cx), classLoader);
+			} finally {
+				Context.exit();
+			}
+		}
+
+		protected void reset(PooledScope pooled) {
+			Object[] ids = ((ScriptableObject)pooled.scope).getAllIds();
+			if (ids.length != pooled.initialIds.size() || !pooled.initialIds.containsAll(Arrays.asList(ids)))
+				throw new IllegalStateException("The shared Javascript scope was modified");
+		}
+	};
+
+	/** The compiled scripts, keyed by path and modification time. */
+	protected static final CompiledScriptCache<Script> cache = new CompiledScriptCache<Script>(64);
+
 	@Override
-	public void runScript(String filename) {
+	public void runScript(final String filename) {
+		File file = new File(filename);
+		if (!file.exists()) {
+			IJ.log("Could not read javascript file at " + filename);
+			return;
+		}
+		final Context cx = Context.enter();
+		PooledScope pooled = null;
 		try {
-			if (! new File(filename).exists()) {
+			pooled = acquire(cx);
+			Script script = cache.get(file, new CompiledScriptCache.Compiler<Script>() {
+				public Script compile(String source, String path) {
+					return cx.compileString(source, filename, 1, null);
+				}
+			});
+			if (script == null) {
 				IJ.log("Could not read javascript file at " + filename);
 				return;
 			}
-			// The stream will be closed by runScript(InputStream)
-			runScript(new FileInputStream(filename), filename);
-		} catch (Throwable t) {
+			log(cx, script.exec(cx, newScope(cx, pooled)));
+		} catch( Throwable t ) {
 			printError(t);
+		} finally {
+			release(pooled);
+			Context.exit();
 		}
 	}
 
@@ -43,37 +103,66 @@ public void runScript(InputStream istream) {
 	}
 
 	public void runScript(InputStream istream, String filename) {
+		Context cx = Context.enter();
+		PooledScope pooled = null;
+		Reader reader = null;
 		try {
-			Context cx = Context.enter();
-			Scriptable scope = Javascript_Interpreter.getScopeAndImportAll(cx);
-			Reader reader = null;
-			Object result = null;
-			try {
-				reader = new BufferedReader(new InputStreamReader(istream));
-				result = cx.evaluateReader(scope, reader, filename, 1, null);
-			} catch (Exception e) {
-				printError(e);
-				return;
-			} finally {
-				if (null != reader) {
-					try {
-						reader.close();
-					} catch (Exception e) {
-						e.printStackTrace();
-					}
-				}
-			}
-			// don't print null or undefined results
-			if (null != result && !(result instanceof org.mozilla.javascript.Undefined)) {
-				IJ.log(cx.toString(result));
-			}
+			pooled = acquire(cx);
+			reader = new BufferedReader(new InputStreamReader(istream));
+			log(cx, cx.evaluateReader(newScope(cx, pooled), reader, filename, 1, null));
 		} catch( Throwable t ) {
 			printError(t);
 		} finally {
+			if (null != reader) {
+				try {
+					reader.close();
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+			}
+			release(pooled);
 			Context.exit();
 		}
 	}
 
+	/**
+	 * Gets a pooled scope. When the ImageJ class loader changed (e.g.
+	 * after updating the menus), the pooled scopes and compiled scripts
+	 * are stale and thrown away.
+	 */
+	protected PooledScope acquire(Context cx) throws Exception {
+		cx.setApplicationClassLoader(IJ.getClassLoader());
+		PooledScope pooled = pool.acquire();
+		if (pooled.classLoader != IJ.getClassLoader()) {
+			pool.discard(pooled);
+			pool.clear();
+			cache.clear();
+			pooled = pool.acquire();
+		}
+		return pooled;
+	}
+
+	/** Hands back a pooled scope. */
+	protected void release(PooledScope pooled) {
+		pool.release(pooled);
+		if (IJ.debugMode)
+			IJ.log(pool.getStatistics() + "; " + cache.getStatistics());
+	}
+
+	protected static Scriptable newScope(Context cx, PooledScope pooled) {
+		Scriptable scope = cx.newObject(pooled.scope);
+		scope.setPrototype(pooled.scope);
+		scope.setParentScope(null);
+		return scope;
+	}
+
+	protected static void log(Context cx, Object result) {
+		// don't print null or undefined results
+		if (null != result && !(result instanceof org.mozilla.javascript.Undefined)) {
+			IJ.log(cx.toString(result));
+		}
+	}
+
 	@Override
 	protected boolean isThisLanguage(String command) {
 		return super.isThisLanguage(command) ||
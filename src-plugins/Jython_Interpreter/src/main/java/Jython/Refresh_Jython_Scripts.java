@@ -18,15 +18,17 @@ as published by the Free Software Foundation (http://www.gnu.org/licenses/gpl.tx
 You may contact Albert Cardona at albert at pensament dot net, at http://www.pensament.net/java/
 */
 import ij.IJ;
+import org.python.core.PyCode;
 import org.python.core.PyDictionary;
 import org.python.core.PyException;
+import org.python.core.PyList;
+import org.python.core.PyObject;
 import org.python.core.PySystemState;
 import org.python.util.PythonInterpreter;
+import common.CompiledScriptCache;
+import common.InterpreterPool;
 import common.RefreshScripts;
-import java.io.BufferedInputStream;
-import java.io.FileInputStream;
 import java.io.File;
-import java.io.IOException;
 import java.io.InputStream;
 
 /**
@@ -45,32 +47,131 @@ public void run(String arg) {
 		super.run(arg);
 	}
 
-	/** Run a jython script in its own separate interpreter and namespace. */
+	/**
+	 * A pooled interpreter, with its namespace and the parts of its
+	 * <code>sys</code> module a script may change, right after the imports.
+	 */
+	protected static class PooledInterpreter {
+		final PythonInterpreter PI;
+		final PyDictionary initialNamespace;
+		final PyObject initialModules;
+		final PyList initialPath, initialArgv;
+		final PyObject initialStdin, initialStdout, initialStderr;
+		final ClassLoader classLoader;
+
+		PooledInterpreter(PythonInterpreter PI, ClassLoader classLoader) {
+			this.PI = PI;
+			this.classLoader = classLoader;
+			initialNamespace = ((PyDictionary)PI.getLocals()).copy();
+			PySystemState sys = PI.getSystemState();
+			initialModules = sys.modules.invoke("copy");
+			initialPath = new PyList(sys.path);
+			initialArgv = new PyList(sys.argv);
+			initialStdin = sys.stdin;
+			initialStdout = sys.stdout;
+			initialStderr = sys.stderr;
+		}
+	}
+
+	protected static ClassLoader getScriptClassLoader() {
+		ClassLoader classLoader = IJ.getClassLoader();
+		if (classLoader == null)
+			classLoader = Refresh_Jython_Scripts.class.getClassLoader();
+		return classLoader;
+	}
+
+	/** Interpreters with all ImageJ classes imported, waiting for the next script. */
+	protected static final InterpreterPool<PooledInterpreter> pool = new InterpreterPool<PooledInterpreter>("Jython", 2) {
+		protected PooledInterpreter create() {
+			ClassLoader classLoader = getScriptClassLoader();
+			PySystemState.initialize(System.getProperties(), System.getProperties(), new String[] { }, classLoader);
+			PySystemState pystate = new PySystemState();
+			pystate.setClassLoader(classLoader);
+			PythonInterpreter PI = new PythonInterpreter(new PyDictionary(), pystate);
+			new Jython_Interpreter(PI).importAll();
+			return new PooledInterpreter(PI, classLoader);
+		}
+
+		/**
+		 * Restores the namespace, the loaded modules, the module search
+		 * path, the arguments and the standard streams to what they were
+		 * right after the imports, so that modules imported by the last
+		 * script are imported afresh by the next one.
+		 */
+		protected void reset(PooledInterpreter interpreter) throws Exception {
+			PySystemState sys = interpreter.PI.getSystemState();
+			sys.modules.invoke("clear");
+			sys.modules.invoke("update", interpreter.initialModules);
+			if (sys.modules.__len__() != interpreter.initialModules.__len__())
+				throw new Exception("Could not restore sys.modules");
+			sys.path = new PyList(interpreter.initialPath);
+			sys.argv = new PyList(interpreter.initialArgv);
+			sys.stdin = interpreter.initialStdin;
+			sys.stdout = interpreter.initialStdout;
+			sys.stderr = interpreter.initialStderr;
+
+			PyDictionary namespace = (PyDictionary)interpreter.PI.getLocals();
+			namespace.clear();
+			namespace.update(interpreter.initialNamespace);
+		}
+
+		protected void dispose(PooledInterpreter interpreter) {
+			try {
+				interpreter.PI.cleanup();
+			} catch (Throwable t) {
+				t.printStackTrace();
+			}
+		}
+	};
+
+	/** The compiled scripts, keyed by path and modification time. */
+	protected static final CompiledScriptCache<PyCode> cache = new CompiledScriptCache<PyCode>(64);
+
+	/** Run a jython script in a fresh namespace; an unchanged script is not compiled again. */
 	public void runScript(String path) {
+		File file = new File(path);
+		if (!file.exists()) {
+			IJ.log("Could not read python file at " + path);
+			return;
+		}
+		PooledInterpreter interpreter = acquire();
+		if (interpreter == null)
+			return;
+		final PythonInterpreter PI = interpreter.PI;
+		boolean reusable = true;
 		try {
-			// runScript(InputStream) will close the stream
-			runScript(new BufferedInputStream(new FileInputStream(new File(path))));
+			PyCode code = cache.get(file, new CompiledScriptCache.Compiler<PyCode>() {
+				public PyCode compile(String source, String path) {
+					return PI.compile(source, path);
+				}
+			});
+			if (code == null) {
+				IJ.log("Could not read python file at " + path);
+				return;
+			}
+			PI.exec(code);
+		} catch (PyException e) {
+			try {
+				err.write(e.toString().getBytes());
+			} catch (Exception e2) {
+				e.printStackTrace();
+			}
 		} catch (Throwable t) {
+			reusable = false;
 			printError(t);
+		} finally {
+			release(interpreter, reusable);
 		}
 	}
 
 	/** Will consume and close the stream. */
 	public void runScript(InputStream istream) {
-		Thread.currentThread().setContextClassLoader(IJ.getClassLoader());
-		PythonInterpreter PI = null;
+		PooledInterpreter interpreter = null;
+		boolean reusable = true;
 		try {
-			ClassLoader classLoader = IJ.getClassLoader();
-			if (classLoader == null)
-				classLoader = getClass().getClassLoader();
-			PySystemState.initialize(System.getProperties(), System.getProperties(), new String[] { }, classLoader);
-			PySystemState pystate = new PySystemState();
-			pystate.setClassLoader(classLoader);
-			PI = new PythonInterpreter(new PyDictionary(), pystate);
-			PI.setOut(this.out);
-			PI.setErr(this.err);
-			new Jython_Interpreter(PI).importAll();
-			PI.execfile(istream);
+			interpreter = acquire();
+			if (interpreter != null)
+				interpreter.PI.execfile(istream);
 		} catch (PyException e) {
 			try {
 				err.write(e.toString().getBytes());
@@ -78,6 +179,7 @@ public void runScript(InputStream istream) {
 				e.printStackTrace();
 			}
 		} catch (Throwable t) {
+			reusable = false;
 			printError(t);
 		} finally {
 			try {
@@ -86,11 +188,50 @@ public void runScript(InputStream istream) {
 				System.out.println("Jython runScript could not close the stream!");
 				e.printStackTrace();
 			}
-			try {
-				if (null != PI) PI.cleanup();
-			} catch (Throwable t) {
-				t.printStackTrace();
+			release(interpreter, reusable);
+		}
+	}
+
+	/**
+	 * Gets a pooled interpreter writing to this plugin's streams. When
+	 * the ImageJ class loader changed (e.g. after updating the menus),
+	 * the pooled interpreters and compiled scripts are stale and thrown
+	 * away.
+	 */
+	protected PooledInterpreter acquire() {
+		Thread.currentThread().setContextClassLoader(IJ.getClassLoader());
+		try {
+			PooledInterpreter interpreter = pool.acquire();
+			if (interpreter.classLoader != getScriptClassLoader()) {
+				pool.discard(interpreter);
+				pool.clear();
+				cache.clear();
+				interpreter = pool.acquire();
 			}
+			interpreter.PI.setOut(this.out);
+			interpreter.PI.setErr(this.err);
+			return interpreter;
+		} catch (Throwable t) {
+			printError(t);
+			return null;
+		}
+	}
+
+	protected void release(PooledInterpreter interpreter, boolean reusable) {
+		if (interpreter == null)
+			return;
+		try {
+			PySystemState pystate = interpreter.PI.getSystemState();
+			pystate.stdout.invoke("flush");
+			pystate.stderr.invoke("flush");
+		} catch (Throwable t) {
+			reusable = false;
 		}
+		if (reusable)
+			pool.release(interpreter);
+		else
+			pool.discard(interpreter);
+		if (IJ.debugMode)
+			IJ.log(pool.getStatistics() + "; " + cache.getStatistics());
 	}
 }
@@ -78,6 +78,7 @@
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.StringTokenizer;
 
 // *************************************************************************************************
@@ -1719,6 +1720,8 @@ final class MTJHandler extends Roi implements MouseListener, MouseMotionListener
 	private MTJTrack hilitrack = null;
 	private MTJPoint hilipoint = null;
 	
+	private final MTJIndex activeindex = new MTJIndex();
+	
 	private final MTJPoint curpos = new MTJPoint();
 	private final MTJPoint orgpos = new MTJPoint();
 	private final MTJPoint movpos = new MTJPoint();
@@ -2420,6 +2423,7 @@ public void mouseReleased(final MouseEvent e) { try {
 						}
 					}
 				}
+				activeassembly.modified();
 				mtrackj.logok();
 				changed = false;
 				hilipoint = null;
@@ -2478,6 +2482,7 @@ private void moveobject() {
 				movpos.x += dx;
 				movpos.y += dy;
 				movpos.z += dz;
+				activeassembly.modified();
 				changed = true;
 				redraw();
 			}
@@ -2575,6 +2580,21 @@ public void mouseWheelMoved(final MouseWheelEvent e) { try {
 		}
 	} catch (Throwable x) { mtrackj.catcher().uncaughtException(Thread.currentThread(),x); } }
 	
+	private MTJIndex activeindex() {
+		
+		if (!activeindex.current(activeassembly)) activeindex.build(activeassembly);
+		return activeindex;
+	}
+	
+	private long[] nearbypoints(final double mag) {
+		
+		// Only points and lines within this range of the cursor can be at a distance of at most
+		// NEARBY_RANGE (see the distance methods), so the others need not be considered:
+		final MTJSettings settings = mtrackj.settings();
+		final double range = MTJSettings.NEARBY_RANGE + 0.5*Math.max(settings.pointsize,settings.trackwidth)/mag + 1;
+		return activeindex().points(curpos.x - range,curpos.y - range,curpos.x + range,curpos.y + range);
+	}
+	
 	private boolean findnearestassembly() {
 		
 		if (hilipoint != null) { hilipoint = null; redraw = true; }
@@ -2585,17 +2605,17 @@ private boolean findnearestassembly() {
 		double mindist = Double.MAX_VALUE;
 		MTJAssembly minassembly = null;
 		final double mag = mtrackj.canvas().getMagnification();
-		final int nrclusters = activeassembly.size();
-		for (int c=0; c<nrclusters; ++c) {
-			final MTJCluster cluster = activeassembly.get(c);
-			final int nrtracks = cluster.size();
-			for (int t=0; t<nrtracks; ++t) {
-				final MTJTrack track = cluster.get(t);
+		final long[] nearby = nearbypoints(mag);
+		MTJTrack lasttrack = null;
+		for (int i=0; i<nearby.length; ++i) {
+			final MTJTrack track = activeindex.track((int)(nearby[i] >> 32));
+			if (track != lasttrack) {
 				final double dist = distance(curpos,track,mag);
 				if (dist < mindist) {
 					mindist = dist;
 					minassembly = activeassembly;
 				}
+				lasttrack = track;
 			}
 		}
 		if (mindist <= MTJSettings.NEARBY_RANGE) {
@@ -2622,17 +2642,18 @@ private boolean findnearestcluster() {
 		double mindist = Double.MAX_VALUE;
 		MTJCluster mincluster = null;
 		final double mag = mtrackj.canvas().getMagnification();
-		final int nrclusters = activeassembly.size();
-		for (int c=0; c<nrclusters; ++c) {
-			final MTJCluster cluster = activeassembly.get(c);
-			final int nrtracks = cluster.size();
-			for (int t=0; t<nrtracks; ++t) {
-				final MTJTrack track = cluster.get(t);
+		final long[] nearby = nearbypoints(mag);
+		MTJTrack lasttrack = null;
+		for (int i=0; i<nearby.length; ++i) {
+			final MTJTrack track = activeindex.track((int)(nearby[i] >> 32));
+			if (track != lasttrack) {
+				final MTJCluster cluster = track.cluster();
 				final double dist = distance(curpos,track,mag);
 				if (dist < mindist) {
 					mindist = dist;
 					mincluster = cluster;
 				}
+				lasttrack = track;
 			}
 		}
 		if (mindist <= MTJSettings.NEARBY_RANGE) {
@@ -2659,17 +2680,17 @@ private boolean findnearesttrack() {
 		double mindist = Double.MAX_VALUE;
 		MTJTrack mintrack = null;
 		final double mag = mtrackj.canvas().getMagnification();
-		final int nrclusters = activeassembly.size();
-		for (int c=0; c<nrclusters; ++c) {
-			final MTJCluster cluster = activeassembly.get(c);
-			final int nrtracks = cluster.size();
-			for (int t=0; t<nrtracks; ++t) {
-				final MTJTrack track = cluster.get(t);
+		final long[] nearby = nearbypoints(mag);
+		MTJTrack lasttrack = null;
+		for (int i=0; i<nearby.length; ++i) {
+			final MTJTrack track = activeindex.track((int)(nearby[i] >> 32));
+			if (track != lasttrack) {
 				final double dist = distance(curpos,track,mag);
 				if (dist < mindist) {
 					mindist = dist;
 					mintrack = track;
 				}
+				lasttrack = track;
 			}
 		}
 		if (mindist <= MTJSettings.NEARBY_RANGE) {
@@ -2696,21 +2717,13 @@ private boolean findnearestpoint() {
 		double mindist = Double.MAX_VALUE;
 		MTJPoint minpoint = null;
 		final double mag = mtrackj.canvas().getMagnification();
-		final int nrclusters = activeassembly.size();
-		for (int c=0; c<nrclusters; ++c) {
-			final MTJCluster cluster = activeassembly.get(c);
-			final int nrtracks = cluster.size();
-			for (int t=0; t<nrtracks; ++t) {
-				final MTJTrack track = cluster.get(t);
-				final int nrpoints = track.size();
-				for (int p=0; p<nrpoints; ++p) {
-					final MTJPoint point = track.get(p);
-					final double dist = distance(curpos,point,mag);
-					if (dist < mindist) {
-						mindist = dist;
-						minpoint = point;
-					}
-				}
+		final long[] nearby = nearbypoints(mag);
+		for (int i=0; i<nearby.length; ++i) {
+			final MTJPoint point = activeindex.track((int)(nearby[i] >> 32)).get((int)nearby[i]);
+			final double dist = distance(curpos,point,mag);
+			if (dist < mindist) {
+				mindist = dist;
+				minpoint = point;
 			}
 		}
 		if (mindist <= MTJSettings.NEARBY_RANGE) {
@@ -2926,20 +2939,22 @@ public void draw(final Graphics g) { try {
 		if (settings.showfinishedtracks) {
 			if (settings.coloring == MTJSettings.MONOCHROME)
 				g2d.setColor(hiliassembly!=null?settings.hilicolor:activeassembly.color());
+			final boolean[] inview = inview(activeindex(),settings,g2d,vof,mag,st,et);
 			final int nrclusters = activeassembly.size();
-			for (int c=0; c<nrclusters; ++c) {
+			for (int c=0, i=0; c<nrclusters; ++c) {
 				final MTJCluster cluster = activeassembly.get(c);
+				final int nrtracks = cluster.size();
 				if (cluster != hilicluster) {
 					if (settings.coloring == MTJSettings.PERCLUSTER) g2d.setColor(cluster.color());
-					final int nrtracks = cluster.size();
 					for (int t=0; t<nrtracks; ++t) {
 						final MTJTrack track = cluster.get(t);
-						if (track != activetrack && track != hilitrack && track != mergetrack) {
+						if (inview[i+t] && track != activetrack && track != hilitrack && track != mergetrack) {
 							if (settings.coloring == MTJSettings.PERTRACK) g2d.setColor(track.color());
 							drawtrack(track,settings,g2d,vof,mag,ct,st,et);
 						}
 					}
 				}
+				i += nrtracks;
 			}
 			// Draw highlighted objects:
 			g2d.setColor(settings.hilicolor);
@@ -3002,16 +3017,19 @@ public void draw(final Graphics g) { try {
 		
 	} catch (Throwable x) { mtrackj.catcher().uncaughtException(Thread.currentThread(),x); } }
 	
-	void drawassembly(final MTJAssembly assembly, final MTJSettings settings, final Graphics2D g2d, final Rectangle vof, final double mag, final int ct, final int st, final int et) {
+	void drawassembly(final MTJAssembly assembly, final MTJIndex index, final MTJSettings settings, final Graphics2D g2d, final Rectangle vof, final double mag, final int ct, final int st, final int et) {
 		
-		// Draw the given assembly as is:
+		// Draw the given assembly as is, skipping the tracks outside the view:
+		if (!index.current(assembly)) index.build(assembly);
+		final boolean[] inview = inview(index,settings,g2d,vof,mag,st,et);
 		if (settings.coloring == MTJSettings.MONOCHROME) g2d.setColor(assembly.color());
 		final int nrclusters = assembly.size();
-		for (int c=0; c<nrclusters; ++c) {
+		for (int c=0, i=0; c<nrclusters; ++c) {
 			final MTJCluster cluster = assembly.get(c);
 			if (settings.coloring == MTJSettings.PERCLUSTER) g2d.setColor(cluster.color());
 			final int nrtracks = cluster.size();
-			for (int t=0; t<nrtracks; ++t) {
+			for (int t=0; t<nrtracks; ++t, ++i) {
+				if (!inview[i]) continue;
 				final MTJTrack track = cluster.get(t);
 				if (settings.coloring == MTJSettings.PERTRACK) g2d.setColor(track.color());
 				drawtrack(track,settings,g2d,vof,mag,ct,st,et);
@@ -3027,6 +3045,17 @@ void drawassembly(final MTJAssembly assembly, final MTJSettings settings, final
 		}
 	}
 	
+	private boolean[] inview(final MTJIndex index, final MTJSettings settings, final Graphics2D g2d, final Rectangle vof, final double mag, final int st, final int et) {
+		
+		// Tracks outside the view are not drawn. The view is enlarged by the size of the points and
+		// IDs, so that those of tracks just outside it are still drawn where they reach into it, and
+		// by the range in which the cursor finds objects, which must have been drawn to be found:
+		int margin = 2*Math.max(settings.pointsize,settings.trackwidth);
+		if (settings.fontsize > 0) margin += settings.fontsize + g2d.getFontMetrics().stringWidth("00000:00000");
+		final double range = margin/mag + MTJSettings.NEARBY_RANGE + 1;
+		return index.tracks(vof.x - range,vof.y - range,vof.x + vof.width + range,vof.y + vof.height + range,st,et);
+	}
+	
 	private void drawtrack(final MTJTrack track, final MTJSettings settings, final Graphics2D g2d, final Rectangle vof, final double mag, final int ct, final int st, final int et) {
 		
 		if (track.hidden()) return;
@@ -4676,6 +4705,7 @@ final class MTJAssembly {
 	private boolean clusteriding = true;
 	private String file = null;
 	private int locks = 0;
+	private int modifications = 0;
 	
 	MTJAssembly duplicate() {
 		
@@ -4721,6 +4751,10 @@ MTJAssembly duplicate() {
 	
 	boolean locked() { return (locks > 0); }
 	
+	void modified() { ++modifications; }
+	
+	int modifications() { return modifications; }
+	
 	void drawn(final boolean drawn) { for (int i=0; i<size; ++i) clusters[i].drawn(drawn); }
 	
 	void hidden(final boolean hidden) { for (int i=0; i<size; ++i) clusters[i].hidden(hidden); }
@@ -4756,6 +4790,7 @@ void add(final MTJCluster cluster) {
 		cluster.assembly(this);
 		if (clusteriding) cluster.id(++lastclusterid);
 		else if (lastclusterid < cluster.id()) lastclusterid = cluster.id();
+		modified();
 	}
 	
 	MTJCluster first() {
@@ -4794,6 +4829,7 @@ void delete(final int index) {
 			for (int i1=index, i2=index+1; i2<size; ++i1, ++i2)
 				clusters[i1] = clusters[i2];
 			--size; resetlastclusterid();
+			modified();
 		}
 	}
 	
@@ -4814,6 +4850,7 @@ void reset() {
 		}
 		reference = null;
 		file = null;
+		modified();
 	}
 	
 	int size() { return size; }
@@ -4865,6 +4902,8 @@ MTJCluster duplicate() {
 	
 	MTJAssembly assembly() { return assembly; }
 	
+	void modified() { if (assembly != null) assembly.modified(); }
+	
 	void drawn(final boolean drawn) { for (int i=0; i<size; ++i) tracks[i].drawn(drawn); }
 	
 	void hidden(final boolean hidden) { for (int i=0; i<size; ++i) tracks[i].hidden(hidden); }
@@ -4902,6 +4941,7 @@ void add(final MTJTrack track) {
 		track.cluster(this);
 		if (trackiding) track.id(++lasttrackid);
 		else if (lasttrackid < track.id()) lasttrackid = track.id();
+		modified();
 	}
 	
 	MTJTrack first() {
@@ -4940,6 +4980,7 @@ void delete(final int index) {
 			for (int i1=index, i2=index+1; i2<size; ++i1, ++i2)
 				tracks[i1] = tracks[i2];
 			--size; resetlasttrackid();
+			modified();
 		}
 	}
 	
@@ -5002,6 +5043,8 @@ MTJTrack duplicate() {
 	
 	MTJCluster cluster() { return cluster; }
 	
+	void modified() { if (cluster != null) cluster.modified(); }
+	
 	boolean hidden() { return hidden; }
 	
 	void hidden(final boolean hidden) { this.hidden = hidden; }
@@ -5049,6 +5092,7 @@ void add(final MTJPoint point) {
 		points[i] = point; point.track(this);
 		if (pointiding) point.id(++lastpointid);
 		else if (lastpointid < point.id()) lastpointid = point.id();
+		modified();
 	}
 	
 	MTJPoint first() {
@@ -5087,6 +5131,7 @@ void delete(final int index) {
 			for (int i=index+1; i<size; ++i)
 				points[i-1] = points[i];
 			--size; resetlastpointid();
+			modified();
 		}
 	}
 	
@@ -5105,6 +5150,7 @@ void cut(final int index) {
 			size = index;
 			if (size < 0) size = 0;
 				resetlastpointid();
+			modified();
 		}
 	}
 	
@@ -5165,6 +5211,194 @@ void coordinates(final MTJPoint point) {
 	
 }
 
+// *************************************************************************************************
+final class MTJIndex {
+	
+	// Grid over the points of all tracks of an assembly, for finding the tracks and points near a
+	// position or inside a view without going over all of them. Entry e of the grid is point
+	// pointindex[e] of track trackindex[e], together with the line from the previous point of the
+	// track. The entry is listed in all cells covered by the bounding box of the line, and carries the
+	// time range of its points. The index is rebuilt when the assembly is modified.
+	
+	private MTJAssembly assembly = null;
+	private int modifications = 0;
+	
+	private MTJTrack[] tracks = new MTJTrack[0];
+	private int nrtracks = 0;
+	
+	private int nrentries = 0;
+	private int[] trackindex = new int[0];
+	private int[] pointindex = new int[0];
+	private int[] tmin = new int[0];
+	private int[] tmax = new int[0];
+	
+	private double xmin = 0, ymin = 0, cellsize = 1;
+	private int nx = 0, ny = 0;
+	private int[] cellstart = new int[1];
+	private int[] cellentries = new int[0];
+	
+	boolean current(final MTJAssembly assembly) {
+		
+		return (assembly == this.assembly && assembly.modifications() == modifications);
+	}
+	
+	void build(final MTJAssembly assembly) {
+		
+		this.assembly = assembly;
+		modifications = assembly.modifications();
+		
+		// Collect tracks and entries in assembly order:
+		nrtracks = 0; nrentries = 0;
+		final int nrclusters = assembly.size();
+		for (int c=0; c<nrclusters; ++c) {
+			final MTJCluster cluster = assembly.get(c);
+			nrtracks += cluster.size();
+			for (int t=0; t<cluster.size(); ++t) nrentries += cluster.get(t).size();
+		}
+		tracks = new MTJTrack[nrtracks];
+		trackindex = new int[nrentries];
+		pointindex = new int[nrentries];
+		tmin = new int[nrentries];
+		tmax = new int[nrentries];
+		double xmax = 0, ymax = 0, length = 0;
+		xmin = ymin = 0;
+		for (int c=0, ti=0, e=0; c<nrclusters; ++c) {
+			final MTJCluster cluster = assembly.get(c);
+			final int nrclustertracks = cluster.size();
+			for (int t=0; t<nrclustertracks; ++t, ++ti) {
+				final MTJTrack track = cluster.get(t);
+				tracks[ti] = track;
+				final int nrpoints = track.size();
+				for (int p=0; p<nrpoints; ++p, ++e) {
+					final MTJPoint point = track.get(p);
+					final MTJPoint prev = track.get(p > 0 ? p-1 : 0);
+					trackindex[e] = ti;
+					pointindex[e] = p;
+					tmin[e] = Math.min(point.t,prev.t);
+					tmax[e] = Math.max(point.t,prev.t);
+					if (e == 0) { xmin = xmax = point.x; ymin = ymax = point.y; }
+					else {
+						if (point.x < xmin) xmin = point.x; else if (point.x > xmax) xmax = point.x;
+						if (point.y < ymin) ymin = point.y; else if (point.y > ymax) ymax = point.y;
+					}
+					final double dx = point.x - prev.x, dy = point.y - prev.y;
+					length += Math.sqrt(dx*dx + dy*dy);
+				}
+			}
+		}
+		
+		// Cells about as large as the mean line length, and at most about one per entry:
+		cellsize = 1;
+		if (nrentries > 0) {
+			final double meanlength = length/nrentries;
+			final double meanarea = (xmax - xmin + 1)*(ymax - ymin + 1)/nrentries;
+			if (meanlength > cellsize) cellsize = meanlength;
+			if (Math.sqrt(meanarea) > cellsize) cellsize = Math.sqrt(meanarea);
+			if (!(cellsize < Double.MAX_VALUE)) cellsize = 1;
+		}
+		nx = cellx(xmax,Integer.MAX_VALUE) + 1;
+		ny = celly(ymax,Integer.MAX_VALUE) + 1;
+		while ((double)nx*ny > 4.0*nrentries + 16) {
+			cellsize *= 2;
+			nx = cellx(xmax,Integer.MAX_VALUE) + 1;
+			ny = celly(ymax,Integer.MAX_VALUE) + 1;
+		}
+		
+		// Count the entries per cell, then fill the cells:
+		cellstart = new int[nx*ny + 1];
+		for (int pass=0; pass<2; ++pass) {
+			final int[] cellfill = (pass == 0) ? cellstart : new int[nx*ny];
+			for (int e=0; e<nrentries; ++e) {
+				final MTJTrack track = tracks[trackindex[e]];
+				final MTJPoint point = track.get(pointindex[e]);
+				final MTJPoint prev = track.get(pointindex[e] > 0 ? pointindex[e]-1 : 0);
+				final int cx0 = cellx(Math.min(point.x,prev.x),nx-1), cx1 = cellx(Math.max(point.x,prev.x),nx-1);
+				final int cy0 = celly(Math.min(point.y,prev.y),ny-1), cy1 = celly(Math.max(point.y,prev.y),ny-1);
+				for (int cy=cy0; cy<=cy1; ++cy)
+					for (int cx=cx0; cx<=cx1; ++cx) {
+						final int cell = cy*nx + cx;
+						if (pass == 0) ++cellfill[cell + 1];
+						else cellentries[cellstart[cell] + cellfill[cell]++] = e;
+					}
+			}
+			if (pass == 0) {
+				for (int cell=0; cell<nx*ny; ++cell) cellstart[cell + 1] += cellstart[cell];
+				cellentries = new int[cellstart[nx*ny]];
+			}
+		}
+	}
+	
+	private int cellx(final double x, final int max) {
+		
+		final double cx = Math.floor((x - xmin)/cellsize);
+		return (cx > 0) ? (cx < max ? (int)cx : max) : 0;
+	}
+	
+	private int celly(final double y, final int max) {
+		
+		final double cy = Math.floor((y - ymin)/cellsize);
+		return (cy > 0) ? (cy < max ? (int)cy : max) : 0;
+	}
+	
+	int nrtracks() { return nrtracks; }
+	
+	MTJTrack track(final int index) { return tracks[index]; }
+	
+	boolean[] tracks(final double x0, final double y0, final double x1, final double y1, final int st, final int et) {
+		
+		// Marks the tracks (by index in assembly order) having points or lines in the given
+		// rectangle, and points in the given time range:
+		final boolean[] marks = new boolean[nrtracks];
+		if (nrentries == 0) return marks;
+		final int cx0 = cellx(x0,nx-1), cx1 = cellx(x1,nx-1);
+		final int cy0 = celly(y0,ny-1), cy1 = celly(y1,ny-1);
+		for (int cy=cy0; cy<=cy1; ++cy)
+			for (int cx=cx0; cx<=cx1; ++cx) {
+				final int cell = cy*nx + cx;
+				for (int i=cellstart[cell]; i<cellstart[cell+1]; ++i) {
+					final int e = cellentries[i];
+					if (tmax[e] >= st && tmin[e] <= et) marks[trackindex[e]] = true;
+				}
+			}
+		return marks;
+	}
+	
+	long[] points(final double x0, final double y0, final double x1, final double y1) {
+		
+		// Returns the points in or near the given rectangle, and the points of the lines crossing it,
+		// each as (track index << 32 | point index), sorted in assembly order without duplicates:
+		if (nrentries == 0) return new long[0];
+		final int cx0 = cellx(x0,nx-1), cx1 = cellx(x1,nx-1);
+		final int cy0 = celly(y0,ny-1), cy1 = celly(y1,ny-1);
+		long[] points = new long[16];
+		int nrpoints = 0;
+		for (int cy=cy0; cy<=cy1; ++cy)
+			for (int cx=cx0; cx<=cx1; ++cx) {
+				final int cell = cy*nx + cx;
+				for (int i=cellstart[cell]; i<cellstart[cell+1]; ++i) {
+					final int e = cellentries[i];
+					if (nrpoints + 2 > points.length) {
+						final long[] newpoints = new long[2*points.length];
+						System.arraycopy(points,0,newpoints,0,nrpoints);
+						points = newpoints;
+					}
+					final long key = ((long)trackindex[e] << 32) | pointindex[e];
+					points[nrpoints++] = key;
+					if (pointindex[e] > 0) points[nrpoints++] = key - 1;
+				}
+			}
+		Arrays.sort(points,0,nrpoints);
+		int nrunique = 0;
+		for (int i=0; i<nrpoints; ++i)
+			if (nrunique == 0 || points[i] != points[nrunique-1])
+				points[nrunique++] = points[i];
+		final long[] unique = new long[nrunique];
+		System.arraycopy(points,0,unique,0,nrunique);
+		return unique;
+	}
+	
+}
+
 // *************************************************************************************************
 final class MTJProducer extends Thread {
 	
@@ -5184,6 +5418,7 @@ final class MTJProducer extends Thread {
 	public void run() {
 		
 		final MTJAssembly assembly = mtrackj.handler().assembly();
+		final MTJIndex index = new MTJIndex();
 		final MTJSettings settings = mtrackj.settings();
 		assembly.lock();
 		
@@ -5337,7 +5572,7 @@ public void run() {
 						assembly.drawn(false); assembly.visible(false);
 						if (settings.visibility == MTJSettings.UP_TO_CURRENT) drawendtime = t;
 						else if (settings.visibility == MTJSettings.FROM_CURRENT) drawstarttime = t;
-						mtrackj.handler().drawassembly(assembly,settings,g2d,vof,mag,t,drawstarttime,drawendtime);
+						mtrackj.handler().drawassembly(assembly,index,settings,g2d,vof,mag,t,drawstarttime,drawendtime);
 					}
 					movie.addSlice("", new ColorProcessor(frame));
 					++nrframes;
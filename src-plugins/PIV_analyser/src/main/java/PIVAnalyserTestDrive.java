@@ -48,6 +48,7 @@ public static void main(String[] args) {
 		piv.exec(false);
 		stopwatch.stop();
 		System.out.println("Done in: " + stopwatch);
+		System.out.println("Vectors per second: " + Math.round(piv.getVectorsPerSecond()));
 		System.out.println("Exiting.");
 		if (LOG) {
 			File log = new File("log.txt");
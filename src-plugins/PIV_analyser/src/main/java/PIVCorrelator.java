@@ -0,0 +1,243 @@
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Computes the cross-correlation of interrogation windows for
+ * {@link PIV_analyser}, using a complex FFT on square windows whose size is a
+ * power of 2.
+ * <p>
+ * The sine and cosine tables and the bit reversal permutation are computed
+ * once for each window size and shared by all correlators. Each correlator
+ * owns its work buffers, so it must only be used by one thread at a time;
+ * PIV_analyser creates one per thread.
+ * <p>
+ * Since the windows and the correlation matrices are real, two windows are
+ * transformed at once (one as the real, one as the imaginary part), and two
+ * correlation matrices are transformed back at once. The mean of a window is
+ * removed by setting the DC term of its spectrum to 0.
+ *
+ * @see PIV_analyser#exec(boolean)
+ */
+public class PIVCorrelator {
+
+	/*
+	 * FIELDS
+	 */
+
+	/** The window size. */
+	private final int n;
+	private final Plan plan;
+	/** Work buffers, n x n. */
+	private final float[] re;
+	private final float[] im;
+
+	/**
+	 * Tables for the FFT of a given size, shared between correlators.
+	 */
+	private static class Plan {
+		final int[] bitrev;
+		final float[] cos;
+		final float[] sin;
+
+		Plan(int n) {
+			int bits = Integer.numberOfTrailingZeros(n);
+			bitrev = new int[n];
+			for (int i = 0; i < n; i++)
+				bitrev[i] = Integer.reverse(i) >>> (32 - bits);
+			cos = new float[n / 2];
+			sin = new float[n / 2];
+			for (int i = 0; i < n / 2; i++) {
+				cos[i] = (float) Math.cos(2 * Math.PI * i / n);
+				sin[i] = (float) Math.sin(2 * Math.PI * i / n);
+			}
+		}
+	}
+
+	private static final Map<Integer, Plan> PLANS = new HashMap<Integer, Plan>();
+
+	private static synchronized Plan getPlan(int n) {
+		Plan plan = PLANS.get(n);
+		if (plan == null) {
+			plan = new Plan(n);
+			PLANS.put(n, plan);
+		}
+		return plan;
+	}
+
+	/*
+	 * CONSTRUCTOR
+	 */
+
+	/**
+	 * @param n  the window size, a power of 2 not smaller than 2
+	 */
+	public PIVCorrelator(int n) {
+		if (n < 2 || Integer.bitCount(n) != 1)
+			throw new IllegalArgumentException("Window size must be a power of 2: " + n);
+		this.n = n;
+		this.plan = getPlan(n);
+		this.re = new float[n * n];
+		this.im = new float[n * n];
+	}
+
+	/*
+	 * PUBLIC METHODS
+	 */
+
+	/**
+	 * Returns a new array large enough to hold the spectrum of a window, as
+	 * interleaved real and imaginary parts.
+	 */
+	public float[] newSpectrum() {
+		return new float[2 * n * n];
+	}
+
+	/**
+	 * Computes the spectra of the windows at (x, y) of two images, after
+	 * removing the mean of each window.
+	 *
+	 * @param a  the pixels of the first image
+	 * @param b  the pixels of the second image, may be null
+	 * @param width  the width of the images
+	 * @param x  the left of the window
+	 * @param y  the top of the window
+	 * @param spec_a  receives the spectrum of the first window
+	 * @param spec_b  receives the spectrum of the second window, ignored if b is null
+	 */
+	public void transform(final float[] a, final float[] b, final int width,
+			final int x, final int y, final float[] spec_a, final float[] spec_b) {
+		for (int j = 0; j < n; j++) {
+			final int offset = (y + j) * width + x;
+			System.arraycopy(a, offset, re, j * n, n);
+			if (b != null)
+				System.arraycopy(b, offset, im, j * n, n);
+		}
+		if (b == null)
+			java.util.Arrays.fill(im, 0);
+		fft2D(false);
+
+		// Z = A + iB, so A(k) = (Z(k) + conj(Z(-k))) / 2 and
+		// B(k) = (Z(k) - conj(Z(-k))) / 2i
+		for (int ky = 0; ky < n; ky++) {
+			final int my = (n - ky) & (n - 1);
+			for (int kx = 0; kx < n; kx++) {
+				final int k = ky * n + kx;
+				final int m = my * n + ((n - kx) & (n - 1));
+				final float zr = re[k], zi = im[k], wr = re[m], wi = im[m];
+				spec_a[2 * k] = (zr + wr) / 2;
+				spec_a[2 * k + 1] = (zi - wi) / 2;
+				if (b != null) {
+					spec_b[2 * k] = (zi + wi) / 2;
+					spec_b[2 * k + 1] = (wr - zr) / 2;
+				}
+			}
+		}
+		// Substract mean
+		spec_a[0] = spec_a[1] = 0;
+		if (b != null)
+			spec_b[0] = spec_b[1] = 0;
+	}
+
+	/**
+	 * Computes the correlation matrices of two pairs of windows from their
+	 * spectra. As with {@link ij.process.FHT#conjugateMultiply(ij.process.FHT)},
+	 * the value for a displacement d is the sum over x of
+	 * front(x + d) * back(x). The matrices are centered in the middle of the
+	 * window, like after {@link ij.process.FHT#swapQuadrants()}.
+	 *
+	 * @param front1  the spectrum of the front window of the first pair
+	 * @param back1  the spectrum of the back window of the first pair
+	 * @param front2  the spectrum of the front window of the second pair, may be null
+	 * @param back2  the spectrum of the back window of the second pair
+	 * @param corr1  receives the n x n correlation matrix of the first pair
+	 * @param corr2  receives the correlation matrix of the second pair, ignored if front2 is null
+	 */
+	public void correlate(final float[] front1, final float[] back1,
+			final float[] front2, final float[] back2,
+			final float[] corr1, final float[] corr2) {
+		// P1 + i P2, with P = F conj(B)
+		for (int k = 0; k < n * n; k++) {
+			final float fr = front1[2 * k], fi = front1[2 * k + 1];
+			final float br = back1[2 * k], bi = back1[2 * k + 1];
+			float pr = fr * br + fi * bi;
+			float pi = fi * br - fr * bi;
+			if (front2 != null) {
+				final float gr = front2[2 * k], gi = front2[2 * k + 1];
+				final float cr = back2[2 * k], ci = back2[2 * k + 1];
+				pr -= gi * cr - gr * ci;
+				pi += gr * cr + gi * ci;
+			}
+			re[k] = pr;
+			im[k] = pi;
+		}
+		fft2D(true);
+
+		final int half = n / 2;
+		for (int dy = 0; dy < n; dy++) {
+			final int row = ((dy + half) & (n - 1)) * n;
+			for (int dx = 0; dx < n; dx++) {
+				final int target = row + ((dx + half) & (n - 1));
+				corr1[target] = re[dy * n + dx];
+				if (front2 != null)
+					corr2[target] = im[dy * n + dx];
+			}
+		}
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	/**
+	 * In-place 2D FFT of the work buffers, rows first. The inverse transform
+	 * is normalized.
+	 */
+	private void fft2D(final boolean inverse) {
+		for (int row = 0; row < n; row++)
+			fft(row * n, 1, inverse);
+		for (int col = 0; col < n; col++)
+			fft(col, n, inverse);
+		if (inverse) {
+			final float scale = 1.0f / (n * n);
+			for (int i = 0; i < n * n; i++) {
+				re[i] *= scale;
+				im[i] *= scale;
+			}
+		}
+	}
+
+	/**
+	 * Iterative radix-2 FFT of the n values starting at offset, stride apart.
+	 */
+	private void fft(final int offset, final int stride, final boolean inverse) {
+		final int[] bitrev = plan.bitrev;
+		for (int i = 0; i < n; i++) {
+			final int j = bitrev[i];
+			if (j > i) {
+				final int a = offset + i * stride, b = offset + j * stride;
+				float t = re[a]; re[a] = re[b]; re[b] = t;
+				t = im[a]; im[a] = im[b]; im[b] = t;
+			}
+		}
+		final float[] cos = plan.cos;
+		final float[] sin = plan.sin;
+		final float sign = inverse ? 1 : -1;
+		for (int size = 2; size <= n; size <<= 1) {
+			final int half = size >> 1;
+			final int step = n / size;
+			for (int start = 0; start < n; start += size) {
+				for (int k = 0; k < half; k++) {
+					final float wr = cos[k * step], wi = sign * sin[k * step];
+					final int a = offset + (start + k) * stride;
+					final int b = a + half * stride;
+					final float tr = re[b] * wr - im[b] * wi;
+					final float ti = re[b] * wi + im[b] * wr;
+					re[b] = re[a] - tr;
+					im[b] = im[a] - ti;
+					re[a] += tr;
+					im[a] += ti;
+				}
+			}
+		}
+	}
+}
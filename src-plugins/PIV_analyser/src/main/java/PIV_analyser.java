@@ -4,6 +4,7 @@
 import java.awt.image.BufferedImage;
 import java.lang.ArrayIndexOutOfBoundsException;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import ij.IJ;
 import ij.ImagePlus;
@@ -92,6 +93,12 @@
  * left), but the whole correlation matrix is recalculated from scratch (a lot
  * of wasted CPU cycles).
  * <p>
+ * The correlation matrices are computed by FFT. The window of a frame is
+ * transformed only once for all the image pairs of a chunk of consecutive
+ * pairs that use this frame, and the transform tables and work buffers are
+ * allocated once per thread. The threads share the rows of window positions,
+ * so that even a single image pair keeps all processors busy.
+ * <p>
  * Typically, on a MacBook (grey model, 2009), for an 8-bit stack with a window
  * size of 8x8, the plugin, the plugin can process a stack of 200x200 in
  * approximatively 2 seconds. I recommend downsampling the images, this would
@@ -194,6 +201,7 @@ public class PIV_analyser implements PlugInFilter {
 	private boolean do_interpolation = true;
 	private boolean do_masking = false;
 	private double mask_value = 0.5;
+	private double vectors_per_second = 0;
 	
 	/*
 	 * CONSTANTS
@@ -201,6 +209,10 @@ public class PIV_analyser implements PlugInFilter {
 	private static final String VERSION_STR = "1.2";
 	private static final String PLUGIN_NAME = "PIV analyser";
 	private final static int COLOR_CIRCLE_SIZE = 128;
+	/** Number of consecutive image pairs whose windows are transformed together. */
+	private final static int CHUNK_SIZE = 8;
+	/** Number of rows of window positions processed by a thread at once. */
+	private final static int BAND_HEIGHT = 4;
 
 	/*
 	 * INNER CLASSES
@@ -250,6 +262,64 @@ protected class PIVresult {
 		float snr;
 	}
 
+	/**
+	 * Utility class used to store a chunk of consecutive image pairs, the
+	 * frames they use, and their results until all of them are computed.
+	 */
+	protected class Chunk {
+		final int first;
+		/** For each pair, the index of its back and front image in slices. */
+		final int[] back;
+		final int[] front;
+		/** The distinct stack slices used by the pairs. */
+		final int[] slices;
+		final AtomicInteger bands_left;
+		float[][] frames;
+		float[][][] u, v, pkh;
+
+		Chunk(final int[][] pairs, final int first, final int last, final int nbands) {
+			this.first = first;
+			back = new int[last - first];
+			front = new int[last - first];
+			final java.util.List<Integer> list = new java.util.ArrayList<Integer>();
+			for (int p = first; p < last; p++) {
+				for (int k = 0; k < 2; k++) {
+					int index = list.indexOf(pairs[p][k]);
+					if (index < 0) {
+						index = list.size();
+						list.add(pairs[p][k]);
+					}
+					if (k == 0)
+						back[p - first] = index;
+					else
+						front[p - first] = index;
+				}
+			}
+			slices = new int[list.size()];
+			for (int f = 0; f < slices.length; f++)
+				slices[f] = list.get(f);
+			bands_left = new AtomicInteger(nbands);
+		}
+
+		/**
+		 * Returns the pixels of the slices, converted to float. They and the
+		 * result arrays are only allocated when the chunk is first worked on.
+		 */
+		synchronized float[][] getFrames(final ImageStack stack) {
+			if (frames == null) {
+				final float[][] pixels = new float[slices.length][];
+				for (int f = 0; f < slices.length; f++)
+					pixels[f] = (float[]) stack.getProcessor(slices[f]).convertToFloat().getPixels();
+				final int w = stack.getWidth(), h = stack.getHeight();
+				u = new float[back.length][w][h];
+				v = new float[back.length][w][h];
+				pkh = new float[back.length][w][h];
+				frames = pixels;
+			}
+			return frames;
+		}
+	}
+
 	/*
 	 * CONSTRUCTOR
 	 */
@@ -366,11 +436,6 @@ final public ImagePlus[] exec(final boolean show_calculation) {
 		// Canvas
 		final ImageCanvas color_canvas;
 
-		// Threads and atomic integer for multithreading
-		final AtomicInteger ai = new AtomicInteger(0); 
-		final Thread[] threads = newThreadArray();  
-
-		
 		// Copy and store the current roi used for masking
 		final Roi roi;
 		if (imp.getRoi() == null) {
@@ -378,134 +443,168 @@ final public ImagePlus[] exec(final boolean show_calculation) {
 		} else {
 			roi = (Roi) imp.getRoi().clone();
 		}
-				
+
+		// The image pairs are processed in chunks of consecutive pairs, so
+		// that the windows of a frame used by several pairs of a chunk (e.g.
+		// as front image of a pair and back image of the next one) are
+		// transformed only once. The window positions of a chunk are split
+		// in bands of rows, and the bands of all chunks are shared between
+		// the threads.
+		final int[][] pairs = getImagePairs();
+		final int nx = image_width - winsize_x + 1;
+		final int ny = image_height - winsize_y + 1;
+		final int nbands = ny > 0 ? (ny + BAND_HEIGHT - 1) / BAND_HEIGHT : 0;
+		final int nchunks = (npairs + CHUNK_SIZE - 1) / CHUNK_SIZE;
+		final Chunk[] chunks = new Chunk[nchunks];
+		for (int c = 0; c < nchunks; c++)
+			chunks[c] = new Chunk(pairs, c * CHUNK_SIZE, Math.min(npairs, (c + 1) * CHUNK_SIZE), nbands);
+		final AtomicInteger pairs_done = new AtomicInteger(0);
+		final AtomicLong nvectors = new AtomicLong(0);
+
+		// Threads and atomic integer for multithreading
+		final AtomicInteger ai = new AtomicInteger(0); 
+		final Thread[] threads = newThreadArray();  
+		
 		// Concurrently run as manu threads as cpu		
 		for (int ithread=0; ithread<threads.length; ithread++) {
 
 			// Generate a thread
 			threads[ithread] = new Thread() {  
 
-				int front_image, back_image;
-				FHT fft_front, fft_back, pcm;
-				PIVresult piv;
-				// ImageProcessors
-				FloatProcessor front_block_imp, back_block_imp;		
-				FloatProcessor back_imp, front_imp;
-				// Color processor
-				ColorProcessor color_ip;
-
-				// Arrays
-				float[][] u = new float[image_width][image_height];
-				float[][] v = new float[image_width][image_height];
-				float[][] pkh = new float[image_width][image_height];
-				int[][] color_angle = new int[image_width][image_height];
+				final PIVCorrelator correlator = new PIVCorrelator(winsize_x);
+				final float[] corr1 = new float[winsize_x * winsize_y];
+				final float[] corr2 = new float[winsize_x * winsize_y];
+				float[][] spectra = new float[0][];
 				
 				public void run() {
 
-					// Loop over image pairs
-					for (int i = ai.getAndIncrement(); i < npairs; i=ai.getAndIncrement()) {
-
-
-						back_image = getImagePairs()[i][0];
-						front_image = getImagePairs()[i][1];
-						back_imp = (FloatProcessor) stack.getProcessor(back_image).convertToFloat();
-						front_imp = (FloatProcessor) stack.getProcessor(front_image).convertToFloat();
+					// Loop over bands of window positions
+					for (int unit = ai.getAndIncrement(); unit < nchunks * nbands; unit = ai.getAndIncrement()) {
 
 						if (IJ.escapePressed()) {
 							IJ.showStatus("PIV analysis cancelled.");
 							break;
 						}
-						for (int x = 0; x <= image_width - winsize_x; x++) {
 
-							for (int y = 0; y <= image_height - winsize_y; y++) {
+						final Chunk chunk = chunks[unit / nbands];
+						final int band = unit % nbands;
+						final float[][] frames = chunk.getFrames(stack);
+						if (spectra.length < frames.length) {
+							spectra = new float[frames.length][];
+							for (int f = 0; f < frames.length; f++)
+								spectra[f] = correlator.newSpectrum();
+						}
+						final int npairs_chunk = chunk.back.length;
+						long count = 0;
+
+						for (int y = band * BAND_HEIGHT; y < Math.min(ny, (band + 1) * BAND_HEIGHT); y++) {
+							for (int x = 0; x < nx; x++) {
 
 								// skip if current point is not in roi
 								if ( (roi != null) && (!roi.contains(x+winsize_x/2, y+winsize_y/2)) ) continue;
 
-								front_imp.setRoi(x, y, winsize_x, winsize_y);
-								front_block_imp = (FloatProcessor) front_imp.crop();
-								back_imp.setRoi(x, y, winsize_x, winsize_y);
-								back_block_imp = (FloatProcessor) back_imp.crop();
-
-								// Substract mean
-								substractMean(back_block_imp);
-								substractMean(front_block_imp);
-
-								// Compute correlation matrix
-								fft_front = new FHT(front_block_imp);
-								fft_front.setShowProgress(false);
-								fft_back = new FHT(back_block_imp);
-								fft_back.setShowProgress(false);
-								fft_front.transform();
-								fft_back.transform();
-								pcm = fft_front.conjugateMultiply(fft_back);
-								pcm.setShowProgress(false);
-								pcm.inverseTransform();
-								pcm.swapQuadrants(); // centered in middle of window
-
-								piv = findMax(pcm, do_interpolation);
-
-								u[x + winsize_x / 2][y + winsize_y / 2] = piv.max_x_interpolated;
-								v[x + winsize_x / 2][y + winsize_y / 2] = piv.max_y_interpolated;
-								pkh[x + winsize_x / 2][y + winsize_y / 2] = piv.peak_height;
+								// Transform each frame once, two at a time
+								for (int f = 0; f < frames.length; f += 2) {
+									final boolean two = f + 1 < frames.length;
+									correlator.transform(frames[f], two ? frames[f + 1] : null, image_width, x, y,
+											spectra[f], two ? spectra[f + 1] : null);
+								}
+
+								// Compute correlation matrices, two at a time
+								for (int p = 0; p < npairs_chunk; p += 2) {
+									final boolean two = p + 1 < npairs_chunk;
+									correlator.correlate(spectra[chunk.front[p]], spectra[chunk.back[p]],
+											two ? spectra[chunk.front[p + 1]] : null, two ? spectra[chunk.back[p + 1]] : null,
+											corr1, corr2);
+									store(chunk, p, x, y, findMax(corr1, do_interpolation));
+									if (two)
+										store(chunk, p + 1, x, y, findMax(corr2, do_interpolation));
+								}
+								count += npairs_chunk;
 							}
 						}
-
-						// Do masking 
-						if (do_masking) {
-							float max_pkh = getMax(pkh);
-							mask(u, pkh, max_pkh);
-							mask(v, pkh, max_pkh);
-						}
-
-						// Compute color vector
-						for (int x = 0; x <= image_width - winsize_x; x++) {
-							for (int y = 0; y <= image_height - winsize_y; y++){
-								color_angle[x + winsize_x / 2][y + winsize_y / 2] = colorVector(
-										u[x + winsize_x / 2][y + winsize_y / 2], 
-										v[x + winsize_x / 2][y + winsize_y / 2],
-										winsize_x / 2);
+						nvectors.addAndGet(count);
+
+						// The last band of a chunk finishes its pairs
+						if (chunk.bands_left.decrementAndGet() > 0)
+							continue;
+						chunk.frames = null;
+						for (int p = 0; p < npairs_chunk; p++) {
+							final int i = chunk.first + p;
+							final float[][] u = chunk.u[p];
+							final float[][] v = chunk.v[p];
+							final float[][] pkh = chunk.pkh[p];
+
+							// Do masking 
+							if (do_masking) {
+								float max_pkh = getMax(pkh);
+								mask(u, pkh, max_pkh);
+								mask(v, pkh, max_pkh);
 							}
-						}
 
-						// Add to stack
-						u_st.setPixels(new FloatProcessor(u).getPixels(), i + 1);
-						v_st.setPixels(new FloatProcessor(v).getPixels(), i + 1);
-						pkh_st.setPixels(new FloatProcessor(pkh).getPixels(), i + 1);
-						// snr_st.setPixels(new FloatProcessor(snr).getPixels(), i + 1);
-						color_ip = new ColorProcessor(image_width, image_height);
-						color_ip.setIntArray(color_angle);
-						color_st.setPixels(color_ip.getPixels(), i + 1);
-
-						if (i==0) {
-							u_imp.setStack("U", u_st);
-							v_imp.setStack("V", v_st);
-							pkh_imp.setStack("Peak height", pkh_st);
-							color_imp.setStack("Flow direction", color_st);
-							// Display result container if asked
-							if (show_calculation) {
-								u_imp.show();
-								v_imp.show();
-								pkh_imp.show();
-								color_imp.show();
+							// Compute color vector
+							final int[][] color_angle = new int[image_width][image_height];
+							for (int x = 0; x <= image_width - winsize_x; x++) {
+								for (int y = 0; y <= image_height - winsize_y; y++){
+									color_angle[x + winsize_x / 2][y + winsize_y / 2] = colorVector(
+											u[x + winsize_x / 2][y + winsize_y / 2], 
+											v[x + winsize_x / 2][y + winsize_y / 2],
+											winsize_x / 2);
+								}
 							}
 
+							// Add to stack
+							u_st.setPixels(new FloatProcessor(u).getPixels(), i + 1);
+							v_st.setPixels(new FloatProcessor(v).getPixels(), i + 1);
+							pkh_st.setPixels(new FloatProcessor(pkh).getPixels(), i + 1);
+							// snr_st.setPixels(new FloatProcessor(snr).getPixels(), i + 1);
+							ColorProcessor color_ip = new ColorProcessor(image_width, image_height);
+							color_ip.setIntArray(color_angle);
+							color_st.setPixels(color_ip.getPixels(), i + 1);
+
+							if (i==0) {
+								u_imp.setStack("U", u_st);
+								v_imp.setStack("V", v_st);
+								pkh_imp.setStack("Peak height", pkh_st);
+								color_imp.setStack("Flow direction", color_st);
+								// Display result container if asked
+								if (show_calculation) {
+									u_imp.show();
+									v_imp.show();
+									pkh_imp.show();
+									color_imp.show();
+								}
+
+							}
 						}
+						chunk.u = chunk.v = chunk.pkh = null;
 
-						IJ.showProgress(i, npairs);
+						IJ.showProgress(pairs_done.addAndGet(npairs_chunk), npairs);
 					}
 				}
+
+				private void store(final Chunk chunk, final int p, final int x, final int y, final PIVresult piv) {
+					chunk.u[p][x + winsize_x / 2][y + winsize_y / 2] = piv.max_x_interpolated;
+					chunk.v[p][x + winsize_x / 2][y + winsize_y / 2] = piv.max_y_interpolated;
+					chunk.pkh[p][x + winsize_x / 2][y + winsize_y / 2] = piv.peak_height;
+				}
 			}; // end void run() method from Thread() class
 		
 		} // end for loop in threads
 		
 		
 		// Initiate computation
+		final long start = System.currentTimeMillis();
 		startAndJoin(threads);  
+		final long elapsed = Math.max(1, System.currentTimeMillis() - start);
+		vectors_per_second = 1000.0 * nvectors.get() / elapsed;
+		IJ.showStatus(String.format("PIV analysis: %d vectors in %.1f s (%.0f vectors/s)", 
+				nvectors.get(), elapsed / 1000.0, vectors_per_second));
 
 		// Add the MouseMotionListener that "deconvolves" color
 		color_canvas = color_imp.getCanvas();
-		color_canvas.addMouseMotionListener(getColorMouseListener(winsize_x/2.0f));
+		if (color_canvas != null) // not displayed
+			color_canvas.addMouseMotionListener(getColorMouseListener(winsize_x/2.0f));
 		
 		// Return result as array of ImagePlus
 		return new ImagePlus[] { u_imp, v_imp, pkh_imp, color_imp };
@@ -532,8 +631,22 @@ public void run() {
 	 * @see PIVresult
 	 */
 	final public PIVresult findMax(final FHT pcm, boolean interpolate) {
+		return findMax((float[]) pcm.getPixels(), interpolate);
+	}
+
+	/**
+	 * Finds the maximum location in a correlation matrix given as a
+	 * winsize_x x winsize_y array, centered in the middle of the window.
+	 *
+	 * @param pixels
+	 *            The correlation matrix
+	 * @param interpolate
+	 *            Boolean flag
+	 * @return The maximum location and value
+	 * @see #findMax(FHT, boolean)
+	 */
+	final public PIVresult findMax(final float[] pixels, boolean interpolate) {
 		PIVresult piv = new PIVresult();
-		final float[] pixels = (float[]) pcm.getPixels();
 		final float e00, e10, e20, e01, e11, e21, e02, e12, e22;
 		float pkh = -Float.MAX_VALUE;
 		int loc = 0;
@@ -881,19 +994,6 @@ final static public float getMax(final float[][] arr) {
 		return max;
 	}
 
-	private static void substractMean(FloatProcessor fp) {
-		float[] pixels = (float[]) fp.getPixels();
-		float sum = pixels[0];
-		for (int i = 1; i < pixels.length; i++) {
-			sum += pixels[i];
-		}
-		final float mean = sum / pixels.length;
-		for (int i = 0; i < pixels.length; i++) {
-			pixels[i] -= mean;
-		}
-
-	}
-
 	/**
 	 * Build a 2D array of int specifying how to pair images. The pairing is
 	 * built according to this class field ParingParam param.
@@ -1003,4 +1103,12 @@ public boolean getInterpolation() {
 		return do_interpolation;
 	}
 
+	/**
+	 * Returns the number of flow vectors computed per second by the last
+	 * call to {@link #exec(boolean)}.
+	 */
+	public double getVectorsPerSecond() {
+		return vectors_per_second;
+	}
+
 }
\ No newline at end of file
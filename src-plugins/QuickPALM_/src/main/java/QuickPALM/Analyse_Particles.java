@@ -28,7 +28,8 @@ public void run(String arg)
 		IJ.register(Analyse_Particles.class);
 		if (!dg.analyseParticles(f)) return;
 		
-		f.ptable.reset(); // erase particle table
+		Analyzer.getResultsTable().reset(); // erase particle table
+		ParticleStore.setCurrent(f.particles);
 		
 		if (dg.is3d)
 		{
@@ -63,107 +64,83 @@ else if (imp.getType() != ImagePlus.GRAY8 && imp.getType() != ImagePlus.GRAY16 )
 		}
 	
 		ReconstructionViewer viewer = new ReconstructionViewer(imp.getShortTitle()+" Reconstruction", imp.getWidth(), imp.getHeight(), dg, f);
-		ViewerUpdate vUpdate;
-		ViewerUpdateShort vUpdateShort;
 		
-		ProcessFrame [] threads = new ProcessFrame[dg.threads];
-		int freeThread=-1;
+		// Frames are read ahead by a reader thread and processed by dg.threads
+		// workers; this thread collects the particles in frame order. At most
+		// 'window' frames are read but not yet collected, which keeps the memory
+		// use flat however long the acquisition is.
+		int nthreads = Math.max(1, dg.threads);
+		int window = 2*nthreads;
+		java.util.concurrent.Semaphore permits = new java.util.concurrent.Semaphore(window);
+		java.util.concurrent.BlockingQueue<PendingFrame> frames = new java.util.concurrent.LinkedBlockingQueue<PendingFrame>();
+		java.util.concurrent.BlockingQueue<FrameResult> results = new java.util.concurrent.LinkedBlockingQueue<FrameResult>();
 		
+		FrameReader reader = new FrameReader(imp, f, dg, nthreads, permits, frames, results);
+		FrameWorker [] workers = new FrameWorker[nthreads];
+		for (int t=0;t<nthreads;t++)
+			workers[t] = new FrameWorker(f, dg, frames, results);
+		
+		java.util.Map<Integer, ParticleStore.Batch> pending = new java.util.HashMap<Integer, ParticleStore.Batch>();
 		long time_start = java.lang.System.currentTimeMillis();
-		long time_took = 0;
-		long time_now=0;
+		long time_first = time_start;
 		long nparticles=0;
-
-		int s=0;
-		boolean ok = true;
+		int nframes=-1; // not known until the reader is done
+		int s=0; // frames collected so far
 		
-		while (ok)
+		try
 		{
-			if (dg.attach)
-			{
-				imp=f.getNextImage(dg, s);
-				if (imp==null) ok=false;
-				else ip=imp.getProcessor();
-			}
-			else
-			{
-				if (s>=imp.getStackSize()) ok=false;
-				else
-				{
-					imp.setSlice(s+1);
-					ip=imp.getProcessor().duplicate();
-				}
-			}
+			reader.start();
+			for (int t=0;t<nthreads;t++)
+				workers[t].start();
 			
-			if (ok)
+			while (nframes<0 || s<nframes)
 			{
-				if (s<threads.length)
-					freeThread=s;
-				else
+				FrameResult result = results.take();
+				if (result.batch==null)
 				{
-					freeThread=-1;
-					while (freeThread==-1)
-					{
-						for (int t=0;t<threads.length;t++)
-						{
-							if (!threads[t].isAlive())
-							{
-								freeThread=t;
-								break;
-							}
-						}
-						if (freeThread==-1)
-						{
-							try
-							{
-								Thread.currentThread().sleep(1);
-							}
-							catch(Exception e)
-							{
-									IJ.error(""+e);
-							}
-						}
-					}
+					nframes=result.frame;
+					continue;
 				}
-			
-				threads[freeThread] = new ProcessFrame();
-				threads[freeThread].mysetup(ip, f, dg, s);
-				threads[freeThread].start();
+				pending.put(result.frame, result.batch);
 				
-				time_now = java.lang.System.currentTimeMillis();
-				time_took += time_now-time_start;
-				time_start = time_now;
-				if ((s>0) && (s%dg.viewer_update==0))
+				ParticleStore.Batch batch;
+				while ((batch = pending.remove(s))!=null)
 				{
-					ij.IJ.showStatus("Processing at "+time_took/dg.viewer_update+" ms/frame "+(f.ptable.getCounter()-nparticles)/dg.viewer_update+" part/frame, detected "+nparticles+" particles");
-					nparticles=f.ptable.getCounter();
-					time_took=0;
-					if (dg.viewer_accumulate==0)
+					f.particles.append(batch);
+					if (f.psave!=null)
 					{
-						vUpdate = new ViewerUpdate();
-						vUpdate.mysetup(viewer);
-						vUpdate.start();
+						double [][] c = batch.columns;
+						for (int n=0;n<batch.size;n++)
+							f.psave.saveParticle(c[0][n], c[1][n], c[2][n], c[3][n], c[4][n], c[5][n], c[6][n], c[7][n], c[8][n], c[9][n], c[10][n], c[11][n], c[12][n], c[13][n]);
 					}
-					else
+					permits.release();
+					s++;
+					
+					if ((s>1) && ((s-1)%dg.viewer_update==0))
 					{
-						vUpdateShort = new ViewerUpdateShort();
-						vUpdateShort.mysetup(viewer, Math.round(s+1-dg.viewer_accumulate/2), Math.round(s+1+dg.viewer_accumulate/2));
-						vUpdateShort.start();
+						long time_now = java.lang.System.currentTimeMillis();
+						long time_took = time_now-time_start;
+						time_start = time_now;
+						ij.IJ.showStatus("Processing at "+time_took/dg.viewer_update+" ms/frame "+(f.particles.size()-nparticles)/dg.viewer_update+" part/frame, detected "+nparticles+" particles");
+						nparticles=f.particles.size();
+						if (dg.viewer_accumulate==0)
+							viewer.update();
+						else
+							viewer.updateShort(Math.round(s-dg.viewer_accumulate/2), Math.round(s+dg.viewer_accumulate/2));
 					}
 				}
 			}
-			s++;
 		}
-		for (int t=0; t<threads.length;t++)
+		catch (InterruptedException e)
 		{
-			try
-			{
-				if (threads[t] != null) threads[t].join();
-			}
-			catch(Exception e)
-			{
-				IJ.error(""+e);
-			}
+			IJ.error("Particle analysis interrupted");
+		}
+		finally
+		{
+			// also reached when the analysis is stopped by "Stop Analyse Particles"
+			reader.interrupt();
+			for (int t=0;t<nthreads;t++)
+				workers[t].interrupt();
 		}
 		if (f.psave!=null) f.psave.close();
 		
@@ -171,74 +148,158 @@ else if (imp.getType() != ImagePlus.GRAY8 && imp.getType() != ImagePlus.GRAY16 )
 			viewer.update();
 		else
 			viewer.updateShort(Math.round(s-dg.viewer_accumulate/2), s);
-		if (f.ptable.getCounter()<5000000)
-		{
-            IJ.showStatus("Creating particle table, this should take a few seconds...");
-			f.ptable.show("Results");
-		}
-        else
-            IJ.showMessage("Warning", "Results table has too many particles, they will not be shown but the data still exists within it\nyou can still use all the plugin functionality or save table changes though the 'Save Particle Table' command.");
-
+		long time_total = java.lang.System.currentTimeMillis()-time_first;
+		IJ.log("Analysed "+s+" frames in "+time_total+" ms ("+(time_total>0 ? Math.round(1000.0*s/time_total) : s)+" frames/s), detected "+f.particles.size()+" particles");
+		f.particles.compact(); // merge the particles of all frames, sorted by frame
+		f.particles.show();
 	}
 }
 
-class ProcessFrame extends Thread 
+/** A frame handed from the reader to the workers; a frame without image
+ * tells a worker that there are no more frames.
+*/
+class PendingFrame
 {
-	private ImageProcessor ip;
-	private MyDialogs dg;
-	private int frame;
-	private MyFunctions f;
+	final ImageProcessor ip;
+	final int frame;
 	
-	public void mysetup(ImageProcessor ip, MyFunctions f, MyDialogs dg, int frame)
+	PendingFrame(ImageProcessor ip, int frame)
 	{
-		this.f=f;
 		this.ip=ip;
-		this.dg=dg;
 		this.frame=frame;
 	}
+}
+
+/** The particles found on a frame; a result without particles tells the
+ * collecting thread how many frames there are.
+*/
+class FrameResult
+{
+	final int frame;
+	final ParticleStore.Batch batch;
 	
-	public void run()
+	FrameResult(int frame, ParticleStore.Batch batch)
 	{
-		this.f.detectParticles(this.ip, this.dg, this.frame);
+		this.frame=frame;
+		this.batch=batch;
 	}
 }
 
-/** Threaded call to the viewer.update method - used to refresh the reconstruction
- * viewer to show the newly detected particles.
+/** Reads the frames of the image stack (or, when attached to the acquisition,
+ * the images appearing in the observed folder) ahead of the workers, taking
+ * one permit per frame so that it never gets too far ahead.
 */
-class ViewerUpdate extends Thread
+class FrameReader extends Thread
 {
-	private ReconstructionViewer viewer;
+	private ImagePlus imp;
+	private MyFunctions f;
+	private MyDialogs dg;
+	private int nworkers;
+	private java.util.concurrent.Semaphore permits;
+	private java.util.concurrent.BlockingQueue<PendingFrame> frames;
+	private java.util.concurrent.BlockingQueue<FrameResult> results;
 	
-	public void mysetup(ReconstructionViewer viewer)
+	FrameReader(ImagePlus imp, MyFunctions f, MyDialogs dg, int nworkers, java.util.concurrent.Semaphore permits, java.util.concurrent.BlockingQueue<PendingFrame> frames, java.util.concurrent.BlockingQueue<FrameResult> results)
 	{
-		this.viewer=viewer;
+		super("QuickPALM frame reader");
+		this.imp=imp;
+		this.f=f;
+		this.dg=dg;
+		this.nworkers=nworkers;
+		this.permits=permits;
+		this.frames=frames;
+		this.results=results;
 	}
 	
 	public void run()
 	{
-		this.viewer.update();
+		int s=0;
+		try
+		{
+			ImageStack stack = dg.attach ? null : imp.getStack();
+			int nslices = dg.attach ? 0 : stack.getSize();
+			while (true)
+			{
+				permits.acquire();
+				ImageProcessor ip;
+				if (dg.attach)
+				{
+					ImagePlus next=f.getNextImage(dg, s);
+					if (next==null) break;
+					ip=next.getProcessor();
+				}
+				else
+				{
+					if (s>=nslices) break;
+					// the workers modify the image, and a virtual stack reads a new one anyway
+					ip=stack.getProcessor(s+1);
+					if (!stack.isVirtual()) ip=ip.duplicate();
+					IJ.showProgress(s+1, nslices);
+				}
+				frames.put(new PendingFrame(ip, s));
+				s++;
+			}
+		}
+		catch (InterruptedException e)
+		{
+			return;
+		}
+		catch (Throwable e) // e.g. OutOfMemoryError on a large stack
+		{
+			IJ.error(""+e);
+		}
+		results.add(new FrameResult(s, null));
+		for (int t=0;t<nworkers;t++)
+			frames.add(new PendingFrame(null, -1));
 	}
 }
 
-/** Threaded call to the viewer.updateShort method - used to update the reconstruction
- * viewer in order to show the particles detected between the given frame range.
-*/
-class ViewerUpdateShort extends Thread
+/** Detects the particles of the frames given by the reader. */
+class FrameWorker extends Thread
 {
-	private ReconstructionViewer viewer;
-	private int start;
-	private int stop;
+	private MyFunctions f;
+	private MyDialogs dg;
+	private java.util.concurrent.BlockingQueue<PendingFrame> frames;
+	private java.util.concurrent.BlockingQueue<FrameResult> results;
 	
-	public void mysetup(ReconstructionViewer viewer, int start, int stop)
+	FrameWorker(MyFunctions f, MyDialogs dg, java.util.concurrent.BlockingQueue<PendingFrame> frames, java.util.concurrent.BlockingQueue<FrameResult> results)
 	{
-		this.viewer=viewer;
-		this.start=start;
-		this.stop=stop;
+		super("QuickPALM frame worker");
+		this.f=f;
+		this.dg=dg;
+		this.frames=frames;
+		this.results=results;
 	}
 	
 	public void run()
 	{
-		this.viewer.updateShort(this.start, this.stop);
+		while (true)
+		{
+			PendingFrame frame;
+			try
+			{
+				frame=frames.take();
+			}
+			catch (InterruptedException e)
+			{
+				return;
+			}
+			if (frame.ip==null) return;
+			ParticleStore.Batch batch=null;
+			try
+			{
+				batch=f.detectParticles(frame.ip, dg, frame.frame);
+			}
+			catch (Throwable e) // e.g. OutOfMemoryError on a large stack
+			{
+				IJ.error(""+e);
+			}
+			finally
+			{
+				// every frame needs a result, or the collecting thread waits forever
+				if (batch==null) batch=f.particles.newBatch(frame.frame); // keep the frames in order
+				results.add(new FrameResult(frame.frame, batch));
+			}
+		}
 	}
-}
\ No newline at end of file
+}
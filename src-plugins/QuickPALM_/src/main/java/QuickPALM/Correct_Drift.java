@@ -32,21 +32,22 @@ public void run(String arg)
 			return;
 		}
 		
-		if (fn.ptable.getCounter()==0 || !fn.ptable.columnExists(12))
+		ParticleStore particles = ParticleStore.getCurrent();
+		if (particles.size()==0)
 		{
 			IJ.error("Not able to detect a valid 'Particles Table', please load one");
 			return;
 		}
 		
-		double [] s = fn.ptable.getColumnAsDoubles(0);
-		double [] x = fn.ptable.getColumnAsDoubles(1);
-		double [] y = fn.ptable.getColumnAsDoubles(2);
-		double [] x_ = fn.ptable.getColumnAsDoubles(3);
-		double [] y_ = fn.ptable.getColumnAsDoubles(4);
-		double [] z_ = fn.ptable.getColumnAsDoubles(5);	
-		double [] frame = fn.ptable.getColumnAsDoubles(13);
+		double [] s = particles.getColumn(0);
+		double [] x = particles.getColumn(1);
+		double [] y = particles.getColumn(2);
+		double [] x_ = particles.getColumn(3);
+		double [] y_ = particles.getColumn(4);
+		double [] z_ = particles.getColumn(5);	
+		double [] frame = particles.getColumn(13);
 		
-		double pixelsize = fn.ptable.getColumnAsDoubles(3)[0]/x[0];
+		double pixelsize = x_[0]/x[0];
 		double impcal = imp.getCalibration().getX(1);
 		double magn = pixelsize/impcal;
 		if (impcal==1)
@@ -58,7 +59,7 @@ public void run(String arg)
 		for (int n=0;n<frame.length;n++)
 			if (frame[n]>nframes) nframes=(int) frame[n];
 			
-		long nres = fn.ptable.getCounter();
+		long nres = particles.size();
 		
 		double change = 99999;
 		double lastchange = 0;
@@ -95,21 +96,20 @@ public void run(String arg)
 		Plot zplot = new Plot("Drift Z", "Frame number", "Drift (nm)", frameseq, zdrft);
 		zplot.show();
 		
-		//Replace values in table
+		//Replace values in table, the columns are the ones of the particle store
 		IJ.showStatus("Replacing values in table for drift corrected... this should take a few seconds.");
 		
 		int f;
 		for (int n=0; n<frame.length;n++)
 		{
 			f=(int) frame[n]-1;
-			fn.ptable.setValue(1, n, x[n]+xdrft[f]); // x (px)
-			fn.ptable.setValue(2, n, y[n]+ydrft[f]); // y (px)
-			fn.ptable.setValue(3, n, x_[n]+xdrft[f]*pixelsize); // x (nm)
-			fn.ptable.setValue(4, n, y_[n]+ydrft[f]*pixelsize); // y (nm)
-			fn.ptable.setValue(5, n, z_[n]+zdrft[f]); // z (nm) 
+			x[n] = x[n]+xdrft[f]; // x (px)
+			y[n] = y[n]+ydrft[f]; // y (px)
+			x_[n] = x_[n]+xdrft[f]*pixelsize; // x (nm)
+			y_[n] = y_[n]+ydrft[f]*pixelsize; // y (nm)
+			z_[n] = z_[n]+zdrft[f]; // z (nm) 
 		}
-		if (fn.ptable.getCounter()<5000000)
-			fn.ptable.show("Results");
+		particles.show();
 		IJ.showStatus("Remake a reconstruction to see improvements.");
 	}
 	
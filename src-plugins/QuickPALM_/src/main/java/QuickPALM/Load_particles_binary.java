@@ -0,0 +1,32 @@
+package QuickPALM;
+
+import ij.*;
+import ij.io.*;
+import ij.plugin.*;
+
+/** Loads particles saved by "Save Particles (binary file - fast)" and
+ * makes them the current 'Particles Table'.
+*/
+public class Load_particles_binary implements PlugIn
+{
+	public void run(String arg)
+	{
+		OpenDialog od = new OpenDialog("Load Particles Table", null);
+		if (od.getFileName()==null) return;
+		java.lang.String filename = od.getDirectory()+od.getFileName();
+		
+		IJ.showStatus("Loading Particles Table...");
+		ParticleStore particles;
+		try
+		{
+			particles = ParticleStore.load(filename);
+		}
+		catch (java.io.IOException e)
+		{
+			IJ.error("Could not load particles: "+e.getMessage());
+			return;
+		}
+		ParticleStore.setCurrent(particles);
+		particles.show();
+	}
+}
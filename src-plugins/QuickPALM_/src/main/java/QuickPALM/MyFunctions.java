@@ -13,8 +13,7 @@
 class MyFunctions
 {
 	GaussianBlur gblur = new GaussianBlur();
-	//ResultsTable ptable = new ResultsTable(); // Particle table
-	ResultsTable ptable = Analyzer.getResultsTable(); // Particle table
+	ParticleStore particles = new ParticleStore(); // Particle table, shown as the Results table on demand
 	ResultsTable dtable = new ResultsTable(); // Drift table
 	ResultsTable caltable = new ResultsTable(); // Astigmatism calibration table
 	ParticleSaver psave; // Particle saver manager class
@@ -22,14 +21,11 @@
 	double [] cal3d_z; // z positions
 	double [] cal3d_wmh; // width minus height
 	int cal3d_center; // closest index to the center value of the cal3d_* arrays
-	
-	java.util.concurrent.locks.Lock ptable_lock = new java.util.concurrent.locks.ReentrantLock();
 
 	boolean debug = false;
 	
 	void MyFunctions()
 	{
-		ptable.setPrecision(3);
 		dtable.setPrecision(3);
 		caltable.setPrecision(3);
 	}
@@ -106,11 +102,12 @@ ImagePlus getNextImage(MyDialogs dg, int frame)
 	}
 	
 	/** Particle finding method, will search the image for particles.
-	 * @param ip image to search for particles on
+	 * @param ip image to search for particles on, will be modified
 	 * @param dg dialog manager
 	 * @param nframe the frame index corresponding to this image
+	 * @return the particles found, to be added to the particle store
 	*/
-	void detectParticles(ImageProcessor ip, MyDialogs dg, int nframe)
+	ParticleStore.Batch detectParticles(ImageProcessor ip, MyDialogs dg, int nframe)
 	{
 		int i, j;
 		int width = ip.getWidth();
@@ -188,12 +185,13 @@ void detectParticles(ImageProcessor ip, MyDialogs dg, int nframe)
 		int notok_nparticles = 0;
 		int last_ok_nparticles = 0;
 		int smartcounter = 0;
+		ParticleStore.Batch batch = particles.newBatch(nframe);
 
 		for (int n=0;n<=dg.maxpart;n++)
 		{
 			maxs = getMaxPositions(ip);
 			if (ip.get(maxs[1], maxs[2])<snrthresh) break;
-			else if (getParticle(ip, mask, maxs, dg, ptable, nframe))
+			else if (getParticle(ip, mask, maxs, dg, batch, nframe))
 				ok_nparticles++;
 			else notok_nparticles++;
 			if (dg.smartsnr)
@@ -208,15 +206,17 @@ else if (getParticle(ip, mask, maxs, dg, ptable, nframe))
 			}
 		}
 		IJ.log("'OK'/'Not OK' Particles= "+ok_nparticles+"/"+notok_nparticles);
+		return batch;
 	}
 	
 	/** Particle analysis method, called for each particle candidate found by
 	 * detectParticles.
 	 * @param ip image to search for particles on
 	 * @param dg dialog manager
+	 * @param batch the particles of this frame, owned by the calling thread
 	 * @param nframe the frame index corresponding to this image
 	*/
-	boolean getParticle(ImageProcessor ip, boolean [][] mask, int [] maxs, MyDialogs dg, ResultsTable ptable, int nframe)
+	boolean getParticle(ImageProcessor ip, boolean [][] mask, int [] maxs, MyDialogs dg, ParticleStore.Batch batch, int nframe)
 	{
 		int roirad = (int) Math.round(dg.fwhm);
 		int xmax = maxs[1];
@@ -401,27 +401,7 @@ boolean getParticle(ImageProcessor ip, boolean [][] mask, int [] maxs, MyDialogs
 		double yrstd_=yrstd*1.177;
 		double frame_=nframe+1;
 
-		ptable_lock.lock();
-		ptable.incrementCounter();
-		ptable.addValue("Intensity", s_);
-		ptable.addValue("X (px)", xm);
-		ptable.addValue("Y (px)", ym);
-		ptable.addValue("X (nm)", xm_);
-		ptable.addValue("Y (nm)", ym_);
-		ptable.addValue("Z (nm)", z);
-		ptable.addValue("Left-Width (px)", xlstd_);
-		ptable.addValue("Right-Width (px)", xrstd_);
-		ptable.addValue("Up-Height (px)", ylstd_);
-		ptable.addValue("Down-Height (px)", yrstd_);			
-		ptable.addValue("X Symmetry (%)", xsym);
-		ptable.addValue("Y Symmetry (%)", ysym);
-		ptable.addValue("Width minus Height (px)", wmh);
-		ptable.addValue("Frame Number", frame_);
-		ptable_lock.unlock();
-		if (psave!=null)
-		{
-			psave.saveParticle(s_, xm, ym, xm_, ym_, z, xlstd_, xrstd_, ylstd_, yrstd_, xsym, ysym, wmh, frame_);
-		}
+		batch.add(s_, xm, ym, xm_, ym_, z, xlstd_, xrstd_, ylstd_, yrstd_, xsym, ysym, wmh, frame_);
 		
 		clearRegion(thrsh, ip, mask, xstart, xend, ystart, yend);
 		return true;
@@ -682,16 +662,4 @@ int argmin(double [] arr)
 		}
 		return p;
 	}
-	
-	void showTable()
-	{
-		if (ptable.getCounter()<5000000)
-        {
-			IJ.showStatus("Creating particle table, this should take a few seconds...");
-            ptable.show("Results");
-        }
-        else
-            IJ.showMessage("Warning", "Results table has too many particles, they will not be shown but the data still exists within it\nyou can still use all the plugin functionality or save table changes though the 'Save Particle Table' command.");
-	}
 }
-
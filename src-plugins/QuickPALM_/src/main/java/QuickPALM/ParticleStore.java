@@ -0,0 +1,380 @@
+package QuickPALM;
+
+import ij.*;
+import ij.measure.*;
+import ij.plugin.filter.Analyzer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/** Columnar store for the particles (localisations) found by QuickPALM.
+ *
+ * While the particles are detected, every frame collects its particles in
+ * a Batch of primitive columns owned by the detecting thread; finished
+ * batches are linked into the store without locking. compact() merges the
+ * batches, ordered by frame, into one array per column. The ResultsTable
+ * is only filled in when the particles are shown.
+ *
+ * The column indices are the ones of the 'Particles Table'.
+*/
+class ParticleStore
+{
+	static final java.lang.String [] COLUMNS = {
+		"Intensity", "X (px)", "Y (px)", "X (nm)", "Y (nm)", "Z (nm)",
+		"Left-Width (px)", "Right-Width (px)", "Up-Height (px)", "Down-Height (px)",
+		"X Symmetry (%)", "Y Symmetry (%)", "Width minus Height (px)", "Frame Number"
+	};
+	static final int NCOLUMNS = COLUMNS.length;
+	static final int FRAME = 13;
+
+	/** Above this number of particles the ResultsTable is not shown. */
+	static final int MAX_SHOWN = 5000000;
+
+	private static final int MAGIC = 0x51504c31; // "QPL1"
+
+	/** The particles of one frame, filled in by a single thread. */
+	static class Batch
+	{
+		final int frame;
+		double [][] columns = new double [NCOLUMNS][16];
+		int size = 0;
+		volatile Batch next;
+
+		Batch(int frame)
+		{
+			this.frame = frame;
+		}
+
+		void add(double s, double x, double y, double x_, double y_, double z, double left, double right, double up, double down, double xsym, double ysym, double wmh, double frame)
+		{
+			if (size == columns[0].length)
+				for (int c=0; c<NCOLUMNS; c++)
+					columns[c] = Arrays.copyOf(columns[c], size*2);
+			double [][] col = columns;
+			col[0][size] = s;
+			col[1][size] = x;
+			col[2][size] = y;
+			col[3][size] = x_;
+			col[4][size] = y_;
+			col[5][size] = z;
+			col[6][size] = left;
+			col[7][size] = right;
+			col[8][size] = up;
+			col[9][size] = down;
+			col[10][size] = xsym;
+			col[11][size] = ysym;
+			col[12][size] = wmh;
+			col[13][size] = frame;
+			size++;
+		}
+	}
+
+	/** Position of a reader in the store, see next(). */
+	static class Cursor
+	{
+		Batch last;
+		int row;
+	}
+
+	// batches in the order they were appended, starting with an empty head
+	private final Batch head = new Batch(0);
+	private final AtomicReference<Batch> tail = new AtomicReference<Batch>(head);
+	private final AtomicInteger size = new AtomicInteger(0);
+
+	// the merged columns, once compact() was called
+	private volatile double [][] columns;
+
+	private static ParticleStore current;
+
+	/** Returns the particles the QuickPALM commands should work on: the ones
+	 * from the last analysis or load. Before any of these, the Results table
+	 * is read if it is a 'Particles Table' (e.g. one opened from a text file).
+	*/
+	static synchronized ParticleStore getCurrent()
+	{
+		if (current != null) return current;
+		ParticleStore store = fromResultsTable(Analyzer.getResultsTable());
+		// an empty table is not remembered, a particle table may be opened later
+		if (store.size() > 0) current = store;
+		return store;
+	}
+
+	/** Makes the given particles the current ones; only the analysis and the
+	 * load commands switch to other particles, changes of the Results table
+	 * (e.g. by Analyze>Measure) do not.
+	*/
+	static synchronized void setCurrent(ParticleStore store)
+	{
+		current = store;
+	}
+
+	/** Creates an empty batch for the particles of the given frame. */
+	Batch newBatch(int frame)
+	{
+		return new Batch(frame);
+	}
+
+	/** Adds a finished batch; may be called from several threads at once. */
+	void append(Batch batch)
+	{
+		if (batch.size == 0) return;
+		Batch previous = tail.getAndSet(batch);
+		previous.next = batch;
+		size.addAndGet(batch.size);
+	}
+
+	/** Number of particles. */
+	int size()
+	{
+		return size.get();
+	}
+
+	/** Merges all appended batches, ordered by frame, into one array per
+	 * column. Must only be called once no more batches are appended.
+	*/
+	synchronized void compact()
+	{
+		ArrayList<Batch> batches = new ArrayList<Batch>();
+		int n = 0;
+		for (Batch b = head.next; b != null; b = b.next)
+		{
+			batches.add(b);
+			n += b.size;
+		}
+		if (columns != null)
+		{
+			if (batches.isEmpty()) return;
+			// particles appended after an earlier compact() go at the end
+			n += columns[0].length;
+		}
+		Collections.sort(batches, new Comparator<Batch>()
+		{
+			public int compare(Batch a, Batch b)
+			{
+				return a.frame < b.frame ? -1 : (a.frame == b.frame ? 0 : 1);
+			}
+		});
+		double [][] merged = new double [NCOLUMNS][n];
+		int offset = 0;
+		if (columns != null)
+		{
+			for (int c=0; c<NCOLUMNS; c++)
+				System.arraycopy(columns[c], 0, merged[c], 0, columns[c].length);
+			offset = columns[0].length;
+		}
+		for (Batch b : batches)
+		{
+			for (int c=0; c<NCOLUMNS; c++)
+				System.arraycopy(b.columns[c], 0, merged[c], offset, b.size);
+			offset += b.size;
+		}
+		// readers still walking the batches keep their own references
+		head.next = null;
+		tail.set(head);
+		size.set(n);
+		columns = merged;
+	}
+
+	/** Returns a column, without copying it; changes to it change the store.
+	 * Compacts the store first if necessary.
+	*/
+	double [] getColumn(int column)
+	{
+		if (columns == null || head.next != null) compact();
+		return columns[column];
+	}
+
+	double getValue(int column, int row)
+	{
+		return getColumn(column)[row];
+	}
+
+	/** Starts a cursor at the first particle. */
+	Cursor cursor()
+	{
+		Cursor cursor = new Cursor();
+		cursor.last = head;
+		return cursor;
+	}
+
+	/** Returns the given columns of the particles added since the cursor was
+	 * last advanced, and advances it. Used to follow an ongoing analysis.
+	*/
+	double [][] next(Cursor cursor, int [] cols)
+	{
+		double [][] merged = columns;
+		if (merged != null && cursor.last == head && head.next == null)
+		{
+			int start = cursor.row;
+			int n = merged[0].length - start;
+			double [][] result = new double [cols.length][];
+			for (int c=0; c<cols.length; c++)
+				result[c] = Arrays.copyOfRange(merged[cols[c]], start, start+n);
+			cursor.row += n;
+			return result;
+		}
+
+		ArrayList<Batch> batches = new ArrayList<Batch>();
+		int n = 0;
+		for (Batch b = cursor.last.next; b != null; b = b.next)
+		{
+			batches.add(b);
+			n += b.size;
+			cursor.last = b;
+		}
+		double [][] result = new double [cols.length][n];
+		int offset = 0;
+		for (Batch b : batches)
+		{
+			for (int c=0; c<cols.length; c++)
+				System.arraycopy(b.columns[cols[c]], 0, result[c], offset, b.size);
+			offset += b.size;
+		}
+		return result;
+	}
+
+	/** Reads the particles from a ResultsTable, e.g. one loaded from a text file.
+	 * Returns an empty store if the table does not have the column headings
+	 * of a 'Particles Table'.
+	*/
+	static ParticleStore fromResultsTable(ResultsTable rt)
+	{
+		ParticleStore store = new ParticleStore();
+		int n = rt.getCounter();
+		int [] index = new int [NCOLUMNS];
+		for (int c=0; c<NCOLUMNS; c++)
+		{
+			index[c] = n == 0 ? ResultsTable.COLUMN_NOT_FOUND : rt.getColumnIndex(COLUMNS[c]);
+			if (index[c] == ResultsTable.COLUMN_NOT_FOUND)
+			{
+				store.columns = new double [NCOLUMNS][0];
+				return store;
+			}
+		}
+		double [][] merged = new double [NCOLUMNS][];
+		for (int c=0; c<NCOLUMNS; c++)
+			merged[c] = rt.getColumnAsDoubles(index[c]);
+		store.columns = merged;
+		store.size.set(n);
+		return store;
+	}
+
+	/** Builds a store from complete columns. */
+	static ParticleStore fromColumns(double [][] cols)
+	{
+		ParticleStore store = new ParticleStore();
+		store.columns = cols;
+		store.size.set(cols[0].length);
+		return store;
+	}
+
+	/** Fills the ResultsTable with the particles. */
+	void toResultsTable(ResultsTable rt)
+	{
+		double [][] cols = new double [NCOLUMNS][];
+		for (int c=0; c<NCOLUMNS; c++)
+			cols[c] = getColumn(c);
+		int n = cols[0].length;
+		rt.reset();
+		for (int c=0; c<NCOLUMNS; c++)
+			rt.setHeading(c, COLUMNS[c]);
+		for (int row=0; row<n; row++)
+		{
+			rt.incrementCounter();
+			for (int c=0; c<NCOLUMNS; c++)
+				rt.addValue(c, cols[c][row]);
+		}
+	}
+
+	/** Shows the particles in the Results table, unless there are too many. */
+	synchronized void show()
+	{
+		ResultsTable rt = Analyzer.getResultsTable();
+		if (getColumn(0).length<MAX_SHOWN)
+		{
+			IJ.showStatus("Creating particle table, this should take a few seconds...");
+			toResultsTable(rt);
+			rt.show("Results");
+		}
+		else
+		{
+			// an old table left here would look like these particles
+			rt.reset();
+			IJ.showMessage("Warning", "There are too many particles to show them in the Results table, so it was left empty.\nThe particles are kept by QuickPALM: all its commands still work on them, and they can be\nsaved with 'Save Particles (.tif file - fast)' or 'Save Particles (binary file - fast)'.");
+		}
+	}
+
+	/** Writes the particles in a compact binary format: a header with the
+	 * column names followed by the columns as big-endian doubles.
+	*/
+	void save(java.lang.String filename) throws IOException
+	{
+		double [][] cols = new double [NCOLUMNS][];
+		for (int c=0; c<NCOLUMNS; c++)
+			cols[c] = getColumn(c);
+		int n = cols[0].length;
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename), 1<<16));
+		try
+		{
+			out.writeInt(MAGIC);
+			out.writeInt(NCOLUMNS);
+			out.writeInt(n);
+			for (int c=0; c<NCOLUMNS; c++)
+				out.writeUTF(COLUMNS[c]);
+			for (int c=0; c<NCOLUMNS; c++)
+			{
+				IJ.showProgress(c, NCOLUMNS);
+				double [] col = cols[c];
+				for (int row=0; row<n; row++)
+					out.writeDouble(col[row]);
+			}
+		}
+		finally
+		{
+			out.close();
+		}
+		IJ.showProgress(1.0);
+	}
+
+	/** Reads particles written by save(). */
+	static ParticleStore load(java.lang.String filename) throws IOException
+	{
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(filename), 1<<16));
+		try
+		{
+			if (in.readInt() != MAGIC)
+				throw new IOException("File does not seam to be a binary Particles Table file");
+			int ncols = in.readInt();
+			int n = in.readInt();
+			if (ncols != NCOLUMNS || n < 0)
+				throw new IOException("Unsupported Particles Table: "+ncols+" columns, "+n+" rows");
+			for (int c=0; c<ncols; c++)
+				in.readUTF();
+			double [][] cols = new double [NCOLUMNS][n];
+			for (int c=0; c<NCOLUMNS; c++)
+			{
+				IJ.showProgress(c, NCOLUMNS);
+				double [] col = cols[c];
+				for (int row=0; row<n; row++)
+					col[row] = in.readDouble();
+			}
+			IJ.showProgress(1.0);
+			return fromColumns(cols);
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+}
@@ -28,7 +28,7 @@ public void run(String arg)
 		IJ.register(Reconstruct_Dataset.class);
 		if (!dg.reconstructDataset()) return;
 		
-		if (f.ptable.getCounter()==0 || !f.ptable.columnExists(13))
+		if (ParticleStore.getCurrent().size()==0)
 		{
 			IJ.error("Not able to detect a valid 'Particles Table', please load one");
 			return;
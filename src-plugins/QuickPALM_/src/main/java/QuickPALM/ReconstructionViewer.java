@@ -16,7 +16,8 @@
 	ImageProcessor ip;
 	
 	MyDialogs settings;
-	ResultsTable table;
+	ParticleStore particles;
+	ParticleStore.Cursor cursor;
 	MyFunctions functions;
 	
 	GaussianBlur gblur = new GaussianBlur();
@@ -32,6 +33,9 @@
 	double [] y;
 	double [] z;
 	double [] f;
+	int count = 0; // particles fetched so far on the online rendering mode
+	
+	static final int [] COLUMNS = {0, 1, 2, 5, 13}; // s, x, y, z, f
 	
 	int nframes = 0;
 	
@@ -45,9 +49,16 @@
 	ReconstructionViewer(java.lang.String title, int width, int height, MyDialogs dg, MyFunctions f)
 	{
 		settings = dg;
-		table = f.ptable;
+		particles = f.particles;
+		cursor = particles.cursor();
 		functions = f;
 		
+		s = new double [0];
+		x = new double [0];
+		y = new double [0];
+		z = new double [0];
+		this.f = new double [0];
+		
 		int new_width=(int) (width*settings.magn+1);
 		int new_height=(int) (height*settings.magn+1);
 		
@@ -69,10 +80,10 @@
 	ReconstructionViewer(java.lang.String title, MyDialogs dg, MyFunctions f_)
 	{
 		settings = dg;
-		table = f_.ptable;
+		particles = ParticleStore.getCurrent();
 		functions = f_;
 		
-		double pixelsize = table.getValue("X (nm)", 0)/table.getValue("X (px)", 0);
+		double pixelsize = particles.getValue(3, 0)/particles.getValue(1, 0);
 		settings.magn = pixelsize/settings.viewer_tpixelsize;
 		
 		int new_width=(int) (settings.viewer_owidth*settings.magn+1);
@@ -90,14 +101,12 @@ else if (settings.view_mode == settings.view_modes[1] || settings.view_mode == s
 		imp = new ImagePlus(title, ip);
 		IJ.run(imp, "Set Scale...", "distance=1 known="+settings.viewer_tpixelsize+" pixel=1 unit=nm");
 		
-		// load data
-		functions.ptable_lock.lock();
-		s = table.getColumnAsDoubles(0);
-		x = table.getColumnAsDoubles(1);
-		y = table.getColumnAsDoubles(2);
-		z = table.getColumnAsDoubles(5);
-		f = table.getColumnAsDoubles(13);
-		functions.ptable_lock.unlock();
+		// load data, the columns are shared with the store and not modified here
+		s = particles.getColumn(0);
+		x = particles.getColumn(1);
+		y = particles.getColumn(2);
+		z = particles.getColumn(5);
+		f = particles.getColumn(13);
 		
 		// load max & min values
 		for (int n=0;n<f.length;n++)
@@ -252,14 +261,39 @@ ImagePlus calculateColorBar()
 		return c;
 	}
 
+	/** Appends the particles detected since the last call to the s, x, y, z
+	 * and f arrays, used on the online rendering mode.
+	*/
+	void fetch()
+	{
+		double [][] cols = particles.next(cursor, COLUMNS);
+		int n = cols[0].length;
+		if (n==0) return;
+		if (count+n>s.length)
+		{
+			int length = Math.max(count+n, 2*s.length);
+			s = java.util.Arrays.copyOf(s, length);
+			x = java.util.Arrays.copyOf(x, length);
+			y = java.util.Arrays.copyOf(y, length);
+			z = java.util.Arrays.copyOf(z, length);
+			f = java.util.Arrays.copyOf(f, length);
+		}
+		System.arraycopy(cols[0], 0, s, count, n);
+		System.arraycopy(cols[1], 0, x, count, n);
+		System.arraycopy(cols[2], 0, y, count, n);
+		System.arraycopy(cols[3], 0, z, count, n);
+		System.arraycopy(cols[4], 0, f, count, n);
+		count += n;
+	}
+
 	/** Updates the reconstruction viewer with the lattest acquired particles. */
-	void update()
+	synchronized void update()
 	{
 		if (!settings.view) return;
-		int new_p=table.getCounter();
-		if (new_p==0 || new_p==position) return;
-		update(position, new_p-1);
-		position = new_p;		
+		fetch();
+		if (count==0 || count==position) return;
+		update(position, count-1);
+		position = count;		
 	}
 
 	/** Updates the reconstruction viewer by showing the new particles found between
@@ -267,32 +301,13 @@ void update()
 	 * @param start first particle to be updated from the table
 	 * @param stop last particle to be updated from the table
 	*/
-	void update(int start, int stop)
+	synchronized void update(int start, int stop)
 	{
-		// updated May 5th - instead of loading the full columns as arrays, we only grab the needed values, should increase processing speed
+		// the particles are fetched incrementally by update(), so only the given range is looked at
 		if (!settings.view) return;
 		
-		int nresults = table.getCounter();
-
 		start=(start<0)?0:start;
-		stop=(stop>nresults)?(nresults-1):stop;
-
-		s = new double [stop-start+1];
-		x = new double [stop-start+1];
-		y = new double [stop-start+1];
-		z = new double [stop-start+1];
-		
-		int index;
-		functions.ptable_lock.lock();
-		for (int n=start; n<=stop; n++)
-		{
-			index = n-start;
-			s[index] = table.getValueAsDouble(0, n);
-			x[index] = table.getValueAsDouble(1, n);
-			y[index] = table.getValueAsDouble(2, n);
-			z[index] = table.getValueAsDouble(5, n);
-		}
-		functions.ptable_lock.unlock();
+		stop=(stop>=count)?(count-1):stop;
 		
 		boolean newMax=false;
 		boolean newMin=false;
@@ -300,7 +315,7 @@ void update(int start, int stop)
 		boolean newMinZ=false;
 		
 		// check if there is a new max/min value
-		for (int n=0;n<=(stop-start);n++)
+		for (int n=start;n<=stop;n++)
 		{
 			if (s[n]>max)
 			{
@@ -335,7 +350,7 @@ void update(int start, int stop)
 		int v, xmag, ymag;
 		int [] old_rgb = new int [3];
 		int [] new_rgb = new int [3];
-		for (int n=0;n<=(stop-start);n++)
+		for (int n=start;n<=stop;n++)
 		{
 			xmag=(int) Math.round(x[n]*settings.magn);
 			ymag=(int) Math.round(y[n]*settings.magn);
@@ -352,22 +367,16 @@ void update(int start, int stop)
 	 * @param fstart start position of the frame range
 	 * @param fstop stop position of the frame range
 	*/
-	void updateShort(int fstart, int fstop)
+	synchronized void updateShort(int fstart, int fstop)
 	{
 		if (!settings.view) return;
 		clear();
-		functions.ptable_lock.lock();
-		s = table.getColumnAsDoubles(0);
-		x = table.getColumnAsDoubles(1);
-		y = table.getColumnAsDoubles(2);
-		z = table.getColumnAsDoubles(5);
-		f = table.getColumnAsDoubles(13);
-		functions.ptable_lock.unlock();
+		fetch();
 		
 		int xmag, ymag;
 		int [] old_rgb = new int [3];
 		int [] new_rgb = new int [3];
-		for (int n=0;n<f.length;n++)
+		for (int n=0;n<count;n++)
 		{
 			if (f[n]>=fstart && f[n]<=fstop)
 			{
@@ -0,0 +1,38 @@
+package QuickPALM;
+
+import ij.*;
+import ij.io.*;
+import ij.plugin.*;
+
+/** Saves the particles in QuickPALM's binary format, which keeps the full
+ * precision of every column and is much faster to read and write than a
+ * text table.
+*/
+public class Save_particles_binary implements PlugIn
+{
+	public void run(String arg)
+	{
+		ParticleStore particles = ParticleStore.getCurrent();
+		if (particles.size()==0)
+		{
+			IJ.error("Not able to detect a valid 'Particles Table', please load one");
+			return;
+		}
+		
+		SaveDialog sd = new SaveDialog("File to save particles into", "Particles Table", ".qpl");
+		if (sd.getFileName()==null) return;
+		java.lang.String filename = sd.getDirectory()+sd.getFileName();
+		
+		IJ.showStatus("Saving Particles Table...");
+		try
+		{
+			particles.save(filename);
+		}
+		catch (java.io.IOException e)
+		{
+			IJ.error("Could not save particles: "+e.getMessage());
+			return;
+		}
+		IJ.showStatus("Saved "+particles.size()+" particles");
+	}
+}
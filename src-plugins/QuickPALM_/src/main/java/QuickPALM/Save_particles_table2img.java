@@ -31,20 +31,21 @@ public void run(String arg) {
         String path = sd.getDirectory();
         String filename = path+sd.getFileName();
 		
-		double [] s = 		f.ptable.getColumnAsDoubles(0);
-		double [] x = 		f.ptable.getColumnAsDoubles(1);
-		double [] y = 		f.ptable.getColumnAsDoubles(2);
-		double [] x_ =		f.ptable.getColumnAsDoubles(3);
-		double [] y_ =		f.ptable.getColumnAsDoubles(4);
-		double [] z_ = 		f.ptable.getColumnAsDoubles(5);
-		double [] left = 	f.ptable.getColumnAsDoubles(6);
-		double [] right = 	f.ptable.getColumnAsDoubles(7);
-		double [] up = 		f.ptable.getColumnAsDoubles(8);
-		double [] down = 	f.ptable.getColumnAsDoubles(9);
-		double [] xsym = 	f.ptable.getColumnAsDoubles(10);
-		double [] ysym = 	f.ptable.getColumnAsDoubles(11);
-		double [] wmh = 	f.ptable.getColumnAsDoubles(12);
-		double [] frame = 	f.ptable.getColumnAsDoubles(13);
+		ParticleStore particles = ParticleStore.getCurrent();
+		double [] s = 		particles.getColumn(0);
+		double [] x = 		particles.getColumn(1);
+		double [] y = 		particles.getColumn(2);
+		double [] x_ =		particles.getColumn(3);
+		double [] y_ =		particles.getColumn(4);
+		double [] z_ = 		particles.getColumn(5);
+		double [] left = 	particles.getColumn(6);
+		double [] right = 	particles.getColumn(7);
+		double [] up = 		particles.getColumn(8);
+		double [] down = 	particles.getColumn(9);
+		double [] xsym = 	particles.getColumn(10);
+		double [] ysym = 	particles.getColumn(11);
+		double [] wmh = 	particles.getColumn(12);
+		double [] frame = 	particles.getColumn(13);
 		
 		ip = new FloatProcessor(14, s.length);
 		imp = new ImagePlus("Particles Table", ip);
@@ -113,10 +113,26 @@ public void tryRun(String plugin, String arg, String jarPath, boolean newClassLo
 				IllegalAccessException,
 				InvocationTargetException,
 				NoSuchMethodException {
-		ClassLoader classLoader = newClassLoader ?
-			new FijiClassLoader(true) : getClassLoader();
-		if (newClassLoader && jarPath != null)
-			((FijiClassLoader)classLoader).addPath(jarPath);
+		if (!newClassLoader) {
+			tryRun(plugin, arg, jarPath, getClassLoader());
+			return;
+		}
+		FijiClassLoader classLoader = new FijiClassLoader(true);
+		try {
+			if (jarPath != null)
+				classLoader.addPath(jarPath);
+			tryRun(plugin, arg, jarPath, classLoader);
+		} finally {
+			// do not keep the .jar files open until the class loader is collected
+			classLoader.close();
+		}
+	}
+
+	private void tryRun(String plugin, String arg, String jarPath, ClassLoader classLoader)
+			throws ClassNotFoundException, IOException,
+				IllegalAccessException,
+				InvocationTargetException,
+				NoSuchMethodException {
 		Class clazz;
 		try {
 			clazz = classLoader.loadClass(plugin);
@@ -654,6 +654,7 @@ public synchronized void addPath( Path p, boolean forceNewName ) {
 			p.addTo3DViewer( plugin.univ, plugin.deselectedColor3f, plugin.colorImage );
 		}
 		allPaths.add(p);
+		pathIndex.addPath(p);
 		resetListeners( p );
 	}
 
@@ -702,8 +703,11 @@ private synchronized void deletePath( int index, boolean updateInterface ) {
 		}
 
 		allPaths.remove(unfittedPathToDelete);
-		if( fittedPathToDelete != null )
+		pathIndex.removePath(unfittedPathToDelete);
+		if( fittedPathToDelete != null ) {
 			allPaths.remove(fittedPathToDelete);
+			pathIndex.removePath(fittedPathToDelete);
+		}
 
 		// We don't just delete; have to fix up the references
 		// in other paths (for start and end joins):
@@ -1580,6 +1584,7 @@ void clearPathsAndFills( ) {
 				p.removeFrom3DViewer( plugin.univ );
 		}
 		allPaths.clear();
+		pathIndex.clear();
 		allFills.clear();
 		resetListeners( null );
 	}
@@ -2066,39 +2071,19 @@ public void universeClosed() {
 	}
 	// ... end of methods for UniverseListener
 
-	public NearPoint nearestPointOnAnyPath( double x, double y, double z, double distanceLimit ) {
-
-		/* Order all points in all paths by their euclidean
-		   distance to (x,y,z): */
-
-		PriorityQueue< NearPoint > pq = new PriorityQueue< NearPoint >();
-
-		for( Path path : allPaths ) {
-			if( ! path.versionInUse() )
-				continue;
-			for( int j = 0; j < path.size(); ++j ) {
-				pq.add( new NearPoint( x, y, z, path, j ) );
-			}
-		}
-
-		while( true ) {
+	/* The paths' points are kept in a grid, so that this is fast
+	   enough to call whenever the cursor moves: */
 
-			NearPoint np = pq.poll();
-			if( np == null )
-				return null;
+	PathSpatialIndex pathIndex = new PathSpatialIndex();
 
-			/* Don't bother looking at points that are
-			   more than distanceLimit away.  Since we get
-			   them in the order closest to furthest away,
-			   if we exceed this limit returned: */
+	/* Find the nearest point on any path: the points of all paths
+	   are considered in order of their euclidean distance to
+	   (x,y,z), and the first one with the nearest point of its
+	   neighbouring segments on the path is returned. */
 
-			if( np.distanceToPathPointSquared() > (distanceLimit * distanceLimit) )
-				return null;
-
-			double distanceToPath = np.distanceToPathNearPoint();
-			if( distanceToPath >= 0 )
-				return np;
-		}
+	public NearPoint nearestPointOnAnyPath( double x, double y, double z, double distanceLimit ) {
+		pathIndex.update( allPaths );
+		return pathIndex.nearestPointOnAnyPath( x, y, z, distanceLimit );
 	}
 
 	public AllPointsIterator allPointsIterator() {
@@ -0,0 +1,307 @@
+/* -*- mode: java; c-basic-offset: 8; indent-tabs-mode: t; tab-width: 8 -*- */
+
+/*
+  This file is part of the ImageJ plugin "Simple Neurite Tracer".
+
+  The ImageJ plugin "Simple Neurite Tracer" is free software; you
+  can redistribute it and/or modify it under the terms of the GNU
+  General Public License as published by the Free Software
+  Foundation; either version 3 of the License, or (at your option)
+  any later version.
+
+  The ImageJ plugin "Simple Neurite Tracer" is distributed in the
+  hope that it will be useful, but WITHOUT ANY WARRANTY; without
+  even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+  PARTICULAR PURPOSE.  See the GNU General Public License for more
+  details.
+
+  In addition, as a special exception, the copyright holders give
+  you permission to combine this program with free software programs or
+  libraries that are released under the Apache Public License.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package tracing;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/* A uniform grid over the points of the paths, so that the nearest
+   point on any path can be found without looking at every point
+   of every path.  Each cell lists the points (and so the segments on
+   either side of them) that fall in it.
+
+   The index is updated by PathAndFillManager when paths are added or
+   deleted, and a path that has been edited since it was indexed is
+   noticed in update(), by comparing its number of points, its
+   coordinate arrays and whether its version is in use: every method
+   of Path that changes the points changes one of these. */
+
+class PathSpatialIndex {
+
+	/* The points of a path as they were indexed: */
+
+	static class Entry {
+		Path path;
+		int points;
+		double [] xs, ys, zs;
+		long [] cells; // the distinct cells of the points
+	}
+
+	/* The points of the paths in one cell: */
+
+	static class Cell {
+		Entry [] entries = new Entry[8];
+		int [] indices = new int[8];
+		int size;
+
+		void add( Entry entry, int index ) {
+			if( size == entries.length ) {
+				Entry [] newEntries = new Entry[2*size];
+				int [] newIndices = new int[2*size];
+				System.arraycopy( entries, 0, newEntries, 0, size );
+				System.arraycopy( indices, 0, newIndices, 0, size );
+				entries = newEntries;
+				indices = newIndices;
+			}
+			entries[size] = entry;
+			indices[size++] = index;
+		}
+
+		void remove( Entry entry ) {
+			int kept = 0;
+			for( int i = 0; i < size; ++i ) {
+				if( entries[i] != entry ) {
+					entries[kept] = entries[i];
+					indices[kept++] = indices[i];
+				}
+			}
+			for( int i = kept; i < size; ++i )
+				entries[i] = null;
+			size = kept;
+		}
+	}
+
+	/* Cells are 16 times the mean distance between the points of the
+	   first path indexed, so a path crossing a cell has a few tens of
+	   points in it: */
+
+	static final int CELL_SEPARATIONS = 16;
+
+	double cellSize = -1;
+
+	Map< Path, Entry > entries = new HashMap< Path, Entry >();
+	Map< Long, Cell > cells = new HashMap< Long, Cell >();
+
+	// The range of the cell coordinates used so far:
+	int minCX = Integer.MAX_VALUE, minCY = Integer.MAX_VALUE, minCZ = Integer.MAX_VALUE;
+	int maxCX = Integer.MIN_VALUE, maxCY = Integer.MIN_VALUE, maxCZ = Integer.MIN_VALUE;
+
+	/* Cell coordinates are packed in a long, 21 bits each: */
+
+	static long key( int cx, int cy, int cz ) {
+		return ((long)(cx & 0x1FFFFF) << 42) | ((long)(cy & 0x1FFFFF) << 21) | (long)(cz & 0x1FFFFF);
+	}
+
+	int cellCoordinate( double v ) {
+		return (int)Math.floor( v / cellSize );
+	}
+
+	static double initialCellSize( Path p ) {
+		double total = 0;
+		for( int i = 1; i < p.points; ++i ) {
+			double xd = p.precise_x_positions[i] - p.precise_x_positions[i-1];
+			double yd = p.precise_y_positions[i] - p.precise_y_positions[i-1];
+			double zd = p.precise_z_positions[i] - p.precise_z_positions[i-1];
+			total += Math.sqrt( xd * xd + yd * yd + zd * zd );
+		}
+		double separation = p.points > 1 ? total / (p.points - 1) : 0;
+		if( ! ( separation > 0 ) || Double.isInfinite( separation ) )
+			return 1;
+		return CELL_SEPARATIONS * separation;
+	}
+
+	synchronized void clear( ) {
+		cellSize = -1;
+		entries.clear();
+		cells.clear();
+		minCX = minCY = minCZ = Integer.MAX_VALUE;
+		maxCX = maxCY = maxCZ = Integer.MIN_VALUE;
+	}
+
+	/* Index the points of p, if its version is in use: */
+
+	synchronized void addPath( Path p ) {
+		removePath( p );
+		if( ! p.versionInUse() || p.points == 0 )
+			return;
+		if( cellSize <= 0 )
+			cellSize = initialCellSize( p );
+		Entry entry = new Entry();
+		entry.path = p;
+		entry.points = p.points;
+		entry.xs = p.precise_x_positions;
+		entry.ys = p.precise_y_positions;
+		entry.zs = p.precise_z_positions;
+		HashSet< Long > pathCells = new HashSet< Long >();
+		for( int i = 0; i < entry.points; ++i ) {
+			int cx = cellCoordinate( entry.xs[i] );
+			int cy = cellCoordinate( entry.ys[i] );
+			int cz = cellCoordinate( entry.zs[i] );
+			Long k = key( cx, cy, cz );
+			Cell cell = cells.get( k );
+			if( cell == null ) {
+				cell = new Cell();
+				cells.put( k, cell );
+			}
+			cell.add( entry, i );
+			pathCells.add( k );
+			minCX = Math.min( minCX, cx ); maxCX = Math.max( maxCX, cx );
+			minCY = Math.min( minCY, cy ); maxCY = Math.max( maxCY, cy );
+			minCZ = Math.min( minCZ, cz ); maxCZ = Math.max( maxCZ, cz );
+		}
+		entry.cells = new long[pathCells.size()];
+		int i = 0;
+		for( Long k : pathCells )
+			entry.cells[i++] = k;
+		entries.put( p, entry );
+	}
+
+	synchronized void removePath( Path p ) {
+		Entry entry = entries.remove( p );
+		if( entry == null )
+			return;
+		for( long k : entry.cells ) {
+			Cell cell = cells.get( k );
+			cell.remove( entry );
+			if( cell.size == 0 )
+				cells.remove( k );
+		}
+	}
+
+	/* Make the index match allPaths: re-index the paths that have
+	   changed since they were indexed, and drop the ones that are no
+	   longer there.  This only costs a few comparisons per path when
+	   nothing has changed. */
+
+	synchronized void update( List< Path > allPaths ) {
+		int indexed = 0;
+		for( Path p : allPaths ) {
+			Entry entry = entries.get( p );
+			boolean inUse = p.versionInUse();
+			if( entry == null ) {
+				if( inUse )
+					addPath( p );
+			} else if( ! inUse ) {
+				removePath( p );
+			} else if( entry.points != p.points ||
+				   entry.xs != p.precise_x_positions ||
+				   entry.ys != p.precise_y_positions ||
+				   entry.zs != p.precise_z_positions ) {
+				addPath( p );
+			}
+			if( entries.containsKey( p ) )
+				++ indexed;
+		}
+		if( indexed != entries.size() ) {
+			HashSet< Path > present = new HashSet< Path >( allPaths );
+			ArrayList< Path > gone = new ArrayList< Path >();
+			for( Path p : entries.keySet() )
+				if( ! present.contains( p ) )
+					gone.add( p );
+			for( Path p : gone )
+				removePath( p );
+		}
+	}
+
+	/* Gives the same result as looking at all the points of all the
+	   paths in order of distance (see
+	   PathAndFillManager.nearestPointOnAnyPath), but only the points
+	   in the cells around (x,y,z) are ordered: the cells are visited
+	   in growing shells, and a point is only taken from the queue once
+	   no unvisited cell can have a closer one. */
+
+	synchronized NearPoint nearestPointOnAnyPath( double x, double y, double z, double distanceLimit ) {
+
+		if( cells.isEmpty() )
+			return null;
+
+		double limitSquared = distanceLimit * distanceLimit;
+
+		int cx = cellCoordinate( x );
+		int cy = cellCoordinate( y );
+		int cz = cellCoordinate( z );
+
+		/* Shells closer than the bounding box of the cells are
+		   empty, and beyond this one there is nothing left: */
+		int firstShell = Math.max( 0, Math.max( Math.max( minCX - cx, cx - maxCX ),
+							Math.max( Math.max( minCY - cy, cy - maxCY ),
+								  Math.max( minCZ - cz, cz - maxCZ ) ) ) );
+		int lastShell = Math.max( Math.max( Math.abs( minCX - cx ), Math.abs( maxCX - cx ) ),
+					  Math.max( Math.max( Math.abs( minCY - cy ), Math.abs( maxCY - cy ) ),
+						    Math.max( Math.abs( minCZ - cz ), Math.abs( maxCZ - cz ) ) ) );
+
+		if( (firstShell - 1) * cellSize > distanceLimit )
+			return null;
+
+		PriorityQueue< NearPoint > pq = new PriorityQueue< NearPoint >();
+
+		for( int r = firstShell; r <= lastShell; ++r ) {
+
+			/* Points closer than r cells to (x,y,z) have
+			   all been seen once this shell is added: */
+			double reached = r * cellSize;
+
+			addShell( pq, x, y, z, cx, cy, cz, r, limitSquared );
+
+			boolean last = r == lastShell || reached > distanceLimit;
+			double reachedSquared = reached * reached;
+			while( ! pq.isEmpty() && ( last || pq.peek().distanceToPathPointSquared() < reachedSquared ) ) {
+				NearPoint np = pq.poll();
+				if( np.distanceToPathNearPoint() >= 0 )
+					return np;
+			}
+			if( last )
+				return null;
+		}
+		return null;
+	}
+
+	/* Add the points of the cells at Chebyshev distance r of
+	   (cx,cy,cz) that are within the distance limit: */
+
+	void addShell( PriorityQueue< NearPoint > pq,
+		       double x, double y, double z,
+		       int cx, int cy, int cz, int r,
+		       double limitSquared ) {
+		int x0 = Math.max( cx - r, minCX ), x1 = Math.min( cx + r, maxCX );
+		int y0 = Math.max( cy - r, minCY ), y1 = Math.min( cy + r, maxCY );
+		int z0 = Math.max( cz - r, minCZ ), z1 = Math.min( cz + r, maxCZ );
+		for( int i = x0; i <= x1; ++i ) {
+			boolean onXFace = Math.abs( i - cx ) == r;
+			for( int j = y0; j <= y1; ++j ) {
+				boolean onFace = onXFace || Math.abs( j - cy ) == r;
+				// Inside the shell, only the two z faces:
+				int step = onFace ? 1 : 2 * r;
+				for( int k = onFace ? z0 : cz - r; k <= z1; k += step ) {
+					if( k < z0 )
+						continue;
+					Cell cell = cells.get( key( i, j, k ) );
+					if( cell == null )
+						continue;
+					for( int n = 0; n < cell.size; ++n ) {
+						NearPoint np = new NearPoint( x, y, z, cell.entries[n].path, cell.indices[n] );
+						if( np.distanceToPathPointSquared() <= limitSquared )
+							pq.add( np );
+					}
+				}
+			}
+		}
+	}
+}
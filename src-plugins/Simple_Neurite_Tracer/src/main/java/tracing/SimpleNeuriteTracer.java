@@ -60,6 +60,7 @@
 import amira.AmiraParameters;
 
 import features.SigmaPalette;
+import features.HessianEigenvalues;
 import features.TubenessProcessor;
 
 import ij.plugin.ZProjector;
@@ -825,6 +826,9 @@ synchronized void testPathTo( double world_x, double world_y, double world_z, Po
 				tubeness,
 				hessianEnabled );
 
+			if( hessianEnabled )
+				currentSearchThread.setHessianMeasure( hessianMeasure );
+
 			addThreadToDraw( currentSearchThread );
 
 			currentSearchThread.setDrawingColors( Color.CYAN, null );
@@ -1286,18 +1290,48 @@ public void startHessian() {
 			resultsDialog.changeState(NeuriteTracerResultsDialog.CALCULATING_GAUSSIAN);
 			hessianSigma = resultsDialog.getSigma();
 			hessian = new ComputeCurvatures( xy, hessianSigma, this, true );
-			new Thread(hessian).start();
+			startHessianThread( hessian );
 		} else {
 			double newSigma = resultsDialog.getSigma();
 			if( newSigma != hessianSigma ) {
 				resultsDialog.changeState(NeuriteTracerResultsDialog.CALCULATING_GAUSSIAN);
 				hessianSigma = newSigma;
 				hessian = new ComputeCurvatures( xy, hessianSigma, this, true );
-				new Thread(hessian).start();
+				startHessianThread( hessian );
 			}
 		}
 	}
 
+	/* The Hessian-based measure for every point, calculated in the
+	   background once the Gaussian is available.  Until it is (or
+	   if there was not enough memory for it) the search threads
+	   calculate the eigenvalues at each point they visit. */
+
+	volatile float [][] hessianMeasure;
+
+	protected void startHessianThread( final ComputeCurvatures c ) {
+		hessianMeasure = null;
+		new Thread() {
+			public void run() {
+				c.run();
+				if( hessian != c )
+					return;
+				try {
+					HessianEigenvalues engine = new HessianEigenvalues( c );
+					engine.setFixUp( true );
+					// the same measure as TracerThread uses
+					float [][] measure = engine.compute( new TubenessProcessor( false ) );
+					if( hessian == c )
+						hessianMeasure = measure;
+				} catch( IllegalArgumentException e ) {
+					// the Gaussian was not calculated
+				} catch( OutOfMemoryError e ) {
+					IJ.log( "Not enough memory to cache the Hessian measure; it is calculated while tracing instead." );
+				}
+			}
+		}.start();
+	}
+
 	// Even better, we might have a "tubeness" file already there.
 	// If this is non-null then we found the "tubeness" file
 	// (called foo.tubes.tif) on startup and loaded it
@@ -28,6 +28,7 @@
 package tracing;
 
 import features.ComputeCurvatures;
+import features.TubenessProcessor;
 
 import ij.ImagePlus;
 
@@ -82,6 +83,16 @@ protected double minimumCostPerUnitDistance( ) {
 	float [][] tubeness;
 	boolean useHessian;
 
+	/* If set, the Hessian measure (as calculated by
+	   TubenessProcessor) for every point, so that the eigenvalues
+	   need not be calculated during the search. */
+
+	float [][] hessianMeasure;
+
+	public void setHessianMeasure( float [][] hessianMeasure ) {
+		this.hessianMeasure = hessianMeasure;
+	}
+
 	boolean singleSlice;
 
         /* If you specify 0 for timeoutSeconds then there is no timeout. */
@@ -171,6 +182,32 @@ public Path getResult( ) {
          * used in calculating the heuristic for how far a given point
          * is from the goal. */
 
+	/* The Hessian measure, whether it is taken from
+	   hessianMeasure or calculated during the search. */
+
+	static final TubenessProcessor hessianMeasureFunction = new TubenessProcessor( false );
+
+	/* The cost of moving to a point with the given Hessian
+	   measure; a measure of zero means that the curvature is in
+	   the wrong direction (or could not be calculated). */
+
+	protected double costFromMeasure( double measure ) {
+
+		if( measure > 0 ) {
+
+			measure *= multiplier;
+			if( measure > 256 )
+				measure = 256;
+
+			return 1 / measure;
+
+		} else {
+
+			return 1 / 0.2;
+
+		}
+	}
+
 	@Override
         protected double costMovingTo( int new_x, int new_y, int new_z ) {
 
@@ -199,11 +236,22 @@ protected double costMovingTo( int new_x, int new_y, int new_z ) {
 
 		if( useHessian ) {
 
-			if( tubeness == null ) {
+			if( tubeness == null && hessianMeasure != null ) {
+
+				cost = costFromMeasure( hessianMeasure[new_z][new_y*width+new_x] );
+
+			} else if( tubeness == null ) {
+
+				/* Calculate the same measure as was cached, with
+				   the same (float) arithmetic, so that the path
+				   found does not depend on whether the cache was
+				   ready. */
+
+				float measure = 0;
 
 				if( singleSlice ) {
 
-					double [] hessianEigenValues = new double[2];
+					float [] hessianEigenValues = new float[2];
 
 					boolean real = hessian.hessianEigenvaluesAtPoint2D( new_x, new_y,
 											    true, hessianEigenValues, false, true, x_spacing, y_spacing );
@@ -212,27 +260,12 @@ protected double costMovingTo( int new_x, int new_y, int new_z ) {
 					// of the largest eigenvalue
 					// (if it's < 0)
 
-					if( real && (hessianEigenValues[1] < 0) ) {
-
-						double measure = Math.abs( hessianEigenValues[1] );
-						if( measure == 0 ) // This should never happen in practice...
-							measure = 0.2;
-
-						measure *= multiplier;
-						if( measure > 256 )
-							measure = 256;
-
-						cost = 1 / measure;
-
-					} else {
-
-						cost = 1 / 0.2;
-
-					}
+					if( real )
+						measure = hessianMeasureFunction.measureFromEvalues2D( hessianEigenValues );
 
 				} else {
 
-					double [] hessianEigenValues = new double[3];
+					float [] hessianEigenValues = new float[3];
 
 					boolean real = hessian.hessianEigenvaluesAtPoint3D( new_x, new_y, new_z,
 											    true, hessianEigenValues, false, true, x_spacing, y_spacing, z_spacing );
@@ -244,30 +277,12 @@ pick this rule (see Sato et al,
 					   curvilinear structures in medical images".
 					   The rule I'm using here probably isn't optimal. */
 
-					double e1 = hessianEigenValues[1];
-					double e2 = hessianEigenValues[2];
-
-					if( real && (e1 < 0) && (e2 < 0) ) {
-
-						double measure = Math.sqrt( e1 * e2 );
-
-						if( measure == 0 ) // This should never happen in practice...
-							measure = 0.2;
-
-						measure *= multiplier;
-						if( measure > 256 )
-							measure = 256;
-
-						cost = 1 / measure;
-
-					} else {
-
-						cost = 1 / 0.2;
-
-					}
+					if( real )
+						measure = hessianMeasureFunction.measureFromEvalues3D( hessianEigenValues );
 
 				}
 
+				cost = costFromMeasure( measure );
 
 			} else {
 
@@ -0,0 +1,176 @@
+/* -*- mode: java; c-basic-offset: 8; indent-tabs-mode: t; tab-width: 8 -*- */
+
+/* Checks the nearest point queries of PathSpatialIndex against
+   ordering every point of every path, on a large random arbor.  Run
+   main() to compare the time both take on a larger one. */
+
+package tracing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class PathSpatialIndexTest {
+
+	ArrayList< Path > paths;
+	Random random;
+
+	/* Branches are random walks of unit steps, each starting
+	   from a point of an earlier branch: */
+
+	Path randomBranch( double x, double y, double z, int points ) {
+		Path p = new Path( 1, 1, 1, "pixels" );
+		double dx = random.nextGaussian(), dy = random.nextGaussian(), dz = random.nextGaussian();
+		for( int i = 0; i < points; ++i ) {
+			p.addPointDouble( x, y, z );
+			dx += 0.3 * random.nextGaussian();
+			dy += 0.3 * random.nextGaussian();
+			dz += 0.3 * random.nextGaussian();
+			double l = Math.sqrt( dx * dx + dy * dy + dz * dz );
+			dx /= l; dy /= l; dz /= l;
+			x += dx; y += dy; z += dz;
+		}
+		return p;
+	}
+
+	ArrayList< Path > randomArbor( int branches, int pointsPerBranch ) {
+		ArrayList< Path > result = new ArrayList< Path >();
+		result.add( randomBranch( 0, 0, 0, pointsPerBranch ) );
+		while( result.size() < branches ) {
+			Path parent = result.get( random.nextInt( result.size() ) );
+			int i = random.nextInt( parent.size() );
+			result.add( randomBranch( parent.precise_x_positions[i],
+						  parent.precise_y_positions[i],
+						  parent.precise_z_positions[i],
+						  pointsPerBranch ) );
+		}
+		return result;
+	}
+
+	/* What nearestPointOnAnyPath used to do: */
+
+	static NearPoint exhaustiveNearestPoint( ArrayList< Path > allPaths, double x, double y, double z, double distanceLimit ) {
+		PriorityQueue< NearPoint > pq = new PriorityQueue< NearPoint >();
+		for( Path path : allPaths ) {
+			if( ! path.versionInUse() )
+				continue;
+			for( int j = 0; j < path.size(); ++j )
+				pq.add( new NearPoint( x, y, z, path, j ) );
+		}
+		while( true ) {
+			NearPoint np = pq.poll();
+			if( np == null )
+				return null;
+			if( np.distanceToPathPointSquared() > (distanceLimit * distanceLimit) )
+				return null;
+			if( np.distanceToPathNearPoint() >= 0 )
+				return np;
+		}
+	}
+
+	static void assertSameNearPoint( NearPoint expected, NearPoint actual ) {
+		if( expected == null ) {
+			assertNull( actual );
+			return;
+		}
+		assertNotNull( actual );
+		assertSame( expected.getPath(), actual.getPath() );
+		assertEquals( expected.distanceToPathPointSquared(), actual.distanceToPathPointSquared(), 0 );
+		assertEquals( expected.distanceToPathNearPoint(), actual.distanceToPathNearPoint(), 0 );
+	}
+
+	@Before
+	public void setUp() {
+		random = new Random( 1234 );
+		paths = randomArbor( 300, 400 );
+	}
+
+	@Test
+	public void testSameAsExhaustive() {
+		PathSpatialIndex index = new PathSpatialIndex();
+		index.update( paths );
+		for( int q = 0; q < 200; ++q ) {
+			double x = 60 * random.nextGaussian();
+			double y = 60 * random.nextGaussian();
+			double z = 60 * random.nextGaussian();
+			double limit = q % 2 == 0 ? 1000 : 10 * random.nextDouble();
+			assertSameNearPoint( exhaustiveNearestPoint( paths, x, y, z, limit ),
+					     index.nearestPointOnAnyPath( x, y, z, limit ) );
+		}
+	}
+
+	@Test
+	public void testEditedAndDeletedPaths() {
+		PathSpatialIndex index = new PathSpatialIndex();
+		index.update( paths );
+		// Extend a path, delete another one, and add a new one:
+		Path extended = paths.get( 7 );
+		Path last = randomBranch( extended.precise_x_positions[extended.size()-1],
+					  extended.precise_y_positions[extended.size()-1],
+					  extended.precise_z_positions[extended.size()-1], 200 );
+		extended.add( last );
+		index.removePath( paths.remove( 11 ) );
+		paths.add( randomBranch( 5, 5, 5, 300 ) );
+		index.update( paths );
+		for( int q = 0; q < 100; ++q ) {
+			double x = 60 * random.nextGaussian();
+			double y = 60 * random.nextGaussian();
+			double z = 60 * random.nextGaussian();
+			assertSameNearPoint( exhaustiveNearestPoint( paths, x, y, z, 1000 ),
+					     index.nearestPointOnAnyPath( x, y, z, 1000 ) );
+		}
+	}
+
+	/* Not a test, as it is slow: returns the time taken for
+	   indexing and for the queries with and without the index. */
+
+	String benchmark() {
+		paths = randomArbor( 1000, 500 );
+		PathSpatialIndex index = new PathSpatialIndex();
+		long start = System.nanoTime();
+		index.update( paths );
+		long indexed = System.nanoTime();
+
+		int queries = 20;
+		double [][] points = new double[queries][3];
+		for( int q = 0; q < queries; ++q ) {
+			Path p = paths.get( random.nextInt( paths.size() ) );
+			int i = random.nextInt( p.size() );
+			points[q][0] = p.precise_x_positions[i] + random.nextGaussian();
+			points[q][1] = p.precise_y_positions[i] + random.nextGaussian();
+			points[q][2] = p.precise_z_positions[i] + random.nextGaussian();
+		}
+
+		long exhaustiveTime = 0, indexTime = 0;
+		for( int q = 0; q < queries; ++q ) {
+			double [] p = points[q];
+			long t0 = System.nanoTime();
+			NearPoint expected = exhaustiveNearestPoint( paths, p[0], p[1], p[2], 10000 );
+			long t1 = System.nanoTime();
+			index.update( paths );
+			NearPoint actual = index.nearestPointOnAnyPath( p[0], p[1], p[2], 10000 );
+			long t2 = System.nanoTime();
+			assertSameNearPoint( expected, actual );
+			exhaustiveTime += t1 - t0;
+			indexTime += t2 - t1;
+		}
+		return "Nearest point on "+paths.size()+" paths of 500 points: indexed in "+
+			(indexed - start) / 1000000 + "ms, then "+
+			exhaustiveTime / queries / 1000 + "us per query for all points, "+
+			indexTime / queries / 1000 + "us per query with the index";
+	}
+
+	public static void main( String [] args ) {
+		PathSpatialIndexTest test = new PathSpatialIndexTest();
+		test.setUp();
+		System.out.println( test.benchmark() );
+	}
+}
@@ -0,0 +1,159 @@
+package org.siox;
+
+import java.util.Arrays;
+
+/**
+ * Caches the classification of colors by <code>SioxSegmentator</code>:
+ * for each 24-bit RGB value, the squared distance to and the index of the
+ * nearest cluster of the background and of the foreground signature.
+ * <P>
+ * The entries are kept in parallel primitive arrays with open addressing
+ * (linear probing), so that neither the keys nor the entries are boxed.
+ * The alpha channel is ignored, as it does not take part in the
+ * classification.
+ * <P>
+ * Lookups may be made from several threads while nothing is added.
+ */
+final class ClassificationCache
+{
+
+	/** Marks a free slot; no 24-bit value is negative. */
+	private static final int FREE=-1;
+
+	private int[] keys;
+	private float[] minBgDist;
+	private int[] indexMinBg;
+	private float[] minFgDist;
+	private int[] indexMinFg;
+
+	/** Number of cached colors. */
+	private int size;
+
+	ClassificationCache()
+	{
+		allocate(1<<12);
+	}
+
+	private void allocate(int capacity)
+	{
+		keys=new int[capacity];
+		Arrays.fill(keys, FREE);
+		minBgDist=new float[capacity];
+		indexMinBg=new int[capacity];
+		minFgDist=new float[capacity];
+		indexMinFg=new int[capacity];
+		size=0;
+	}
+
+	private static int hash(int key)
+	{
+		final int h=key*0x9E3779B1;
+		return h^(h>>>16);
+	}
+
+	/** Forgets all cached colors, keeping the allocated space. */
+	void clear()
+	{
+		if (size>0) {
+			Arrays.fill(keys, FREE);
+			size=0;
+		}
+	}
+
+	/** @return the number of cached colors. */
+	int size()
+	{
+		return size;
+	}
+
+	/**
+	 * @param rgb the color.
+	 * @return the slot of the color, or -1 if it is not cached.
+	 */
+	int slot(int rgb)
+	{
+		final int key=rgb&0xFFFFFF;
+		final int mask=keys.length-1;
+		for (int i=hash(key)&mask; ; i=(i+1)&mask) {
+			if (keys[i]==key) {
+				return i;
+			}
+			if (keys[i]==FREE) {
+				return -1;
+			}
+		}
+	}
+
+	/**
+	 * Stores the classification of a color, replacing any previous one.
+	 *
+	 * @return the slot of the color.
+	 */
+	int put(int rgb, float minBg, int indexBg, float minFg, int indexFg)
+	{
+		if (2*(size+1)>keys.length) {
+			grow();
+		}
+		final int key=rgb&0xFFFFFF;
+		final int mask=keys.length-1;
+		int i=hash(key)&mask;
+		while (keys[i]!=key && keys[i]!=FREE) {
+			i=(i+1)&mask;
+		}
+		if (keys[i]==FREE) {
+			keys[i]=key;
+			size++;
+		}
+		set(i, minBg, indexBg, minFg, indexFg);
+		return i;
+	}
+
+	/**
+	 * Sets the classification in a slot returned by <code>put</code>.
+	 * Different slots may be set from different threads.
+	 */
+	void set(int slot, float minBg, int indexBg, float minFg, int indexFg)
+	{
+		minBgDist[slot]=minBg;
+		indexMinBg[slot]=indexBg;
+		minFgDist[slot]=minFg;
+		indexMinFg[slot]=indexFg;
+	}
+
+	private void grow()
+	{
+		final int[] oldKeys=keys;
+		final float[] oldMinBg=minBgDist, oldMinFg=minFgDist;
+		final int[] oldIndexBg=indexMinBg, oldIndexFg=indexMinFg;
+		allocate(2*oldKeys.length);
+		for (int i=0; i<oldKeys.length; i++) {
+			if (oldKeys[i]!=FREE) {
+				put(oldKeys[i], oldMinBg[i], oldIndexBg[i], oldMinFg[i], oldIndexFg[i]);
+			}
+		}
+	}
+
+	/** @return the squared distance to the nearest background cluster. */
+	float minBgDist(int slot)
+	{
+		return minBgDist[slot];
+	}
+
+	/** @return the index of the nearest background cluster. */
+	int indexMinBg(int slot)
+	{
+		return indexMinBg[slot];
+	}
+
+	/** @return the squared distance to the nearest foreground cluster. */
+	float minFgDist(int slot)
+	{
+		return minFgDist[slot];
+	}
+
+	/** @return the index of the nearest foreground cluster. */
+	int indexMinFg(int slot)
+	{
+		return indexMinFg[slot];
+	}
+}
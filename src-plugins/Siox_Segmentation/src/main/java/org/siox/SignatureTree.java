@@ -0,0 +1,124 @@
+package org.siox;
+
+import java.util.Arrays;
+
+import org.siox.util.Utils;
+
+/**
+ * A k-d tree over the clusters of a color signature, to find the cluster
+ * nearest to a color without measuring the distance to every cluster.
+ * <P>
+ * The result is the same as that of a linear scan over the signature:
+ * the smallest squared distance as computed by
+ * <code>Utils.sqrEuclidianDist</code>, and the lowest index among clusters
+ * at that distance. A subtree is only skipped when the distance to its
+ * splitting plane alone exceeds the best distance so far, which holds for
+ * float arithmetic as well, since rounding is monotonic.
+ * <P>
+ * The tree is not modified by searches, which may run in several threads.
+ */
+final class SignatureTree
+{
+
+	/** Number of dimensions searched: l, a and b. */
+	private static final int DIMS=3;
+
+	private final float[][] signature;
+
+	/**
+	 * Cluster indices, arranged so that the median of each range is the
+	 * node splitting it, on axis depth%DIMS.
+	 */
+	private final int[] order;
+
+	/**
+	 * @param signature the clusters, as created by
+	 *        <code>ColorSignature.createSignature</code>.
+	 */
+	SignatureTree(float[][] signature)
+	{
+		this.signature=signature;
+		order=new int[signature.length];
+		for (int i=0; i<order.length; i++) {
+			order[i]=i;
+		}
+		build(0, order.length, 0);
+	}
+
+	private void build(int from, int to, int depth)
+	{
+		if (to-from<2) {
+			return;
+		}
+		final int axis=depth%DIMS;
+		// sort by the coordinate, breaking ties by index
+		final long[] keys=new long[to-from];
+		for (int i=from; i<to; i++) {
+			keys[i-from]=((long)sortable(signature[order[i]][axis])<<32)|order[i];
+		}
+		Arrays.sort(keys);
+		for (int i=from; i<to; i++) {
+			order[i]=(int)keys[i-from];
+		}
+		final int mid=(from+to)>>>1;
+		build(from, mid, depth+1);
+		build(mid+1, to, depth+1);
+	}
+
+	/** Maps a float to an int of the same order. */
+	private static int sortable(float f)
+	{
+		final int bits=Float.floatToIntBits(f);
+		return bits^((bits>>31)&0x7FFFFFFF);
+	}
+
+	/** @return the number of clusters. */
+	int size()
+	{
+		return order.length;
+	}
+
+	/**
+	 * Finds the cluster nearest to a color.
+	 *
+	 * @param lab the color, in LAB space.
+	 * @param dist receives the squared distance in <code>dist[0]</code>,
+	 *        <code>Float.MAX_VALUE</code> if the signature is empty.
+	 * @return the index of the nearest cluster, or -1 if the signature
+	 *         is empty.
+	 */
+	int nearest(float[] lab, float[] dist)
+	{
+		dist[0]=Float.MAX_VALUE;
+		return search(lab, 0, order.length, 0, dist, -1);
+	}
+
+	private int search(float[] lab, int from, int to, int depth, float[] best, int bestIndex)
+	{
+		if (from>=to) {
+			return bestIndex;
+		}
+		final int mid=(from+to)>>>1;
+		final int index=order[mid];
+		final float[] node=signature[index];
+		final float d=Utils.sqrEuclidianDist(lab, node);
+		if (d<best[0] || (d==best[0] && index<bestIndex)) {
+			best[0]=d;
+			bestIndex=index;
+		}
+		final int axis=depth%DIMS;
+		final float diff=lab[axis]-node[axis];
+		if (diff<0) {
+			bestIndex=search(lab, from, mid, depth+1, best, bestIndex);
+			if (diff*diff<=best[0]) {
+				bestIndex=search(lab, mid+1, to, depth+1, best, bestIndex);
+			}
+		} else {
+			bestIndex=search(lab, mid+1, to, depth+1, best, bestIndex);
+			if (diff*diff<=best[0]) {
+				bestIndex=search(lab, from, mid, depth+1, best, bestIndex);
+			}
+		}
+		return bestIndex;
+	}
+}
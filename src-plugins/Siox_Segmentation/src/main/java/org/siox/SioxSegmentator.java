@@ -19,6 +19,10 @@
 import java.awt.Rectangle;
 import java.awt.geom.Area;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ij.Prefs;
+import ij.util.ThreadUtil;
 
 import org.siox.util.*;
 
@@ -140,9 +144,10 @@
 	private final float clusterSize;
 
 	/**
-	 * Stores Tupels for fast access to nearest background/foreground pixels.
+	 * Caches the nearest background/foreground clusters of the colors
+	 * classified so far, for detail refinement and speedup purposes.
 	 */
-	private final IntHashMap hs=new IntHashMap();
+	private final ClassificationCache hs=new ClassificationCache();
 
 	/** Size of the biggest blob.*/
 	private int regionCount;
@@ -286,74 +291,8 @@ else if (cm[i]>=FOREGROUND_CONFIDENCE)
 			return false;
 		}
 
-		// classify using color signatures,
-		// classification cached in hashmap for drb and speedup purposes
-		for (int i=0; i<cm.length; i++) 
-		{
-			if (cm[i]>=FOREGROUND_CONFIDENCE) 
-			{
-				cm[i]=CERTAIN_FOREGROUND_CONFIDENCE;
-				continue;
-			}
-			else if (cm[i]>BACKGROUND_CONFIDENCE) 
-			{
-				Tupel tupel=(Tupel)hs.get(image[i]);
-				boolean isBackground=true;
-				if (tupel == null) 
-				{
-					tupel=new Tupel(0f, 0, 0f, 0);
-					final float[] lab=Utils.rgbToClab(image[i]);
-					float minBg=Utils.sqrEuclidianDist(lab, bgSignature[0]);
-					int minIndex=0;
-					for (int j=1; j<bgSignature.length; j++) 
-					{
-						final float d=Utils.sqrEuclidianDist(lab, bgSignature[j]);
-						if (d<minBg) 
-						{
-							minBg=d;
-							minIndex=j;
-						}
-					}
-					tupel.minBgDist=minBg;
-					tupel.indexMinBg=minIndex;
-					float minFg=Float.MAX_VALUE;
-					minIndex=-1;
-					for (int j=0; j<fgSignature.length; j++) {
-						final float d=Utils.sqrEuclidianDist(lab, fgSignature[j]);
-						if (d<minFg) {
-							minFg=d;
-							minIndex=j;
-						}
-					}
-					tupel.minFgDist=minFg;
-					tupel.indexMinFg=minIndex;
-					if (fgSignature.length==0) {
-						isBackground=(minBg<=clusterSize);
-						// remove next line to force behavior of old algorithm
-						throw new IllegalStateException("foreground signature does not exist");
-					} else {
-						isBackground=minBg<minFg;
-					}
-					hs.put(image[i], tupel);
-				} 
-				else 
-				{
-					isBackground=tupel.minBgDist<=tupel.minFgDist;
-				}
-				if (isBackground) 
-				{
-					cm[i]=CERTAIN_BACKGROUND_CONFIDENCE;
-				} 
-				else 
-				{
-					cm[i]=CERTAIN_FOREGROUND_CONFIDENCE;
-				}
-			} 
-			else 
-			{
-				cm[i]=CERTAIN_BACKGROUND_CONFIDENCE;
-			}
-		}
+		// classify using color signatures
+		classify(image, cm);
 
 		// postprocessing
 		Utils.smoothcm(cm, imgWidth, imgHeight, 0.33f, 0.33f, 0.33f); // average
@@ -445,74 +384,8 @@ else if (cm[i]>=FOREGROUND_CONFIDENCE)
 			return false;
 		}
 
-		// classify using color signatures,
-		// classification cached in hashmap for drb and speedup purposes
-		for (int i=0; i<cm.length; i++) 
-		{
-			if (cm[i]>=FOREGROUND_CONFIDENCE) 
-			{
-				cm[i]=CERTAIN_FOREGROUND_CONFIDENCE;
-				continue;
-			}
-			else if (cm[i]>BACKGROUND_CONFIDENCE) 
-			{
-				Tupel tupel=(Tupel)hs.get(image[i]);
-				boolean isBackground=true;
-				if (tupel == null) 
-				{
-					tupel=new Tupel(0f, 0, 0f, 0);
-					final float[] lab=Utils.rgbToClab(image[i]);
-					float minBg=Utils.sqrEuclidianDist(lab, bgSignature[0]);
-					int minIndex=0;
-					for (int j=1; j<bgSignature.length; j++) 
-					{
-						final float d=Utils.sqrEuclidianDist(lab, bgSignature[j]);
-						if (d<minBg) 
-						{
-							minBg=d;
-							minIndex=j;
-						}
-					}
-					tupel.minBgDist=minBg;
-					tupel.indexMinBg=minIndex;
-					float minFg=Float.MAX_VALUE;
-					minIndex=-1;
-					for (int j=0; j<fgSignature.length; j++) {
-						final float d=Utils.sqrEuclidianDist(lab, fgSignature[j]);
-						if (d<minFg) {
-							minFg=d;
-							minIndex=j;
-						}
-					}
-					tupel.minFgDist=minFg;
-					tupel.indexMinFg=minIndex;
-					if (fgSignature.length==0) {
-						isBackground=(minBg<=clusterSize);
-						// remove next line to force behavior of old algorithm
-						throw new IllegalStateException("foreground signature does not exist");
-					} else {
-						isBackground=minBg<minFg;
-					}
-					hs.put(image[i], tupel);
-				} 
-				else 
-				{
-					isBackground=tupel.minBgDist<=tupel.minFgDist;
-				}
-				if (isBackground) 
-				{
-					cm[i]=CERTAIN_BACKGROUND_CONFIDENCE;
-				} 
-				else 
-				{
-					cm[i]=CERTAIN_FOREGROUND_CONFIDENCE;
-				}
-			} 
-			else 
-			{
-				cm[i]=CERTAIN_BACKGROUND_CONFIDENCE;
-			}
-		}
+		// classify using color signatures
+		classify(image, cm);
 
 		// postprocessing
 		Utils.smoothcm(cm, imgWidth, imgHeight, 0.33f, 0.33f, 0.33f); // average
@@ -600,61 +473,8 @@ public boolean segmentatevideo_firstframe(int[] image, float[] cm, double sizeFa
 			return false;
 		}
 
-		// classify using color signatures,
-		// classification cached in hashmap for drb and speedup purposes
-		for (int i=0; i<cm.length; i++) {
-			if (cm[i]>=FOREGROUND_CONFIDENCE) {
-				cm[i]=CERTAIN_FOREGROUND_CONFIDENCE;
-				continue;
-			}
-			if (cm[i]>BACKGROUND_CONFIDENCE) {
-				Tupel tupel=(Tupel)hs.get(image[i]);
-				boolean isBackground=true;
-				if (tupel==null) {
-					tupel=new Tupel(0f, 0, 0f, 0);
-					final float[] lab=Utils.rgbToClab(image[i]);
-					float minBg=Utils.sqrEuclidianDist(lab, bgSignature[0]);
-					int minIndex=0;
-					for (int j=1; j<bgSignature.length; j++) {
-						final float d=Utils.sqrEuclidianDist(lab, bgSignature[j]);
-						if (d<minBg) {
-							minBg=d;
-							minIndex=j;
-						}
-					}
-					tupel.minBgDist=minBg;
-					tupel.indexMinBg=minIndex;
-					float minFg=Float.MAX_VALUE;
-					minIndex=-1;
-					for (int j=0; j<fgSignature.length; j++) {
-						final float d=Utils.sqrEuclidianDist(lab, fgSignature[j]);
-						if (d<minFg) {
-							minFg=d;
-							minIndex=j;
-						}
-					}
-					tupel.minFgDist=minFg;
-					tupel.indexMinFg=minIndex;
-					if (fgSignature.length==0) {
-						isBackground=(minBg<=clusterSize);
-						// remove next line to force behavior of old algorithm
-						throw new IllegalStateException("foreground signature does not exist");
-					} else {
-						isBackground=minBg<minFg;
-					}
-					hs.put(image[i], tupel);
-				} else {
-					isBackground=tupel.minBgDist<=tupel.minFgDist;
-				}
-				if (isBackground) {
-					cm[i]=CERTAIN_BACKGROUND_CONFIDENCE;
-				} else {
-					cm[i]=CERTAIN_FOREGROUND_CONFIDENCE;
-				}
-			} else {
-				cm[i]=CERTAIN_BACKGROUND_CONFIDENCE;
-			}
-		}
+		// classify using color signatures
+		classify(image, cm);
 		// postprocessing
 		Utils.smoothcm(cm, imgWidth, imgHeight, 0.33f, 0.33f, 0.33f); // average
 		Utils.normalizeMatrix(cm);				
@@ -702,70 +522,119 @@ public boolean segmentatevideo_nextframe(int[] image, float[] cm, double sizeFac
 		origImage=new int[image.length];
 		System.arraycopy(image, 0, origImage, 0, image.length);
 
-		// classify using color signatures,
-		// classification cached in hashmap for drb and speedup purposes
+		// classify using color signatures, the colors classified in
+		// previous frames are still cached
+		classify(image, cm);
+		// postprocessing
+		Utils.smoothcm(cm, imgWidth, imgHeight, 0.33f, 0.33f, 0.33f); // average
+		Utils.normalizeMatrix(cm);
+		keepOnlyLargeComponents(cm, UNKNOWN_REGION_CONFIDENCE, sizeFactorToKeep);
+		segmentated=true;
+		return true;
+	}
+
+	/**
+	 * Classifies the pixels of unknown affiliation by the nearest clusters
+	 * of the color signatures, and marks the other pixels as certain
+	 * foreground or background.
+	 * <P>
+	 * The classification of each color is cached in <code>hs</code>. The
+	 * colors not cached yet are collected first, their nearest clusters are
+	 * then searched in the signature trees in parallel, and finally the
+	 * confidences of the pixels are set in parallel, by blocks of rows.
+	 *
+	 * @param image Pixel data of the image to be segmented.
+	 * @param cm Confidence matrix, overwritten with the classification.
+	 * @exception IllegalStateException if a color has to be classified
+	 *         but there is no foreground signature.
+	 */
+	private void classify(final int[] image, final float[] cm)
+	{
+		// colors not cached yet, and the first pixel of each
+		final IntArrayList newColors=new IntArrayList();
+		final IntArrayList firstPixels=new IntArrayList();
 		for (int i=0; i<cm.length; i++) {
-			if (cm[i]>=FOREGROUND_CONFIDENCE) {
-				cm[i]=CERTAIN_FOREGROUND_CONFIDENCE;
-				continue;
+			if (cm[i]<FOREGROUND_CONFIDENCE && cm[i]>BACKGROUND_CONFIDENCE && hs.slot(image[i])<0) {
+				if (fgSignature.length==0) {
+					throw new IllegalStateException("foreground signature does not exist");
+				}
+				hs.put(image[i], 0f, -1, 0f, -1); // filled in below
+				newColors.add(image[i]);
+				firstPixels.add(i);
 			}
-			if (cm[i]>BACKGROUND_CONFIDENCE) {
-				Tupel tupel=(Tupel)hs.get(image[i]);
-				boolean isBackground=true;
-				if (tupel==null) {
-					tupel=new Tupel(0f, 0, 0f, 0);
-					final float[] lab=Utils.rgbToClab(image[i]);
-					float minBg=Utils.sqrEuclidianDist(lab, bgSignature[0]);
-					int minIndex=0;
-					for (int j=1; j<bgSignature.length; j++) {
-						final float d=Utils.sqrEuclidianDist(lab, bgSignature[j]);
-						if (d<minBg) {
-							minBg=d;
-							minIndex=j;
+		}
+
+		if (newColors.size()>0) {
+			final int[] colors=newColors.toArray();
+			final SignatureTree bgTree=new SignatureTree(bgSignature);
+			final SignatureTree fgTree=new SignatureTree(fgSignature);
+			// the colors are classified by chunks of 1024
+			final int colorChunks=(colors.length+1023)/1024;
+			final AtomicInteger ai=new AtomicInteger(0);
+			final Thread[] threads=ThreadUtil.createThreadArray(Math.min(colorChunks, Prefs.getThreads()));
+			for (int ithread=0; ithread<threads.length; ithread++) {
+				threads[ithread]=new Thread() {
+					public void run() {
+						final float[] dist=new float[1];
+						for (int c=ai.getAndIncrement(); c<colorChunks; c=ai.getAndIncrement()) {
+							final int to=Math.min(colors.length, (c+1)*1024);
+							for (int k=c*1024; k<to; k++) {
+								final float[] lab=Utils.rgbToClabUncached(colors[k]);
+								final int indexMinBg=bgTree.nearest(lab, dist);
+								final float minBg=dist[0];
+								final int indexMinFg=fgTree.nearest(lab, dist);
+								hs.set(hs.slot(colors[k]), minBg, indexMinBg, dist[0], indexMinFg);
+							}
 						}
 					}
-					tupel.minBgDist=minBg;
-					tupel.indexMinBg=minIndex;
-					float minFg=Float.MAX_VALUE;
-					minIndex=-1;
-					for (int j=0; j<fgSignature.length; j++) {
-						final float d=Utils.sqrEuclidianDist(lab, fgSignature[j]);
-						if (d<minFg) {
-							minFg=d;
-							minIndex=j;
+				};
+			}
+			ThreadUtil.startAndJoin(threads);
+		}
+
+		// the pixels are classified by chunks of 16 rows
+		final int rowChunk=16*imgWidth;
+		final int pixelChunks=(cm.length+rowChunk-1)/rowChunk;
+		final AtomicInteger ai=new AtomicInteger(0);
+		final Thread[] threads=ThreadUtil.createThreadArray(Math.max(1, Math.min(pixelChunks, Prefs.getThreads())));
+		for (int ithread=0; ithread<threads.length; ithread++) {
+			threads[ithread]=new Thread() {
+				public void run() {
+					for (int c=ai.getAndIncrement(); c<pixelChunks; c=ai.getAndIncrement()) {
+						final int to=Math.min(cm.length, (c+1)*rowChunk);
+						for (int i=c*rowChunk; i<to; i++) {
+							if (cm[i]>=FOREGROUND_CONFIDENCE) {
+								cm[i]=CERTAIN_FOREGROUND_CONFIDENCE;
+							} else if (cm[i]>BACKGROUND_CONFIDENCE) {
+								final int slot=hs.slot(image[i]);
+								if (hs.minBgDist(slot)<=hs.minFgDist(slot)) {
+									cm[i]=CERTAIN_BACKGROUND_CONFIDENCE;
+								} else {
+									cm[i]=CERTAIN_FOREGROUND_CONFIDENCE;
+								}
+							} else {
+								cm[i]=CERTAIN_BACKGROUND_CONFIDENCE;
+							}
 						}
 					}
-					tupel.minFgDist=minFg;
-					tupel.indexMinFg=minIndex;
-					if (fgSignature.length==0) {
-						isBackground=(minBg<=clusterSize);
-						// remove next line to force behaviour of old algorithm
-						throw new IllegalStateException("foreground signature does not exist");
-					} else {
-						isBackground=minBg<minFg;
-					}
-					hs.put(image[i], tupel);
-				} else {
-					isBackground=tupel.minBgDist<=tupel.minFgDist;
-				}
-				if (isBackground) {
-					cm[i]=CERTAIN_BACKGROUND_CONFIDENCE;
-				} else {
-					cm[i]=CERTAIN_FOREGROUND_CONFIDENCE;
 				}
-			} else {
+			};
+		}
+		ThreadUtil.startAndJoin(threads);
+
+		// the first pixel of a newly classified color has always been
+		// background only if strictly nearer to the background
+		for (int k=0; k<firstPixels.size(); k++) {
+			final int i=firstPixels.get(k);
+			final int slot=hs.slot(image[i]);
+			if (hs.minBgDist(slot)<hs.minFgDist(slot)) {
 				cm[i]=CERTAIN_BACKGROUND_CONFIDENCE;
+			} else {
+				cm[i]=CERTAIN_FOREGROUND_CONFIDENCE;
 			}
 		}
-		// postprocessing
-		Utils.smoothcm(cm, imgWidth, imgHeight, 0.33f, 0.33f, 0.33f); // average
-		Utils.normalizeMatrix(cm);
-		keepOnlyLargeComponents(cm, UNKNOWN_REGION_CONFIDENCE, sizeFactorToKeep);
-		segmentated=true;
-		return true;
 	}
 
-
 	/**
 	 * Clears given confidence matrix except entries for the largest connected
 	 * component and every component with
@@ -1038,11 +907,11 @@ public void subpixelRefine(Area area, String brushmode, float threshold, float[]
 				}
 				int val=origImage[ey*imgWidth+ex];
 				final int orig=val;
-				final Tupel tupel=(Tupel)hs.get(val);
+				final int slot=hs.slot(val);
 				final float minDistBg, minDistFg;
-				if (tupel!=null) {
-					minDistBg=(float)Math.sqrt(tupel.minBgDist);
-					minDistFg=(float)Math.sqrt(tupel.minFgDist);
+				if (slot>=0) {
+					minDistBg=(float)Math.sqrt(hs.minBgDist(slot));
+					minDistFg=(float)Math.sqrt(hs.minFgDist(slot));
 				} else {
 					continue;
 				}
@@ -1155,26 +1024,6 @@ private void fillColorRegions(float[] cm, int[] image)
 		}
 	}
 
-	/**
-	 * Helper class for storing the minimum distances to a cluster centroid
-	 * in background and foreground and the index to the centroids in each
-	 * signature for a given color.
-	 */
-	private final class Tupel{
-		float minBgDist;
-		int indexMinBg;
-		float minFgDist;
-		int indexMinFg;
-
-		Tupel(float minBgDist, int indexMinBg, float minFgDist, int indexMinFg)
-		{
-			this.minBgDist=minBgDist;
-			this.indexMinBg=indexMinBg;
-			this.minFgDist=minFgDist;
-			this.indexMinFg=indexMinFg;
-		}
-	}
-	
 	/** Get background signature */
 	public float[][] getBgSignature(){ return this.bgSignature;}
 	/** Get foreground signature */
@@ -423,7 +423,7 @@ public int[] toArray() {
   public int[] toArray(int[] a) {
 	if (a==null || a.length<size)
 	  a = new int[size];
-	System.arraycopy(data, size, a, 0, size);
+	System.arraycopy(data, 0, a, 0, size);
 	return a;
   }
 
@@ -318,7 +318,22 @@ public static float[] rgbToClab(int rgb)
 	if (lab!=null) {
 		return lab;
 	}
-	lab=new float[3];
+	lab=rgbToClabUncached(rgb);
+	RGB_TO_LAB.put(rgb, lab);
+	return lab;
+	}
+
+	/**
+	 * Converts 24-bit RGB values to {l,a,b} float values, like
+	 * <code>rgbToClab</code>, but without using the cache, which is not
+	 * synchronized. This may be called from several threads at once.
+	 *
+	 * @param rgb RGB color value,
+	 * @return CLAB color value tripel.
+	 */
+	public static float[] rgbToClabUncached(int rgb)
+	{
+	final float[] lab=new float[3];
 	final int R=getRed(rgb);
 	final int G=getGreen(rgb);
 	final int B=getBlue(rgb);
@@ -378,7 +393,6 @@ public static float[] rgbToClab(int rgb)
 	lab[1]=500f*(var_X-var_Y);
 	lab[2]=200f*(var_Y-var_Z);
 
-	RGB_TO_LAB.put(rgb, lab);
 	return lab;
 	}
 
@@ -456,6 +456,13 @@ public void setup( ) {
 
     }
 
+    /* The Gaussian calculated by setup( ), or null if it has not
+       been calculated (yet); used by HessianEigenvalues. */
+
+    FloatArray getGaussian( ) {
+        return data;
+    }
+
     // ------------------------------------------------------------------------
 
     /* There are four versions of the this function, for calculating
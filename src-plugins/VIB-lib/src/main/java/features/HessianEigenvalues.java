@@ -0,0 +1,462 @@
+/* -*- mode: java; c-basic-offset: 8; indent-tabs-mode: t; tab-width: 8 -*- */
+
+package features;
+
+import ij.IJ;
+import ij.Prefs;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+    Computes a measure derived from the eigenvalues of the Hessian
+    matrix at every point of a Gaussian-smoothed image.
+
+    ComputeCurvatures.hessianEigenvaluesAtPoint3D() allocates a
+    matrix and an Eigensystem3x3Float for every point it is called
+    for; this class instead works row by row: the Hessian components
+    of a whole row are computed into flat arrays, then the eigenvalues
+    are found in closed form for the whole row.  The slices are shared
+    out between several threads.
+
+    The arithmetic is exactly that of computeHessianMatrix3DFloat()
+    and Eigensystem3x3Float (and of their 2D counterparts), so the
+    results are identical to calling hessianEigenvaluesAtPoint3D()
+    (or hessianEigenvaluesAtPoint2D()) with orderOnAbsoluteSize set
+    and the same normalize and fixUp arguments.
+
+    With compute( measure, result, true ), the measure is combined
+    with what is already in result by taking the maximum, so that
+    several scales can be combined while keeping only one Gaussian in
+    memory at a time.
+ */
+
+public class HessianEigenvalues {
+
+	/* Maps the eigenvalues (ordered by absolute size) at a point
+	   to the value stored for that point. */
+
+	public interface Measure {
+		public float measureFromEvalues2D( float [] evalues );
+		public float measureFromEvalues3D( float [] evalues );
+	}
+
+	protected final float [] data;
+	protected final int width, height, depth;
+	protected final double sigma;
+
+	protected boolean normalize = false;
+	protected boolean fixUp = false;
+	protected int numThreads = Prefs.getThreads();
+	protected boolean showProgress = false;
+
+	protected float minResult, maxResult;
+
+	/* The Gaussian must have been calculated already, i.e. c.run()
+	   must have returned. */
+
+	public HessianEigenvalues( ComputeCurvatures c ) {
+		ComputeCurvatures.FloatArray gaussian = c.getGaussian();
+		if( gaussian == null )
+			throw new IllegalArgumentException("The Gaussian has not been calculated");
+		if( gaussian instanceof ComputeCurvatures.FloatArray3D ) {
+			ComputeCurvatures.FloatArray3D g = (ComputeCurvatures.FloatArray3D)gaussian;
+			data = g.data;
+			width = g.width;
+			height = g.height;
+			depth = g.depth;
+		} else {
+			ComputeCurvatures.FloatArray2D g = (ComputeCurvatures.FloatArray2D)gaussian;
+			data = g.data;
+			width = g.width;
+			height = g.height;
+			depth = 1;
+		}
+		sigma = c.sigma;
+	}
+
+	/* data is the Gaussian-smoothed image, indexed as
+	   x + width * ( y + height * z ) */
+
+	public HessianEigenvalues( float [] data, int width, int height, int depth, double sigma ) {
+		if( data.length != width * height * depth )
+			throw new IllegalArgumentException("The data size does not match the dimensions");
+		this.data = data;
+		this.width = width;
+		this.height = height;
+		this.depth = depth;
+		this.sigma = sigma;
+	}
+
+	/* Divide the eigenvalues by the absolute value of the largest one. */
+
+	public void setNormalize( boolean normalize ) {
+		this.normalize = normalize;
+	}
+
+	/* If set, points on the border take the value of the nearest point
+	   inside, as with the fixUp parameter of hessianEigenvaluesAtPoint3D();
+	   otherwise they are left alone. */
+
+	public void setFixUp( boolean fixUp ) {
+		this.fixUp = fixUp;
+	}
+
+	public void setNumThreads( int numThreads ) {
+		this.numThreads = Math.max( 1, numThreads );
+	}
+
+	public void setShowProgress( boolean showProgress ) {
+		this.showProgress = showProgress;
+	}
+
+	/* The minimum and maximum of the values written by the last call to
+	   compute(), not counting border points, or Float.MAX_VALUE and
+	   Float.MIN_VALUE if there were none. */
+
+	public float getMinResult() {
+		return minResult;
+	}
+
+	public float getMaxResult() {
+		return maxResult;
+	}
+
+	public float [][] compute( Measure measure ) {
+		float [][] result = new float[depth][width * height];
+		compute( measure, result, false );
+		return result;
+	}
+
+	/* Writes the measure into the slices of result, or if
+	   takeMaximum is set, the maximum of the measure and what was
+	   there before.  Where the eigenvalues are complex, the measure
+	   is taken to be 0, like in HessianEvalueProcessor. */
+
+	public void compute( final Measure measure, final float [][] result, final boolean takeMaximum ) {
+
+		final boolean is3D = depth > 1;
+		final int firstSlice = is3D ? 1 : 0;
+		final int lastSlice = is3D ? depth - 2 : 0;
+
+		minResult = Float.MAX_VALUE;
+		maxResult = Float.MIN_VALUE;
+
+		if( width < 3 || height < 3 || lastSlice < firstSlice )
+			return;
+
+		final AtomicInteger nextSlice = new AtomicInteger( firstSlice );
+		final AtomicInteger slicesDone = new AtomicInteger( 0 );
+		final int slices = lastSlice - firstSlice + 1;
+		final float [][] minMax = new float[numThreads][];
+
+		Thread [] threads = new Thread[Math.min( numThreads, slices )];
+		for( int t = 0; t < threads.length; ++t ) {
+			final int thread = t;
+			threads[t] = new Thread() {
+				public void run() {
+					Row row = new Row( width, is3D );
+					float [] mm = { Float.MAX_VALUE, Float.MIN_VALUE };
+					for( int z = nextSlice.getAndIncrement(); z <= lastSlice; z = nextSlice.getAndIncrement() ) {
+						for( int y = 1; y < height - 1; ++y ) {
+							if( is3D )
+								row.hessian3D( data, width, height, y, z, sigma );
+							else
+								row.hessian2D( data, width, y, sigma );
+							row.measure( measure, result[z], y * width, normalize, takeMaximum, mm );
+						}
+						int done = slicesDone.incrementAndGet();
+						if( showProgress )
+							IJ.showProgress( done, slices );
+					}
+					minMax[thread] = mm;
+				}
+			};
+			threads[t].start();
+		}
+
+		try {
+			for( int t = 0; t < threads.length; ++t )
+				threads[t].join();
+		} catch( InterruptedException e ) {
+			for( int t = 0; t < threads.length; ++t )
+				threads[t].interrupt();
+			Thread.currentThread().interrupt();
+			return;
+		}
+
+		for( int t = 0; t < threads.length; ++t ) {
+			if( minMax[t] == null )
+				continue;
+			minResult = Math.min( minResult, minMax[t][0] );
+			maxResult = Math.max( maxResult, minMax[t][1] );
+		}
+
+		if( fixUp )
+			fixUpBorders( result, is3D );
+	}
+
+	/* Copy the values of the outermost inner points to the border. */
+
+	protected void fixUpBorders( float [][] result, boolean is3D ) {
+		int firstSlice = is3D ? 1 : 0;
+		int lastSlice = is3D ? depth - 2 : 0;
+		for( int z = firstSlice; z <= lastSlice; ++z ) {
+			float [] slice = result[z];
+			for( int y = 1; y < height - 1; ++y ) {
+				slice[y * width] = slice[y * width + 1];
+				slice[y * width + width - 1] = slice[y * width + width - 2];
+			}
+			System.arraycopy( slice, width, slice, 0, width );
+			System.arraycopy( slice, (height - 2) * width, slice, (height - 1) * width, width );
+		}
+		if( is3D ) {
+			System.arraycopy( result[1], 0, result[0], 0, width * height );
+			System.arraycopy( result[depth - 2], 0, result[depth - 1], 0, width * height );
+		}
+	}
+
+	/* The Hessian components of the inner points of one row, and the
+	   code to turn them into eigenvalues; one per thread. */
+
+	protected static class Row {
+		final float [] xx, yy, zz, xy, xz, yz;
+		final float [] evalues;
+
+		Row( int width, boolean is3D ) {
+			xx = new float[width];
+			yy = new float[width];
+			xy = new float[width];
+			zz = is3D ? new float[width] : null;
+			xz = is3D ? new float[width] : null;
+			yz = is3D ? new float[width] : null;
+			evalues = new float[is3D ? 3 : 2];
+		}
+
+		/* As computeHessianMatrix2DFloat() */
+
+		void hessian2D( float [] d, int width, int y, double sigma ) {
+			double s2 = sigma * sigma;
+			int row = y * width;
+			for( int x = 1; x < width - 1; ++x ) {
+				int i = row + x;
+				float temp = 2 * d[i];
+				xx[x] = (float)( ( d[i + 1] - temp + d[i - 1] ) * s2 );
+				yy[x] = (float)( ( d[i + width] - temp + d[i - width] ) * s2 );
+				xy[x] = (float)( ( ( d[i + width + 1] - d[i + width - 1] ) / 2
+						   - ( d[i - width + 1] - d[i - width - 1] ) / 2 ) / 2 * s2 );
+			}
+		}
+
+		/* As computeHessianMatrix3DFloat() */
+
+		void hessian3D( float [] d, int width, int height, int y, int z, double sigma ) {
+			double s2 = sigma * sigma;
+			int sliceSize = width * height;
+			int row = z * sliceSize + y * width;
+			for( int x = 1; x < width - 1; ++x ) {
+				int i = row + x;
+				float temp = 2 * d[i];
+				xx[x] = (float)( ( d[i + 1] - temp + d[i - 1] ) * s2 );
+				yy[x] = (float)( ( d[i + width] - temp + d[i - width] ) * s2 );
+				zz[x] = (float)( ( d[i + sliceSize] - temp + d[i - sliceSize] ) * s2 );
+				xy[x] = (float)( ( ( d[i + width + 1] - d[i + width - 1] ) / 2
+						   - ( d[i - width + 1] - d[i - width - 1] ) / 2 ) / 2 * s2 );
+				xz[x] = (float)( ( ( d[i + sliceSize + 1] - d[i + sliceSize - 1] ) / 2
+						   - ( d[i - sliceSize + 1] - d[i - sliceSize - 1] ) / 2 ) / 2 * s2 );
+				yz[x] = (float)( ( ( d[i + sliceSize + width] - d[i + sliceSize - width] ) / 2
+						   - ( d[i - sliceSize + width] - d[i - sliceSize - width] ) / 2 ) / 2 * s2 );
+			}
+		}
+
+		void measure( Measure measure, float [] slice, int offset, boolean normalize, boolean takeMaximum, float [] minMax ) {
+			int width = xx.length;
+			for( int x = 1; x < width - 1; ++x ) {
+				float value = 0;
+				if( zz == null ) {
+					if( evalues2D( xx[x], xy[x], yy[x], evalues, normalize ) )
+						value = measure.measureFromEvalues2D( evalues );
+				} else {
+					if( evalues3D( xx[x], xy[x], xz[x], yy[x], yz[x], zz[x], evalues, normalize ) )
+						value = measure.measureFromEvalues3D( evalues );
+				}
+				if( takeMaximum && slice[offset + x] > value )
+					value = slice[offset + x];
+				slice[offset + x] = value;
+				if( value < minMax[0] )
+					minMax[0] = value;
+				if( value > minMax[1] )
+					minMax[1] = value;
+			}
+		}
+	}
+
+	/* As Eigensystem2x2Float.findEvalues() followed by the ordering
+	   in hessianEigenvaluesAtPoint2D() */
+
+	static boolean evalues2D( float xx, float xy, float yy, float [] result, boolean normalize ) {
+
+		double A = xx;
+		double B = xy;
+		double C = yy;
+
+		double b = -(A + C);
+		double c = A * C - B * B;
+
+		double discriminant = b * b - 4 * c;
+		if( discriminant < 0 )
+			return false;
+
+		float e0 = (float)( ( - b + Math.sqrt(discriminant) ) / 2 );
+		float e1 = (float)( ( - b - Math.sqrt(discriminant) ) / 2 );
+
+		if( Math.abs( e0 ) <= Math.abs( e1 ) ) {
+			result[0] = e0;
+			result[1] = e1;
+		} else {
+			result[0] = e1;
+			result[1] = e0;
+		}
+		if( normalize ) {
+			float divideBy = Math.abs(result[1]);
+			result[0] /= divideBy;
+			result[1] /= divideBy;
+		}
+		return true;
+	}
+
+	/* As Eigensystem3x3Float.findEvalues() followed by the ordering
+	   in hessianEigenvaluesAtPoint3D() */
+
+	static boolean evalues3D( float xx, float xy, float xz, float yy, float yz, float zz, float [] result, boolean normalize ) {
+
+		double A = xx;
+		double B = xy;
+		double C = xz;
+		double D = yy;
+		double E = yz;
+		double F = zz;
+
+		double a = -1;
+
+		double b =
+			+ A
+			+ D
+			+ F;
+
+		double c =
+			+ B * B
+			+ C * C
+			+ E * E
+			- A * D
+			- A * F
+			- D * F;
+
+		double d =
+			+ A * D * F
+			- A * E * E
+			- B * B * F
+			+ 2 * B * C * E
+			- C * C * D;
+
+		final double third = 0.333333333333333333333333333333333333;
+
+		double q = (3*a*c - b*b) / (9*a*a);
+		double r = (9*a*b*c - 27*a*a*d - 2*b*b*b) / (54*a*a*a);
+
+		double discriminant = q*q*q + r*r;
+
+		float e0, e1, e2;
+
+		if( discriminant > 0 ) {
+
+			return false;
+
+		} else if( discriminant < 0 ) {
+
+			double rootThree = 1.7320508075688772935;
+
+			double innerSize = Math.sqrt( r*r - discriminant );
+			double innerAngle;
+
+			if( r > 0 )
+				innerAngle = Math.atan( Math.sqrt(-discriminant) / r );
+			else
+				innerAngle = ( Math.PI - Math.atan( Math.sqrt(-discriminant) / -r ) );
+
+			double stSize = Math.pow(innerSize,third);
+
+			double sAngle = innerAngle / 3;
+
+			double sPlusT = 2 * stSize * Math.cos(sAngle);
+
+			e0 = (float)( sPlusT - (b / (3*a)) );
+
+			// (sic) the same operator precedence as in Eigensystem3x3Float
+			double firstPart = - (sPlusT / 2) - (b / 3*a);
+
+			double lastPart = - rootThree * stSize * Math.sin(sAngle);
+
+			e1 = (float)( firstPart + lastPart );
+			e2 = (float)( firstPart - lastPart );
+
+		} else {
+
+			double sPlusT;
+			if( r >= 0 )
+				sPlusT = 2 * Math.pow(r,third);
+			else
+				sPlusT = -2 * Math.pow(-r,third);
+
+			double bOver3A = b / (3 * a);
+
+			e0 = (float)( sPlusT - bOver3A );
+			e1 = (float)( - sPlusT / 2 - bOver3A );
+			e2 = e1;
+		}
+
+		float e0c = Math.abs( e0 );
+		float e1c = Math.abs( e1 );
+		float e2c = Math.abs( e2 );
+
+		if( e0c <= e1c ) {
+			if( e1c <= e2c ) {
+				result[0] = e0;
+				result[1] = e1;
+				result[2] = e2;
+			} else {
+				if( e0c <= e2c ) {
+					result[0] = e0;
+					result[1] = e2;
+					result[2] = e1;
+				} else {
+					result[0] = e2;
+					result[1] = e0;
+					result[2] = e1;
+				}
+			}
+		} else {
+			if( e0c <= e2c ) {
+				result[0] = e1;
+				result[1] = e0;
+				result[2] = e2;
+			} else {
+				if( e1c <= e2c ) {
+					result[0] = e1;
+					result[1] = e2;
+					result[2] = e0;
+				} else {
+					result[0] = e2;
+					result[1] = e1;
+					result[2] = e0;
+				}
+			}
+		}
+		if( normalize ) {
+			float divideBy = Math.abs(result[2]);
+			result[0] /= divideBy;
+			result[1] /= divideBy;
+			result[2] /= divideBy;
+		}
+		return true;
+	}
+}
@@ -5,12 +5,13 @@
 import ij.ImageJ;
 import ij.IJ;
 import ij.ImagePlus;
+import ij.Prefs;
 import ij.ImageStack;
 import ij.measure.Calibration;
 import ij.process.ImageProcessor;
 import ij.process.FloatProcessor;
 
-public abstract class HessianEvalueProcessor implements GaussianGenerationCallback {
+public abstract class HessianEvalueProcessor implements GaussianGenerationCallback, HessianEigenvalues.Measure {
 
 	public void proportionDone(double d) {
 		IJ.showProgress(d);
@@ -27,7 +28,21 @@ public void setSigma( double newSigma ) {
 		sigma = newSigma;
 	}
 
+	protected int numThreads = Prefs.getThreads();
+
+	public void setNumThreads( int numThreads ) {
+		this.numThreads = Math.max( 1, numThreads );
+	}
+
 	public ImagePlus generateImage(ImagePlus original) {
+		return generateImage(original, new double[] { sigma });
+	}
+
+	/* Calculates the measure for each of the given scales and keeps
+	   the maximum at every point.  Only one Gaussian is kept in
+	   memory at a time. */
+
+	public ImagePlus generateImage(ImagePlus original, double [] sigmas) {
 
 		Calibration calibration=original.getCalibration();
 
@@ -41,95 +56,44 @@ public ImagePlus generateImage(ImagePlus original) {
 		double minimumSeparation = Math.min(sepX,
 						    Math.min(sepY,sepX));
 
-		ComputeCurvatures c = new ComputeCurvatures(original, sigma, this, useCalibration);
-		IJ.showStatus("Convolving with Gaussian \u03C3="+sigma+" (min. pixel separation: "+minimumSeparation+")...");
-		c.run();
-
 		int width = original.getWidth();
 		int height = original.getHeight();
 		int depth = original.getStackSize();
 
-		ImageStack stack = new ImageStack(width, height);
-
-		float[] evalues = new float[3];
-
-		IJ.showStatus("Calculating Hessian eigenvalues at each point...");
-
+		float [][] slices = new float[depth][width * height];
 		float minResult = Float.MAX_VALUE;
 		float maxResult = Float.MIN_VALUE;
 
-		if( depth == 1 ) {
-
-			float[] slice = new float[width * height];
-
-			for (int y = 1; y < height - 1; ++y) {
-				for (int x = 1; x < width - 1; ++x) {
-
-					boolean real = c.hessianEigenvaluesAtPoint2D(x, y,
-										     true, // order absolute
-										     evalues,
-										     normalize,
-										     false,
-										     sepX,
-										     sepY);
-					int index = y * width + x;
-					float value = 0;
-					if( real )
-						value = measureFromEvalues2D(evalues);
-					slice[index] = value;
-					if( value < minResult )
-						minResult = value;
-					if( value > maxResult )
-						maxResult = value;
-
-				}
-				IJ.showProgress(1 / (double) height);
-			}
+		for( int i = 0; i < sigmas.length; ++i ) {
 
-			FloatProcessor fp = new FloatProcessor(width, height);
-			fp.setPixels(slice);
-			stack.addSlice(null, fp);
+			ComputeCurvatures c = new ComputeCurvatures(original, sigmas[i], this, useCalibration);
+			IJ.showStatus("Convolving with Gaussian \u03C3="+sigmas[i]+" (min. pixel separation: "+minimumSeparation+")...");
+			c.run();
+			if( c.getGaussian() == null )
+				return null;
+
+			IJ.showStatus("Calculating Hessian eigenvalues at each point...");
+
+			HessianEigenvalues engine = new HessianEigenvalues(c);
+			engine.setNormalize(normalize);
+			engine.setNumThreads(numThreads);
+			engine.setShowProgress(true);
+			engine.compute(this, slices, i > 0);
 
-		} else {
-
-			for (int z = 0; z < depth; ++z) {
-
-				float[] slice = new float[width * height];
-
-				if ((z >= 1) && (z < depth - 1)) {
-					for (int y = 1; y < height - 1; ++y) {
-						for (int x = 1; x < width - 1; ++x) {
-
-							boolean real = c.hessianEigenvaluesAtPoint3D(x, y, z,
-												     true, // order absolute
-												     evalues,
-												     normalize,
-												     false,
-												     sepX,
-												     sepY,
-												     sepZ);
-							int index = y * width + x;
-							float value = 0;
-							if( real )
-								value = measureFromEvalues3D(evalues);
-							slice[index] = value;
-							if( value < minResult )
-								minResult = value;
-							if( value > maxResult )
-								maxResult = value;
-						}
-					}
-				}
-
-				FloatProcessor fp = new FloatProcessor(width, height);
-				fp.setPixels(slice);
-				stack.addSlice(null, fp);
-				IJ.showProgress(z / (double) depth);
-			}
+			// with more than one scale, the last pass sees all values
+			minResult = engine.getMinResult();
+			maxResult = engine.getMaxResult();
 		}
 
 		IJ.showProgress(1.0);
 
+		ImageStack stack = new ImageStack(width, height);
+		for( int z = 0; z < depth; ++z ) {
+			FloatProcessor fp = new FloatProcessor(width, height);
+			fp.setPixels(slices[z]);
+			stack.addSlice(null, fp);
+		}
+
 		ImagePlus result=new ImagePlus("processed " + original.getTitle(), stack);
 		result.setCalibration(calibration);
 
@@ -6,9 +6,17 @@
 import ij.process.ImageProcessor;
 import ij.process.ByteProcessor;
 import ij.process.FloatProcessor;
-
-// TODO take calibration into account
-
+import ij.measure.Calibration;
+
+/**
+ * Distance transform of an 8-bit stack: the distance of every voxel
+ * to the nearest voxel whose value is fg.
+ *
+ * getTransformed() computes the exact Euclidean distances, in
+ * calibrated units, using ExactDistanceTransform3D.  The chamfer
+ * approximation (forwardPass() and backwardPass()) is still available
+ * for callers which use init() directly.
+ */
 public class DistanceTransform3D {
 
 	private static final float SQ1 = 1f;
@@ -29,10 +37,37 @@ public class DistanceTransform3D {
 	public ImagePlus getTransformed(ImagePlus image, int fg) {
 		this.image = image;
 		this.fg = fg;
-		init();
-		forwardPass();
-		backwardPass();
-		return toFloat();
+		w = image.getWidth(); h = image.getHeight();
+		d = image.getStackSize();
+		Calibration cal = image.getCalibration();
+
+		byte[][] pixels = new byte[d][];
+		for(int z = 0; z < d; z++)
+			pixels[z] = (byte[])image.getStack()
+					.getProcessor(z+1).getPixels();
+		ExactDistanceTransform3D edt =
+			new ExactDistanceTransform3D(w, h, d);
+		edt.setSpacing(cal);
+		dist = edt.compute(pixels, fg);
+
+		// without any foreground voxel, report the largest
+		// possible distance, as the chamfer transform does
+		double sw = w, sh = h, sd = d;
+		if(cal != null) {
+			sw *= cal.pixelWidth;
+			sh *= cal.pixelHeight;
+			sd *= cal.pixelDepth;
+		}
+		maxVal = (float)Math.sqrt(sw*sw + sh*sh + sd*sd);
+		for(int z = 0; z < d; z++)
+			for(int i = 0; i < w*h; i++)
+				if(dist[z][i] == Float.POSITIVE_INFINITY)
+					dist[z][i] = maxVal;
+
+		ImagePlus result = toFloat();
+		if(cal != null)
+			result.setCalibration(cal.copy());
+		return result;
 	}
 
 	public float[][] getDistances() {
@@ -0,0 +1,253 @@
+package process3d;
+
+import ij.IJ;
+import ij.Prefs;
+import ij.measure.Calibration;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Exact Euclidean distance transform of a 3D image.
+ *
+ * The squared distances are computed separably, one axis after the
+ * other.  Along each line, the result is the lower envelope of the
+ * parabolas rooted at the samples of the line (Felzenszwalb &amp;
+ * Huttenlocher, "Distance Transforms of Sampled Functions"), which
+ * takes linear time per line.  The lines of one pass are independent,
+ * so they are shared out between several threads.
+ *
+ * The voxel spacing may differ along the three axes, e.g. when it is
+ * taken from the Calibration of an ImagePlus.
+ *
+ * Optionally, the feature transform is computed as well: for every
+ * voxel, the index z * w * h + y * w + x of the nearest foreground
+ * voxel (or -1 if there is no foreground voxel at all).
+ */
+public class ExactDistanceTransform3D {
+
+	protected final int w, h, d;
+	protected double pw = 1, ph = 1, pd = 1;
+	protected int numThreads = Prefs.getThreads();
+	protected boolean computeFeatures = false;
+	protected boolean showProgress = false;
+
+	protected int[][] features;
+
+	public ExactDistanceTransform3D(int w, int h, int d) {
+		this.w = w;
+		this.h = h;
+		this.d = d;
+	}
+
+	public void setSpacing(double pw, double ph, double pd) {
+		this.pw = pw;
+		this.ph = ph;
+		this.pd = pd;
+	}
+
+	public void setSpacing(Calibration cal) {
+		if (cal == null)
+			setSpacing(1, 1, 1);
+		else
+			setSpacing(cal.pixelWidth, cal.pixelHeight,
+					cal.pixelDepth);
+	}
+
+	public void setNumThreads(int numThreads) {
+		this.numThreads = Math.max(1, numThreads);
+	}
+
+	public void setComputeFeatures(boolean computeFeatures) {
+		this.computeFeatures = computeFeatures;
+	}
+
+	public void setShowProgress(boolean showProgress) {
+		this.showProgress = showProgress;
+	}
+
+	/**
+	 * Returns the feature transform of the last call to
+	 * computeSquared(), or null if it was not requested.
+	 */
+	public int[][] getFeatures() {
+		return features;
+	}
+
+	/**
+	 * Returns the squared distances to the nearest voxel whose value
+	 * is fg.
+	 */
+	public float[][] computeSquared(byte[][] pixels, int fg) {
+		float[][] f = new float[d][w * h];
+		for (int z = 0; z < d; z++)
+			for (int i = 0; i < w * h; i++)
+				f[z][i] = (pixels[z][i] & 0xff) == fg ?
+					0 : Float.POSITIVE_INFINITY;
+		computeSquared(f);
+		return f;
+	}
+
+	/**
+	 * Transforms f in place into
+	 *
+	 *   min over all voxels p of f(p) + |p - q|^2
+	 *
+	 * for every voxel q.  Typically, f is 0 at the foreground and
+	 * Float.POSITIVE_INFINITY elsewhere.  Voxels which are infinitely
+	 * far from everything stay infinite.
+	 */
+	public void computeSquared(float[][] f) {
+		features = null;
+		if (computeFeatures) {
+			features = new int[d][w * h];
+			for (int z = 0; z < d; z++)
+				for (int i = 0; i < w * h; i++)
+					features[z][i] =
+						f[z][i] == Float.POSITIVE_INFINITY ?
+						-1 : z * w * h + i;
+		}
+		if (w > 1)
+			pass(f, 0, h * d, w, pw);
+		if (h > 1)
+			pass(f, 1, w * d, h, ph);
+		if (d > 1)
+			pass(f, 2, w * h, d, pd);
+		if (showProgress)
+			IJ.showProgress(1.0);
+	}
+
+	/**
+	 * Returns the distances (not squared) to the nearest voxel whose
+	 * value is fg.
+	 */
+	public float[][] compute(byte[][] pixels, int fg) {
+		float[][] f = computeSquared(pixels, fg);
+		for (int z = 0; z < d; z++)
+			for (int i = 0; i < w * h; i++)
+				f[z][i] = (float)Math.sqrt(f[z][i]);
+		return f;
+	}
+
+	/*
+	 * Transforms all lines along one axis; axis 0 is x, 1 is y and
+	 * 2 is z.
+	 */
+	protected void pass(final float[][] f, final int axis,
+			final int lines, final int n, double spacing) {
+		final double s2 = spacing * spacing;
+		final AtomicInteger nextLine = new AtomicInteger(0);
+		final AtomicInteger linesDone = new AtomicInteger(0);
+		final int progressStep = Math.max(1, lines / 100);
+
+		Thread[] threads = new Thread[Math.min(numThreads, lines)];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread() {
+				public void run() {
+					Line line = new Line(n);
+					for (int l = nextLine.getAndIncrement(); l < lines; l = nextLine.getAndIncrement()) {
+						transformLine(f, axis, l, s2, line);
+						int done = linesDone.incrementAndGet();
+						if (showProgress && done % progressStep == 0)
+							IJ.showProgress(axis * lines + done, 3 * lines);
+					}
+				}
+			};
+			threads[t].start();
+		}
+
+		try {
+			for (int t = 0; t < threads.length; t++)
+				threads[t].join();
+		} catch (InterruptedException e) {
+			for (int t = 0; t < threads.length; t++)
+				threads[t].interrupt();
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/* Per-thread scratch space for one line. */
+	protected static class Line {
+		final double[] g;
+		final int[] feature;
+		final int[] v;
+		final double[] z;
+
+		Line(int n) {
+			g = new double[n];
+			feature = new int[n];
+			v = new int[n];
+			z = new double[n];
+		}
+	}
+
+	protected void transformLine(float[][] f, int axis, int l,
+			double s2, Line line) {
+		int n, slice, offset, sliceStep, indexStep;
+		switch (axis) {
+		case 0:
+			n = w;
+			slice = l / h;
+			offset = (l % h) * w;
+			sliceStep = 0;
+			indexStep = 1;
+			break;
+		case 1:
+			n = h;
+			slice = l / w;
+			offset = l % w;
+			sliceStep = 0;
+			indexStep = w;
+			break;
+		default:
+			n = d;
+			slice = 0;
+			offset = l;
+			sliceStep = 1;
+			indexStep = 0;
+		}
+
+		double[] g = line.g;
+		int[] feature = line.feature;
+		for (int q = 0, s = slice, i = offset; q < n;
+				q++, s += sliceStep, i += indexStep) {
+			g[q] = f[s][i];
+			if (features != null)
+				feature[q] = features[s][i];
+		}
+
+		// the lower envelope of the parabolas s2 (x - p)^2 + g[p];
+		// v[] holds their roots and z[] where they start to be lowest
+		int[] v = line.v;
+		double[] z = line.z;
+		int k = -1;
+		for (int q = 0; q < n; q++) {
+			if (g[q] == Double.POSITIVE_INFINITY)
+				continue;
+			double start = Double.NEGATIVE_INFINITY;
+			while (k >= 0) {
+				int p = v[k];
+				start = ((g[q] + s2 * q * q) - (g[p] + s2 * p * p))
+					/ (2 * s2 * (q - p));
+				if (start > z[k])
+					break;
+				k--;
+				start = Double.NEGATIVE_INFINITY;
+			}
+			v[++k] = q;
+			z[k] = start;
+		}
+		if (k < 0)
+			return;
+
+		int j = 0;
+		for (int q = 0, s = slice, i = offset; q < n;
+				q++, s += sliceStep, i += indexStep) {
+			while (j < k && z[j + 1] < q)
+				j++;
+			int p = v[j];
+			f[s][i] = (float)(g[p] + s2 * (q - p) * (q - p));
+			if (features != null)
+				features[s][i] = feature[p];
+		}
+	}
+}
@@ -0,0 +1,102 @@
+/* -*- mode: java; c-basic-offset: 8; indent-tabs-mode: t; tab-width: 8 -*- */
+
+/* Check that HessianEigenvalues gives exactly the same results as
+   calling ComputeCurvatures.hessianEigenvaluesAtPoint{2,3}D() point
+   by point. */
+
+package features;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.FloatProcessor;
+
+import java.util.Random;
+
+public class TestHessianEigenvalues {
+
+	static final int width = 23, height = 17;
+
+	ImagePlus randomImage( int depth, long seed ) {
+		Random random = new Random( seed );
+		ImageStack stack = new ImageStack( width, height );
+		for( int z = 0; z < depth; ++z ) {
+			float [] pixels = new float[width * height];
+			for( int i = 0; i < pixels.length; ++i )
+				pixels[i] = random.nextFloat() * 255;
+			stack.addSlice( null, new FloatProcessor( width, height, pixels, null ) );
+		}
+		return new ImagePlus( "random", stack );
+	}
+
+	void compare( int depth, boolean normalize, boolean fixUp, int numThreads ) {
+		ImagePlus imp = randomImage( depth, 1234 );
+		ComputeCurvatures c = new ComputeCurvatures( imp, 1.5, null, false );
+		c.run();
+
+		TubenessProcessor measure = new TubenessProcessor( 1.5, false );
+		HessianEigenvalues engine = new HessianEigenvalues( c );
+		engine.setNormalize( normalize );
+		engine.setFixUp( fixUp );
+		engine.setNumThreads( numThreads );
+		float [][] result = engine.compute( measure );
+
+		float [] evalues = new float[3];
+		for( int z = 0; z < depth; ++z )
+			for( int y = 0; y < height; ++y )
+				for( int x = 0; x < width; ++x ) {
+					float value = result[z][y * width + x];
+					boolean border = x == 0 || y == 0 || x == width - 1 || y == height - 1 ||
+						( depth > 1 && ( z == 0 || z == depth - 1 ) );
+					if( border && ! fixUp ) {
+						assertEquals( 0, value, 0 );
+						continue;
+					}
+					float expected = 0;
+					if( depth > 1 ) {
+						if( c.hessianEigenvaluesAtPoint3D( x, y, z, true, evalues, normalize, fixUp, 1, 1, 1 ) )
+							expected = measure.measureFromEvalues3D( evalues );
+					} else {
+						if( c.hessianEigenvaluesAtPoint2D( x, y, true, evalues, normalize, fixUp, 1, 1 ) )
+							expected = measure.measureFromEvalues2D( evalues );
+					}
+					assertEquals( "at " + x + ", " + y + ", " + z, expected, value, 0 );
+				}
+	}
+
+	@Test
+	public void test2D() {
+		compare( 1, false, false, 1 );
+		compare( 1, true, true, 3 );
+	}
+
+	@Test
+	public void test3D() {
+		for( int numThreads = 1; numThreads <= 4; ++numThreads ) {
+			compare( 7, false, false, numThreads );
+			compare( 7, true, false, numThreads );
+			compare( 7, false, true, numThreads );
+		}
+	}
+
+	@Test
+	public void testMaximumOverScales() {
+		ImagePlus imp = randomImage( 9, 42 );
+		TubenessProcessor measure = new TubenessProcessor( false );
+		double [] sigmas = { 1, 1.5 };
+		float [][][] single = new float[sigmas.length][][];
+		float [][] combined = new float[9][width * height];
+		for( int i = 0; i < sigmas.length; ++i ) {
+			ComputeCurvatures c = new ComputeCurvatures( imp, sigmas[i], null, false );
+			c.run();
+			HessianEigenvalues engine = new HessianEigenvalues( c );
+			single[i] = engine.compute( measure );
+			engine.compute( measure, combined, i > 0 );
+		}
+		for( int z = 0; z < 9; ++z )
+			for( int i = 0; i < width * height; ++i )
+				assertEquals( Math.max( single[0][z][i], single[1][z][i] ), combined[z][i], 0 );
+	}
+}
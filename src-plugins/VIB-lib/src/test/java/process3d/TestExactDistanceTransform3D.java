@@ -0,0 +1,106 @@
+/* -*- mode: java; c-basic-offset: 8; indent-tabs-mode: t; tab-width: 8 -*- */
+
+/* Compare ExactDistanceTransform3D with a brute force search for the
+   nearest foreground voxel. */
+
+package process3d;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+public class TestExactDistanceTransform3D {
+
+	byte [][] randomImage( int w, int h, int d, double density, long seed ) {
+		Random random = new Random( seed );
+		byte [][] pixels = new byte[d][w * h];
+		for( int z = 0; z < d; ++z )
+			for( int i = 0; i < w * h; ++i )
+				if( random.nextDouble() < density )
+					pixels[z][i] = (byte)255;
+		return pixels;
+	}
+
+	void compare( int w, int h, int d, double density, double pw, double ph, double pd, int numThreads ) {
+		byte [][] pixels = randomImage( w, h, d, density, 17 );
+		ExactDistanceTransform3D edt = new ExactDistanceTransform3D( w, h, d );
+		edt.setSpacing( pw, ph, pd );
+		edt.setNumThreads( numThreads );
+		edt.setComputeFeatures( true );
+		float [][] result = edt.computeSquared( pixels, 255 );
+		int [][] features = edt.getFeatures();
+
+		for( int z = 0; z < d; ++z )
+			for( int y = 0; y < h; ++y )
+				for( int x = 0; x < w; ++x ) {
+					double best = Double.POSITIVE_INFINITY;
+					for( int z2 = 0; z2 < d; ++z2 )
+						for( int y2 = 0; y2 < h; ++y2 )
+							for( int x2 = 0; x2 < w; ++x2 ) {
+								if( pixels[z2][y2 * w + x2] == 0 )
+									continue;
+								double dx = ( x - x2 ) * pw, dy = ( y - y2 ) * ph, dz = ( z - z2 ) * pd;
+								best = Math.min( best, dx * dx + dy * dy + dz * dz );
+							}
+					String where = "at " + x + ", " + y + ", " + z;
+					float value = result[z][y * w + x];
+					int feature = features[z][y * w + x];
+					if( best == Double.POSITIVE_INFINITY ) {
+						assertEquals( where, Float.POSITIVE_INFINITY, value, 0 );
+						assertEquals( where, -1, feature );
+						continue;
+					}
+					assertEquals( where, best, value, 1e-4 * Math.max( 1, best ) );
+
+					// the feature must be a foreground voxel at that distance
+					int z2 = feature / ( w * h ), y2 = ( feature % ( w * h ) ) / w, x2 = feature % w;
+					assertTrue( where, pixels[z2][y2 * w + x2] != 0 );
+					double dx = ( x - x2 ) * pw, dy = ( y - y2 ) * ph, dz = ( z - z2 ) * pd;
+					assertEquals( where, best, dx * dx + dy * dy + dz * dz, 1e-4 * Math.max( 1, best ) );
+				}
+	}
+
+	@Test
+	public void testIsotropic() {
+		compare( 13, 11, 7, 0.02, 1, 1, 1, 1 );
+		compare( 13, 11, 7, 0.3, 1, 1, 1, 3 );
+	}
+
+	@Test
+	public void testAnisotropic() {
+		for( int numThreads = 1; numThreads <= 4; ++numThreads )
+			compare( 12, 9, 8, 0.03, 0.7, 1.3, 2.5, numThreads );
+	}
+
+	@Test
+	public void testSingleSlice() {
+		compare( 31, 17, 1, 0.01, 1, 0.5, 1, 2 );
+	}
+
+	@Test
+	public void testEmpty() {
+		compare( 5, 4, 3, 0, 1, 1, 1, 2 );
+	}
+
+	@Test
+	public void testChamferIsAnUpperBound() {
+		int w = 15, h = 12, d = 6;
+		byte [][] pixels = randomImage( w, h, d, 0.05, 3 );
+		float [][] exact = new ExactDistanceTransform3D( w, h, d ).compute( pixels, 255 );
+
+		float maxVal = (float)Math.sqrt( w * w + h * h + d * d );
+		float [][] chamfer = new float[d][w * h];
+		for( int z = 0; z < d; ++z )
+			for( int i = 0; i < w * h; ++i )
+				chamfer[z][i] = pixels[z][i] != 0 ? 0 : maxVal;
+		DistanceTransform3D dt = new DistanceTransform3D();
+		dt.init( chamfer, w, h, d );
+		dt.forwardPass();
+		dt.backwardPass();
+
+		for( int z = 0; z < d; ++z )
+			for( int i = 0; i < w * h; ++i )
+				assertTrue( exact[z][i] <= chamfer[z][i] + 1e-5 );
+	}
+}
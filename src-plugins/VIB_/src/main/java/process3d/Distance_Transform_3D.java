@@ -5,8 +5,6 @@
 import ij.process.ImageProcessor;
 import ij.plugin.filter.PlugInFilter;
 
-// TODO take calibration into account
-
 public class Distance_Transform_3D extends DistanceTransform3D
 		implements PlugInFilter {
 
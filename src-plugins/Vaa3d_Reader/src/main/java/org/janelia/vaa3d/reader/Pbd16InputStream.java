@@ -26,9 +26,7 @@
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.nio.ShortBuffer;
 
 /**
  * Decompresses a binary InputStream using Sean Murphy's fast PBD 
@@ -43,61 +41,64 @@
  */
 public class Pbd16InputStream extends PbdInputStream 
 {
-	private ByteOrder byteOrder= ByteOrder.BIG_ENDIAN;
-	private byte[] bytes = new byte[2];
-	private ByteBuffer byteBuffer = ByteBuffer.wrap(bytes);
-	private ShortBuffer shortBuffer;
-	private short repeatValue;
-	private short decompressionPrior;
-	private byte d0,d1,d2,d3;
-	// private byte sourceChar;
-	private byte carryOver;
-	private byte oooooool = 1;
-	// private byte oooooolo = 2;
-	private byte ooooooll = 3;
-	// private byte oooooloo = 4;
-	// private byte ooooolol = 5;
-	// private byte ooooollo = 6;
-	private byte ooooolll = 7;
+	private boolean bigEndian;
+	private static final int oooooool = 1;
+	private static final int ooooooll = 3;
+	private static final int ooooolll = 7;
 
 	
 	public Pbd16InputStream(InputStream in, ByteOrder byteOrder) {
 		super(in);
-		this.byteOrder = byteOrder;
-		byteBuffer.order(byteOrder);
-		shortBuffer = byteBuffer.asShortBuffer();
+		bigEndian = (byteOrder == ByteOrder.BIG_ENDIAN);
 	}
 
-	// for debugging
-	/*
-	private short checkValue(short v) {
-		if (v < 0) {
-			// System.out.println("fizz");
+	/**
+	 * Stores one 16-bit value in the output, in the byte order of the data.
+	 */
+	private void put(byte[] b, int pos, int value) {
+		if (bigEndian) {
+			b[pos] = (byte)(value >>> 8);
+			b[pos + 1] = (byte)value;
 		}
-		if (v > 5000) {
-			// System.out.println("buzz");			
+		else {
+			b[pos] = (byte)value;
+			b[pos + 1] = (byte)(value >>> 8);
 		}
-		return v;
 	}
-	*/
-	
+
+	/**
+	 * 
+	 * @return the 16-bit value stored at pos, in the byte order of the data.
+	 */
+	private short get(byte[] b, int pos) {
+		if (bigEndian)
+			return (short)(((b[pos] & 0xff) << 8) | (b[pos + 1] & 0xff));
+		return (short)(((b[pos + 1] & 0xff) << 8) | (b[pos] & 0xff));
+	}
+
+	/**
+	 * Difference encoded as a 3-bit code.
+	 */
+	private static int difference(int d) {
+		return d < 5 ? d : 4 - d;
+	}
+
 	@Override
 	public int read(byte[] b, int off, int len) 
 	throws IOException
 	{
-		if (len < 1) return 0;
+		if (len < 2) return 0;
 		
-		ByteBuffer byteOut = ByteBuffer.wrap(b, off, len);
-		byteOut.order(this.byteOrder);
-		ShortBuffer out = byteOut.asShortBuffer();
-		
-		while (out.hasRemaining())
+		int pos = off;
+		final int end = off + (len & ~1);
+		while (pos < end)
 		{
 			if (state == State.STATE_BEGIN)
 			{
+				if (!fill())
+					break; // end of compressed data
 				// Read one byte
-				int code = in.read(); // unsigned
-				assert(code >= 0);
+				int code = nextByte(); // unsigned
 				if (code < 32) { // literal 0-31
 					state = State.STATE_LITERAL;
 					leftToFill = code + 1;
@@ -112,138 +113,81 @@ else if (code < 223) { // Repeat 223-255
 				else { // Repeat 223-255
 					state = State.STATE_REPEAT;
 					leftToFill = code - 222;
-					in.read(bytes, 0, 2);
-					shortBuffer.rewind();
-					repeatValue = shortBuffer.get();
+					int b0 = nextByte();
+					int b1 = nextByte();
+					repeatValue = (short)(bigEndian ? (b0 << 8) | b1 : (b1 << 8) | b0);
 				}
 			}
 			else if (state == State.STATE_LITERAL)
 			{
-				int numShortsToRead = Math.min(out.remaining(), leftToFill);
-				in.read(byteOut.array(), off + 2*out.position(), 2*numShortsToRead); // copy block
-				out.position(out.position() + numShortsToRead);
-				leftToFill -= numShortsToRead;
-				if (leftToFill == 0) {
+				int numShortsToRead = Math.min((end - pos) / 2, leftToFill);
+				int numBytesRead = copy(b, pos, 2*numShortsToRead); // copy block
+				int numShortsRead = numBytesRead / 2;
+				pos += 2*numShortsRead;
+				leftToFill -= numShortsRead;
+				if (numShortsRead > 0)
+					decompressionPrior = get(b, pos - 2);
+				if (numShortsRead < numShortsToRead)
+					break; // end of compressed data
+				if (leftToFill == 0)
 					state = State.STATE_BEGIN;
-					leftToFill = 1;
-				}
-				decompressionPrior = out.get(out.position() - 1);
 			}
 			else if (state == State.STATE_DIFFERENCE)
 			{
-				while ( (leftToFill > 0) && out.hasRemaining() ) 
+				while ( (leftToFill > 0) && (pos < end) ) 
 				{
-					// Bug fix Aug 2013 CMB
-					// If the output buffer cannot hold 8 more values, we cannot yet unpack this set of differences.
-					int spaceNeeded = Math.min(leftToFill, 8);
-					if (out.remaining() < spaceNeeded) {
-						return 2*out.position(); // Parse these differences in the next gulp of bytes
+					if (pendingPos == pendingCount) {
+						// Unpack up to eight 3-bit differences from three bytes,
+						// in groups of 3+3+2, 1+3+3+1 and 2+3+3 bits.
+						// Bytes are only read while values are left in the run.
+						int[] d = pending;
+						int count = (leftToFill < 8 ? leftToFill : 8);
+						// 332
+						int sourceChar = nextByte();
+						d[0] = sourceChar >>> 5;
+						d[1] = (sourceChar >>> 2) & ooooolll;
+						int carryOver = sourceChar & ooooooll;
+						if (count > 2) {
+							// 1331
+							sourceChar = nextByte();
+							d[2] = (sourceChar >>> 7) | (carryOver << 1);
+							d[3] = (sourceChar >>> 4) & ooooolll;
+							d[4] = (sourceChar >>> 1) & ooooolll;
+							carryOver = sourceChar & oooooool;
+						}
+						if (count > 5) {
+							// 233
+							sourceChar = nextByte();
+							d[5] = (sourceChar >>> 6) | (carryOver << 2);
+							d[6] = (sourceChar >>> 3) & ooooolll;
+							d[7] = sourceChar & ooooolll;
+						}
+						int value = decompressionPrior;
+						for (int i = 0; i < count; ++i) {
+							value = (short)(value + difference(d[i]));
+							d[i] = value;
+						}
+						decompressionPrior = value;
+						pendingCount = count;
+						pendingPos = 0;
+					}
+					// the values of a group might overflow the output buffer
+					while (pendingPos < pendingCount && pos < end) {
+						put(b, pos, pending[pendingPos++]);
+						pos += 2;
+						leftToFill--;
 					}
-					//
-	                // 332
-	                d0=d1=d2=d3=0;
-	                int sourceChar2 = in.read();
-	                // sourceChar=(byte)sourceChar2;
-	                d0 = (byte)(sourceChar2 >>> 5);
-					short value = (short)(decompressionPrior+(d0<5?d0:4-d0));
-	                out.put(value);
-	                // out.put(checkValue(value));
-	                //if (debug) qDebug() << "debug: position " << (dp-1) << " diff value=" << target16Data[dp-1] << " d0=" << d0;
-	                leftToFill--;
-	                if (leftToFill==0) {
-	                    break;
-	                }
-	                d1 = (byte)((sourceChar2 >>> 2) & ooooolll);
-	                value = (short)(value + (d1<5?d1:4-d1));
-	                out.put(value);
-	                // out.put(checkValue(value));
-	                //if (debug) qDebug() << "debug: position " << (dp-1) << " diff value=" << target16Data[dp-1];
-	                leftToFill--;
-	                if (leftToFill==0) {
-	                    break;
-	                }
-	                d2 = (byte)((sourceChar2) & ooooooll);
-	                carryOver=d2;
-
-	                // 1331
-	                d0=d1=d2=d3=0;
-	                sourceChar2 = in.read();
-	                // sourceChar=(byte)sourceChar2;
-	                carryOver <<= 1;
-	                d0 = (byte)((sourceChar2 >>> 7) | carryOver);
-	                value = (short)(value + (d0<5?d0:4-d0));
-	                out.put(value);
-	                // out.put(checkValue(value));
-	                //if (debug) qDebug() << "debug: position " << (dp-1) << " diff value=" << target16Data[dp-1];
-	                leftToFill--;
-	                if (leftToFill==0) {
-	                    break;
-	                }
-	                d1 = (byte)((sourceChar2 >>> 4) & ooooolll);
-	                value = (short)(value + (d1<5?d1:4-d1));
-	                out.put(value);
-	                // out.put(checkValue(value));
-	                //if (debug) qDebug() << "debug: position " << (dp-1) << " diff value=" << target16Data[dp-1];
-	                leftToFill--;
-	                if (leftToFill==0) {
-	                    break;
-	                }
-	                d2 = (byte)((sourceChar2 >>> 1) & ooooolll);
-	                value = (short)(value + (d2<5?d2:4-d2));
-	                out.put(value);
-	                // out.put(checkValue(value));
-	                //if (debug) qDebug() << "debug: position " << (dp-1) << " diff value=" << target16Data[dp-1];
-	                leftToFill--;
-	                if (leftToFill==0) {
-	                    break;
-	                }
-	                d3 = (byte)((sourceChar2) & oooooool);
-	                carryOver=d3;
-
-	                // 233
-	                d0=d1=d2=d3=0;
-	                sourceChar2 = in.read();
-	                // sourceChar=(byte)sourceChar2;
-	                carryOver <<= 2;
-	                d0 = (byte)((sourceChar2 >>> 6) | carryOver);
-	                value = (short)(value + (d0<5?d0:4-d0));
-	                out.put(value);
-	                // out.put(checkValue(value));
-	                //if (debug) qDebug() << "debug: position " << (dp-1) << " diff value=" << target16Data[dp-1];
-	                leftToFill--;
-	                if (leftToFill==0) {
-	                    break;
-	                }
-	                d1 = (byte)((sourceChar2 >>> 3) & ooooolll);
-	                value = (short)(value + (d1<5?d1:4-d1));
-	                out.put(value);
-	                // out.put(checkValue(value));
-	                //if (debug) qDebug() << "debug: position " << (dp-1) << " diff value=" << target16Data[dp-1];
-	                leftToFill--;
-	                if (leftToFill==0) {
-	                    break;
-	                }
-	                d2 = (byte)((sourceChar2) & ooooolll);
-	                value = (short)(value + (d2<5?d2:4-d2));
-	                out.put(value);
-	                // out.put(checkValue(value));
-	                //if (debug) qDebug() << "debug: position " << (dp-1) << " diff value=" << target16Data[dp-1];
-	                leftToFill--;
-	                if (leftToFill==0) {
-	                    break;
-	                }					
-					decompressionPrior = out.get(out.position() - 1);
 				}
-				decompressionPrior = out.get(out.position() - 1);
 				if (leftToFill < 1)
 					state = State.STATE_BEGIN;
 			}
 			else if (state == State.STATE_REPEAT)
 			{
-				int repeatCount = Math.min(leftToFill, out.remaining());
-				// checkValue(repeatValue);
-				for (int j = 0; j < repeatCount; ++j)
-					out.put(repeatValue);
+				int repeatCount = Math.min(leftToFill, (end - pos) / 2);
+				for (int j = 0; j < repeatCount; ++j) {
+					put(b, pos, repeatValue);
+					pos += 2;
+				}
 				leftToFill -= repeatCount;
 				if (leftToFill < 1)
 					state = State.STATE_BEGIN;
@@ -253,6 +197,8 @@ else if (state == State.STATE_REPEAT)
 				throw new IOException("Unexpected state");
 			}
 		}
-		return 2 * out.position();
+		if (pos == off)
+			return -1;
+		return pos - off;
 	}
 }
@@ -24,9 +24,11 @@
 */
 package org.janelia.vaa3d.reader;
 
+import java.io.EOFException;
 import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 
 /**
@@ -36,6 +38,14 @@
  * input stream.  But only after the 43-byte header section has already been
  * read from the stream.
  * 
+ * The compressed bytes are decoded from a ByteBuffer: either chunks of 
+ * CHUNK_SIZE bytes read from the underlying stream, or a buffer holding all 
+ * the compressed data to decode, such as a memory-mapped region of a file.
+ * 
+ * The complete decoder state can be saved as a Checkpoint, and a new
+ * decoder started from it, so that the data following the checkpoint
+ * (e.g. a Z-slice) can be decoded without decoding what comes before.
+ * 
  * @author Christopher M. Bruns
  *
  */
@@ -56,6 +66,57 @@ enum State {
 	}
 	protected State state = State.STATE_BEGIN;
 	protected int leftToFill = 0; // How many bytes left in the current run
+	protected int decompressionPrior = 0; // Value of locally canonical voxel
+	protected int repeatValue = 0; // Current repeat run value
+	// Values unpacked from one group of differences, but not yet delivered,
+	// because the output buffer ended in the middle of the group.
+	protected int[] pending = new int[8];
+	protected int pendingPos = 0;
+	protected int pendingCount = 0;
+
+	/** Number of compressed bytes read from the underlying stream at once. */
+	public static final int CHUNK_SIZE = 1 << 20;
+
+	protected ByteBuffer compressed; // compressed bytes not yet decoded
+	private byte[] chunk; // backing array of compressed, when reading a stream
+	private long chunkOffset = 0; // offset of compressed.position(0) in the compressed data
+
+	/**
+	 * The state of a decoder between two bytes of output: the offset
+	 * of the next compressed byte, relative to the start of the compressed
+	 * data, and the state of the current run.
+	 * 
+	 * @author Christopher M. Bruns
+	 *
+	 */
+	public static class Checkpoint
+	{
+		private final long offset;
+		private final State state;
+		private final int leftToFill;
+		private final int decompressionPrior;
+		private final int repeatValue;
+		private final int[] pending;
+
+		private Checkpoint(PbdInputStream s) {
+			offset = s.getOffset();
+			state = s.state;
+			leftToFill = s.leftToFill;
+			decompressionPrior = s.decompressionPrior;
+			repeatValue = s.repeatValue;
+			pending = new int[s.pendingCount - s.pendingPos];
+			System.arraycopy(s.pending, s.pendingPos, pending, 0, pending.length);
+		}
+
+		/**
+		 * 
+		 * @return offset of the next compressed byte to decode, relative 
+		 * to the start of the compressed data.
+		 */
+		public long getOffset() {
+			return offset;
+		}
+	}
 
 	/**
 	 * Factory method to create a PbdInputStream with a particular bit-depth
@@ -75,6 +136,40 @@ else if (bytesPerPixel == 2)
 		throw new IllegalArgumentException("Unsupported bytes per pixel "+bytesPerPixel);
 	}
 
+	/**
+	 * Factory method to create a PbdInputStream decoding a buffer of 
+	 * compressed data, starting in the state saved in a checkpoint.
+	 * 
+	 * @param compressed compressed data, from the checkpoint's offset on.
+	 * @param bytesPerPixel
+	 * @param byteOrder
+	 * @param start the state at the first byte of <code>compressed</code>, 
+	 * or <code>null</code> for the start of the compressed data.
+	 * @return
+	 */
+	public static PbdInputStream createPbdInputStream(ByteBuffer compressed, int bytesPerPixel, ByteOrder byteOrder, Checkpoint start)
+	{
+		PbdInputStream result;
+		if (bytesPerPixel == 1)
+			result = new Pbd8InputStream(null);
+		else if (bytesPerPixel == 2)
+			result = new Pbd16InputStream(null, byteOrder);
+		else
+			throw new IllegalArgumentException("Unsupported bytes per pixel "+bytesPerPixel);
+		result.compressed = compressed.slice();
+		result.chunk = null;
+		if (start != null) {
+			result.chunkOffset = start.offset;
+			result.state = start.state;
+			result.leftToFill = start.leftToFill;
+			result.decompressionPrior = start.decompressionPrior;
+			result.repeatValue = start.repeatValue;
+			System.arraycopy(start.pending, 0, result.pending, 0, start.pending.length);
+			result.pendingCount = start.pending.length;
+		}
+		return result;
+	}
+
 	/** 
 	 * Protected constructor to encourage use of createPbdInputStream factory.
 	 * 
@@ -82,6 +177,93 @@ else if (bytesPerPixel == 2)
 	 */
 	protected PbdInputStream(InputStream in) {
 		super(in);
+		if (in != null) {
+			chunk = new byte[CHUNK_SIZE];
+			compressed = ByteBuffer.wrap(chunk);
+			compressed.limit(0);
+		}
+	}
+
+	/**
+	 * 
+	 * @return the current decoder state.
+	 */
+	public Checkpoint getCheckpoint() {
+		return new Checkpoint(this);
+	}
+
+	/**
+	 * 
+	 * @return number of compressed bytes decoded so far, including those 
+	 * before the checkpoint this decoder started from.
+	 */
+	public long getOffset() {
+		return chunkOffset + compressed.position();
+	}
+
+	/**
+	 * Makes at least one more compressed byte available, reading the next 
+	 * chunk from the underlying stream if necessary.
+	 * 
+	 * @return <code>false</code> at the end of the compressed data.
+	 * @throws IOException
+	 */
+	protected boolean fill()
+	throws IOException
+	{
+		if (compressed.hasRemaining())
+			return true;
+		if (chunk == null)
+			return false;
+		int count;
+		do {
+			count = in.read(chunk, 0, chunk.length);
+		} while (count == 0);
+		if (count < 0)
+			return false;
+		chunkOffset += compressed.position();
+		compressed.clear();
+		compressed.limit(count);
+		return true;
+	}
+
+	/**
+	 * 
+	 * @return the next compressed byte, unsigned.
+	 * @throws IOException
+	 */
+	protected int nextByte()
+	throws IOException
+	{
+		if (!fill())
+			throw new EOFException("Compressed data end in the middle of a run");
+		return compressed.get() & 0xff;
+	}
+
+	/**
+	 * Copies compressed bytes unchanged.
+	 * 
+	 * @return number of bytes copied, less than <code>len</code> only at
+	 * the end of the compressed data.
+	 * @throws IOException
+	 */
+	protected int copy(byte[] b, int off, int len)
+	throws IOException
+	{
+		int copied = 0;
+		while (copied < len && fill()) {
+			int count = Math.min(len - copied, compressed.remaining());
+			compressed.get(b, off + copied, count);
+			copied += count;
+		}
+		return copied;
+	}
+
+	@Override
+	public int available()
+	throws IOException
+	{
+		return 0;
 	}
 
 	@Override
@@ -98,7 +280,8 @@ public int read()
 	{
 		byte[] b = new byte[1];
 		try {
-			read(b, 0, 1);
+			if (read(b, 0, 1) < 1)
+				return -1;
 			return b[0] & 0xff;
 		} catch (IOException exc) {
 			return -1;
@@ -119,4 +302,27 @@ public void reset()
 	{
 		throw new IOException();
 	}
+
+	@Override
+	public long skip(long n)
+	throws IOException
+	{
+		byte[] b = new byte[(int)Math.min(n, CHUNK_SIZE)];
+		long skipped = 0;
+		while (skipped < n) {
+			int count = read(b, 0, (int)Math.min(n - skipped, b.length));
+			if (count <= 0)
+				break;
+			skipped += count;
+		}
+		return skipped;
+	}
+
+	@Override
+	public void close()
+	throws IOException
+	{
+		if (in != null)
+			in.close();
+	}
 }
@@ -24,10 +24,13 @@
 */
 package org.janelia.vaa3d.reader;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.zip.DataFormatException;
 
 /*
@@ -39,6 +42,10 @@
  * 
  * In an effort to conserve memory, only one Z-slice is processed at one time.
  * 
+ * For compressed data, the decoder state at the start of each slice is 
+ * recorded as the slices are loaded, so that slices can later be decoded 
+ * in any order from the file (see <code>V3dVirtualStack</code>).
+ * 
  * This class does NOT implement InputStream, but uses and InputStream.
  */
 public class V3dRawImageStream 
@@ -66,6 +73,11 @@ public enum Format {
 		"v3d_stack_pkbit_by_gene1"
 	};
 	
+	/**
+	 * Number of bytes in the header, before the image data.
+	 */
+	public static final int HEADER_SIZE = 43;
+
 	private InputStream inStream;
 	// File metadata fields
 	private String headerKey;
@@ -75,6 +87,8 @@ public enum Format {
 	private int[] dimensions = {0,0,0,0};
 	// Keep one slice in memory for streaming
 	private Slice currentSlice;
+	// Decoder state at the start of each slice loaded so far, if compressed
+	private List<PbdInputStream.Checkpoint> sliceStarts = new ArrayList<PbdInputStream.Checkpoint>();
 
 	/**
 	 * Creates a new <code>V3dRawImageStream</code> from a v3draw file.
@@ -120,14 +134,34 @@ public int getDimension(int index) {
 	public int getPixelBytes() {
 		return pixelBytes;
 	}
+
+	/**
+	 * 
+	 * @return the subformat of the data.
+	 */
+	public Format getFormat() {
+		return format;
+	}
+
+	/**
+	 * 
+	 * @return the decoder state at the start of each slice loaded so far,
+	 * in the order of the file (all Z-slices of the first color channel
+	 * first), or <code>null</code> for uncompressed data.
+	 */
+	public PbdInputStream.Checkpoint[] getSliceStarts() {
+		if (format != Format.FORMAT_MURPHY_PBD)
+			return null;
+		return sliceStarts.toArray(new PbdInputStream.Checkpoint[sliceStarts.size()]);
+	}
 	
 	private void loadHeader() 
 	throws IOException, DataFormatException
 	{
 		// header is 43 bytes long
-		byte[] buffer0 = new byte[43];
+		byte[] buffer0 = new byte[HEADER_SIZE];
 		ByteBuffer buffer = ByteBuffer.wrap(buffer0);
-		inStream.read(buffer.array(), 0, 43);
+		readFully(inStream, buffer.array(), HEADER_SIZE);
 		buffer.rewind();
 		// Parse file type header string (24 bytes)
 		headerKey = new String(buffer.array(), 0, 24);
@@ -207,8 +241,28 @@ public Slice getCurrentSlice() {
 	public void loadNextSlice() 
 	throws IOException
 	{
+		if (inStream instanceof PbdInputStream)
+			sliceStarts.add(((PbdInputStream)inStream).getCheckpoint());
 		currentSlice.read(inStream);
 	}
+
+	/**
+	 * Reads exactly <code>count</code> bytes, as a single read may return 
+	 * fewer bytes than requested.
+	 * 
+	 * @throws EOFException if the stream ends first.
+	 */
+	static void readFully(InputStream inStream, byte[] buffer, int count)
+	throws IOException
+	{
+		int offset = 0;
+		while (offset < count) {
+			int n = inStream.read(buffer, offset, count - offset);
+			if (n < 0)
+				throw new EOFException("Unexpected end of v3draw data");
+			offset += n;
+		}
+	}
 	
 	/**
 	 * Represents a single z-plane of the input volume in a single color channel.
@@ -288,7 +342,7 @@ else if (pixelBytes == 2)
 		public void read(InputStream inStream) 
 		throws IOException
 		{
-			inStream.read(sliceBuffer.array(), 0, sliceByteCount);
+			readFully(inStream, sliceBuffer.array(), sliceByteCount);
 			++sliceIndex;
 		}
 	}
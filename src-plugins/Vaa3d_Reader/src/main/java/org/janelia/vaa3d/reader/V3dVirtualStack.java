@@ -0,0 +1,279 @@
+package org.janelia.vaa3d.reader;
+
+import ij.IJ;
+import ij.VirtualStack;
+import ij.process.ByteProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Virtual stack reading the Z-slices of a v3draw or v3dpbd file on demand.
+ * 
+ * Uncompressed slices are copied from a memory mapping of the slice in
+ * the file.  Compressed slices are decoded from a memory mapping of 
+ * their compressed bytes, starting from the decoder state recorded at the
+ * start of the slice (see <code>PbdInputStream.Checkpoint</code>).  These 
+ * states are recorded in one pass over the file, either by a complete 
+ * load with <code>V3dRawImageStream</code> (see 
+ * <code>putSliceStarts</code>) or when the stack is created, and are kept 
+ * for later opens of the same, unmodified file.
+ * 
+ * Slices are in the order of ImageJ hyperstacks: color channel varies
+ * fastest, then Z.
+ */
+public class V3dVirtualStack extends VirtualStack
+{
+	// Number of files whose slice starts are kept
+	private static final int MAX_INDEXED_FILES = 16;
+	private static final Map<String, PbdInputStream.Checkpoint[]> sliceStartsByFile =
+			new LinkedHashMap<String, PbdInputStream.Checkpoint[]>(MAX_INDEXED_FILES, 0.75f, true) 
+	{
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, PbdInputStream.Checkpoint[]> eldest) {
+			return size() > MAX_INDEXED_FILES;
+		}
+	};
+
+	private final File file;
+	private final FileChannel channel;
+	private final V3dRawImageStream.Format format;
+	private final ByteOrder byteOrder;
+	private final int pixelBytes;
+	private final int sizeZ, sizeC;
+	private final int sliceByteCount;
+	private final long dataSize; // number of bytes after the header
+	private final PbdInputStream.Checkpoint[] sliceStarts; // compressed only
+
+	/**
+	 * Opens a v3draw or v3dpbd file as a virtual stack.  A compressed
+	 * file is decoded once to find where its slices start, unless it
+	 * was indexed before.
+	 * 
+	 * @param file
+	 * @throws IOException
+	 */
+	public V3dVirtualStack(File file)
+	throws IOException
+	{
+		this(file, readHeader(file));
+	}
+
+	private V3dVirtualStack(File file, V3dRawImageStream header)
+	throws IOException
+	{
+		super(header.getDimension(0), header.getDimension(1), null, file.getParent());
+		this.file = file;
+		format = header.getFormat();
+		byteOrder = header.getByteOrder();
+		pixelBytes = header.getPixelBytes();
+		sizeZ = header.getDimension(2);
+		sizeC = header.getDimension(3);
+		sliceByteCount = getWidth() * getHeight() * pixelBytes;
+		dataSize = file.length() - V3dRawImageStream.HEADER_SIZE;
+		if (format == V3dRawImageStream.Format.FORMAT_MURPHY_PBD) {
+			PbdInputStream.Checkpoint[] starts = getSliceStarts(file);
+			if (starts == null || starts.length != sizeZ * sizeC) {
+				starts = indexSlices(file, sizeZ * sizeC);
+				putSliceStarts(file, starts);
+			}
+			sliceStarts = starts;
+		}
+		else {
+			sliceStarts = null;
+			if (dataSize < (long)sliceByteCount * sizeZ * sizeC)
+				throw new IOException("File is too short for its dimensions: " + file);
+		}
+		channel = new RandomAccessFile(file, "r").getChannel();
+	}
+
+	private static V3dRawImageStream readHeader(File file)
+	throws IOException
+	{
+		InputStream in = new FileInputStream(file);
+		try {
+			return new V3dRawImageStream(in);
+		}
+		catch (IllegalArgumentException exc) {
+			throw new IOException("Not a v3draw file: " + file + " (" + exc.getMessage() + ")");
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Decodes a compressed file, recording the decoder state at the start 
+	 * of each slice.
+	 */
+	private static PbdInputStream.Checkpoint[] indexSlices(File file, int sliceCount)
+	throws IOException
+	{
+		InputStream in = new FileInputStream(file);
+		try {
+			V3dRawImageStream sliceStream = new V3dRawImageStream(in);
+			for (int i = 0; i < sliceCount; ++i) {
+				IJ.showProgress(i, sliceCount);
+				sliceStream.loadNextSlice();
+			}
+			IJ.showProgress(1.0);
+			return sliceStream.getSliceStarts();
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	private static String key(File file) {
+		return file.getAbsolutePath() + "\n" + file.length() + "\n" + file.lastModified();
+	}
+
+	/**
+	 * Remembers where the slices of a compressed file start, as found by
+	 * <code>V3dRawImageStream.getSliceStarts</code> after loading all 
+	 * slices, so that the file can later be opened as a virtual stack 
+	 * without decoding it again.
+	 * 
+	 * @param file
+	 * @param sliceStarts
+	 */
+	public static void putSliceStarts(File file, PbdInputStream.Checkpoint[] sliceStarts) {
+		synchronized (sliceStartsByFile) {
+			sliceStartsByFile.put(key(file), sliceStarts);
+		}
+	}
+
+	/**
+	 * 
+	 * @param file
+	 * @return where the slices of a compressed file start, if known and 
+	 * the file was not modified since, or <code>null</code>.
+	 */
+	public static PbdInputStream.Checkpoint[] getSliceStarts(File file) {
+		synchronized (sliceStartsByFile) {
+			return sliceStartsByFile.get(key(file));
+		}
+	}
+
+	/**
+	 * 
+	 * @return number of color channels.
+	 */
+	public int getChannels() {
+		return sizeC;
+	}
+
+	/**
+	 * 
+	 * @return number of Z-slices per color channel.
+	 */
+	public int getSlices() {
+		return sizeZ;
+	}
+
+	@Override
+	public ImageProcessor getProcessor(int n) {
+		if (n < 1 || n > getSize())
+			throw new IllegalArgumentException("Argument out of range: " + n);
+		// order in the file: all Z-slices of one color channel, then the next
+		int c = (n - 1) % sizeC;
+		int z = (n - 1) / sizeC;
+		int fileSlice = c * sizeZ + z;
+		try {
+			ByteBuffer slice;
+			if (sliceStarts == null) {
+				long offset = V3dRawImageStream.HEADER_SIZE + (long)fileSlice * sliceByteCount;
+				slice = channel.map(FileChannel.MapMode.READ_ONLY, offset, sliceByteCount);
+			}
+			else {
+				PbdInputStream.Checkpoint start = sliceStarts[fileSlice];
+				long end = fileSlice + 1 < sliceStarts.length ? 
+						sliceStarts[fileSlice + 1].getOffset() : dataSize;
+				ByteBuffer compressed = channel.map(FileChannel.MapMode.READ_ONLY,
+						V3dRawImageStream.HEADER_SIZE + start.getOffset(), 
+						end - start.getOffset());
+				byte[] bytes = new byte[sliceByteCount];
+				V3dRawImageStream.readFully(
+						PbdInputStream.createPbdInputStream(compressed, pixelBytes, byteOrder, start),
+						bytes, sliceByteCount);
+				slice = ByteBuffer.wrap(bytes);
+			}
+			slice.order(byteOrder);
+			return createProcessor(slice);
+		}
+		catch (IOException exc) {
+			IJ.log("Error reading slice " + n + " of '" + file.getAbsolutePath() + "': " + exc);
+			return createProcessor(ByteBuffer.allocate(sliceByteCount));
+		}
+	}
+
+	private ImageProcessor createProcessor(ByteBuffer slice) {
+		int w = getWidth(), h = getHeight();
+		switch (pixelBytes) {
+		case 1:
+			byte[] ar8 = new byte[w * h];
+			slice.get(ar8);
+			return new ByteProcessor(w, h, ar8, null);
+		case 2:
+			short[] ar16 = new short[w * h];
+			slice.asShortBuffer().get(ar16);
+			return new ShortProcessor(w, h, ar16, null);
+		default:
+			float[] ar32 = new float[w * h];
+			slice.asFloatBuffer().get(ar32);
+			return new FloatProcessor(w, h, ar32, null);
+		}
+	}
+
+	@Override
+	public Object getPixels(int n) {
+		return getProcessor(n).getPixels();
+	}
+
+	/** Does nothing, the file is read-only. */
+	@Override
+	public void setPixels(Object pixels, int n) {}
+
+	@Override
+	public int getSize() {
+		return sizeZ * sizeC;
+	}
+
+	@Override
+	public String getSliceLabel(int n) {
+		return null;
+	}
+
+	@Override
+	public String getFileName(int n) {
+		return file.getName();
+	}
+
+	/** Deleting slices is not supported, the stack always mirrors the file. */
+	@Override
+	public void deleteSlice(int n) {}
+
+	/**
+	 * Closes the file.  Slices cannot be read afterwards.
+	 * 
+	 * @throws IOException
+	 */
+	public void close()
+	throws IOException
+	{
+		channel.close();
+	}
+}
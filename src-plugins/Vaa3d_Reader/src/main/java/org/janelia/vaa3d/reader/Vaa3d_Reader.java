@@ -28,11 +28,13 @@
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
+import java.net.URISyntaxException;
 import java.net.URL;
 import java.nio.ByteBuffer;
 
 import ij.IJ;
 import ij.CompositeImage;
+import ij.ImageListener;
 import ij.ImagePlus;
 import ij.gui.NewImage;
 import ij.io.OpenDialog;
@@ -47,6 +49,10 @@
 /**
  * Vaa3d_Reader class is a Fiji/ImageJ plugin for loading 
  * .v3draw (uncompressed) and .v3dpbd (compressed) 3D volume images.
+ * 
+ * Local files are opened as a virtual stack (see V3dVirtualStack) when 
+ * the plugin is run with the argument "virtual", or when the volume would
+ * not fit in the free memory.
  *
  * Based on example at 
  * http://albert.rierol.net/imagej_programming_tutorials.html#How%20to%20integrate%20a%20new%20file%20format%20reader%20and%20writer
@@ -62,11 +68,12 @@ public class Vaa3d_Reader extends ImagePlus implements PlugIn {
 	@Override
 	public void run(String fileName) {
 		// System.out.println("Running Vaa3d_Reader plugin");
-		URL url = getUrl(fileName);
+		boolean virtual = "virtual".equals(fileName);
+		URL url = getUrl(virtual ? null : fileName);
 		if (null == url)
 			return;
-        if (! parse(url)) return;  
-        if (null == fileName || 0 == fileName.trim().length()) 
+        if (! parse(url, virtual)) return;  
+        if (virtual || null == fileName || 0 == fileName.trim().length()) 
         	this.show(); // was opened by direct call to the plugin  
                          // not via HandleExtraFileTypes which would  
                          // have given a non-null arg.  
@@ -78,7 +85,7 @@ public void run(String fileName) {
 	 * @return null on error.
 	 */
     private URL getUrl(String arg) {
-    	File file = new File(arg);
+    	File file = new File(arg == null ? "" : arg);
     	try {
         	if (file.exists())
         		return file.toURI().toURL(); // File.toURL() is deprecated, so use File.toURI().toURL()
@@ -104,17 +111,37 @@ private URL getUrl(String arg) {
     }  
 
   
+    /**
+     * 
+     * @return the local file the URL points to, or <code>null</code>.
+     */
+    private static File getFile(URL url) {
+    	if (!"file".equals(url.getProtocol()))
+    		return null;
+    	try {
+    		return new File(url.toURI());
+    	}
+    	catch (URISyntaxException exc) {
+    		return new File(url.getPath());
+    	}
+    	catch (IllegalArgumentException exc) {
+    		return null;
+    	}
+    }
+
     /**
      * Reads a volume image and populates this <code>ImagePlus</code>.
      * 
      * @param url points to the input .v3draw format volume image
+     * @param virtual whether to open a local file as a virtual stack
      * @return <code>true</code> on success
      */
-    private boolean parse(URL url) {  
+    private boolean parse(URL url, boolean virtual) {  
         // Open file and read header
     	V3dRawImageStream sliceStream;
+    	InputStream is;
         try {
-            InputStream is = url.openStream();
+            is = url.openStream();
     		sliceStream = new V3dRawImageStream(is);
         } catch (Exception e) {
             e.printStackTrace();
@@ -127,6 +154,38 @@ private boolean parse(URL url) {
         int n_channels = sliceStream.getDimension(3);
         int bytesPerPixel  = sliceStream.getPixelBytes();
 
+        File file = getFile(url);
+        long volumeBytes = (long)width * height * n_slices * n_channels * bytesPerPixel;
+        long freeMemory = IJ.maxMemory() - IJ.currentMemory();
+        if (file != null && (virtual || (IJ.maxMemory() > 0 && volumeBytes > freeMemory))) {
+        	close(is);
+        	return parseVirtual(file);
+        }
+        try {
+        	return parse(url, sliceStream, file);
+        }
+        finally {
+        	close(is);
+        }
+    }
+
+    private static void close(InputStream is) {
+    	try {
+    		is.close();
+    	}
+    	catch (IOException exc) {}
+    }
+
+    /**
+     * Loads all slices of a volume image into this <code>ImagePlus</code>.
+     */
+    private boolean parse(URL url, V3dRawImageStream sliceStream, File file) {
+        int width = sliceStream.getDimension(0);
+        int height = sliceStream.getDimension(1);
+        int n_slices = sliceStream.getDimension(2);
+        int n_channels = sliceStream.getDimension(3);
+        int bytesPerPixel  = sliceStream.getPixelBytes();
+
         // actually parse image file
     	if (!Interpreter.isBatchMode())
     		IJ.showStatus("Allocating volume memory...");
@@ -199,6 +258,12 @@ private boolean parse(URL url) {
         
         // hyperStack.show(); // for testing only
         
+        // Remember where the slices start, for opening the file as a 
+        // virtual stack later
+        PbdInputStream.Checkpoint[] sliceStarts = sliceStream.getSliceStarts();
+        if (file != null && sliceStarts != null)
+        	V3dVirtualStack.putSliceStarts(file, sliceStarts);
+
         setImage(hyperStack);
         setTitle(hyperStack.getTitle());
         /*
@@ -206,7 +271,81 @@ private boolean parse(URL url) {
         setType(hyperStack.getType());
         */
 
-        // Adjust display range for each channel
+        setDisplayRanges(max);
+        return true;  
+    }  
+
+    /**
+     * Opens a local volume image as a virtual stack in this 
+     * <code>ImagePlus</code>.
+     */
+    private boolean parseVirtual(File file) {
+    	if (!Interpreter.isBatchMode())
+    		IJ.showStatus("Opening virtual stack...");
+    	V3dVirtualStack stack;
+    	try {
+    		stack = new V3dVirtualStack(file);
+    	}
+    	catch (IOException exc) {
+    		exc.printStackTrace();
+    		return false;
+    	}
+    	int n_channels = stack.getChannels();
+    	int n_slices = stack.getSlices();
+    	ImagePlus hyperStack = new ImagePlus(file.getName(), stack);
+    	hyperStack.setDimensions(n_channels, n_slices, 1);
+    	if (n_channels > 1) {
+    		hyperStack = new CompositeImage(hyperStack, CompositeImage.COMPOSITE);
+    		hyperStack.setOpenAsHyperStack(true);
+    	}
+    	if (!Interpreter.isBatchMode())
+    		IJ.showStatus("");
+
+    	setImage(hyperStack);
+    	setTitle(hyperStack.getTitle());
+    	closeWithImage(stack);
+
+    	// Display range from the middle Z-slice of each channel, as 
+    	// measuring the whole volume would read it all.
+    	double max[] = new double[n_channels];
+    	for (int c = 0; c < n_channels; ++c) {
+    		ImageProcessor ip = stack.getProcessor((n_slices / 2) * n_channels + c + 1);
+    		ip.resetMinAndMax();
+    		max[c] = ip.getMax();
+    	}
+    	setDisplayRanges(max);
+    	return true;
+    }
+
+    /**
+     * Closes the file of a virtual stack once the image showing it is 
+     * closed, so that it is neither leaked nor kept locked.
+     */
+    private void closeWithImage(final V3dVirtualStack stack) {
+    	ImagePlus.addImageListener(new ImageListener() {
+    		public void imageOpened(ImagePlus image) {}
+    		public void imageUpdated(ImagePlus image) {}
+    		public void imageClosed(ImagePlus image) {
+    			// the opener may show the stack in an image of its own
+    			if (image != Vaa3d_Reader.this 
+    					&& (image.getStackSize() < 2 || image.getStack() != stack))
+    				return;
+    			ImagePlus.removeImageListener(this);
+    			try {
+    				stack.close();
+    			}
+    			catch (IOException exc) {
+    				exc.printStackTrace();
+    			}
+    		}
+    	});
+    }
+
+    /**
+     * Adjusts the display range of each channel to its maximum intensity.
+     */
+    private void setDisplayRanges(double[] max) {
+    	int n_channels = max.length;
         setCalibration(new Calibration(this));
         for (int c = 0; c < n_channels; ++c) {
         	setC(c+1);
@@ -224,7 +363,5 @@ private boolean parse(URL url) {
         setC(1);
         
         setOpenAsHyperStack(true); // don't interleave channel slices
-        
-        return true;  
-    }  
+    }
 }
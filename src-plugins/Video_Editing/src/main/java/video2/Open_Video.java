@@ -73,8 +73,8 @@ public void imageClosed(ImagePlus image) {
 					 */
 					stack.setPixels(imp.getProcessor().getPixels(),
 						imp.getCurrentSlice());
-					System.out.println("Saving indices file");
-					stack.saveIndicesFile();
+					System.out.println("Saving frames and indices file");
+					stack.close();
 				}
 			}
 		});
@@ -2,6 +2,8 @@
 
 import java.util.List;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import java.io.File;
 import java.io.BufferedReader;
@@ -14,6 +16,8 @@
 import ij.IJ;
 import ij.ImageStack;
 import ij.ImagePlus;
+import ij.io.FileSaver;
+import ij.io.Opener;
 import ij.process.ImageProcessor;
 import ij.process.ColorProcessor;
 
@@ -22,6 +26,14 @@
  * In the same folder as the images, a file 'indices' is stored, which
  * holds the order in which the indices occur. The names of the image
  * files are restricted to be in the format int + ".tif".
+ *
+ * Recently used frames are kept in memory, so that scrolling back and
+ * forth does not read them again. Changed and added frames are written
+ * back by a background thread; a frame changed several times before it
+ * is written is only written once. Call flush() to wait until all
+ * frames are written, and close() when the stack is not used any more.
+ * The frames in memory are never modified: getProcessor() returns
+ * a copy, and setPixels() and addSlice() store one.
  */
 public class WritableVirtualStack extends ImageStack {
 
@@ -40,6 +52,25 @@ public class WritableVirtualStack extends ImageStack {
 	/** A list of integers, storing the order of the files. */
 	private List<Integer> indices;
 
+	/** The maximum number of frames in memory, cached or pending. */
+	private final int maxFrames;
+
+	/** Recently used frames by file index, the least recent first. */
+	private final LinkedHashMap<Integer, ImageProcessor> cache;
+
+	/** Frames to write by file index, the oldest first. */
+	private final LinkedHashMap<Integer, ImageProcessor> pending =
+		new LinkedHashMap<Integer, ImageProcessor>();
+
+	/** The file index being written, or -1. */
+	private int writing = -1;
+
+	/** The thread writing the pending frames. */
+	private Thread writer;
+
+	/** Whether the writer should stop once all frames are written. */
+	private boolean closed;
+
 	/**
 	 * Creates a new Writable Stack, using the given directory
 	 * as a folder for the individual images.
@@ -56,8 +87,7 @@ public WritableVirtualStack(String dir, int w, int h) {
 		this.dir = dir;
 		open();
 		if(nSlices != 0) {
-			this.template = IJ.openImage(dir + "/" + getFileName(1))
-						.getProcessor();
+			this.template = readFrame(getFileName(1));
 			if(template.getWidth() != w && template.getHeight() != h)
 				throw new IllegalArgumentException(
 					"Specified image dimensions do not fit to " +
@@ -65,6 +95,8 @@ public WritableVirtualStack(String dir, int w, int h) {
 		} else {
 			this.template = new ColorProcessor(w, h);
 		}
+		maxFrames = maxFrames(template);
+		cache = createCache(maxFrames);
 	}
 
 	/**
@@ -82,8 +114,56 @@ public WritableVirtualStack(String dir) {
 		if(nSlices == 0)
 			throw new RuntimeException("Specified directory is empty, "
 				+ "and no dimensions are specified");
-		this.template = IJ.openImage(
-			dir + "/" + getFileName(1)).getProcessor();
+		this.template = readFrame(getFileName(1));
+		maxFrames = maxFrames(template);
+		cache = createCache(maxFrames);
+	}
+
+	/**
+	 * Returns how many frames of the template's size may be kept in
+	 * memory: those fitting into an eighth of the maximum heap, but
+	 * at least 4 and at most 256.
+	 */
+	private static int maxFrames(ImageProcessor template) {
+		long frameBytes = 4L * template.getWidth()
+			* template.getHeight();
+		long frames = Runtime.getRuntime().maxMemory() / 8
+			/ Math.max(frameBytes, 1);
+		return (int)Math.max(4, Math.min(256, frames));
+	}
+
+	/**
+	 * Creates an access ordered map dropping the least recently used
+	 * frame when there are more than max.
+	 */
+	private static LinkedHashMap<Integer, ImageProcessor> createCache(
+			final int max) {
+		return new LinkedHashMap<Integer, ImageProcessor>(16,
+				0.75f, true) {
+			protected boolean removeEldestEntry(
+				Map.Entry<Integer, ImageProcessor> eldest) {
+				return size() > max;
+			}
+		};
+	}
+
+	/**
+	 * Reads the given frame file. The frames are uncompressed TIFFs,
+	 * which are opened directly, without detecting the file type.
+	 */
+	private ImageProcessor readFrame(String name) {
+		ImagePlus imp = new Opener().openTiff(dir + "/", name);
+		if (imp != null)
+			return imp.getProcessor();
+		return null;
+	}
+
+	/**
+	 * Writes the given frame as uncompressed TIFF.
+	 */
+	private void writeFrame(ImageProcessor ip, int index) {
+		new FileSaver(new ImagePlus("", ip))
+			.saveAsTiff(dir + "/" + index + ".tif");
 	}
 
 	/**
@@ -140,6 +220,97 @@ public int getHeight() {
 		return template.getHeight();
 	}
 
+	/**
+	 * Stores the given frame and queues it for writing. If there are
+	 * too many frames queued, waits until the writer catches up.
+	 */
+	private synchronized void store(int index, ImageProcessor ip) {
+		cache.put(index, ip);
+		pending.remove(index);
+		pending.put(index, ip);
+		if(writer == null || !writer.isAlive()) {
+			closed = false;
+			writer = new Thread(new Runnable() {
+				public void run() {
+					writeFrames();
+				}
+			}, "Writing " + dir);
+			writer.setDaemon(true);
+			writer.start();
+		}
+		notifyAll();
+		while(pending.size() > maxFrames)
+			waitForWriter();
+	}
+
+	/**
+	 * The loop of the writer thread: writes the pending frames, the
+	 * oldest first, until the stack is closed and nothing is pending.
+	 */
+	private void writeFrames() {
+		for(;;) {
+			int index;
+			ImageProcessor ip;
+			synchronized(this) {
+				while(pending.isEmpty() && !closed)
+					waitForWriter();
+				if(pending.isEmpty())
+					return;
+				Map.Entry<Integer, ImageProcessor> first =
+					pending.entrySet().iterator().next();
+				index = first.getKey();
+				ip = first.getValue();
+				writing = index;
+			}
+			try {
+				writeFrame(ip, index);
+			} catch(RuntimeException e) {
+				IJ.handleException(e);
+			}
+			synchronized(this) {
+				// unless it was changed again meanwhile
+				if(pending.get(index) == ip)
+					pending.remove(index);
+				writing = -1;
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Waits to be notified by the writer, or by a frame to write.
+	 */
+	private synchronized void waitForWriter() {
+		try {
+			wait();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Waits until all changed and added frames are written to disk.
+	 */
+	public synchronized void flush() {
+		while(!pending.isEmpty() || writing != -1)
+			waitForWriter();
+	}
+
+	/**
+	 * Writes all changed and added frames and the 'indices' file,
+	 * and stops the writer thread. The stack may still be used
+	 * afterwards.
+	 */
+	public void close() {
+		flush();
+		saveIndicesFile();
+		synchronized(this) {
+			closed = true;
+			notifyAll();
+		}
+	}
+
 	/**
 	 * Saves the 'indices' file to the image directory.
 	 */
@@ -200,24 +371,29 @@ public void addSlice(String name, ImageProcessor ip) {
 	 * @param ip   The ImageProcessor for the new slice.
 	 * @param n    The position of the slice, 0 to add it at the beginning.
 	 */
-	public void addSlice(String name, ImageProcessor ip, int n) {
+	public synchronized void addSlice(String name, ImageProcessor ip,
+			int n) {
 		nSlices++;
 		highestIndex++;
 		indices.add(n, highestIndex);
-		IJ.save(new ImagePlus("", ip), dir + "/" + highestIndex + ".tif");
+		store(highestIndex, ip.duplicate());
 	}
 
 	/**
 	 * Deletes the specified slice.
 	 * @param n The position of the slice to delete, were 1 <= n <= nslices.
 	 */
-	public void deleteSlice(int n) {
+	public synchronized void deleteSlice(int n) {
 		if(n < 1 || n > nSlices)
 			return;
 
 		int index = indices.get(n - 1);
 		File f = new File(dir, getFileName(n));
 		indices.remove(n - 1);
+		cache.remove(index);
+		pending.remove(index);
+		while(writing == index)
+			waitForWriter();
 		f.delete();
 		nSlices--;
 		if(index == highestIndex)
@@ -249,12 +425,13 @@ public Object getPixels(int n) {
 	 * @param pixels The pixel array to be assigned.
 	 * @param n      The slice index, were 1 <= n <= nslices.
 	 */
-	public void setPixels(Object pixels, int n) {
-		ImageProcessor ip = getProcessor(n);
-		if(ip == null)
+	public synchronized void setPixels(Object pixels, int n) {
+		if(n < 1 || n > nSlices)
 			return;
+		ImageProcessor ip = template.createProcessor(
+			getWidth(), getHeight());
 		ip.setPixels(pixels);
-		IJ.save(new ImagePlus("", ip), dir + "/" + getFileName(n));
+		store(indices.get(n - 1), ip.duplicate());
 	}
 
 	/**
@@ -262,12 +439,20 @@ public void setPixels(Object pixels, int n) {
 	 * @param n The slice index, where 1 <= n <= nSlices.
 	 * @return null if the stack is empty.
 	 */
-	public ImageProcessor getProcessor(int n) {
-		ImagePlus imp = IJ.openImage(dir + "/" + getFileName(n));
-		if (imp != null)
-			return imp.getProcessor();
-		return null;
-	 }
+	public synchronized ImageProcessor getProcessor(int n) {
+		int index = indices.get(n - 1);
+		ImageProcessor ip = cache.get(index);
+		if(ip == null) {
+			// a frame dropped from the cache may not be written yet
+			ip = pending.get(index);
+			if(ip == null)
+				ip = readFrame(getFileName(n));
+			if(ip == null)
+				return null;
+			cache.put(index, ip);
+		}
+		return ip.duplicate();
+	}
 
 	/**
 	 * Returns the number of slices in this stack.
@@ -0,0 +1,274 @@
+package fiji.plugin.volumeviewer;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Empty space skipping for the ray casting in Pic.render_volume().
+ *
+ * The volume is divided into bricks of 8x8x8 voxels, and the bricks into
+ * groups of 4x4x4 bricks. For every brick, the minimum and maximum of the
+ * volume data it depends on are computed once per data array. Before
+ * each frame, the bricks are marked empty if the transfer function is 0
+ * for all values between these bounds; a group is empty if all its bricks
+ * are. A ray entering an empty group or brick can then jump to where it
+ * leaves it, because every sample in between would have been skipped
+ * (alpha == 0) anyway.
+ */
+class Bricks {
+
+	static final int SHIFT = 3;					// bricks of 8x8x8 voxels
+	static final int GROUP_SHIFT = 2;			// groups of 4x4x4 bricks
+
+	private final Volume vol;
+	private final int nx, ny, nz;				// number of bricks
+	private final int gx, gy, gz;				// number of groups
+
+	// min and max (interleaved) of the bricks, per data array
+	private final Map<byte[][][], byte[]> minMax = new IdentityHashMap<byte[][][], byte[]>();
+
+	private boolean[] empty;
+	private boolean[] emptyGroup;
+	private int emptyBricks;
+
+	Bricks(Volume vol) {
+		this.vol = vol;
+		nx = (vol.widthV >> SHIFT) + 1;
+		ny = (vol.heightV >> SHIFT) + 1;
+		nz = (vol.depthV >> SHIFT) + 1;
+		gx = ((nx - 1) >> GROUP_SHIFT) + 1;
+		gy = ((ny - 1) >> GROUP_SHIFT) + 1;
+		gz = ((nz - 1) >> GROUP_SHIFT) + 1;
+	}
+
+	/*
+	 * Forget the bounds of a data array that was changed (e.g. by painting).
+	 */
+	synchronized void invalidate(byte[][][] data) {
+		minMax.remove(data);
+	}
+
+	/*
+	 * A sample at volume position x lies in brick x >> SHIFT, and the
+	 * interpolation reads the array indices (int)(x+0.5) .. (int)(x+0.5)+3
+	 * (the arrays have a border of 2 voxels), so a brick bx depends on the
+	 * indices 8*bx .. 8*bx+11. These are covered by the 8x8x8 cells bx and
+	 * bx+1 of the array, so the bounds of the cells are computed first.
+	 */
+	private synchronized byte[] getMinMax(final byte[][][] data) {
+		byte[] result = minMax.get(data);
+		if (result != null)
+			return result;
+
+		final int w = data[0][0].length, h = data[0].length, d = data.length;
+		final int cx = ((w - 1) >> SHIFT) + 1, cy = ((h - 1) >> SHIFT) + 1, cz = ((d - 1) >> SHIFT) + 1;
+		final byte[] cells = new byte[2 * cx * cy * cz];
+
+		final AtomicInteger nextSlab = new AtomicInteger(0);
+		Thread[] threads = new Thread[Math.min(cz, Runtime.getRuntime().availableProcessors())];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread() {
+				public void run() {
+					for (int k = nextSlab.getAndIncrement(); k < cz; k = nextSlab.getAndIncrement()) {
+						int z1 = Math.min(d, (k + 1) << SHIFT);
+						for (int j = 0; j < cy; j++) {
+							int y1 = Math.min(h, (j + 1) << SHIFT);
+							for (int i = 0; i < cx; i++) {
+								int x1 = Math.min(w, (i + 1) << SHIFT);
+								int min = 255, max = 0;
+								for (int z = k << SHIFT; z < z1; z++)
+									for (int y = j << SHIFT; y < y1; y++) {
+										byte[] row = data[z][y];
+										for (int x = i << SHIFT; x < x1; x++) {
+											int val = row[x] & 0xff;
+											if (val < min) min = val;
+											if (val > max) max = val;
+										}
+									}
+								int index = 2 * ((k * cy + j) * cx + i);
+								cells[index] = (byte) min;
+								cells[index + 1] = (byte) max;
+							}
+						}
+					}
+				}
+			};
+			threads[t].start();
+		}
+		try {
+			for (int t = 0; t < threads.length; t++)
+				threads[t].join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		}
+
+		result = new byte[2 * nx * ny * nz];
+		for (int bz = 0; bz < nz; bz++)
+			for (int by = 0; by < ny; by++)
+				for (int bx = 0; bx < nx; bx++) {
+					int min = 255, max = 0;
+					for (int k = bz; k <= bz + 1 && k < cz; k++)
+						for (int j = by; j <= by + 1 && j < cy; j++)
+							for (int i = bx; i <= bx + 1 && i < cx; i++) {
+								int index = 2 * ((k * cy + j) * cx + i);
+								min = Math.min(min, cells[index] & 0xff);
+								max = Math.max(max, cells[index + 1] & 0xff);
+							}
+					int index = 2 * ((bz * ny + by) * nx + bx);
+					result[index] = (byte) min;
+					result[index + 1] = (byte) max;
+				}
+		minMax.put(data, result);
+		return result;
+	}
+
+	/*
+	 * The range of values the interpolation can return for a brick: the
+	 * truncation to int may lose 1, and the cubic polynomial interpolation
+	 * may overshoot by less than half the spread of the values.
+	 */
+	private static int low(int min, int max, int interpolationMode) {
+		if (max == 0)
+			return 0;
+		int margin = 1;
+		if (interpolationMode == Control.TRICUBIC_POLYNOMIAL)
+			margin += (max - min + 1) / 2;
+		return Math.max(0, min - margin);
+	}
+
+	private static int high(int min, int max, int interpolationMode) {
+		if (max == 0)
+			return 0;
+		int margin = 1;
+		if (interpolationMode == Control.TRICUBIC_POLYNOMIAL)
+			margin += (max - min + 1) / 2;
+		return Math.min(255, max + margin);
+	}
+
+	/*
+	 * Counts the non-zero entries of a table, so that the number of
+	 * non-zero entries in a rectangle can be looked up in constant time.
+	 */
+	private static int[][] nonZeroCounts(float[][] table) {
+		int[][] counts = new int[table.length + 1][table[0].length + 1];
+		for (int i = 0; i < table.length; i++)
+			for (int j = 0; j < table[i].length; j++)
+				counts[i + 1][j + 1] = counts[i][j + 1] + counts[i + 1][j] - counts[i][j]
+						+ (table[i][j] != 0 ? 1 : 0);
+		return counts;
+	}
+
+	/*
+	 * Marks the empty bricks for the current transfer function and the
+	 * given interpolation mode. Returns false if there are none, so that the
+	 * renderer need not check for them at all.
+	 */
+	boolean update(Control control, Volume_Viewer vv, int mode) {
+		byte[] bounds1, bounds2 = null;
+		int[][] counts;
+		int max2 = 255;
+
+		if (control.alphaMode == Control.ALPHA1) {
+			bounds1 = getMinMax(vol.data3D[0]);
+			counts = nonZeroCounts(new float[][] { vv.a1_R });
+		}
+		else if (control.alphaMode == Control.ALPHA2) {
+			bounds1 = getMinMax(vol.data3D[0]);
+			bounds2 = getMinMax(vol.grad3D);
+			counts = nonZeroCounts(vv.a2_R);
+			max2 = 127;
+		}
+		else if (control.alphaMode == Control.ALPHA3) {
+			bounds1 = getMinMax(vol.mean3D);
+			bounds2 = getMinMax(vol.diff3D);
+			counts = nonZeroCounts(vv.a3_R);
+			max2 = 127;
+		}
+		else { // ALPHA4: transparent where nothing was painted
+			bounds1 = getMinMax(vol.aPaint_3D);
+			counts = null;
+		}
+		if (bounds1 == null || (bounds2 == null && (control.alphaMode == Control.ALPHA2 || control.alphaMode == Control.ALPHA3)))
+			return false;
+
+		boolean[] empty = new boolean[nx * ny * nz];
+		int emptyBricks = 0;
+		for (int b = 0; b < empty.length; b++) {
+			int min1 = bounds1[2 * b] & 0xff, max1 = bounds1[2 * b + 1] & 0xff;
+			int lo1 = low(min1, max1, mode), hi1 = high(min1, max1, mode);
+			int lo2 = 0, hi2 = 0;
+			if (bounds2 != null) {
+				int min2 = bounds2[2 * b] & 0xff, max2b = bounds2[2 * b + 1] & 0xff;
+				lo2 = Math.min(max2, low(min2, max2b, mode));
+				hi2 = Math.min(max2, high(min2, max2b, mode));
+			}
+			if (counts == null)
+				empty[b] = hi1 == 0;
+			else if (bounds2 == null) // ALPHA1: counts has a single row
+				empty[b] = counts[1][hi1 + 1] - counts[1][lo1] == 0;
+			else
+				empty[b] = counts[hi1 + 1][hi2 + 1] - counts[lo1][hi2 + 1]
+						- counts[hi1 + 1][lo2] + counts[lo1][lo2] == 0;
+			if (empty[b])
+				emptyBricks++;
+		}
+
+		boolean[] emptyGroup = new boolean[gx * gy * gz];
+		Arrays.fill(emptyGroup, true);
+		for (int bz = 0; bz < nz; bz++)
+			for (int by = 0; by < ny; by++)
+				for (int bx = 0; bx < nx; bx++)
+					if (!empty[(bz * ny + by) * nx + bx])
+						emptyGroup[((bz >> GROUP_SHIFT) * gy + (by >> GROUP_SHIFT)) * gx + (bx >> GROUP_SHIFT)] = false;
+
+		this.empty = empty;
+		this.emptyGroup = emptyGroup;
+		this.emptyBricks = emptyBricks;
+		return emptyBricks > 0;
+	}
+
+	/*
+	 * The fraction of the bricks which were found to be empty by the last
+	 * call to update().
+	 */
+	float getEmptyFraction() {
+		return empty == null ? 0 : emptyBricks / (float) empty.length;
+	}
+
+	/*
+	 * Returns how many samples of a ray, starting with the one at (xV, yV, zV)
+	 * and advancing by (dxV, dyV, dzV), lie in the same empty group or brick,
+	 * or 0 if the sample is not in an empty brick. The position must be inside
+	 * the volume.
+	 */
+	int skip(float xV, float yV, float zV, float dxV, float dyV, float dzV) {
+		int x = (int) xV, y = (int) yV, z = (int) zV;
+		int bx = x >> SHIFT, by = y >> SHIFT, bz = z >> SHIFT;
+		int shift;
+		if (emptyGroup[((bz >> GROUP_SHIFT) * gy + (by >> GROUP_SHIFT)) * gx + (bx >> GROUP_SHIFT)])
+			shift = SHIFT + GROUP_SHIFT;
+		else if (empty[(bz * ny + by) * nx + bx])
+			shift = SHIFT;
+		else
+			return 0;
+
+		float t = Math.min(exit(xV, dxV, (x >> shift) << shift, 1 << shift),
+				Math.min(exit(yV, dyV, (y >> shift) << shift, 1 << shift),
+						exit(zV, dzV, (z >> shift) << shift, 1 << shift)));
+		return t < 1 ? 1 : t > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) t;
+	}
+
+	/*
+	 * The number of steps after which p + step * d leaves [start, start + size).
+	 */
+	private static float exit(float p, float d, int start, int size) {
+		if (d > 0)
+			return (start + size - p) / d;
+		if (d < 0)
+			return (start - p) / d;
+		return Float.POSITIVE_INFINITY;
+	}
+}
@@ -15,10 +15,13 @@
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.swing.SwingWorker;
 import javax.swing.UIManager;
 
+import ij.IJ;
+
 public  class Pic {
 
 	BufferedImage image;
@@ -561,7 +564,7 @@ public void render_SliceAndBorders(){
 		updateImage();
 	}
 
-	private int maxThreads = 8;
+	private int maxThreads = Runtime.getRuntime().availableProcessors();
 	private int numThreads = 1;
 	private int subMax;
 	private int counter = 0;
@@ -572,12 +575,15 @@ public void render_SliceAndBorders(){
 	private float[] light;
 	private boolean lastReady;
 	private boolean isRGB;
+	private boolean skipEmpty;
+	private long renderStart;
 
 
 	public void render_volume(int sub){
 		if (control.LOG) System.out.println("render volume, sub: " + sub);
 		
 		isRendering = true;
+		renderStart = System.currentTimeMillis();
 		counter = numThreads = (sub == subMax) ? 1 : maxThreads;
 		
 		setPixelsToZero();
@@ -649,22 +655,29 @@ else if (control.alphaMode == Control.ALPHA3) {
 				}
 			}
 		}
+		// the painted alpha may have changed
+		if (control.alphaWasChanged)
+			vv.vol.bricks.invalidate(vv.vol.aPaint_3D);
+
 		// calculate gradient from alpha
 		if ((!control.drag && control.alphaWasChanged)) 
 			vv.vol.calculateGradients();
 
 		volData3D = vv.vol.data3D[0];
+
+		// find the bricks which are completely transparent (the rendering 
+		// threads may already see the restored interpolation mode)
+		skipEmpty = vv.vol.bricks.update(control, vv, actualInterpolationMode);
 		
 		ySmin = (ySmin/sub)*sub;
-		int stripHeight = (ySmax-ySmin) / numThreads;
-		stripHeight = (stripHeight/sub) *sub;
-		int stripStart = ySmin;
 
 		isRGB = control.isRGB && control.lutNr == 0;
 		
-		for(int i = 0; i < numThreads-1; i++, stripStart += stripHeight) 
-			new RenderCalculations(sub, nd, dxV, dyV, dzV, xSmin, xSmax, stripStart, stripStart+stripHeight, zSmin).execute();
-		new RenderCalculations(sub, nd, dxV, dyV, dzV, xSmin, xSmax, stripStart, stripStart+stripHeight, zSmin).execute();
+		// the rows are handed out in blocks of sub rows, so that threads
+		// working on mostly transparent parts of the image take more rows
+		AtomicInteger nextRow = new AtomicInteger(ySmin);
+		for(int i = 0; i < numThreads; i++) 
+			new RenderCalculations(sub, nd, dxV, dyV, dzV, xSmin, xSmax, ySmin, ySmax, zSmin, nextRow).execute();
 			
 		control.interpolationMode = actualInterpolationMode;			
 	}
@@ -674,9 +687,10 @@ private class RenderCalculations extends SwingWorker<Void, Void> {
 
 		private int sub, nd, xSMin, xSMax, ySMin, ySMax;
 		private float dxV, dyV, dzV, zSMin;
+		private AtomicInteger nextRow;
 		
 		public RenderCalculations(int sub, int nd, float dxV, float dyV, float dzV, 
-				int xSMin, int xSMax, int ySMin, int ySMax, float zSMin) {
+				int xSMin, int xSMax, int ySMin, int ySMax, float zSMin, AtomicInteger nextRow) {
 			this.sub = sub;
 			this.nd = nd;
 			this.dxV = dxV;
@@ -687,6 +701,7 @@ public RenderCalculations(int sub, int nd, float dxV, float dyV, float dzV,
 			this.ySMin = ySMin;
 			this.ySMax = ySMax;
 			this.zSMin = zSMin;
+			this.nextRow = nextRow;
 		}
 
 		@Override
@@ -706,8 +721,13 @@ protected void done(){
 			else if (!doStopRendering && counter == 0) {
 				updateImage();
 				isRendering = false;
-				if (sub==1)
+				long time = System.currentTimeMillis() - renderStart;
+				if (control.LOG) System.out.println("rendered volume, sub: " + sub + ", threads: " + numThreads + ", " + time + " ms, " 
+						+ (skipEmpty ? (int)(100*vv.vol.bricks.getEmptyFraction()) : 0) + "% empty bricks");
+				if (sub==1) {
+					IJ.showStatus("Volume rendered in " + time + " ms");
 					vv.gui.signalReady();
+				}
 				vv.gui.imageRegion.paintImmediately(0, 0, vv.gui.imageRegion.getWidth(), vv.gui.imageRegion.getHeight());
 				
 				if (isWaitingForRendering) {
@@ -733,7 +753,8 @@ private Void doRendering() {
 
 			// Startpunkt xSMin ySMin zSMin (tiefster Punkt) in Screenkoordinaten
 			float[] xyzV = vv.trScreen2Vol(xSMin+s_2, ySMin+s_2, zSMin);
-			float x0V = xyzV[0], y0V = xyzV[1], z0V = xyzV[2]; 
+			float x00V = xyzV[0], y00V = xyzV[1], z00V = xyzV[2]; 
+			float x0V = x00V, y0V = y00V, z0V = z00V; 
 
 			// inkrementelle Aenderung in Volumenkoordinaten
 			xyzV = vv.trScreen2Vol(xSMin+s_2+1, ySMin+s_2, zSMin);
@@ -742,8 +763,18 @@ private Void doRendering() {
 			xyzV = vv.trScreen2Vol(xSMin+s_2, ySMin+s_2+1, zSMin);
 			float dxVy = xyzV[0] - x0V, dyVy = xyzV[1] - y0V, dzVy = xyzV[2] - z0V; 
 
+			Bricks bricks = vv.vol.bricks;
 
-			for (int yS = ySMin; yS < ySMax; yS++) {				
+			for (int yS = nextRow.getAndAdd(sub), yEnd = yS + sub; yS < ySMax; yS++) {				
+				if (yS == yEnd) { // take the next block of rows
+					yS = nextRow.getAndAdd(sub);
+					yEnd = yS + sub;
+					if (yS >= ySMax)
+						break;
+				}
+				x0V = x00V + (yS-ySMin)*dxVy; 
+				y0V = y00V + (yS-ySMin)*dyVy; 
+				z0V = z00V + (yS-ySMin)*dzVy; 
 				for (int j=0, xS = xSMin; xS < xSMax; xS++, j++) {
 					if (doStopRendering) return null;
 					if (vv.cube.isInside(xS, yS)) {
@@ -788,6 +819,19 @@ else if(zV > vv.vol.depthV)
 								if (xV >= 0 && xV <= vv.vol.widthV && yV >= 0 && yV <= vv.vol.heightV && zV >= 0 && zV <= vv.vol.depthV) { 
 									hasBeenInTheVolume = true;
 									
+									if (skipEmpty) {
+										// jump over the samples in an empty brick, they all have alpha 0
+										int skip = bricks.skip(xV, yV, zV, dxV, dyV, dzV) - 1;
+										if (skip >= 0) {
+											if (skip > nd - n) skip = nd - n;
+											n += skip;
+											xV += skip*dxV;
+											yV += skip*dyV;
+											zV += skip*dzV;
+											continue;
+										}
+									}
+									
 									if (control.alphaMode == Control.ALPHA1) {
 										val = interpolation.get(volData3D, zV, yV, xV);
 										a = vv.a1_R[val];
@@ -950,9 +994,6 @@ else if (control.renderMode == Control.PROJECTION) {
 						}
 					}	
 				}
-				x0V += dxVy; 
-				y0V += dyVy; 
-				z0V += dzVy; 
 			}
 			return null;
 		}
@@ -40,6 +40,8 @@ public class Volume {
 	byte[][][] ny_3D = null;
 	byte[][][] nz_3D = null;
 
+	Bricks bricks = null;	// for skipping empty space when rendering
+
 	private double a = 0, b = 1;
 	private double min, max;
 
@@ -97,6 +99,8 @@ public Volume(Control control, Volume_Viewer vv){
 		getMinMax();
 
 		readVolumeData();
+
+		bricks = new Bricks(this);
 	}
 	
 	void getMinMax() {
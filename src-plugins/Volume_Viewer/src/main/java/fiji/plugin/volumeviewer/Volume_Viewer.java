@@ -241,6 +241,8 @@ private void cleanup() {
 		vol.ny_3D = null;
 		vol.nz_3D = null;
 
+		vol.bricks = null;
+
 		vol.histValGrad = null; 
 		vol.histMeanDiff = null; 
 		vol.histVal =  null;			
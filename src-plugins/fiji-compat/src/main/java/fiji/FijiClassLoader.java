@@ -13,12 +13,16 @@
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.security.CodeSource;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
 
 import org.scijava.util.ProcessUtils;
 
@@ -34,6 +38,12 @@ public class FijiClassLoader extends URLClassLoader {
 
 	List<ClassLoader> fallBacks;
 	Map<String, String> classMap;
+	JarIndex jarIndex;
+	/** the class path as local files, in search order; null for other entries */
+	List<File> classPathFiles;
+	/** the class path position of the first indexed .jar file containing each class */
+	Map<String, Integer> indexedClasses;
+	Map<String, JarFile> openJars;
 
 	public FijiClassLoader() {
 		super(new URL[0], getDefaultParent());
@@ -67,8 +77,13 @@ public FijiClassLoader(boolean initDefaults) {
 				updatePlugins = new File(updateDir, "jars");
 				getNewerJars(classPath, jars, updatePlugins, true);
 				getNewerJars(classPath, updatePlugins, jars, false);
+				jarIndex = JarIndex.getDefault();
+				jarIndex.update(classPath);
+				openJars = new HashMap<String, JarFile>();
 				for (File file : classPath)
 					addFile(file);
+				indexClassPath();
+				jarIndex.save();
 			}
 			else
 				addClassMap(System.getProperty("jnlp_class_map"));
@@ -275,6 +290,122 @@ public synchronized Class<?> loadClass(String name, boolean resolve,
 		return super.loadClass(name, resolve);
 	}
 
+	/**
+	 * Remembers, for every class in the indexed .jar files, the first .jar
+	 * file on the class path containing it, i.e. the one the
+	 * <code>URLClassLoader</code> would load it from.
+	 */
+	protected void indexClassPath() {
+		classPathFiles = new ArrayList<File>();
+		indexedClasses = new HashMap<String, Integer>();
+		for (URL url : getURLs()) {
+			File file = null;
+			if ("file".equals(url.getProtocol())) try {
+				file = new File(url.toURI());
+			} catch (Exception e) {
+				// not a local file
+			}
+			int position = classPathFiles.size();
+			if (file != null && file.getName().endsWith(".jar")) try {
+				for (String classEntry : jarIndex.get(file).classEntries) {
+					String name = classEntry.substring(0, classEntry.length() - 6).replace('/', '.');
+					if (!indexedClasses.containsKey(name))
+						indexedClasses.put(name, position);
+				}
+			} catch (IOException e) {
+				// contents unknown; classes after it are searched the slow way
+				file = null;
+			}
+			classPathFiles.add(file);
+		}
+	}
+
+	/**
+	 * Finds a class, looking only into the .jar file the {@link JarIndex}
+	 * knows to contain it instead of opening every .jar file on the class path
+	 * in turn.
+	 */
+	@Override
+	protected Class<?> findClass(String name) throws ClassNotFoundException {
+		if (jarIndex != null) try {
+			Class<?> result = findIndexedClass(name);
+			if (result != null)
+				return result;
+		} catch (IOException e) {
+			// fall back to searching the class path
+		} catch (IllegalStateException e) {
+			// the .jar file was closed by close() in the meantime
+		}
+		return super.findClass(name);
+	}
+
+	protected Class<?> findIndexedClass(String name) throws IOException {
+		Integer position = indexedClasses.get(name);
+		if (position == null)
+			return null;
+		String path = name.replace('.', '/') + ".class";
+		// a directory or unknown entry earlier in the class path takes precedence
+		for (int i = 0; i < position; i++) {
+			File file = classPathFiles.get(i);
+			if (file == null)
+				return null;
+			if (!file.getName().endsWith(".jar") && new File(file, path).exists())
+				return null;
+		}
+		String jarPath = classPathFiles.get(position).getAbsolutePath();
+		JarFile jar;
+		synchronized (openJars) {
+			jar = openJars.get(jarPath);
+			if (jar == null) {
+				jar = new JarFile(jarPath);
+				openJars.put(jarPath, jar);
+			}
+		}
+		JarEntry entry = jar.getJarEntry(path);
+		if (entry == null)
+			return null;
+		InputStream input = jar.getInputStream(entry);
+		byte[] buffer = readStream(input);
+		input.close();
+
+		URL url = new File(jarPath).toURI().toURL();
+		int dot = name.lastIndexOf('.');
+		if (dot > 0) {
+			String packageName = name.substring(0, dot);
+			if (getPackage(packageName) == null) {
+				Manifest manifest = jar.getManifest();
+				if (manifest != null)
+					definePackage(packageName, manifest, url);
+				else
+					definePackage(packageName, null, null, null, null, null, null, null);
+			}
+		}
+		return defineClass(name, buffer, 0, buffer.length,
+			new CodeSource(url, entry.getCodeSigners()));
+	}
+
+	/**
+	 * Closes the .jar files opened to load indexed classes, so that they are
+	 * not kept open (and locked, on Windows) until this class loader is
+	 * garbage collected. A .jar file is opened again when another class is
+	 * needed from it.
+	 *
+	 * The .jar files opened by the <code>URLClassLoader</code> are left alone;
+	 * its <code>close()</code> is only available since Java 7, and would make
+	 * this class loader unusable.
+	 */
+	public void close() {
+		if (openJars != null)
+			synchronized (openJars) {
+				for (JarFile jar : openJars.values()) try {
+					jar.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+				openJars.clear();
+			}
+	}
+
 	static byte[] readStream(InputStream input) throws IOException {
 		byte[] buffer = new byte[1024];
 		int offset = 0, len = 0;
@@ -0,0 +1,273 @@
+package fiji;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * An on-disk index of the contents of .jar files.
+ *
+ * For every .jar file, the index remembers the names of the .class files and
+ * the lines of its <i>plugins.config</i>, if any. An entry is only used as
+ * long as the size and modification time of the .jar file did not change, so
+ * that only new or changed .jar files need to be opened at startup.
+ *
+ * The index is stored in the ImageJ preferences directory; it is only written
+ * when something changed.
+ */
+public class JarIndex {
+
+	protected final static String HEADER = "# Fiji jar index 1";
+
+	/**
+	 * The indexed contents of a single .jar file.
+	 */
+	public static class Entry {
+		public final long size, lastModified;
+		/** the names of the .class entries, in the order of the .jar file */
+		public final List<String> classEntries;
+		/** the lines of the first plugins.config, or null if there is none */
+		public final List<String> pluginsConfig;
+
+		protected Entry(long size, long lastModified, List<String> classEntries, List<String> pluginsConfig) {
+			this.size = size;
+			this.lastModified = lastModified;
+			this.classEntries = classEntries;
+			this.pluginsConfig = pluginsConfig;
+		}
+
+		protected boolean isUpToDate(File file) {
+			return file.length() == size && file.lastModified() == lastModified;
+		}
+	}
+
+	private static JarIndex defaultIndex;
+
+	protected final File file;
+	protected final Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+	protected boolean dirty;
+
+	protected int hits, misses;
+	protected long loadMillis, indexMillis, saveMillis;
+
+	/**
+	 * Get the index shared by the class loader and the menu installation.
+	 */
+	public static synchronized JarIndex getDefault() {
+		if (defaultIndex == null) {
+			String path = System.getProperty("fiji.jar.index");
+			defaultIndex = new JarIndex(path != null ? new File(path) :
+				new File(OtherInstance.getPrefsDirectory(), "Fiji_JarIndex.gz"));
+		}
+		return defaultIndex;
+	}
+
+	/**
+	 * Construct an index backed by the given file, reading it if it exists.
+	 *
+	 * @param file where the index is stored
+	 */
+	public JarIndex(File file) {
+		this.file = file;
+		if (file != null && file.exists()) try {
+			long start = System.currentTimeMillis();
+			load();
+			loadMillis = System.currentTimeMillis() - start;
+		} catch (IOException e) {
+			// a broken index is simply rebuilt
+			entries.clear();
+			dirty = true;
+		}
+	}
+
+	/**
+	 * Get the indexed contents of a .jar file, reading the .jar file only if
+	 * it is not yet indexed or if it changed.
+	 *
+	 * @param jar the .jar file
+	 * @return the entry
+	 */
+	public synchronized Entry get(File jar) throws IOException {
+		String key = jar.getAbsolutePath();
+		Entry entry = entries.get(key);
+		if (entry != null && entry.isUpToDate(jar)) {
+			hits++;
+			return entry;
+		}
+		misses++;
+		long start = System.currentTimeMillis();
+		entry = read(jar);
+		indexMillis += System.currentTimeMillis() - start;
+		entries.put(key, entry);
+		dirty = true;
+		return entry;
+	}
+
+	/**
+	 * Make sure the given .jar files are indexed, and forget about .jar files
+	 * that no longer exist.
+	 *
+	 * @param jars the .jar files (other files and directories are ignored)
+	 */
+	public synchronized void update(Collection<File> jars) {
+		for (File jar : jars)
+			if (jar.getName().endsWith(".jar") && jar.isFile()) try {
+				get(jar);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		for (Iterator<String> iter = entries.keySet().iterator(); iter.hasNext(); )
+			if (!new File(iter.next()).exists()) {
+				iter.remove();
+				dirty = true;
+			}
+	}
+
+	protected static Entry read(File jar) throws IOException {
+		List<String> classEntries = new ArrayList<String>();
+		List<String> pluginsConfig = null;
+		JarFile jarFile = new JarFile(jar);
+		try {
+			Enumeration<JarEntry> list = jarFile.entries();
+			while (list.hasMoreElements()) {
+				JarEntry entry = list.nextElement();
+				String name = entry.getName();
+				if (name.endsWith(".class"))
+					classEntries.add(name);
+				else if (pluginsConfig == null && name.endsWith("plugins.config"))
+					pluginsConfig = readLines(jarFile.getInputStream(entry));
+			}
+		} finally {
+			jarFile.close();
+		}
+		return new Entry(jar.length(), jar.lastModified(), classEntries, pluginsConfig);
+	}
+
+	protected static List<String> readLines(InputStream in) throws IOException {
+		List<String> result = new ArrayList<String>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null)
+				result.add(line);
+		} finally {
+			reader.close();
+		}
+		return result;
+	}
+
+	/*
+	 * The file format is line-based:
+	 *
+	 * J <size> <mtime> <has plugins.config> <path>
+	 * C <class entry>
+	 * P <line of plugins.config>
+	 */
+	protected void load() throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(file)), "UTF-8"));
+		try {
+			if (!HEADER.equals(reader.readLine()))
+				throw new IOException("Unknown jar index format: " + file);
+			String path = null;
+			long size = 0, lastModified = 0;
+			List<String> classEntries = null, pluginsConfig = null;
+			for (;;) {
+				String line = reader.readLine();
+				if (line == null || line.startsWith("J\t")) {
+					if (path != null)
+						entries.put(path, new Entry(size, lastModified,
+							Collections.unmodifiableList(classEntries),
+							pluginsConfig == null ? null : Collections.unmodifiableList(pluginsConfig)));
+					if (line == null)
+						break;
+					String[] fields = line.split("\t", 5);
+					if (fields.length != 5)
+						throw new IOException("Invalid jar index line: " + line);
+					size = Long.parseLong(fields[1]);
+					lastModified = Long.parseLong(fields[2]);
+					pluginsConfig = fields[3].equals("1") ? new ArrayList<String>() : null;
+					path = fields[4];
+					classEntries = new ArrayList<String>();
+				}
+				else if (path == null)
+					throw new IOException("Invalid jar index line: " + line);
+				else if (line.startsWith("C\t"))
+					classEntries.add(line.substring(2));
+				else if (line.startsWith("P\t") && pluginsConfig != null)
+					pluginsConfig.add(line.substring(2));
+				else
+					throw new IOException("Invalid jar index line: " + line);
+			}
+		} catch (NumberFormatException e) {
+			throw new IOException("Invalid jar index: " + e.getMessage());
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Write the index if anything changed since it was read.
+	 */
+	public synchronized void save() {
+		if (!dirty || file == null)
+			return;
+		long start = System.currentTimeMillis();
+		File tmp = new File(file.getPath() + ".tmp");
+		try {
+			File parent = file.getParentFile();
+			if (parent != null && !parent.exists())
+				parent.mkdirs();
+			PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(tmp)), "UTF-8")));
+			out.print(HEADER + "\n");
+			for (Map.Entry<String, Entry> e : entries.entrySet()) {
+				Entry entry = e.getValue();
+				out.print("J\t" + entry.size + "\t" + entry.lastModified + "\t"
+					+ (entry.pluginsConfig == null ? "0" : "1") + "\t" + e.getKey() + "\n");
+				for (String classEntry : entry.classEntries)
+					out.print("C\t" + classEntry + "\n");
+				if (entry.pluginsConfig != null)
+					for (String line : entry.pluginsConfig)
+						out.print("P\t" + line + "\n");
+			}
+			out.close();
+			if (out.checkError())
+				throw new IOException("Could not write " + tmp);
+			if (!tmp.renameTo(file) && !(file.delete() && tmp.renameTo(file)))
+				throw new IOException("Could not rename " + tmp + " to " + file);
+			dirty = false;
+		} catch (IOException e) {
+			// the index is only a cache
+			tmp.delete();
+			System.err.println("Could not write the jar index: " + e.getMessage());
+		}
+		saveMillis += System.currentTimeMillis() - start;
+	}
+
+	/**
+	 * Get a one-line summary of how much the index saved and what it cost.
+	 */
+	public synchronized String getReport() {
+		return "jar index: " + entries.size() + " jars, "
+			+ hits + " unchanged, " + misses + " (re-)indexed in " + indexMillis + "ms, "
+			+ "loaded in " + loadMillis + "ms, saved in " + saveMillis + "ms";
+	}
+}
@@ -8,6 +8,7 @@
 
 import java.awt.Image;
 import java.awt.Toolkit;
+import java.lang.management.ManagementFactory;
 import java.lang.reflect.Field;
 
 import org.scijava.Context;
@@ -112,8 +113,10 @@ public static void premain() {
 	 * @deprecated this task is performed by {@link fiji.DefaultFijiService} now.
 	 */
 	public static void setup() {
+		long start = System.currentTimeMillis();
 		FijiTools.runPlugInGently("fiji.util.RedirectErrAndOut", null);
 		new MenuRefresher().run();
+		reportStartup(start);
 		final Runnable getImageJContext = new Runnable() {
 			@Override
 			public void run() {
@@ -145,6 +148,23 @@ public void run() {
 		}
 	}
 
+	/**
+	 * Logs how long the startup took, and how much the {@link JarIndex}
+	 * helped, if the system property <i>fiji.startup.report</i> is set to
+	 * <i>true</i>.
+	 *
+	 * @param setupStart when {@link #setup()} was called
+	 */
+	protected static void reportStartup(long setupStart) {
+		if (!Boolean.getBoolean("fiji.startup.report"))
+			return;
+		long now = System.currentTimeMillis();
+		long jvmStart = ManagementFactory.getRuntimeMXBean().getStartTime();
+		IJ.log("Startup took " + (now - jvmStart) + "ms, "
+			+ (now - setupStart) + "ms of which installing the menus; "
+			+ JarIndex.getDefault().getReport());
+	}
+
 	@Deprecated
 	public static void postmain() { }
 
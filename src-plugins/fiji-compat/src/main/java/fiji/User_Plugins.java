@@ -14,11 +14,8 @@
 import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Enumeration;
 import java.util.Iterator;
 import java.util.List;
-import java.util.jar.JarEntry;
-import java.util.jar.JarFile;
 
 /**
  * A class to find user plugins, i.e. plugins not inside Fiji.app/plugins/
@@ -79,6 +76,7 @@ public void run(String arg) {
 		new MenuRefresher().run(arg);
 
 		installPlugins(path, "", menuPath);
+		JarIndex.getDefault().save();
 	}
 
 	/**
@@ -149,6 +147,9 @@ else if (name.endsWith(".jar")) try {
 	/**
 	 * Parse the plugins.config for a given .jar file
 	 *
+	 * The .jar file is only opened if it is not yet in the {@link JarIndex}
+	 * or if it changed since it was indexed.
+	 *
 	 * If there is no plugins.config, this method lists all the classes whose
 	 * file names have underscores , putting the menu items into the menu
 	 * specified by a menu path.
@@ -158,21 +159,14 @@ else if (name.endsWith(".jar")) try {
 	 */
 	public List<String[]> getJarPluginList(File jarFile, String menuPath)
 			throws IOException {
+		JarIndex.Entry entry = JarIndex.getDefault().get(jarFile);
+		if (entry.pluginsConfig != null)
+			return parsePluginsConfig(entry.pluginsConfig, menuPath);
 		List<String[]> result = new ArrayList<String[]>();
-		JarFile jar = new JarFile(jarFile);
-		Enumeration<JarEntry> entries = jar.entries();
-		while (entries.hasMoreElements()) {
-			JarEntry entry = (JarEntry)entries.nextElement();
-			String name = entry.getName();
-			if (name.endsWith("plugins.config"))
-				return parsePluginsConfig(jar
-					.getInputStream(entry), menuPath);
+		for (String name : entry.classEntries) {
 			if (name.indexOf('_') < 0 || name.indexOf('$') >= 0)
 				continue;
-			if (name.endsWith(".class"))
-				name = name.substring(0, name.length() - 6).replace('/', '.');
-			else
-				continue;
+			name = name.substring(0, name.length() - 6).replace('/', '.');
 			String[] item = new String[3];
 			item[0] = menuPath;
 			item[1] = makeLabel(name);
@@ -184,11 +178,19 @@ public List<String[]> getJarPluginList(File jarFile, String menuPath)
 
 	protected List<String[]> parsePluginsConfig(InputStream in, String menuPath)
 			throws IOException {
-		List<String[]> result = new ArrayList<String[]>();
+		List<String> lines = new ArrayList<String>();
 		BufferedReader reader =
 			new BufferedReader(new InputStreamReader(in));
 		String line;
-		while ((line = reader.readLine()) != null) {
+		while ((line = reader.readLine()) != null)
+			lines.add(line);
+		in.close();
+		return parsePluginsConfig(lines, menuPath);
+	}
+
+	protected List<String[]> parsePluginsConfig(List<String> lines, String menuPath) {
+		List<String[]> result = new ArrayList<String[]>();
+		for (String line : lines) {
 			if (line.startsWith("#"))
 				continue;
 			int quote = line.indexOf('"'),
@@ -207,7 +209,6 @@ protected List<String[]> parsePluginsConfig(InputStream in, String menuPath)
 				item[2] = item[2].substring(1).trim();
 			result.add(item);
 		}
-		in.close();
 		return result;
 	}
 
@@ -0,0 +1,86 @@
+package common;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ *  Remembers the compiled form of script files, so that a script which
+ *  is run again without being changed need not be parsed and compiled
+ *  again.
+ *
+ *  Entries are keyed by the absolute path of the script and are only
+ *  valid as long as the file's modification time and length stay the
+ *  same.  The least recently used entries are dropped when the cache
+ *  is full.
+ */
+public class CompiledScriptCache<C> {
+
+	/** Compiles the source of a script. */
+	public interface Compiler<C> {
+		C compile(String source, String path) throws Exception;
+	}
+
+	protected static class CachedScript<C> {
+		final long lastModified, length;
+		final C compiled;
+
+		CachedScript(long lastModified, long length, C compiled) {
+			this.lastModified = lastModified;
+			this.length = length;
+			this.compiled = compiled;
+		}
+	}
+
+	protected final Map<String, CachedScript<C>> entries;
+	protected int hits, misses;
+
+	public CompiledScriptCache(final int capacity) {
+		entries = new LinkedHashMap<String, CachedScript<C>>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			protected boolean removeEldestEntry(Map.Entry<String, CachedScript<C>> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	/**
+	 * Returns the compiled script, compiling it if it is not cached or
+	 * if the file changed since it was compiled.
+	 *
+	 * @return the compiled script, or null if the file could not be read
+	 */
+	public C get(File file, Compiler<C> compiler) throws Exception {
+		String path = file.getAbsolutePath();
+		// stat the file before reading it, so that a change while
+		// compiling makes the entry stale rather than wrong
+		long lastModified = file.lastModified();
+		long length = file.length();
+		synchronized (this) {
+			CachedScript<C> entry = entries.get(path);
+			if (entry != null && entry.lastModified == lastModified && entry.length == length) {
+				hits++;
+				return entry.compiled;
+			}
+			misses++;
+		}
+
+		String source = RefreshScripts.openTextFile(path);
+		if (source == null)
+			return null;
+		C compiled = compiler.compile(source, path);
+		synchronized (this) {
+			entries.put(path, new CachedScript<C>(lastModified, length, compiled));
+		}
+		return compiled;
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+	}
+
+	public synchronized String getStatistics() {
+		return entries.size() + " cached script(s), " + hits + " hit(s), " + misses + " miss(es)";
+	}
+}
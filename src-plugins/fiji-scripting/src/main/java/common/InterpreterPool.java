@@ -0,0 +1,207 @@
+package common;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ *  A pool of ready-to-use interpreters of one scripting language.
+ *
+ *  Creating an interpreter and importing the ImageJ classes into it
+ *  often takes much longer than running a small script.  Instead of
+ *  throwing the interpreter away after each run, it is reset with
+ *  {@link #reset(Object)} and kept for the next script.  After the
+ *  first (cold) start, an interpreter is created in the background so
+ *  that the next run finds one waiting.
+ *
+ *  The pool counts cold and warm starts and the time from
+ *  {@link #acquire()} to {@link #release(Object)} for both, see
+ *  {@link #getStatistics()}; the scripting plugins log them in debug
+ *  mode.
+ *
+ *  Subclasses must make sure that nothing a script defines survives
+ *  {@link #reset(Object)}; if an interpreter cannot be reset, it is
+ *  discarded instead.
+ */
+public abstract class InterpreterPool<I> {
+
+	protected final String language;
+	protected final int maxIdle;
+
+	protected final LinkedList<I> idle = new LinkedList<I>();
+	protected final Map<I, Lease> leased = new IdentityHashMap<I, Lease>();
+	protected int warming;
+
+	protected int coldStarts, warmStarts, discarded;
+	protected long coldNanos, warmNanos, creationNanos;
+
+	protected static class Lease {
+		final long start = System.nanoTime();
+		final boolean warm;
+
+		Lease(boolean warm) {
+			this.warm = warm;
+		}
+	}
+
+	/**
+	 * @param language the name of the language, used in the statistics
+	 * @param maxIdle how many idle interpreters to keep at most
+	 */
+	public InterpreterPool(String language, int maxIdle) {
+		this.language = language;
+		this.maxIdle = Math.max(0, maxIdle);
+	}
+
+	/** Creates a new interpreter, ready to run a script. */
+	protected abstract I create() throws Exception;
+
+	/** Removes whatever the last script left in the interpreter. */
+	protected abstract void reset(I interpreter) throws Exception;
+
+	/** Releases the resources of an interpreter which is not reused. */
+	protected void dispose(I interpreter) {}
+
+	/**
+	 * Returns an idle interpreter, or a new one if there is none.
+	 * Every interpreter obtained here must be handed back with
+	 * {@link #release(Object)} or {@link #discard(Object)}.
+	 */
+	public I acquire() throws Exception {
+		I interpreter = null;
+		synchronized (this) {
+			if (!idle.isEmpty()) {
+				interpreter = idle.removeFirst();
+				leased.put(interpreter, new Lease(true));
+			}
+		}
+		if (interpreter == null) {
+			Lease lease = new Lease(false);
+			interpreter = createTimed();
+			synchronized (this) {
+				leased.put(interpreter, lease);
+			}
+		}
+		prewarm();
+		return interpreter;
+	}
+
+	/**
+	 * Hands back an interpreter after a script ran; it is reset and kept
+	 * for the next script, unless enough interpreters are idle already.
+	 */
+	public void release(I interpreter) {
+		if (interpreter == null)
+			return;
+		if (!finish(interpreter))
+			return;
+		try {
+			reset(interpreter);
+		} catch (Throwable t) {
+			// cannot be cleaned up, so do not reuse it
+			dispose(interpreter);
+			synchronized (this) {
+				discarded++;
+			}
+			return;
+		}
+		offer(interpreter);
+	}
+
+	/** Hands back an interpreter which must not be reused, e.g. after an error. */
+	public void discard(I interpreter) {
+		if (interpreter == null)
+			return;
+		if (!finish(interpreter))
+			return;
+		dispose(interpreter);
+		synchronized (this) {
+			discarded++;
+		}
+	}
+
+	/** Disposes of all idle interpreters. */
+	public void clear() {
+		List<I> list;
+		synchronized (this) {
+			list = new ArrayList<I>(idle);
+			idle.clear();
+		}
+		for (I interpreter : list)
+			dispose(interpreter);
+	}
+
+	private synchronized boolean finish(I interpreter) {
+		Lease lease = leased.remove(interpreter);
+		if (lease == null)
+			return false;
+		long nanos = System.nanoTime() - lease.start;
+		if (lease.warm) {
+			warmStarts++;
+			warmNanos += nanos;
+		} else {
+			coldStarts++;
+			coldNanos += nanos;
+		}
+		return true;
+	}
+
+	private void offer(I interpreter) {
+		synchronized (this) {
+			if (idle.size() < maxIdle) {
+				idle.addLast(interpreter);
+				return;
+			}
+		}
+		dispose(interpreter);
+	}
+
+	private I createTimed() throws Exception {
+		long start = System.nanoTime();
+		I interpreter = create();
+		synchronized (this) {
+			creationNanos += System.nanoTime() - start;
+		}
+		return interpreter;
+	}
+
+	/** Creates an interpreter in the background if none is idle. */
+	protected void prewarm() {
+		synchronized (this) {
+			if (idle.size() + warming >= Math.min(1, maxIdle))
+				return;
+			warming++;
+		}
+		Thread thread = new Thread("Warm up " + language + " interpreter") {
+			public void run() {
+				I interpreter = null;
+				try {
+					interpreter = createTimed();
+				} catch (Throwable t) {
+					t.printStackTrace();
+				} finally {
+					synchronized (InterpreterPool.this) {
+						warming--;
+					}
+				}
+				if (interpreter != null)
+					offer(interpreter);
+			}
+		};
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MIN_PRIORITY);
+		thread.start();
+	}
+
+	/** Returns the start counts and average times of this pool. */
+	public synchronized String getStatistics() {
+		return language + ": " + coldStarts + " cold start(s)"
+			+ (coldStarts > 0 ? ", " + (coldNanos / coldStarts / 1000000) + " ms each" : "")
+			+ "; " + warmStarts + " warm start(s)"
+			+ (warmStarts > 0 ? ", " + (warmNanos / warmStarts / 1000000) + " ms each" : "")
+			+ "; " + (creationNanos / 1000000) + " ms spent creating interpreters"
+			+ "; " + idle.size() + " idle, " + discarded + " discarded";
+	}
+}
@@ -101,6 +101,49 @@ public static double[] convolveIIR(double[] input, double poles[]) {
 		return output;
 	}
 
+	/**
+	* Convolve several signals at once with a Infinite Impluse Response
+	* filter (IIR), in place. The signals are interleaved: the sample n of
+	* the signal c is block[n*count+c]. Each signal gives exactly the same
+	* values as convolveIIR(double[], double[]), but the inner loops run
+	* over adjacent memory and no array is allocated.
+	*
+	* @param block  	interleaved 1D input signals, replaced by the output
+	* @param count  	number of signals
+	* @param length  	length of the signals, at least 2
+	* @param poles    	1D array containing the poles of the filter
+	*/
+	public static void convolveIIR(double[] block, int count, int length, double poles[]) {
+		double lambda = 1.0;
+		int l = length;
+		int last = (l-1)*count;
+		for (int k = 0; k < poles.length; k++) {
+			lambda = lambda * (1.0 - poles[k]) * (1.0 - 1.0 / poles[k]);
+		}
+		for (int i = 0; i < l*count; i++) {
+			block[i] = block[i] * lambda;
+		}
+		for (int k = 0; k < poles.length; k++) {
+			double z = poles[k];
+			getInitialCausalCoefficientMirror(block, count, l, z);
+			for (int n = 1; n < l; n++) {
+				int i = n*count;
+				for (int c = 0; c < count; c++, i++) {
+					block[i] = block[i] + z * block[i - count];
+				}
+			}
+			for (int c = 0; c < count; c++) {
+				block[last+c] = (z * block[last-count+c] + block[last+c]) * z / (z * z - 1.0);
+			}
+			for (int n = l - 2; 0 <= n; n--) {
+				int i = n*count;
+				for (int c = 0; c < count; c++, i++) {
+					block[i] = z * (block[i+count] - block[i]);
+				}
+			}
+		}
+	}
+
 	/**
 	* Convolve a 1D signal with a Infinite Impluse Response 2nd order (IIR2)
 	*
@@ -188,6 +231,40 @@ private static double getInitialAntiCausalCoefficientMirror(double[] c, double z
 		return((z * c[c.length - 2] + c[c.length - 1]) * z / (z * z - 1.0));
 	}
 
+	/**
+	 * Interleaved version of getInitialCausalCoefficientMirror, stores the
+	 * coefficients in the first sample of each signal.
+	 */
+	private static void getInitialCausalCoefficientMirror(double[] block, int count, int length, double z) 
+	{
+		int last = (length-1)*count;
+		double zn = Math.pow(z, length - 1);
+		for (int c = 0; c < count; c++) {
+			block[c] = block[c] + zn * block[last+c];
+		}
+		int horizon = length;
+
+		if (0.0 < tolerance) {
+			horizon = 2 + (int)(Math.log(tolerance) / Math.log(Math.abs(z)));
+			horizon = (horizon < length) ? (horizon) : (length);
+		}
+		double z1 = z;
+		zn = zn * zn;
+		for (int n = 1; (n < (horizon - 1)); n++) {
+			zn = zn / z;
+			double w = z1 + zn;
+			int i = n*count;
+			for (int c = 0; c < count; c++, i++) {
+				block[c] = block[c] + w * block[i];
+			}
+			z1 = z1 * z;
+		}
+		double d = 1.0 - Math.pow(z, 2 * length - 2);
+		for (int c = 0; c < count; c++) {
+			block[c] = block[c] / d;
+		}
+	}
+
 	/**
 	 */
 	private static double getInitialCausalCoefficientMirror(double[] c, double z) 
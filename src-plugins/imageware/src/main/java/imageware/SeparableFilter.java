@@ -0,0 +1,186 @@
+package imageware;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Class SeparableFilter.
+ * Separable IIR filtering of the data of an imageware, shared by the
+ * Process classes of all the types.
+ *
+ * The lines are filtered by blocks of adjacent lines: for the Y and Z
+ * axis, a block is read row by row, so that the memory is walked
+ * contiguously instead of with a stride of nx or nxy. The blocks are
+ * distributed over several threads, each thread reuses its own buffer.
+ */
+
+class SeparableFilter extends Object {
+
+	/** Number of lines filtered together. */
+	private static final int BLOCK = 32;
+
+	/** Below this number of pixels, the filtering stays in the calling thread. */
+	private static final int MIN_PARALLEL_SIZE = 1 << 16;
+
+	/**
+	* Apply a separable gaussian smoothing, see Process.smoothGaussian.
+	*
+	* @param data		slices of the imageware, byte, short, float or double arrays
+	* @param nx			size in X axis
+	* @param ny			size in Y axis
+	* @param nz			size in Z axis
+	* @param sigmaX		Strengthness of the smoothing in X axis
+	* @param sigmaY		Strengthness of the smoothing in Y axis
+	* @param sigmaZ		Strengthness of the smoothing in Z axis
+	*/
+	public static void smoothGaussian(Object[] data, int nx, int ny, int nz,
+			double sigmaX, double sigmaY, double sigmaZ) {
+		if (nx > 1 && sigmaX > 0.0) {
+			filter(data, nx, ny, nz, 0, gaussianPoles(sigmaX));
+		}
+		if (ny > 1 && sigmaY > 0.0) {
+			filter(data, nx, ny, nz, 1, gaussianPoles(sigmaY));
+		}
+		if (nz > 1 && sigmaZ > 0.0) {
+			filter(data, nx, ny, nz, 2, gaussianPoles(sigmaZ));
+		}
+	}
+
+	/**
+	*/
+	private static double[] gaussianPoles(double sigma) {
+		int n = 3;
+		double N = (double)n;
+		double s2 = sigma * sigma;
+		double alpha = 1.0 + (N/s2) - (Math.sqrt(N*N+2*N*s2)/s2);
+		double poles[] = new double[n];
+		poles[0] = poles[1] = poles[2] = alpha;
+		return poles;
+	}
+
+	/**
+	* Filter all the lines along one axis (0, 1 or 2 for X, Y or Z).
+	*/
+	private static void filter(final Object[] data, final int nx, final int ny, final int nz,
+			final int axis, final double[] poles) {
+		final int length = (axis == 0 ? nx : (axis == 1 ? ny : nz));
+		// lines of a block are adjacent rows for X, adjacent columns for Y and Z
+		final int across = (axis == 0 ? ny : nx);
+		final int outer = (axis == 2 ? ny : nz);
+		final int blocksPerOuter = (across + BLOCK - 1) / BLOCK;
+		final int nblocks = blocksPerOuter * outer;
+		final AtomicInteger next = new AtomicInteger(0);
+
+		Runnable worker = new Runnable() {
+			public void run() {
+				double[] block = new double[length * BLOCK];
+				for (int b = next.getAndIncrement(); b < nblocks; b = next.getAndIncrement()) {
+					int o = b / blocksPerOuter;
+					int first = (b % blocksPerOuter) * BLOCK;
+					int count = Math.min(BLOCK, across - first);
+					switch (axis) {
+					case 0:
+						for (int c = 0; c < count; c++) {
+							read(data[o], (first + c) * nx, 1, block, c, count, length);
+						}
+						Convolver.convolveIIR(block, count, length, poles);
+						for (int c = 0; c < count; c++) {
+							write(data[o], (first + c) * nx, 1, block, c, count, length);
+						}
+						break;
+					case 1:
+						for (int y = 0; y < ny; y++) {
+							read(data[o], y * nx + first, 1, block, y * count, 1, count);
+						}
+						Convolver.convolveIIR(block, count, length, poles);
+						for (int y = 0; y < ny; y++) {
+							write(data[o], y * nx + first, 1, block, y * count, 1, count);
+						}
+						break;
+					default:
+						for (int z = 0; z < nz; z++) {
+							read(data[z], o * nx + first, 1, block, z * count, 1, count);
+						}
+						Convolver.convolveIIR(block, count, length, poles);
+						for (int z = 0; z < nz; z++) {
+							write(data[z], o * nx + first, 1, block, z * count, 1, count);
+						}
+						break;
+					}
+				}
+			}
+		};
+
+		int nthreads = Math.min(nblocks, Runtime.getRuntime().availableProcessors());
+		if (nthreads <= 1 || (double)nx * ny * nz < MIN_PARALLEL_SIZE) {
+			worker.run();
+			return;
+		}
+		Thread[] threads = new Thread[nthreads];
+		for (int t = 0; t < nthreads; t++) {
+			threads[t] = new Thread(worker);
+			threads[t].start();
+		}
+		try {
+			for (int t = 0; t < nthreads; t++) {
+				threads[t].join();
+			}
+		}
+		catch (InterruptedException e) {
+			next.set(nblocks);
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	* Read n pixels of a slice, starting at offset and stride apart, into
+	* block[start], block[start+step], ...
+	*/
+	private static void read(Object slice, int offset, int stride, double[] block, int start, int step, int n) {
+		if (slice instanceof byte[]) {
+			byte[] tmp = (byte[])slice;
+			for (int i = 0; i < n; i++, offset += stride, start += step)
+				block[start] = (double)(tmp[offset] & 0xFF);
+		}
+		else if (slice instanceof short[]) {
+			short[] tmp = (short[])slice;
+			for (int i = 0; i < n; i++, offset += stride, start += step)
+				block[start] = (double)(tmp[offset] & 0xffff);
+		}
+		else if (slice instanceof float[]) {
+			float[] tmp = (float[])slice;
+			for (int i = 0; i < n; i++, offset += stride, start += step)
+				block[start] = (double)(tmp[offset]);
+		}
+		else {
+			double[] tmp = (double[])slice;
+			for (int i = 0; i < n; i++, offset += stride, start += step)
+				block[start] = tmp[offset];
+		}
+	}
+
+	/**
+	* Write back n pixels, converted as by the putX methods of the buffers.
+	*/
+	private static void write(Object slice, int offset, int stride, double[] block, int start, int step, int n) {
+		if (slice instanceof byte[]) {
+			byte[] tmp = (byte[])slice;
+			for (int i = 0; i < n; i++, offset += stride, start += step)
+				tmp[offset] = (byte)(block[start]);
+		}
+		else if (slice instanceof short[]) {
+			short[] tmp = (short[])slice;
+			for (int i = 0; i < n; i++, offset += stride, start += step)
+				tmp[offset] = (short)(block[start]);
+		}
+		else if (slice instanceof float[]) {
+			float[] tmp = (float[])slice;
+			for (int i = 0; i < n; i++, offset += stride, start += step)
+				tmp[offset] = (float)(block[start]);
+		}
+		else {
+			double[] tmp = (double[])slice;
+			for (int i = 0; i < n; i++, offset += stride, start += step)
+				tmp[offset] = block[start];
+		}
+	}
+}
@@ -0,0 +1,137 @@
+/**
+ * License: GPL
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License 2
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package mpicbg.panorama;
+
+import ij.Prefs;
+import ij.process.ImageProcessor;
+import ij.util.ThreadUtil;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import mpicbg.ij.InverseTransformMapping;
+
+/**
+ * Maps an equirectangular panorama into the view of an
+ * {@link EquirectangularProjection}, with the same result as an
+ * {@link InverseTransformMapping}.  The rays through the target pixels
+ * are taken from the projection's cache, so that only the rotation and
+ * the projection into the panorama are computed per pixel, and bands of
+ * rows are mapped concurrently.
+ *
+ * With a step larger than 1, only every step'th pixel of every step'th
+ * row is mapped and its value fills the step&times;step block below and
+ * right of it, for a quick draft.
+ */
+public class EquirectangularMapping extends InverseTransformMapping< EquirectangularProjection >
+{
+	/* rows per band, a multiple of any reasonable step */
+	final static private int BAND_HEIGHT = 24;
+
+	private int step = 1;
+	final public int getStep(){ return step; }
+	final public void setStep( final int step ){ this.step = Math.max( 1, step ); }
+
+	public EquirectangularMapping( final EquirectangularProjection t )
+	{
+		super( t );
+	}
+
+	//@Override
+	public void map(
+			final ImageProcessor source,
+			final ImageProcessor target )
+	{
+		mapBands( source, target, false );
+	}
+
+	//@Override
+	public void mapInterpolated(
+			final ImageProcessor source,
+			final ImageProcessor target )
+	{
+		mapBands( source, target, true );
+	}
+
+	final private void mapBands(
+			final ImageProcessor source,
+			final ImageProcessor target,
+			final boolean interpolate )
+	{
+		final int s = step;
+		final float[] rays = transform.getRays( target.getWidth(), target.getHeight() );
+		final int height = target.getHeight();
+		final int bandHeight = ( BAND_HEIGHT + s - 1 ) / s * s;
+		final int bands = ( height + bandHeight - 1 ) / bandHeight;
+		final AtomicInteger ai = new AtomicInteger( 0 );
+		final Thread[] threads = ThreadUtil.createThreadArray( Math.max( 1, Math.min( bands, Prefs.getThreads() ) ) );
+		for ( int ithread = 0; ithread < threads.length; ++ithread )
+			threads[ ithread ] = new Thread()
+			{
+				public void run()
+				{
+					for ( int b = ai.getAndIncrement(); b < bands; b = ai.getAndIncrement() )
+						mapRows( source, target, rays, b * bandHeight, Math.min( height, ( b + 1 ) * bandHeight ), s, interpolate );
+				}
+			};
+		ThreadUtil.startAndJoin( threads );
+	}
+
+	final private void mapRows(
+			final ImageProcessor source,
+			final ImageProcessor target,
+			final float[] rays,
+			final int y0,
+			final int y1,
+			final int s,
+			final boolean interpolate )
+	{
+		final float[] t = new float[ 2 ];
+		final int sw = source.getWidth() - 1;
+		final int sh = source.getHeight() - 1;
+		final int tw = target.getWidth();
+		for ( int y = y0; y < y1; y += s )
+		{
+			final int yMax = Math.min( y + s, y1 );
+			for ( int x = 0; x < tw; x += s )
+			{
+				final int r = 3 * ( y * tw + x );
+				transform.applyInverseRay( rays[ r ], rays[ r + 1 ], rays[ r + 2 ], t );
+				final int value;
+				if ( interpolate )
+				{
+					final float tx = t[ 0 ];
+					final float ty = t[ 1 ];
+					if ( !( tx >= 0 && tx <= sw && ty >= 0 && ty <= sh ) )
+						continue;
+					value = source.getPixelInterpolated( tx, ty );
+				}
+				else
+				{
+					final int tx = ( int )( t[ 0 ] + 0.5f );
+					final int ty = ( int )( t[ 1 ] + 0.5f );
+					if ( !( tx >= 0 && tx <= sw && ty >= 0 && ty <= sh ) )
+						continue;
+					value = source.getPixel( tx, ty );
+				}
+				final int xMax = Math.min( x + s, tw );
+				for ( int yy = y; yy < yMax; ++yy )
+					for ( int xx = x; xx < xMax; ++xx )
+						target.putPixel( xx, yy, value );
+			}
+		}
+	}
+}
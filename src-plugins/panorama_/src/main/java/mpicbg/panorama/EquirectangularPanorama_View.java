@@ -7,8 +7,6 @@
 import ij.plugin.PlugIn;
 import ij.process.*;
 
-import mpicbg.ij.InverseTransformMapping;
-import mpicbg.ij.Mapping;
 import mpicbg.models.NoninvertibleModelException;
 import mpicbg.util.Util;
 
@@ -145,12 +143,14 @@ final private class MappingThread extends Thread
 		final protected ImageProcessor source;
 		final protected ImageProcessor target;
 		final protected ImageProcessor temp;
-		final protected Mapping< EquirectangularProjection > mapping;
+		final protected EquirectangularMapping mapping;
 		final protected EquirectangularProjection p;
 		private boolean interpolate = true;
 		private boolean visualize = true;
 		private boolean pleaseRepaint;
 		private boolean keepPainting;
+		/* draw a draft while the view keeps changing, i.e. while dragging */
+		private boolean draft;
 		private float dt = 1;
 		
 		public MappingThread(
@@ -158,7 +158,7 @@ public MappingThread(
 				final ImagePlus impTarget,
 				final ImageProcessor source,
 				final ImageProcessor target,
-				final Mapping< EquirectangularProjection > mapping,
+				final EquirectangularMapping mapping,
 				final EquirectangularProjection p )
 		{
 			this.impSource = impSource;
@@ -181,6 +181,7 @@ final public void run()
 				synchronized ( this )
 				{
 					b = pleaseRepaint;
+					draft = keepPainting;
 					pleaseRepaint = keepPainting;
 				}
 				if ( b )
@@ -195,10 +196,20 @@ final public void run()
 					
 					mapping.getTransform().set( p );
 					temp.reset();
-					if ( interpolate )
-						mapping.mapInterpolated( source, temp );
-					else
+					if ( draft )
+					{
+						/* every draftStep'th pixel, the full view follows when dragging stops */
+						mapping.setStep( draftStep );
 						mapping.map( source, temp );
+					}
+					else
+					{
+						mapping.setStep( 1 );
+						if ( interpolate )
+							mapping.mapInterpolated( source, temp );
+						else
+							mapping.map( source, temp );
+					}
 					
 					final Object targetPixels = target.getPixels();
 					target.setPixels( temp.getPixels() );
@@ -257,7 +268,8 @@ final public void toggleVisualization()
 	
 	final private EquirectangularProjection p = new EquirectangularProjection();
 	final static private float step = ( float )Math.PI / 180;
-	final private Mapping< EquirectangularProjection > mapping = new InverseTransformMapping< EquirectangularProjection >( p.clone() );
+	final private EquirectangularMapping mapping = new EquirectangularMapping( p.clone() );
+	final static private int draftStep = 3;
 	
 	private float lambda = 0;
 	private float phi = 0;
@@ -45,6 +45,63 @@ final static private float sqrt( final float alpha )
 	final public float getMinPhi(){ return minPhi; }
 	final public void setMinPhi( final float minPhi ){ this.minPhi = minPhi; }
 	
+	/* the rays through the target pixels, for the focal length and target size they were computed for */
+	private float[] rays = null;
+	private float raysF = 0;
+	private int raysWidth = 0;
+	private int raysHeight = 0;
+	private float raysTargetWidth = 0;
+	private float raysTargetHeight = 0;
+	private float raysTargetMaxSize = 0;
+	
+	/**
+	 * Get the unit vectors through the centers of the pixels of a
+	 * width&times;height target, before rotation, as x, y, z triples in
+	 * row order.  They depend on the focal length and the target size
+	 * only, so they are computed once and re-used until one of these
+	 * changes.  Passing a ray to
+	 * {@link #applyInverseRay(float, float, float, float[])} gives the
+	 * same result as {@link #applyInverseInPlace(float[])} for its pixel.
+	 * 
+	 * @param width
+	 * @param height
+	 * @return the rays, which must not be modified
+	 */
+	final synchronized public float[] getRays( final int width, final int height )
+	{
+		if (
+				rays == null ||
+				raysF != f ||
+				raysWidth != width ||
+				raysHeight != height ||
+				raysTargetWidth != targetWidth ||
+				raysTargetHeight != targetHeight ||
+				raysTargetMaxSize != targetMaxSize )
+		{
+			if ( rays == null || rays.length != 3 * width * height )
+				rays = new float[ 3 * width * height ];
+			for ( int yi = 0, r = 0; yi < height; ++yi )
+			{
+				final float y = ( yi - 0.5f * targetHeight ) / targetMaxSize;
+				for ( int xi = 0; xi < width; ++xi )
+				{
+					final float x = ( xi - 0.5f * targetWidth ) / targetMaxSize;
+					final float t = 1.0f / sqrt( x * x + y * y + f * f );
+					rays[ r++ ] = t * x;
+					rays[ r++ ] = t * y;
+					rays[ r++ ] = t * f;
+				}
+			}
+			raysF = f;
+			raysWidth = width;
+			raysHeight = height;
+			raysTargetWidth = targetWidth;
+			raysTargetHeight = targetHeight;
+			raysTargetMaxSize = targetMaxSize;
+		}
+		return rays;
+	}
+	
 	//@Override
 	final public float[] apply( final float[] point )
 	{
@@ -86,10 +143,21 @@ final public void applyInverseInPlace( final float[] point ) throws Noninvertibl
 		/* calculate sphere cut */
 		final float t = 1.0f / sqrt( x * x + y * y + f * f );
 		
-		final float tx = t * x;
-		final float ty = t * y;
-		final float tz = t * f;
-		
+		applyInverseRay( t * x, t * y, t * f, point );
+	}
+	
+	/**
+	 * Rotate a ray through the target and project it into the
+	 * equirectangular map.
+	 * 
+	 * @param tx
+	 * @param ty
+	 * @param tz the unit vector through a target pixel, as given by
+	 *   {@link #getRays(int, int)}
+	 * @param point receives the coordinates in the map
+	 */
+	final public void applyInverseRay( final float tx, final float ty, final float tz, final float[] point )
+	{
 		/* rotate */
 		final float rx = i.m00 * tx + i.m01 * ty  + i.m02 * tz;
 		final float ry = i.m10 * tx + i.m11 * ty  + i.m12 * tz;
@@ -16,7 +16,12 @@
  */
 package mpicbg.panorama;
 
+import ij.Prefs;
 import ij.process.ImageProcessor;
+import ij.util.ThreadUtil;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
 import mpicbg.ij.InverseTransformMapping;
 import mpicbg.models.InverseCoordinateTransform;
 import mpicbg.models.NoninvertibleModelException;
@@ -34,17 +39,60 @@ public HomogeneousMapping( final T t )
 		super( t );
 	}
 	
+	/* rows per band mapped by one thread */
+	final static private int BAND_HEIGHT = 16;
+	
 	//@Override
 	public void map(
 			final ImageProcessor source,
 			final ImageProcessor target )
+	{
+		mapBands( source, target, false );
+	}
+	
+	/**
+	 * Maps bands of BAND_HEIGHT rows concurrently.
+	 */
+	final private void mapBands(
+			final ImageProcessor source,
+			final ImageProcessor target,
+			final boolean interpolate )
+	{
+		final int height = target.getHeight();
+		final int bandHeight = BAND_HEIGHT;
+		final int bands = ( height + bandHeight - 1 ) / bandHeight;
+		final AtomicInteger ai = new AtomicInteger( 0 );
+		final Thread[] threads = ThreadUtil.createThreadArray( Math.max( 1, Math.min( bands, Prefs.getThreads() ) ) );
+		for ( int ithread = 0; ithread < threads.length; ++ithread )
+			threads[ ithread ] = new Thread()
+			{
+				public void run()
+				{
+					for ( int b = ai.getAndIncrement(); b < bands; b = ai.getAndIncrement() )
+					{
+						final int y0 = b * bandHeight;
+						final int y1 = Math.min( height, y0 + bandHeight );
+						if ( interpolate )
+							mapInterpolatedRows( source, target, y0, y1 );
+						else
+							mapRows( source, target, y0, y1 );
+					}
+				}
+			};
+		ThreadUtil.startAndJoin( threads );
+	}
+	
+	final private void mapRows(
+			final ImageProcessor source,
+			final ImageProcessor target,
+			final int y0,
+			final int y1 )
 	{
 		final float[] t = new float[ 3 ];
 		final int sw = source.getWidth() - 1;
 		final int sh = source.getHeight() - 1;
 		final int tw = target.getWidth();
-		final int th = target.getHeight();
-		for ( int y = 0; y < th; ++y )
+		for ( int y = y0; y < y1; ++y )
 		{
 			final int row = tw * y;
 			for ( int x = 0; x < tw; ++x )
@@ -75,13 +123,21 @@ public void map(
 	public void mapInterpolated(
 			final ImageProcessor source,
 			final ImageProcessor target )
+	{
+		mapBands( source, target, true );
+	}
+	
+	final private void mapInterpolatedRows(
+			final ImageProcessor source,
+			final ImageProcessor target,
+			final int y0,
+			final int y1 )
 	{
 		final float[] t = new float[ 3 ];
 		final int sw = source.getWidth() - 1;
 		final int sh = source.getHeight() - 1;
 		final int tw = target.getWidth();
-		final int th = target.getHeight();
-		for ( int y = 0; y < th; ++y )
+		for ( int y = y0; y < y1; ++y )
 		{
 			for ( int x = 0; x < tw; ++x )
 			{